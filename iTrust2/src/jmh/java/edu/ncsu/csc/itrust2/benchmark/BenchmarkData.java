@@ -0,0 +1,67 @@
+package edu.ncsu.csc.itrust2.benchmark;
+
+import java.sql.SQLException;
+
+import edu.ncsu.csc.itrust2.models.persistent.Hospital;
+import edu.ncsu.csc.itrust2.utils.SyntheticDataGenerator;
+
+/**
+ * Seeds the database the benchmarks run against with SyntheticDataGenerator:
+ * the data HibernateDataGenerator makes for the tests, plus a number of
+ * patients, each with general checkups (and their diagnoses, prescriptions and
+ * lab procedures) and log entries, so that the queries being measured have
+ * realistic amounts of data to go through. The generator works from a fixed
+ * seed, so two runs at the same scale measure the same data.
+ *
+ * Seeding is skipped if the database already holds the data for the scale
+ * asked for, so that benchmarks in the same run (and later runs) share it.
+ */
+public class BenchmarkData {
+
+    /** Hospital whose address records the scale of the seeded data */
+    static final String HOSPITAL = "Benchmark Hospital";
+
+    /**
+     * Name of the i'th generated patient
+     *
+     * @param i
+     *            Which patient
+     * @return The username
+     */
+    static String patientName ( final int i ) {
+        return SyntheticDataGenerator.patientName( i );
+    }
+
+    /**
+     * Makes sure the database holds the data for the scale given, rebuilding
+     * it if it does not
+     *
+     * @param patients
+     *            Number of patients
+     * @param visitsPerPatient
+     *            Average general checkups for each patient
+     * @param logsPerPatient
+     *            Average log entries for each patient
+     */
+    public static synchronized void seed ( final int patients, final int visitsPerPatient,
+            final int logsPerPatient ) {
+        final String marker = patients + " patients, " + visitsPerPatient + " visits, " + logsPerPatient + " logs";
+        final Hospital existing = Hospital.getByName( HOSPITAL );
+        if ( null != existing && marker.equals( existing.getAddress() ) ) {
+            return;
+        }
+        try {
+            new SyntheticDataGenerator().patients( patients ).visitsPerPatient( visitsPerPatient )
+                    .logEntries( (long) patients * logsPerPatient ).generate();
+        }
+        catch ( final SQLException e ) {
+            throw new IllegalStateException( e );
+        }
+        catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException( e );
+        }
+        new Hospital( HOSPITAL, marker, "27606", "NC" ).save();
+    }
+
+}
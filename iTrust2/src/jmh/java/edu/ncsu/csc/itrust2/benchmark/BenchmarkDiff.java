@@ -0,0 +1,113 @@
+package edu.ncsu.csc.itrust2.benchmark;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Compares two JMH result files (as written with `-rf json`), such as those
+ * from the last release and the current build, and prints how much each
+ * benchmark changed. A change is only reported as a regression or an
+ * improvement when it is larger than the error of both measurements.
+ *
+ * Usage: BenchmarkDiff baseline.json current.json
+ */
+public class BenchmarkDiff {
+
+    /**
+     * Prints the comparison
+     *
+     * @param args
+     *            The baseline result file, then the current result file
+     * @throws IOException
+     *             If either file cannot be read
+     */
+    public static void main ( final String[] args ) throws IOException {
+        if ( args.length != 2 ) {
+            System.err.println( "Usage: BenchmarkDiff baseline.json current.json" );
+            System.exit( 1 );
+        }
+        final Map<String, JsonObject> baseline = read( args[0] );
+        final Map<String, JsonObject> current = read( args[1] );
+
+        System.out.println( String.format( "%-70s %14s %14s %9s", "Benchmark", "Baseline", "Current", "Change" ) );
+        for ( final Map.Entry<String, JsonObject> entry : current.entrySet() ) {
+            final JsonObject now = entry.getValue();
+            final JsonObject before = baseline.get( entry.getKey() );
+            final double score = now.get( "score" ).getAsDouble();
+            final String unit = now.get( "scoreUnit" ).getAsString();
+            if ( null == before ) {
+                System.out.println( String.format( "%-70s %14s %14.3f %9s  %s", entry.getKey(), "-", score, "new",
+                        unit ) );
+                continue;
+            }
+            final double old = before.get( "score" ).getAsDouble();
+            final double change = 100 * ( score - old ) / old;
+            final double error = error( now ) + error( before );
+            String verdict = "";
+            if ( Math.abs( score - old ) > error ) {
+                // Lower is better for times, higher is better for throughput
+                final boolean slower = unit.endsWith( "/op" ) ? score > old : score < old;
+                verdict = slower ? "  REGRESSION" : "  improved";
+            }
+            System.out.println( String.format( "%-70s %14.3f %14.3f %+8.1f%%  %s%s", entry.getKey(), old, score,
+                    change, unit, verdict ) );
+        }
+        for ( final String name : baseline.keySet() ) {
+            if ( !current.containsKey( name ) ) {
+                System.out.println( String.format( "%-70s %14s %14s %9s", name, "", "-", "removed" ) );
+            }
+        }
+    }
+
+    /**
+     * Reads a result file into the primary metric of each benchmark, keyed by
+     * its name and parameters
+     */
+    private static Map<String, JsonObject> read ( final String file ) throws IOException {
+        final Map<String, JsonObject> results = new LinkedHashMap<String, JsonObject>();
+        try ( Reader in = Files.newBufferedReader( Paths.get( file ), StandardCharsets.UTF_8 ) ) {
+            final JsonArray runs = new JsonParser().parse( in ).getAsJsonArray();
+            for ( final JsonElement e : runs ) {
+                final JsonObject run = e.getAsJsonObject();
+                final StringBuilder name = new StringBuilder( run.get( "benchmark" ).getAsString() );
+                if ( run.has( "params" ) ) {
+                    // Sorted, so that the key does not depend on the order JMH
+                    // wrote them in
+                    final Map<String, String> params = new TreeMap<String, String>();
+                    for ( final Map.Entry<String, JsonElement> p : run.getAsJsonObject( "params" ).entrySet() ) {
+                        params.put( p.getKey(), p.getValue().getAsString() );
+                    }
+                    name.append( params );
+                }
+                results.put( name.toString(), run.getAsJsonObject( "primaryMetric" ) );
+            }
+        }
+        return results;
+    }
+
+    /**
+     * The error of a measurement, or 0 if JMH could not work it out (as with
+     * a single iteration)
+     */
+    private static double error ( final JsonObject metric ) {
+        final JsonElement e = metric.get( "scoreError" );
+        if ( null == e ) {
+            return 0;
+        }
+        // JMH writes "NaN" when it has too few iterations to tell
+        final double error = Double.parseDouble( e.getAsString() );
+        return Double.isNaN( error ) ? 0 : Math.abs( error );
+    }
+
+}
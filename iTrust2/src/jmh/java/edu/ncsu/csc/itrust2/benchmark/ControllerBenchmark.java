@@ -0,0 +1,81 @@
+package edu.ncsu.csc.itrust2.benchmark;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import edu.ncsu.csc.itrust2.controllers.api.APILogEntryController;
+import edu.ncsu.csc.itrust2.controllers.api.comm.LogEntryRequestBody;
+import edu.ncsu.csc.itrust2.models.enums.Role;
+
+/**
+ * Measures the API controllers, called directly (without going through
+ * Spring's dispatcher or security filters) as the user seeded by Dataset
+ */
+@State ( Scope.Thread )
+@BenchmarkMode ( Mode.AverageTime )
+@OutputTimeUnit ( TimeUnit.MICROSECONDS )
+@Warmup ( iterations = 5, time = 2 )
+@Measurement ( iterations = 5, time = 2 )
+@Fork ( 1 )
+public class ControllerBenchmark {
+
+    private final APILogEntryController logEntries = new APILogEntryController();
+
+    private LogEntryRequestBody          lastYear;
+
+    /**
+     * Logs in as a patient on the benchmark's thread
+     *
+     * @param data
+     *            The seeded database
+     */
+    @Setup ( Level.Trial )
+    public void setUp ( final Dataset data ) {
+        SecurityContextHolder.getContext().setAuthentication( new UsernamePasswordAuthenticationToken(
+                data.patient(), null,
+                Collections.singletonList( new SimpleGrantedAuthority( Role.ROLE_PATIENT.toString() ) ) ) );
+
+        lastYear = new LogEntryRequestBody();
+        lastYear.setStartDate( LocalDate.now().minusYears( 1 ).toString() );
+        lastYear.setEndDate( LocalDate.now().toString() );
+        lastYear.setPage( 1 );
+        lastYear.setPageLength( 20 );
+    }
+
+    /**
+     * Logs out
+     */
+    @TearDown ( Level.Trial )
+    public void tearDown () {
+        SecurityContextHolder.clearContext();
+    }
+
+    /**
+     * The first page of a patient's access log for the last year
+     *
+     * @return The response
+     */
+    @Benchmark
+    public ResponseEntity< ? > logEntriesByDateRange () {
+        return logEntries.getEntryByDateRange( lastYear );
+    }
+
+}
@@ -0,0 +1,153 @@
+package edu.ncsu.csc.itrust2.benchmark;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ncsu.csc.itrust2.models.enums.BloodType;
+import edu.ncsu.csc.itrust2.models.enums.Ethnicity;
+import edu.ncsu.csc.itrust2.models.enums.Gender;
+import edu.ncsu.csc.itrust2.models.persistent.DomainObject;
+import edu.ncsu.csc.itrust2.models.persistent.Patient;
+import edu.ncsu.csc.itrust2.models.persistent.Prescription;
+
+/**
+ * Compares DomainObject.copyFrom with the reflective copy it replaced, which
+ * looked up every field and its annotations on every call. Needs no database.
+ */
+@State ( Scope.Thread )
+@BenchmarkMode ( Mode.AverageTime )
+@OutputTimeUnit ( TimeUnit.NANOSECONDS )
+@Warmup ( iterations = 5, time = 1 )
+@Measurement ( iterations = 5, time = 1 )
+@Fork ( 1 )
+public class CopyFromBenchmark {
+
+    private Patient      patient;
+
+    private Patient      patientCopy;
+
+    private Prescription prescription;
+
+    private Prescription prescriptionCopy;
+
+    /**
+     * Fills in the objects to copy from
+     */
+    @Setup
+    public void setUp () {
+        patient = new Patient();
+        patient.setFirstName( "Benchmark" );
+        patient.setLastName( "Patient" );
+        patient.setCity( "Raleigh" );
+        patient.setZip( "27606" );
+        patient.setDateOfBirth( LocalDate.of( 1980, 1, 1 ) );
+        patient.setGender( Gender.Female );
+        patient.setBloodType( BloodType.APos );
+        patient.setEthnicity( Ethnicity.Caucasian );
+        patientCopy = new Patient();
+
+        prescription = new Prescription();
+        prescription.setId( 1L );
+        prescription.setDosage( 100 );
+        prescription.setRenewals( 3 );
+        prescription.setStartDate( LocalDate.of( 2018, 1, 1 ) );
+        prescription.setEndDate( LocalDate.of( 2018, 6, 1 ) );
+        prescriptionCopy = new Prescription();
+    }
+
+    /**
+     * Copies a Patient, the entity with the most fields
+     *
+     * @return The copy
+     */
+    @Benchmark
+    public Patient copyPatient () {
+        patientCopy.copyFrom( patient, false );
+        return patientCopy;
+    }
+
+    /**
+     * Copies a Patient the old way
+     *
+     * @return The copy
+     */
+    @Benchmark
+    public Patient copyPatientReflective () {
+        reflectiveCopy( patientCopy, patient, false );
+        return patientCopy;
+    }
+
+    /**
+     * Copies a Prescription, which is mostly primitive fields
+     *
+     * @return The copy
+     */
+    @Benchmark
+    public Prescription copyPrescription () {
+        prescriptionCopy.copyFrom( prescription, true );
+        return prescriptionCopy;
+    }
+
+    /**
+     * Copies a Prescription the old way
+     *
+     * @return The copy
+     */
+    @Benchmark
+    public Prescription copyPrescriptionReflective () {
+        reflectiveCopy( prescriptionCopy, prescription, true );
+        return prescriptionCopy;
+    }
+
+    /**
+     * DomainObject.copyFrom as it was before FieldCopier, kept here as the
+     * baseline
+     */
+    private static void reflectiveCopy ( final DomainObject target, final DomainObject other,
+            final Boolean includeId ) {
+        if ( !target.getClass().equals( other.getClass() ) ) {
+            throw new IllegalArgumentException( "Cannot copy between different types!" );
+        }
+        final List<Field> fields = Arrays.asList( target.getClass().getDeclaredFields() );
+        try {
+            for ( final Field f : fields ) {
+                final Integer modifiers = f.getModifiers();
+                if ( Modifier.isFinal( modifiers ) ) {
+                    continue;
+                }
+
+                f.setAccessible( true );
+                boolean id = false;
+                final List<Annotation> annotations = Arrays.asList( f.getAnnotations() );
+                for ( final Annotation annotation : annotations ) {
+                    if ( annotation.annotationType().equals( javax.persistence.Id.class ) ) {
+                        id = true;
+                    }
+                }
+                if ( ( id && includeId ) || !id ) {
+                    f.set( target, f.get( other ) );
+                }
+            }
+        }
+        catch ( final Exception e ) {
+            throw new IllegalArgumentException( e );
+        }
+    }
+
+}
@@ -0,0 +1,46 @@
+package edu.ncsu.csc.itrust2.benchmark;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The database the persistence and controller benchmarks run against, seeded
+ * by BenchmarkData. Its size can be changed from the command line, for
+ * instance `-p patients=10000`.
+ */
+@State ( Scope.Benchmark )
+public class Dataset {
+
+    /** Number of patients */
+    @Param ( "200" )
+    public int patients;
+
+    /** General checkups for each patient */
+    @Param ( "10" )
+    public int visitsPerPatient;
+
+    /** Log entries for each patient */
+    @Param ( "50" )
+    public int logsPerPatient;
+
+    /**
+     * Seeds the database, unless it already holds this data
+     */
+    @Setup ( Level.Trial )
+    public void seed () {
+        BenchmarkData.seed( patients, visitsPerPatient, logsPerPatient );
+    }
+
+    /**
+     * Name of a patient in the middle of the data
+     *
+     * @return The username
+     */
+    public String patient () {
+        return BenchmarkData.patientName( patients / 2 );
+    }
+
+}
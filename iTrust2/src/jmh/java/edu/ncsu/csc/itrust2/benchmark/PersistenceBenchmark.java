@@ -0,0 +1,113 @@
+package edu.ncsu.csc.itrust2.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ncsu.csc.itrust2.forms.personnel.EmergencyRecordForm;
+import edu.ncsu.csc.itrust2.models.enums.Role;
+import edu.ncsu.csc.itrust2.models.enums.TransactionType;
+import edu.ncsu.csc.itrust2.models.persistent.OfficeVisit;
+import edu.ncsu.csc.itrust2.models.persistent.Patient;
+import edu.ncsu.csc.itrust2.models.persistent.User;
+import edu.ncsu.csc.itrust2.utils.AuditLogWriter;
+import edu.ncsu.csc.itrust2.utils.LoggerUtil;
+
+/**
+ * Measures the DomainObject helpers and the model code built on them, against
+ * the database seeded by Dataset
+ */
+@State ( Scope.Thread )
+@BenchmarkMode ( Mode.AverageTime )
+@OutputTimeUnit ( TimeUnit.MICROSECONDS )
+@Warmup ( iterations = 5, time = 2 )
+@Measurement ( iterations = 5, time = 2 )
+@Fork ( 1 )
+public class PersistenceBenchmark {
+
+    private String  name;
+
+    private Patient patient;
+
+    private int     saves;
+
+    /**
+     * Loads the patient the benchmarks work on
+     *
+     * @param data
+     *            The seeded database
+     */
+    @Setup ( Level.Trial )
+    public void setUp ( final Dataset data ) {
+        name = data.patient();
+        patient = Patient.getByName( name );
+    }
+
+    /**
+     * Writes out the log entries queued by logEntry
+     */
+    @TearDown ( Level.Iteration )
+    public void flushLog () {
+        AuditLogWriter.flush();
+    }
+
+    /**
+     * DomainObject.getWhere on an indexed column
+     *
+     * @return The user
+     */
+    @Benchmark
+    public User getWhere () {
+        return User.getByNameAndRole( name, Role.ROLE_PATIENT );
+    }
+
+    /**
+     * DomainObject.save of an existing row
+     */
+    @Benchmark
+    public void save () {
+        patient.setPreferredName( "Bench " + ( saves++ % 10 ) );
+        patient.save();
+    }
+
+    /**
+     * LoggerUtil.log, which queues the entry for AuditLogWriter
+     */
+    @Benchmark
+    public void logEntry () {
+        LoggerUtil.log( TransactionType.VIEW_DEMOGRAPHICS, name );
+    }
+
+    /**
+     * Building a patient's emergency record
+     *
+     * @return The record
+     */
+    @Benchmark
+    public EmergencyRecordForm emergencyRecord () {
+        return new EmergencyRecordForm( name );
+    }
+
+    /**
+     * Loading all of a patient's office visits
+     *
+     * @return The visits
+     */
+    @Benchmark
+    public List<OfficeVisit> officeVisitsForPatient () {
+        return OfficeVisit.getForPatient( name );
+    }
+
+}
@@ -0,0 +1,81 @@
+package edu.ncsu.csc.itrust2.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.gson.Gson;
+
+import edu.ncsu.csc.itrust2.models.persistent.GeneralCheckup;
+import edu.ncsu.csc.itrust2.models.persistent.OfficeVisit;
+import edu.ncsu.csc.itrust2.models.persistent.Patient;
+
+/**
+ * Measures turning entities into the JSON the API sends, using Gson as the
+ * API controllers and Spring's message converter do
+ */
+@State ( Scope.Thread )
+@BenchmarkMode ( Mode.AverageTime )
+@OutputTimeUnit ( TimeUnit.MICROSECONDS )
+@Warmup ( iterations = 5, time = 1 )
+@Measurement ( iterations = 5, time = 1 )
+@Fork ( 1 )
+public class SerializationBenchmark {
+
+    private final Gson     gson = new Gson();
+
+    private Patient        patient;
+
+    private GeneralCheckup checkup;
+
+    /**
+     * Loads a patient and one of their checkups
+     *
+     * @param data
+     *            The seeded database
+     */
+    @Setup ( Level.Trial )
+    public void setUp ( final Dataset data ) {
+        patient = Patient.getByName( data.patient() );
+        for ( final OfficeVisit visit : OfficeVisit.getForPatient( data.patient() ) ) {
+            if ( visit instanceof GeneralCheckup ) {
+                checkup = (GeneralCheckup) visit;
+                break;
+            }
+        }
+        if ( null == checkup ) {
+            throw new IllegalStateException( "The benchmark patient has no checkups; is visitsPerPatient 0?" );
+        }
+    }
+
+    /**
+     * A patient's demographics
+     *
+     * @return The JSON
+     */
+    @Benchmark
+    public String patientToJson () {
+        return gson.toJson( patient );
+    }
+
+    /**
+     * A general checkup, with its health metrics
+     *
+     * @return The JSON
+     */
+    @Benchmark
+    public String generalCheckupToJson () {
+        return gson.toJson( checkup );
+    }
+
+}
@@ -0,0 +1,256 @@
+package edu.ncsu.csc.itrust2.benchmark;
+
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.ncsu.csc.itrust2.models.enums.AppointmentType;
+import edu.ncsu.csc.itrust2.models.enums.HouseholdSmokingStatus;
+import edu.ncsu.csc.itrust2.models.enums.LabStatus;
+import edu.ncsu.csc.itrust2.models.enums.PatientSmokingStatus;
+import edu.ncsu.csc.itrust2.models.enums.Priority;
+import edu.ncsu.csc.itrust2.models.persistent.BasicHealthMetrics;
+import edu.ncsu.csc.itrust2.models.persistent.Diagnosis;
+import edu.ncsu.csc.itrust2.models.persistent.Drug;
+import edu.ncsu.csc.itrust2.models.persistent.GeneralCheckup;
+import edu.ncsu.csc.itrust2.models.persistent.Hospital;
+import edu.ncsu.csc.itrust2.models.persistent.ICDCode;
+import edu.ncsu.csc.itrust2.models.persistent.LOINC;
+import edu.ncsu.csc.itrust2.models.persistent.LabProcedure;
+import edu.ncsu.csc.itrust2.models.persistent.Prescription;
+import edu.ncsu.csc.itrust2.models.persistent.User;
+import edu.ncsu.csc.itrust2.utils.AuditLogWriter;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork.QueryStats;
+
+/**
+ * Measures GeneralCheckup.save for visits with more and more prescriptions,
+ * diagnoses and lab procedures (`-p children=...` of each), against the
+ * database seeded by Dataset. Besides the time taken, each benchmark counts
+ * the statements sent to the database: `roundTrips` divided by `saves` is the
+ * number of round trips per save, which should stay the same however many
+ * children the visit has.
+ */
+@State ( Scope.Thread )
+@BenchmarkMode ( Mode.AverageTime )
+@OutputTimeUnit ( TimeUnit.MILLISECONDS )
+@Warmup ( iterations = 3, time = 2 )
+@Measurement ( iterations = 5, time = 2 )
+@Fork ( 1 )
+public class VisitSaveBenchmark {
+
+    /** Prescriptions, diagnoses and lab procedures on each visit */
+    @Param ( { "1", "10", "50" } )
+    public int                children;
+
+    private User              patient;
+
+    private User              hcp;
+
+    private User              labtech;
+
+    private Hospital          hospital;
+
+    private List<Drug>        drugs;
+
+    private List<ICDCode>     codes;
+
+    private List<LOINC>       loincs;
+
+    /** Saved once, and then saved again by resaveVisit */
+    private GeneralCheckup    existing;
+
+    private int               saves;
+
+    /**
+     * Round trips to the database made by the saves measured
+     */
+    @AuxCounters ( AuxCounters.Type.EVENTS )
+    @State ( Scope.Thread )
+    public static class RoundTrips {
+        /** Statements executed, including each JDBC batch once */
+        public long roundTrips;
+
+        /** Visits saved */
+        public long saves;
+
+        /**
+         * Zeroes the counts for the next iteration
+         */
+        @Setup ( Level.Iteration )
+        public void reset () {
+            roundTrips = 0;
+            saves = 0;
+        }
+
+        /**
+         * Adds the statements executed by the last unit of work
+         */
+        void record () {
+            for ( final QueryStats q : UnitOfWork.getQueries().values() ) {
+                roundTrips += q.getExecutions();
+            }
+            saves++;
+        }
+    }
+
+    /**
+     * Loads the users and reference data the visits are made from, and saves
+     * the visit that resaveVisit works on
+     *
+     * @param data
+     *            The seeded database
+     */
+    @Setup ( Level.Trial )
+    public void setUp ( final Dataset data ) {
+        patient = User.getByName( data.patient() );
+        hcp = User.getByName( "hcp" );
+        labtech = User.getByName( "labtech" );
+        hospital = Hospital.getByName( BenchmarkData.HOSPITAL );
+        drugs = Drug.getAll();
+        codes = ICDCode.getAll();
+        loincs = LOINC.getAll();
+        existing = newVisit();
+        existing.save();
+    }
+
+    /**
+     * Writes out the log entries queued by the saves
+     */
+    @TearDown ( Level.Iteration )
+    public void flushLog () {
+        AuditLogWriter.flush();
+    }
+
+    /**
+     * Saving a new visit, inserting all of its children
+     *
+     * @param trips
+     *            Counts the round trips
+     * @return The visit
+     */
+    @Benchmark
+    public GeneralCheckup saveVisit ( final RoundTrips trips ) {
+        final GeneralCheckup visit = newVisit();
+        save( visit, trips );
+        return visit;
+    }
+
+    /**
+     * Saving an existing visit again, updating all of its children
+     *
+     * @param trips
+     *            Counts the round trips
+     * @return The visit
+     */
+    @Benchmark
+    public GeneralCheckup resaveVisit ( final RoundTrips trips ) {
+        existing.setNotes( "Resaved " + ( saves++ % 10 ) );
+        for ( final Diagnosis d : existing.getDiagnoses() ) {
+            d.setNote( "Resaved " + saves % 10 );
+        }
+        save( existing, trips );
+        return existing;
+    }
+
+    /**
+     * Saves a visit in a unit of work of its own, and counts the statements
+     * it took
+     *
+     * @param visit
+     *            The visit
+     * @param trips
+     *            Counts the round trips
+     */
+    private void save ( final GeneralCheckup visit, final RoundTrips trips ) {
+        UnitOfWork.begin();
+        try {
+            visit.save();
+        }
+        finally {
+            UnitOfWork.end();
+        }
+        trips.record();
+    }
+
+    /**
+     * Makes an unsaved visit with `children` of each kind of child
+     *
+     * @return The visit
+     */
+    private GeneralCheckup newVisit () {
+        final BasicHealthMetrics bhm = new BasicHealthMetrics();
+        bhm.setPatient( patient );
+        bhm.setHcp( hcp );
+        bhm.setHeight( 70f );
+        bhm.setWeight( 160f );
+        bhm.setSystolic( 120 );
+        bhm.setDiastolic( 80 );
+        bhm.setHdl( 60 );
+        bhm.setLdl( 100 );
+        bhm.setTri( 150 );
+        bhm.setHouseSmokingStatus( HouseholdSmokingStatus.NONSMOKING );
+        bhm.setPatientSmokingStatus( PatientSmokingStatus.NEVER );
+
+        final GeneralCheckup visit = new GeneralCheckup();
+        visit.setBasicHealthMetrics( bhm );
+        visit.setType( AppointmentType.GENERAL_CHECKUP );
+        visit.setHospital( hospital );
+        visit.setPatient( patient );
+        visit.setHcp( hcp );
+        visit.setDate( ZonedDateTime.now() );
+        visit.setNotes( "Benchmark visit" );
+
+        final List<Prescription> prescriptions = new ArrayList<Prescription>();
+        final List<Diagnosis> diagnoses = new ArrayList<Diagnosis>();
+        final List<LabProcedure> procedures = new ArrayList<LabProcedure>();
+        for ( int i = 0; i < children; i++ ) {
+            final Prescription p = new Prescription();
+            p.setDrug( drugs.get( i % drugs.size() ) );
+            p.setDosage( 1 );
+            p.setRenewals( 0 );
+            p.setStartDate( LocalDate.now() );
+            p.setEndDate( LocalDate.now().plusDays( 30 ) );
+            p.setPatient( patient );
+            prescriptions.add( p );
+
+            final Diagnosis d = new Diagnosis();
+            d.setCode( codes.get( i % codes.size() ) );
+            d.setNote( "Benchmark diagnosis " + i );
+            d.setVisit( visit );
+            diagnoses.add( d );
+
+            final LabProcedure lp = new LabProcedure();
+            lp.setLoinc( loincs.get( i % loincs.size() ) );
+            lp.setPriority( Priority.LOW );
+            lp.setStatus( LabStatus.ASSIGNED );
+            lp.setComments( "Benchmark procedure " + i );
+            lp.setPatient( patient );
+            lp.setAssignedTech( labtech );
+            lp.setVisit( visit );
+            procedures.add( lp );
+        }
+        visit.setPrescriptions( prescriptions );
+        visit.setDiagnoses( diagnoses );
+        visit.setLabProcedures( procedures );
+        return visit;
+    }
+
+}
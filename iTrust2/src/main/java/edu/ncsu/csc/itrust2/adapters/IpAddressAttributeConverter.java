@@ -0,0 +1,118 @@
+package edu.ncsu.csc.itrust2.adapters;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * IP address converter for database storage. Stores an IPv4 address as its 4
+ * bytes and an IPv6 address as its 16, rather than as text of up to 39
+ * characters. Read back, an address comes out in the form
+ * {@link InetAddress#getHostAddress()} gives it, which is also the form the
+ * server reports a client's address in.
+ *
+ * An IPv4 address written in its IPv6-mapped form (::ffff:10.0.0.1) is stored
+ * as the 4 bytes of the IPv4 address, so that it matches the same address
+ * written either way; NameMigration moves existing addresses over the same
+ * way. Only address literals are accepted; a host name is rejected rather
+ * than looked up.
+ */
+@Converter
+public class IpAddressAttributeConverter implements AttributeConverter<String, byte[]> {
+
+    /**
+     * Dotted IPv4 addresses, and anything with a colon that could be an IPv6
+     * address (with an optional zone, which is not stored)
+     */
+    private static final Pattern LITERAL = Pattern
+            .compile( "\\d{1,3}(\\.\\d{1,3}){3}|[0-9a-fA-F:.]*:[0-9a-fA-F:.]*(%[\\w.-]+)?" );
+
+    /**
+     * The first 12 of the 16 bytes of an IPv6-mapped IPv4 address
+     */
+    private static final byte[]  MAPPED  = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xff, (byte) 0xff };
+
+    /**
+     * Converts the IP address to a database field.
+     *
+     * @param address
+     *            The address to convert.
+     * @return The address as 4 or 16 bytes.
+     */
+    @Override
+    public byte[] convertToDatabaseColumn ( final String address ) {
+        return toBytes( address );
+    }
+
+    /**
+     * Converts the database bytes to an IP address.
+     *
+     * @param bytes
+     *            The bytes to convert.
+     * @return The address they hold.
+     */
+    @Override
+    public String convertToEntityAttribute ( final byte[] bytes ) {
+        return toText( bytes );
+    }
+
+    /**
+     * Converts an address literal to the bytes it is stored as
+     *
+     * @param address
+     *            The address, such as 10.0.0.1 or 0:0:0:0:0:0:0:1
+     * @return Its bytes, or null if the address is null; 4 for an IPv4
+     *         address, even one written in its IPv6-mapped form
+     * @throws IllegalArgumentException
+     *             If the text is not an IP address
+     */
+    public static byte[] toBytes ( final String address ) {
+        if ( null == address ) {
+            return null;
+        }
+        if ( !LITERAL.matcher( address ).matches() ) {
+            throw new IllegalArgumentException( address + " is not an IP address" );
+        }
+        final int zone = address.indexOf( '%' );
+        final byte[] bytes;
+        try {
+            // A literal is parsed, never looked up
+            bytes = InetAddress.getByName( zone < 0 ? address : address.substring( 0, zone ) ).getAddress();
+        }
+        catch ( final UnknownHostException e ) {
+            throw new IllegalArgumentException( address + " is not an IP address", e );
+        }
+        // InetAddress already does this, but the stored form must not depend
+        // on it
+        if ( 16 == bytes.length && Arrays.equals( MAPPED, Arrays.copyOf( bytes, MAPPED.length ) ) ) {
+            return Arrays.copyOfRange( bytes, MAPPED.length, bytes.length );
+        }
+        return bytes;
+    }
+
+    /**
+     * Converts stored bytes back to an address
+     *
+     * @param bytes
+     *            The 4 or 16 bytes of the address
+     * @return The address, or null if the bytes are null
+     * @throws IllegalArgumentException
+     *             If there are neither 4 nor 16 bytes
+     */
+    public static String toText ( final byte[] bytes ) {
+        if ( null == bytes ) {
+            return null;
+        }
+        try {
+            return InetAddress.getByAddress( bytes ).getHostAddress();
+        }
+        catch ( final UnknownHostException e ) {
+            throw new IllegalArgumentException( "An IP address has 4 or 16 bytes, not " + bytes.length, e );
+        }
+    }
+
+}
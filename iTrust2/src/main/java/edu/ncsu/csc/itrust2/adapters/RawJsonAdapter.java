@@ -0,0 +1,55 @@
+package edu.ncsu.csc.itrust2.adapters;
+
+import java.lang.reflect.Type;
+
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonSerializationContext;
+import com.google.gson.JsonSerializer;
+
+/**
+ * Serializes a String field that already holds JSON as that JSON, rather than
+ * as a quoted string, and deserializes it back into a String.
+ */
+public class RawJsonAdapter implements JsonSerializer<String>, JsonDeserializer<String> {
+
+    /**
+     * Deserialization function for Gson to turn a JSON value back into the
+     * text it was written as.
+     *
+     * @param jsonElement
+     *            The JsonElement to deserialize.
+     * @param type
+     *            The data Type descriptor.
+     * @param jsonDeserializationContext
+     *            Invokes default deserialization.
+     * @return The JsonElement as JSON text.
+     */
+    @Override
+    public String deserialize ( final JsonElement jsonElement, final Type type,
+            final JsonDeserializationContext jsonDeserializationContext ) {
+        return jsonElement.isJsonNull() ? null : jsonElement.toString();
+    }
+
+    /**
+     * Serialization function for Gson to write JSON text as the value it
+     * holds.
+     *
+     * @param json
+     *            The JSON text to serialize.
+     * @param type
+     *            The data Type descriptor.
+     * @param jsonSerializationContext
+     *            Invokes default serialization.
+     * @return The parsed JSON.
+     */
+    @Override
+    public JsonElement serialize ( final String json, final Type type,
+            final JsonSerializationContext jsonSerializationContext ) {
+        return null == json ? JsonNull.INSTANCE : new JsonParser().parse( json );
+    }
+
+}
@@ -0,0 +1,40 @@
+package edu.ncsu.csc.itrust2.adapters;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+import edu.ncsu.csc.itrust2.models.enums.TransactionType;
+
+/**
+ * TransactionType converter for database storage. Stores the stable numeric
+ * code of each TransactionType rather than its position in the enum, so that
+ * the constants can be reordered without changing what is already logged.
+ */
+@Converter
+public class TransactionTypeAttributeConverter implements AttributeConverter<TransactionType, Integer> {
+
+    /**
+     * Converts the TransactionType to a database field.
+     *
+     * @param type
+     *            The TransactionType to convert.
+     * @return The code of the TransactionType.
+     */
+    @Override
+    public Integer convertToDatabaseColumn ( final TransactionType type ) {
+        return type == null ? null : type.getCode();
+    }
+
+    /**
+     * Converts the database code to a TransactionType.
+     *
+     * @param code
+     *            The code to convert.
+     * @return The TransactionType with that code, or null if there is none.
+     */
+    @Override
+    public TransactionType convertToEntityAttribute ( final Integer code ) {
+        return code == null ? null : TransactionType.parse( code );
+    }
+
+}
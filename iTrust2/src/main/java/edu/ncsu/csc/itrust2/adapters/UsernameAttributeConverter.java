@@ -0,0 +1,47 @@
+package edu.ncsu.csc.itrust2.adapters;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+import edu.ncsu.csc.itrust2.utils.NameDictionary;
+
+/**
+ * Username converter for database storage. Stores the number NameDictionary
+ * gives the username rather than the username itself, so that tables with a
+ * row for every event keep each row (and each index on the user) small.
+ *
+ * Hibernate converts query parameters with this too, so it only ever looks a
+ * number up; a username without one becomes NameDictionary.NONE and matches
+ * nothing. An entity with a column using it must give its usernames numbers
+ * with NameDictionary.assign before it is saved, as LogEntry and
+ * FoodDiaryEntry do in save().
+ */
+@Converter
+public class UsernameAttributeConverter implements AttributeConverter<String, Integer> {
+
+    /**
+     * Converts the username to a database field.
+     *
+     * @param name
+     *            The username to convert.
+     * @return The number for the username, or NameDictionary.NONE if it has
+     *         none.
+     */
+    @Override
+    public Integer convertToDatabaseColumn ( final String name ) {
+        return NameDictionary.idFor( name );
+    }
+
+    /**
+     * Converts the database number to a username.
+     *
+     * @param id
+     *            The number to convert.
+     * @return The username it stands for.
+     */
+    @Override
+    public String convertToEntityAttribute ( final Integer id ) {
+        return NameDictionary.nameFor( id );
+    }
+
+}
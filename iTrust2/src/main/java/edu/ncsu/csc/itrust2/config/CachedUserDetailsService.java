@@ -0,0 +1,97 @@
+package edu.ncsu.csc.itrust2.config;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Collections;
+
+import javax.sql.DataSource;
+
+import org.springframework.security.authentication.InternalAuthenticationServiceException;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import edu.ncsu.csc.itrust2.models.persistent.LoginLockout;
+import edu.ncsu.csc.itrust2.utils.UserDetailsCache;
+
+/**
+ * Looks up users for Spring Security. The password, role, and whether the user
+ * is enabled, banned or locked out all come back from a single query, and the
+ * answer is kept in the UserDetailsCache, so a login usually takes no database
+ * work at all. As before, a banned or locked-out user comes back disabled, and
+ * the FailureHandler works out which of those it was.
+ */
+public class CachedUserDetailsService implements UserDetailsService {
+
+    /**
+     * Everything about the user that logging in needs, in one round-trip
+     */
+    private static final String QUERY      = "SELECT u.username, u.password, u.enabled, u.role, "
+            + "EXISTS (SELECT 1 FROM LoginBans b WHERE b.user_id = u.username) AS banned, "
+            + "(SELECT MAX(c.time) FROM LoginLockouts c WHERE c.user_id = u.username) AS lastLockout "
+            + "FROM Users u WHERE u.username = ?";
+
+    /**
+     * How long a lockout lasts, in milliseconds
+     */
+    private static final long   LOCKOUT_MS = LoginLockout.LOCKOUT_MINUTES * 60 * 1000L;
+
+    /**
+     * Where the users are read from
+     */
+    private final DataSource    dataSource;
+
+    /**
+     * Creates the service
+     *
+     * @param dataSource
+     *            Where the users are read from
+     */
+    public CachedUserDetailsService ( final DataSource dataSource ) {
+        this.dataSource = dataSource;
+    }
+
+    @Override
+    public UserDetails loadUserByUsername ( final String username ) throws UsernameNotFoundException {
+        final UserDetailsCache.State state = UserDetailsCache.get( username, this::load );
+        if ( null == state ) {
+            throw new UsernameNotFoundException( "No user " + username );
+        }
+        // A new object every time: Spring erases the password from the one it
+        // is given once the login is done
+        return new User( state.getUsername(), state.getPassword(), state.canLogIn( LOCKOUT_MS ), true, true, true,
+                Collections.singletonList( new SimpleGrantedAuthority( state.getRole() ) ) );
+    }
+
+    /**
+     * Reads a user's login state from the database
+     *
+     * @param username
+     *            The user to read
+     * @return The state, or null if there is no such user
+     */
+    private UserDetailsCache.State load ( final String username ) {
+        try ( Connection conn = dataSource.getConnection();
+                PreparedStatement ps = conn.prepareStatement( QUERY ) ) {
+            ps.setString( 1, username );
+            try ( ResultSet rs = ps.executeQuery() ) {
+                if ( !rs.next() ) {
+                    return null;
+                }
+                final Timestamp lastLockout = rs.getTimestamp( "lastLockout" );
+                return new UserDetailsCache.State( rs.getString( "username" ), rs.getString( "password" ),
+                        rs.getString( "role" ), rs.getInt( "enabled" ) == 1, rs.getBoolean( "banned" ),
+                        null == lastLockout ? 0 : lastLockout.getTime() );
+            }
+        }
+        catch ( final SQLException e ) {
+            throw new InternalAuthenticationServiceException( "Could not look up " + username, e );
+        }
+    }
+
+}
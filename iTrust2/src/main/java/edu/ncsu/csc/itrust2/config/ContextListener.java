@@ -4,12 +4,19 @@ import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
 
+import edu.ncsu.csc.itrust2.models.persistent.ICDCode;
+import edu.ncsu.csc.itrust2.models.persistent.LOINC;
+import edu.ncsu.csc.itrust2.utils.AuditArchive;
+import edu.ncsu.csc.itrust2.utils.AuditLogWriter;
+import edu.ncsu.csc.itrust2.utils.DBUtil;
 import edu.ncsu.csc.itrust2.utils.HibernateUtil;
+import edu.ncsu.csc.itrust2.utils.NotificationQueue;
 
 /**
  * Simple listener that can bind actions to startup or shutdown of the web
- * application server. Used to close the database connection pool when
- * everything is finished.
+ * application server. Used to warm up the code search indexes, start sending
+ * any queued email and start archiving old log entries on startup, and to
+ * close the database connection pool when everything is finished.
  *
  * @author Kai Presler-Marshall
  *
@@ -19,16 +26,47 @@ public class ContextListener implements ServletContextListener {
 
     /**
      * Gracefully tell Hibernate to close the connections to the database rather
-     * than dropping everything on the floor.
+     * than dropping everything on the floor. Any log entries still queued are
+     * written out first, and email being sent is finished, while the pool is
+     * still open.
      */
     @Override
     public void contextDestroyed ( final ServletContextEvent arg0 ) {
+        NotificationQueue.shutdown();
+        AuditArchive.shutdown();
+        AuditLogWriter.shutdown();
         HibernateUtil.shutdown();
+        DBUtil.shutdown();
     }
 
+    /**
+     * Builds the ICD and LOINC typeahead indexes in the background, so that
+     * the first search doesn't have to wait for them, sends any email that
+     * was still queued when the server last stopped, and starts the audit log
+     * archiver if `auditArchiveDir` is set.
+     */
     @Override
     public void contextInitialized ( final ServletContextEvent arg0 ) {
-        // There's nothing that we need to do here
+        final Thread warmup = new Thread( () -> {
+            try {
+                ICDCode.buildSearchIndex();
+                LOINC.buildSearchIndex();
+            }
+            catch ( final Exception e ) {
+                // They'll be built on first use instead
+                e.printStackTrace( System.out );
+            }
+            try {
+                NotificationQueue.start();
+            }
+            catch ( final Exception e ) {
+                // It will start when the next email is queued
+                e.printStackTrace( System.out );
+            }
+            AuditArchive.start();
+        }, "iTrust2-search-index" );
+        warmup.setDaemon( true );
+        warmup.start();
     }
 
 }
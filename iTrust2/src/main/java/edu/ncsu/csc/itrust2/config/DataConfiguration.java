@@ -18,11 +18,13 @@ import edu.ncsu.csc.itrust2.utils.DBUtil;
 public class DataConfiguration {
 
     /**
-     * Spring Bean for the DataSource used to interact with the database.
+     * Spring Bean for the DataSource used to interact with the database. This
+     * is the same connection pool that Hibernate uses, so Spring must not close
+     * it; ContextListener shuts it down after Hibernate is finished with it.
      *
      * @return DataSource retrieved
      */
-    @Bean
+    @Bean ( destroyMethod = "" )
     public DataSource dataSource () {
         return DBUtil.dataSource();
     }
@@ -15,16 +15,18 @@ import org.springframework.security.web.authentication.SimpleUrlAuthenticationFa
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
-import edu.ncsu.csc.itrust2.models.persistent.LoginAttempt;
 import edu.ncsu.csc.itrust2.models.persistent.LoginBan;
 import edu.ncsu.csc.itrust2.models.persistent.LoginLockout;
 import edu.ncsu.csc.itrust2.models.persistent.User;
 import edu.ncsu.csc.itrust2.utils.EmailUtil;
 import edu.ncsu.csc.itrust2.utils.LoggerUtil;
+import edu.ncsu.csc.itrust2.utils.LoginFailureTracker;
 
 /**
  * Custom AuthenticationFailureHandler to record Failed attempts, and lockout or
- * ban a user or IP if necessary.
+ * ban a user or IP if necessary. Failed attempts are only counted in memory by
+ * the LoginFailureTracker; the database is only written to once a lockout or
+ * ban results.
  *
  * @author Thomas
  *
@@ -45,8 +47,7 @@ public class FailureHandler extends SimpleUrlAuthenticationFailureHandler {
 
         if ( ae instanceof BadCredentialsException ) {
             // need to lockout IP
-            if ( LoginAttempt.getIPFailures( addr ) >= 5 ) {
-                LoginAttempt.clearIP( addr );
+            if ( LoginFailureTracker.failIP( addr ) ) {
                 // Check if need to ban IP
                 if ( LoginLockout.getRecentIPLockouts( addr ) >= 2 ) {
                     // BAN
@@ -85,13 +86,6 @@ public class FailureHandler extends SimpleUrlAuthenticationFailureHandler {
                 }
                 return;
             }
-            else {
-                // fail for IP
-                final LoginAttempt attempt = new LoginAttempt();
-                attempt.setTime( ZonedDateTime.now() );
-                attempt.setIp( addr );
-                attempt.save();
-            }
 
             // check username
             if ( username != null ) {
@@ -100,8 +94,7 @@ public class FailureHandler extends SimpleUrlAuthenticationFailureHandler {
 
             if ( user != null ) {
                 // check if need to lockout username
-                if ( LoginAttempt.getUserFailures( user ) >= 2 ) {
-                    LoginAttempt.clearUser( user );
+                if ( LoginFailureTracker.failUser( user.getUsername() ) ) {
                     // check if need to ban user
                     if ( LoginLockout.getRecentUserLockouts( user ) >= 2 ) {
                         LoginLockout.clearUser( user );
@@ -156,13 +149,6 @@ public class FailureHandler extends SimpleUrlAuthenticationFailureHandler {
                     }
                     return;
                 }
-                else {
-                    // fail for username
-                    final LoginAttempt attempt = new LoginAttempt();
-                    attempt.setTime( ZonedDateTime.now() );
-                    attempt.setUser( user );
-                    attempt.save();
-                }
             }
 
         }
@@ -13,9 +13,8 @@ import org.springframework.stereotype.Component;
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
 import edu.ncsu.csc.itrust2.models.persistent.LoginBan;
 import edu.ncsu.csc.itrust2.models.persistent.LoginLockout;
-import edu.ncsu.csc.itrust2.models.persistent.LoginAttempt;
-import edu.ncsu.csc.itrust2.models.persistent.User;
 import edu.ncsu.csc.itrust2.utils.LoggerUtil;
+import edu.ncsu.csc.itrust2.utils.LoginFailureTracker;
 
 /**
  * Listens for AuthenticationEvents to Log them and to clear FaieldAttempts on
@@ -42,8 +41,8 @@ public class LoginAuditingListener implements ApplicationListener<ApplicationEve
             // bypassed the lockout page via a direct API call).
             final String addr = det.getRemoteAddress();
             if ( !LoginLockout.isIPLocked( addr ) && !LoginBan.isIPBanned( addr ) ) {
-                LoginAttempt.clearIP( addr );
-                LoginAttempt.clearUser( User.getByName( details.getUsername() ) );
+                LoginFailureTracker.clearIP( addr );
+                LoginFailureTracker.clearUser( details.getUsername() );
                 LoggerUtil.log( TransactionType.LOGIN_SUCCESS, details.getUsername() );
             }
 
@@ -0,0 +1,109 @@
+package edu.ncsu.csc.itrust2.config;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+
+import edu.ncsu.csc.itrust2.utils.DBUtil;
+import edu.ncsu.csc.itrust2.utils.Metrics;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork.QueryStats;
+
+/**
+ * Servlet Filter that records how long each request took, the status it was
+ * answered with, and the database work it did, against the endpoint that
+ * handled it (see Metrics). It sits just outside the UnitOfWorkFilter, so the
+ * UnitOfWork counters it reads once the request is over cover everything the
+ * request did inside its unit of work, including the commit. Requests turned
+ * away by Spring Security never reach it.
+ *
+ * Requests that take longer than `slowRequestMs` in db.properties are logged
+ * along with the statements they ran that took the most time.
+ */
+public class RequestMetricsFilter extends OncePerRequestFilter {
+
+    /**
+     * Number of statements listed for a slow request
+     */
+    private static final int    SLOW_QUERIES = 10;
+
+    /**
+     * Where slow requests are logged
+     */
+    private static final Logger LOG          = LoggerFactory.getLogger( RequestMetricsFilter.class );
+
+    /**
+     * Requests that take longer than this are logged, in nanoseconds
+     */
+    private final long          slowNanos    = TimeUnit.MILLISECONDS.toNanos( DBUtil.getSlowRequestMs() );
+
+    @Override
+    protected void doFilterInternal ( final HttpServletRequest request, final HttpServletResponse response,
+            final FilterChain chain ) throws ServletException, IOException {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            chain.doFilter( request, response );
+            failed = false;
+        }
+        finally {
+            final long nanos = System.nanoTime() - start;
+            final Object pattern = request.getAttribute( HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE );
+            final String endpoint = request.getMethod() + " " + ( null == pattern ? Metrics.UNMATCHED : pattern );
+            final int status = failed ? HttpServletResponse.SC_INTERNAL_SERVER_ERROR : response.getStatus();
+            Metrics.recordRequest( endpoint, status, nanos, UnitOfWork.getSessionsOpened(),
+                    UnitOfWork.getStatementsExecuted(), UnitOfWork.getRowsFetched() );
+            if ( nanos > slowNanos && LOG.isWarnEnabled() ) {
+                LOG.warn( describeSlow( request, endpoint, status, nanos ) );
+            }
+        }
+    }
+
+    /**
+     * Describes a slow request and the statements that took it the longest
+     *
+     * @param request
+     *            The request
+     * @param endpoint
+     *            The endpoint that handled it
+     * @param status
+     *            The status it was answered with
+     * @param nanos
+     *            How long it took
+     * @return The description
+     */
+    private static String describeSlow ( final HttpServletRequest request, final String endpoint, final int status,
+            final long nanos ) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append( "Slow request: " ).append( endpoint ).append( " (" ).append( request.getRequestURI() )
+                .append( ") took " ).append( TimeUnit.NANOSECONDS.toMillis( nanos ) ).append( " ms, status " )
+                .append( status ).append( ", " ).append( UnitOfWork.getSessionsOpened() ).append( " sessions, " )
+                .append( UnitOfWork.getStatementsExecuted() ).append( " statements, " )
+                .append( UnitOfWork.getRowsFetched() ).append( " rows, " )
+                .append( TimeUnit.NANOSECONDS.toMillis( UnitOfWork.getQueryNanos() ) ).append( " ms in the database" );
+
+        final List<Map.Entry<String, QueryStats>> queries = new ArrayList<Map.Entry<String, QueryStats>>(
+                UnitOfWork.getQueries().entrySet() );
+        queries.sort( ( a, b ) -> Long.compare( b.getValue().getNanos(), a.getValue().getNanos() ) );
+        for ( final Map.Entry<String, QueryStats> q : queries.subList( 0, Math.min( SLOW_QUERIES, queries.size() ) ) ) {
+            final QueryStats stats = q.getValue();
+            sb.append( "\n  " ).append( stats.getExecutions() ).append( "x, " )
+                    .append( TimeUnit.NANOSECONDS.toMillis( stats.getNanos() ) ).append( " ms, " )
+                    .append( stats.getRows() ).append( " rows: " ).append( q.getKey() );
+        }
+        return sb.toString();
+    }
+
+}
@@ -8,17 +8,19 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.authentication.DefaultAuthenticationEventPublisher;
 import org.springframework.security.config.annotation.authentication.builders.AuthenticationManagerBuilder;
-import org.springframework.security.config.annotation.authentication.configurers.provisioning.JdbcUserDetailsManagerConfigurer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.builders.WebSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configuration.WebSecurityConfigurerAdapter;
+import org.springframework.security.core.userdetails.UserDetailsService;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.web.access.channel.ChannelProcessingFilter;
 import org.springframework.security.web.authentication.SimpleUrlAuthenticationFailureHandler;
 import org.springframework.security.web.csrf.CookieCsrfTokenRepository;
 
+import edu.ncsu.csc.itrust2.utils.DBUtil;
+
 /**
  * Class that manages which users are allowed to access the system and which
  * role they have. Different users are allowed to have different roles which can
@@ -48,20 +50,10 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
      */
     @Autowired
     public void configureGlobal ( final AuthenticationManagerBuilder auth ) throws Exception {
-        final JdbcUserDetailsManagerConfigurer<AuthenticationManagerBuilder> dbManager = auth.jdbcAuthentication();
-
-        // User query enabled flag also checks for locked or banned users. The
-        // FailureHandler then
-        // determines if the DisabledUser Exception was due to ban, lockout, or
-        // true disable.
-        // POSSIBLE FUTURE CHANGE: Refactor the UserSource here along the lines
-        // of this:
-        // http://websystique.com/springmvc/spring-mvc-4-and-spring-security-4-integration-example/
-        dbManager.dataSource( dataSource ).passwordEncoder( passwordEncoder() ).usersByUsernameQuery(
-                "select username,password,enabled AND b.time IS NULL AND c.time IS NULL AS enabled  from Users AS u"
-                        + " LEFT JOIN LoginBans AS b ON u.username = b.user_id "
-                        + "LEFT JOIN LoginLockouts AS c ON u.username = c.user_id AND TIMESTAMPDIFF(MINUTE, c.time, NOW()) < 60 WHERE username = ?;" )
-                .authoritiesByUsernameQuery( "select username,role from Users where username=?" );
+        // The user's enabled flag also checks for locked or banned users. The
+        // FailureHandler then determines if the DisabledUser Exception was due
+        // to ban, lockout, or true disable.
+        auth.userDetailsService( cachedUserDetailsService() ).passwordEncoder( passwordEncoder() );
         auth.authenticationEventPublisher( defaultAuthenticationEventPublisher() );
 
     }
@@ -116,15 +108,26 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
                 "/resetPassword" );
     }
 
+    /**
+     * Looks up users, with their role and whether they may log in, for
+     * authentication. Answers are cached; see UserDetailsCache.
+     *
+     * @return The UserDetailsService
+     */
+    @Bean
+    public UserDetailsService cachedUserDetailsService () {
+        return new CachedUserDetailsService( dataSource );
+    }
+
     /**
      * Bean used to generate a PasswordEncoder to hash the user-provided
-     * password.
+     * password. The BCrypt cost is set by `bcryptStrength` in db.properties.
      *
      * @return The password encoder.
      */
     @Bean
     public PasswordEncoder passwordEncoder () {
-        return new BCryptPasswordEncoder();
+        return new BCryptPasswordEncoder( DBUtil.getBCryptStrength() );
     }
 
     /**
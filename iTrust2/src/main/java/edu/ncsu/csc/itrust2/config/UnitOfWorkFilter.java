@@ -0,0 +1,51 @@
+package edu.ncsu.csc.itrust2.config;
+
+import java.io.IOException;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
+
+/**
+ * Servlet Filter that binds a UnitOfWork to each request, so that all of the
+ * DomainObject reads and writes performed while handling the request share one
+ * Hibernate Session and one transaction. The transaction is committed once the
+ * request has been handled, or rolled back if handling it threw an exception.
+ *
+ * The response body is held back until the transaction has been committed, so
+ * that a commit which fails turns into an error for the client rather than
+ * following a success response that has already been sent. The one exception
+ * is a list streamed with `?stream=true` (see APIController.streamJson), whose
+ * point is to not be held in memory; those only read.
+ */
+public class UnitOfWorkFilter extends OncePerRequestFilter {
+
+    @Override
+    protected void doFilterInternal ( final HttpServletRequest request, final HttpServletResponse response,
+            final FilterChain chain ) throws ServletException, IOException {
+        final ContentCachingResponseWrapper held = "true".equals( request.getParameter( "stream" ) ) ? null
+                : new ContentCachingResponseWrapper( response );
+        UnitOfWork.begin();
+        try {
+            chain.doFilter( request, null == held ? response : held );
+        }
+        catch ( final IOException | ServletException | RuntimeException e ) {
+            UnitOfWork.setRollbackOnly();
+            throw e;
+        }
+        finally {
+            // Throws if the commit fails, before anything has been sent
+            UnitOfWork.end();
+        }
+        if ( null != held ) {
+            held.copyBodyToResponse();
+        }
+    }
+
+}
@@ -1,6 +1,7 @@
 package edu.ncsu.csc.itrust2.controllers.api;
 
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import javax.mail.MessagingException;
@@ -14,6 +15,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import edu.ncsu.csc.itrust2.forms.patient.AppointmentRequestForm;
@@ -47,6 +49,23 @@ public class APIAppointmentRequestController extends APIController {
         return AppointmentRequest.getAppointmentRequests();
     }
 
+    /**
+     * Retrieves one page of the AppointmentRequests, for
+     * `/appointmentrequests?limit=...`. The requests can be filtered and
+     * sorted by any of the fields in AppointmentRequest.QUERY; see ListQuery
+     * for the parameters understood.
+     *
+     * @param params
+     *            The request parameters
+     * @return The page of appointment requests, or a 400 if the parameters
+     *         are invalid
+     */
+    @GetMapping ( value = BASE_PATH + "/appointmentrequests", params = PAGE )
+    @PreAuthorize ( "hasAnyRole('ROLE_HCP', 'ROLE_OD', 'ROLE_OPH', 'ROLE_PATIENT')" )
+    public ResponseEntity getAppointmentRequestsPage ( @RequestParam final Map<String, String> params ) {
+        return page( AppointmentRequest.QUERY, params, AppointmentRequest::getPage );
+    }
+
     /**
      * Retrieves the AppointmentRequest specified by the username provided
      *
@@ -1,7 +1,22 @@
 package edu.ncsu.csc.itrust2.controllers.api;
 
+import java.io.IOException;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
 import com.google.gson.Gson;
 
+import edu.ncsu.csc.itrust2.models.persistent.ListQuery;
+import edu.ncsu.csc.itrust2.models.persistent.Page;
+import edu.ncsu.csc.itrust2.models.persistent.QuerySchema;
+import edu.ncsu.csc.itrust2.utils.JsonArrayWriter;
+
 /**
  * Base class for all of the API controllers for manipulating DomainObjects. Add
  * in any fields or functionality that ought to be shared throughout.
@@ -28,13 +43,28 @@ import com.google.gson.Gson;
  */
 public abstract class APIController {
     /** Base path of API */
-    static final protected String BASE_PATH = "/api/v1/";
+    static final protected String BASE_PATH          = "/api/v1/";
+
+    /** Most results any typeahead search endpoint will return */
+    static final protected int    MAX_SEARCH_RESULTS = 100;
 
     /**
      * Used to serialize data and messages to JSON for transmitting through the
      * REST API
      */
-    static final private Gson     GSON      = new Gson();
+    static final private Gson     GSON               = new Gson();
+
+    /**
+     * Query parameter that asks one of the list endpoints to stream its
+     * response
+     */
+    static final protected String STREAM             = "stream=true";
+
+    /**
+     * Query parameters that ask one of the list endpoints for a single page
+     * (see ListQuery) instead of the whole list
+     */
+    static final protected String PAGE               = "limit";
 
     /**
      * Turns the provided object into JSON
@@ -61,6 +91,58 @@ public abstract class APIController {
         return GSON.toJson( obj, cls );
     }
 
+    /**
+     * Writes a JSON array straight to the response as the source produces its
+     * elements, rather than building the whole list first. The list endpoints
+     * do this when they are called with `?stream=true`; the JSON is the same
+     * either way. If the source fails part way through, the array is left
+     * unterminated so that the client cannot mistake it for the full list.
+     *
+     * @param response
+     *            The response to write to
+     * @param source
+     *            Hands each element to the writer, typically through one of
+     *            the stream methods on a DomainObject
+     * @throws IOException
+     *             If the response cannot be written to
+     */
+    static final protected void streamJson ( final HttpServletResponse response,
+            final Consumer<JsonArrayWriter> source ) throws IOException {
+        response.setContentType( "application/json;charset=UTF-8" );
+        final JsonArrayWriter out = new JsonArrayWriter( response.getOutputStream() );
+        source.accept( out );
+        out.close();
+    }
+
+    /**
+     * Parses the request parameters into a ListQuery over the schema and hands
+     * it to the source to fetch the page. Parameters the schema does not
+     * understand, and values that do not parse, are rejected with a 400
+     * naming the problem rather than being ignored.
+     *
+     * @param <D>
+     *            The DomainObject listed
+     * @param schema
+     *            Fields the list can be filtered and sorted by
+     * @param params
+     *            The request parameters
+     * @param source
+     *            Fetches the page, typically through one of the getPage
+     *            methods on a DomainObject
+     * @return The page, or an error response
+     */
+    static final protected <D> ResponseEntity page ( final QuerySchema<D> schema, final Map<String, String> params,
+            final Function<ListQuery<D>, Page<D>> source ) {
+        final ListQuery<D> query;
+        try {
+            query = ListQuery.parse( schema, params );
+        }
+        catch ( final IllegalArgumentException e ) {
+            return new ResponseEntity( errorResponse( e.getMessage() ), HttpStatus.BAD_REQUEST );
+        }
+        return new ResponseEntity( source.apply( query ), HttpStatus.OK );
+    }
+
     /**
      * Creates a JSONResponse for sending an error or informational message back
      * to the user.
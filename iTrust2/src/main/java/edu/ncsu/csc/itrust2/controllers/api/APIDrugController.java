@@ -1,7 +1,10 @@
 package edu.ncsu.csc.itrust2.controllers.api;
 
+import java.io.IOException;
 import java.util.List;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -12,11 +15,13 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import edu.ncsu.csc.itrust2.forms.admin.DrugForm;
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
 import edu.ncsu.csc.itrust2.models.persistent.Drug;
 import edu.ncsu.csc.itrust2.utils.LoggerUtil;
+import edu.ncsu.csc.itrust2.utils.ReferenceDataCache;
 
 /**
  * Provides REST endpoints that deal with drugs. Exposes functionality to add,
@@ -135,14 +140,42 @@ public class APIDrugController extends APIController {
     }
 
     /**
-     * Gets a list of all the drugs in the system.
+     * Gets a list of all the drugs in the system. Responds with 304 Not
+     * Modified instead if the client already has the current list.
      *
+     * @param request
+     *            The request, checked for If-None-Match and If-Modified-Since
      * @return a list of drugs
      */
     @GetMapping ( BASE_PATH + "/drugs" )
-    public List<Drug> getDrugs () {
+    public List<Drug> getDrugs ( final WebRequest request ) {
         LoggerUtil.log( TransactionType.DRUG_VIEW, LoggerUtil.currentUser(), "Fetched list of drugs" );
+        if ( request.checkNotModified( ReferenceDataCache.getETag( Drug.class ),
+                ReferenceDataCache.getLastModified( Drug.class ) ) ) {
+            return null;
+        }
         return Drug.getAll();
     }
 
+    /**
+     * Streams the list of all drugs, for `/drugs?stream=true`. Responds with
+     * 304 Not Modified instead if the client already has the current list.
+     *
+     * @param request
+     *            The request, checked for If-None-Match and If-Modified-Since
+     * @param response
+     *            The response to write the drugs to
+     * @throws IOException
+     *             If the response cannot be written to
+     */
+    @GetMapping ( value = BASE_PATH + "/drugs", params = STREAM )
+    public void streamDrugs ( final WebRequest request, final HttpServletResponse response ) throws IOException {
+        LoggerUtil.log( TransactionType.DRUG_VIEW, LoggerUtil.currentUser(), "Fetched list of drugs" );
+        if ( request.checkNotModified( ReferenceDataCache.getETag( Drug.class ),
+                ReferenceDataCache.getLastModified( Drug.class ) ) ) {
+            return;
+        }
+        streamJson( response, out -> Drug.streamAll( out::write ) );
+    }
+
 }
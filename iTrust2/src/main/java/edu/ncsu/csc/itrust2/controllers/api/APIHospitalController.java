@@ -12,11 +12,13 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import edu.ncsu.csc.itrust2.forms.admin.HospitalForm;
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
 import edu.ncsu.csc.itrust2.models.persistent.Hospital;
 import edu.ncsu.csc.itrust2.utils.LoggerUtil;
+import edu.ncsu.csc.itrust2.utils.ReferenceDataCache;
 
 /**
  * Class that provides REST API endpoints for the Hospital model. In all
@@ -31,12 +33,19 @@ import edu.ncsu.csc.itrust2.utils.LoggerUtil;
 public class APIHospitalController extends APIController {
 
     /**
-     * Retrieves a list of all Hospitals in the database
+     * Retrieves a list of all Hospitals in the database. Responds with 304 Not
+     * Modified instead if the client already has the current list.
      *
+     * @param request
+     *            The request, checked for If-None-Match and If-Modified-Since
      * @return list of hospitals
      */
     @GetMapping ( BASE_PATH + "/hospitals" )
-    public List<Hospital> getHospitals () {
+    public List<Hospital> getHospitals ( final WebRequest request ) {
+        if ( request.checkNotModified( ReferenceDataCache.getETag( Hospital.class ),
+                ReferenceDataCache.getLastModified( Hospital.class ) ) ) {
+            return null;
+        }
         return Hospital.getHospitals();
     }
 
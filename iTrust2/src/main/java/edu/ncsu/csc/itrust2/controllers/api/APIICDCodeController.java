@@ -1,7 +1,10 @@
 package edu.ncsu.csc.itrust2.controllers.api;
 
+import java.io.IOException;
 import java.util.List;
 
+import javax.servlet.http.HttpServletResponse;
+
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
@@ -11,13 +14,16 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import edu.ncsu.csc.itrust2.forms.admin.ICDCodeForm;
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
 import edu.ncsu.csc.itrust2.models.persistent.ICDCode;
 import edu.ncsu.csc.itrust2.models.persistent.User;
 import edu.ncsu.csc.itrust2.utils.LoggerUtil;
+import edu.ncsu.csc.itrust2.utils.ReferenceDataCache;
 
 /**
  * Class that provides the REST endpoints for handling ICD Codes. They can be
@@ -32,16 +38,63 @@ import edu.ncsu.csc.itrust2.utils.LoggerUtil;
 public class APIICDCodeController extends APIController {
 
     /**
-     * Returns a list of Codes in the system
+     * Returns a list of Codes in the system. Responds with 304 Not Modified
+     * instead if the client already has the current list.
      *
+     * @param request
+     *            The request, checked for If-None-Match and If-Modified-Since
      * @return All the codes in the system
      */
     @GetMapping ( BASE_PATH + "/icdcodes" )
-    public List<ICDCode> getCodes () {
+    public List<ICDCode> getCodes ( final WebRequest request ) {
         LoggerUtil.log( TransactionType.ICD_VIEW_ALL, LoggerUtil.currentUser(), "Fetched icd codes" );
+        if ( request.checkNotModified( ReferenceDataCache.getETag( ICDCode.class ),
+                ReferenceDataCache.getLastModified( ICDCode.class ) ) ) {
+            return null;
+        }
         return ICDCode.getAll();
     }
 
+    /**
+     * Streams the list of all codes, for `/icdcodes?stream=true`. Responds
+     * with 304 Not Modified instead if the client already has the current
+     * list.
+     *
+     * @param request
+     *            The request, checked for If-None-Match and If-Modified-Since
+     * @param response
+     *            The response to write the codes to
+     * @throws IOException
+     *             If the response cannot be written to
+     */
+    @GetMapping ( value = BASE_PATH + "/icdcodes", params = STREAM )
+    public void streamCodes ( final WebRequest request, final HttpServletResponse response ) throws IOException {
+        LoggerUtil.log( TransactionType.ICD_VIEW_ALL, LoggerUtil.currentUser(), "Fetched icd codes" );
+        if ( request.checkNotModified( ReferenceDataCache.getETag( ICDCode.class ),
+                ReferenceDataCache.getLastModified( ICDCode.class ) ) ) {
+            return;
+        }
+        streamJson( response, out -> ICDCode.streamAll( out::write ) );
+    }
+
+    /**
+     * Typeahead search over the codes in the system, so that the pages do not
+     * need to download the entire catalog to filter it. Matches codes that
+     * start with the query, then codes whose description contains words
+     * starting with each word of the query.
+     *
+     * @param query
+     *            What the user has typed so far
+     * @param limit
+     *            Largest number of codes to return (at most MAX_SEARCH_RESULTS)
+     * @return The matching codes, best matches first
+     */
+    @GetMapping ( BASE_PATH + "/icdcodes/search" )
+    public List<ICDCode> searchCodes ( @RequestParam ( "q" ) final String query,
+            @RequestParam ( value = "limit", defaultValue = "20" ) final int limit ) {
+        return ICDCode.search( query, Math.min( limit, MAX_SEARCH_RESULTS ) );
+    }
+
     /**
      * Returns the code with the given ID
      *
@@ -11,13 +11,16 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 
 import edu.ncsu.csc.itrust2.forms.admin.LOINCForm;
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
 import edu.ncsu.csc.itrust2.models.persistent.LOINC;
 import edu.ncsu.csc.itrust2.models.persistent.User;
 import edu.ncsu.csc.itrust2.utils.LoggerUtil;
+import edu.ncsu.csc.itrust2.utils.ReferenceDataCache;
 
 /**
  * Class that provides the REST endpoints for handling LOINC Codes. They can be
@@ -32,15 +35,40 @@ import edu.ncsu.csc.itrust2.utils.LoggerUtil;
 public class APILOINCController extends APIController {
 
     /**
-     * Returns a list of Codes in the system
+     * Returns a list of Codes in the system. Responds with 304 Not Modified
+     * instead if the client already has the current list.
      *
+     * @param request
+     *            The request, checked for If-None-Match and If-Modified-Since
      * @return All the codes in the system
      */
     @GetMapping ( BASE_PATH + "/loinccodes" )
-    public List<LOINC> getCodes () {
+    public List<LOINC> getCodes ( final WebRequest request ) {
+        if ( request.checkNotModified( ReferenceDataCache.getETag( LOINC.class ),
+                ReferenceDataCache.getLastModified( LOINC.class ) ) ) {
+            return null;
+        }
         return LOINC.getAll();
     }
 
+    /**
+     * Typeahead search over the codes in the system, so that the pages do not
+     * need to download the entire catalog to filter it. Matches codes that
+     * start with the query, then codes whose description contains words
+     * starting with each word of the query.
+     *
+     * @param query
+     *            What the user has typed so far
+     * @param limit
+     *            Largest number of codes to return (at most MAX_SEARCH_RESULTS)
+     * @return The matching codes, best matches first
+     */
+    @GetMapping ( BASE_PATH + "/loinccodes/search" )
+    public List<LOINC> searchCodes ( @RequestParam ( "q" ) final String query,
+            @RequestParam ( value = "limit", defaultValue = "20" ) final int limit ) {
+        return LOINC.search( query, Math.min( limit, MAX_SEARCH_RESULTS ) );
+    }
+
     /**
      * Returns the code with the given ID
      *
@@ -1,6 +1,10 @@
 package edu.ncsu.csc.itrust2.controllers.api;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -13,6 +17,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import edu.ncsu.csc.itrust2.forms.personnel.LabProcedureForm;
@@ -62,6 +67,61 @@ public class APILabProcedureController extends APIController {
         return new ResponseEntity( procs, HttpStatus.OK );
     }
 
+    /**
+     * Streams the lab procedures the current user may see, for
+     * `/labprocedures?stream=true`: all of them for an HCP, or a lab tech's
+     * own
+     *
+     * @param response
+     *            The response to write the procedures to
+     * @throws IOException
+     *             If the response cannot be written to
+     */
+    @PreAuthorize ( "hasAnyRole('ROLE_HCP', 'ROLE_OD', 'ROLE_OPH', 'ROLE_LABTECH')" )
+    @GetMapping ( value = BASE_PATH + "/labprocedures", params = STREAM )
+    public void streamLabProcedures ( final HttpServletResponse response ) throws IOException {
+        final boolean isHCP = SecurityContextHolder.getContext().getAuthentication().getAuthorities()
+                .contains( new SimpleGrantedAuthority( "ROLE_HCP" ) );
+        if ( isHCP ) {
+            LoggerUtil.log( TransactionType.HCP_VIEW_PROCS, LoggerUtil.currentUser(), null,
+                    "HCP " + LoggerUtil.currentUser() + " Views Lab Procedures" );
+            streamJson( response, out -> LabProcedure.streamLabProcedures( out::write ) );
+        }
+        else {
+            LoggerUtil.log( TransactionType.LABTECH_VIEW_PROCS, LoggerUtil.currentUser(), null,
+                    "LabTech " + LoggerUtil.currentUser() + " Views Their Lab Procedures" );
+            streamJson( response, out -> LabProcedure.streamForLabtech( LoggerUtil.currentUser(), out::write ) );
+        }
+    }
+
+    /**
+     * Retrieves one page of the lab procedures the current user may see, for
+     * `/labprocedures?limit=...`: all of them for an HCP, or a lab tech's own.
+     * The procedures can be filtered and sorted by any of the fields in
+     * LabProcedure.QUERY; see ListQuery for the parameters understood.
+     *
+     * @param params
+     *            The request parameters
+     * @return The page of procedures, or a 400 if the parameters are invalid
+     */
+    @PreAuthorize ( "hasAnyRole('ROLE_HCP', 'ROLE_OD', 'ROLE_OPH', 'ROLE_LABTECH')" )
+    @GetMapping ( value = BASE_PATH + "/labprocedures", params = { PAGE, "!stream" } )
+    public ResponseEntity getLabProceduresPage ( @RequestParam final Map<String, String> params ) {
+        final boolean isHCP = SecurityContextHolder.getContext().getAuthentication().getAuthorities()
+                .contains( new SimpleGrantedAuthority( "ROLE_HCP" ) );
+        if ( isHCP ) {
+            LoggerUtil.log( TransactionType.HCP_VIEW_PROCS, LoggerUtil.currentUser(), null,
+                    "HCP " + LoggerUtil.currentUser() + " Views Lab Procedures" );
+            return page( LabProcedure.QUERY, params, LabProcedure::getPage );
+        }
+        else {
+            LoggerUtil.log( TransactionType.LABTECH_VIEW_PROCS, LoggerUtil.currentUser(), null,
+                    "LabTech " + LoggerUtil.currentUser() + " Views Their Lab Procedures" );
+            return page( LabProcedure.QUERY, params,
+                    q -> LabProcedure.getPageForLabtech( LoggerUtil.currentUser(), q ) );
+        }
+    }
+
     /**
      * Retrieves a list of LabProcedures for a specified LabTech.
      *
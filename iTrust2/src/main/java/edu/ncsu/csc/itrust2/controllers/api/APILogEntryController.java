@@ -6,8 +6,11 @@ import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -38,7 +41,10 @@ public class APILogEntryController extends APIController {
 
     /**
      * Handles GET requests for the current user's log entries when searching by
-     * date and using a page system.
+     * date and using a page system. Only the requested page is read from the
+     * database. If the request carries the time and ID of the last entry on
+     * the previous page, the page is found from there rather than by counting
+     * from the start of the log.
      *
      * @param body
      *            the request body of the GET request
@@ -48,7 +54,8 @@ public class APILogEntryController extends APIController {
     public ResponseEntity getEntryByDateRange ( @RequestBody final LogEntryRequestBody body ) {
         // If no dates are specified, get all entries, otherwise use the date
         // range
-        List<LogEntry> entries = null;
+        ZonedDateTime start = null;
+        ZonedDateTime end = null;
         try {
             if ( body.getStartDate().equals( "" ) || body.getEndDate().equals( "" ) ) {
                 throw new ParseException( "Date", 1 );
@@ -56,14 +63,12 @@ public class APILogEntryController extends APIController {
 
             // Parse in start/end dates as ZonedDateTimes 
             // from ISO date/time or ISO date strings
-            ZonedDateTime start;
             try {
                 start = ZonedDateTime.parse( body.getStartDate() );
             } catch ( DateTimeParseException ex ) {
                 start = LocalDate.parse( body.getStartDate() ).atStartOfDay( ZoneId.systemDefault() );
             }
 
-            ZonedDateTime end;
             try {
                 end = ZonedDateTime.parse( body.getEndDate() ).plusDays( 1 );
             } catch ( DateTimeParseException ex ) {
@@ -73,47 +78,54 @@ public class APILogEntryController extends APIController {
             if ( start.isAfter( end ) ) {
                 return new ResponseEntity( errorResponse( "Start Date is after End Date" ), HttpStatus.NOT_ACCEPTABLE );
             }
-            entries = LogEntry.getByDateRange( start, end );
         }
         catch ( final ParseException ex ) {
-            entries = LogEntry.getAllForUser( LoggerUtil.currentUser() );
+            // No date range, so the whole log is shown
         }
 
-        // If the entries array is null give an error response
-        if ( entries == null ) {
-            return new ResponseEntity( errorResponse( "Error retrieving Log Entries" ),
-                    HttpStatus.INTERNAL_SERVER_ERROR );
+        ZonedDateTime beforeTime = null;
+        if ( null != body.getBeforeTime() && null != body.getBeforeId() ) {
+            try {
+                beforeTime = ZonedDateTime.parse( body.getBeforeTime() );
+            }
+            catch ( final DateTimeParseException ex ) {
+                return new ResponseEntity( errorResponse( "Could not parse page cursor " + body.getBeforeTime() ),
+                        HttpStatus.BAD_REQUEST );
+            }
         }
 
         // Use only log entries that are viewable by the user
-        List<LogEntry> visible;
-        final User user = User.getByName( LoggerUtil.currentUser() );
-        if ( user.getRole() == Role.ROLE_PATIENT ) {
-            visible = new ArrayList<LogEntry>();
-
-            for ( int i = 0; i < entries.size(); i++ ) {
-                final LogEntry le = entries.get( i );
-                if ( le.getLogCode().isPatientViewable() ) {
-                    visible.add( entries.get( i ) );
-                }
-            }
+        final String name = LoggerUtil.currentUser();
+        final User user = User.getByName( name );
+        final boolean patientView = user.getRole() == Role.ROLE_PATIENT;
+
+        final List<LogEntry> page;
+        final long total;
+        try {
+            final int offset = null != beforeTime ? 0 : Math.max( 0, ( body.getPage() - 1 ) * body.getPageLength() );
+            page = LogEntry.getPageForUser( name, patientView, start, end, beforeTime,
+                    null != beforeTime ? body.getBeforeId() : null, offset, body.getPageLength() );
+            total = LogEntry.countForUser( name, patientView, start, end );
         }
-        else {
-            visible = entries;
+        catch ( final Exception e ) {
+            return new ResponseEntity( errorResponse( "Error retrieving Log Entries" ),
+                    HttpStatus.INTERNAL_SERVER_ERROR );
         }
 
-        final int numPages = 1 + visible.size() / body.getPageLength();
-
-        Collections.reverse( visible );
-
-        // Find only the entries that should show up on the page given the page
-        // and page length
-        final List<LogEntry> page = new ArrayList<LogEntry>();
-        for ( int i = 0; i < body.getPageLength(); i++ ) {
-            final int idx = ( body.getPage() - 1 ) * body.getPageLength() + i;
-            if ( idx >= 0 && visible.size() > idx ) {
-                page.add( visible.get( idx ) );
+        final int numPages = (int) ( 1 + total / body.getPageLength() );
+
+        // Patients are shown the role of whoever else is on each entry. Look
+        // up everyone on the page at once rather than once per row.
+        final Map<String, Role> roles = new HashMap<String, Role>();
+        if ( patientView ) {
+            final Set<String> names = new HashSet<String>();
+            for ( final LogEntry le : page ) {
+                final String other = le.getPrimaryUser().equals( name ) ? le.getSecondaryUser() : le.getPrimaryUser();
+                if ( null != other ) {
+                    names.add( other );
+                }
             }
+            User.getByNames( names ).forEach( u -> roles.put( u.getUsername(), u.getRole() ) );
         }
 
         // Turn these log entries into proper table rows for the application to
@@ -131,19 +143,15 @@ public class APILogEntryController extends APIController {
             row.setDateTime( le.getTime().toOffsetDateTime().toString() );
             row.setTransactionType( le.getLogCode().getDescription() );
             row.setNumPages( numPages );
+            row.setId( le.getId() );
 
-            if ( user.getRole() == Role.ROLE_PATIENT ) {
+            if ( patientView ) {
                 row.setPatient( true );
 
-                if ( le.getPrimaryUser().equals( LoggerUtil.currentUser() ) ) {
-                    final User secondary = User.getByName( le.getSecondaryUser() );
-                    if ( secondary != null ) {
-                        row.setRole( secondary.getRole().toString() );
-                    }
-                }
-                else {
-                    final User primary = User.getByName( le.getPrimaryUser() );
-                    row.setRole( primary.getRole().toString() );
+                final Role role = roles.get(
+                        le.getPrimaryUser().equals( name ) ? le.getSecondaryUser() : le.getPrimaryUser() );
+                if ( role != null ) {
+                    row.setRole( role.toString() );
                 }
             }
 
@@ -0,0 +1,35 @@
+package edu.ncsu.csc.itrust2.controllers.api;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import edu.ncsu.csc.itrust2.utils.Metrics;
+
+/**
+ * Provides the server's request, database and queue metrics to admins, in the
+ * Prometheus text format so that they can be scraped as-is.
+ */
+@RestController
+public class APIMetricsController extends APIController {
+
+    /**
+     * Content type of the Prometheus text exposition format
+     */
+    private static final MediaType PROMETHEUS_TEXT = MediaType.parseMediaType( "text/plain; version=0.0.4" );
+
+    /**
+     * Retrieves every metric the server keeps
+     *
+     * @return The metrics, one sample per line
+     */
+    @GetMapping ( BASE_PATH + "/metrics" )
+    @PreAuthorize ( "hasRole('ROLE_ADMIN')" )
+    public ResponseEntity<String> getMetrics () {
+        return ResponseEntity.status( HttpStatus.OK ).contentType( PROMETHEUS_TEXT ).body( Metrics.scrape() );
+    }
+
+}
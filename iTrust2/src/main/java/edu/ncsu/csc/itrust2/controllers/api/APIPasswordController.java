@@ -21,6 +21,7 @@ import edu.ncsu.csc.itrust2.models.persistent.PasswordResetToken;
 import edu.ncsu.csc.itrust2.models.persistent.Patient;
 import edu.ncsu.csc.itrust2.models.persistent.Personnel;
 import edu.ncsu.csc.itrust2.models.persistent.User;
+import edu.ncsu.csc.itrust2.utils.DBUtil;
 import edu.ncsu.csc.itrust2.utils.EmailUtil;
 import edu.ncsu.csc.itrust2.utils.LoggerUtil;
 
@@ -37,7 +38,7 @@ import edu.ncsu.csc.itrust2.utils.LoggerUtil;
 public class APIPasswordController extends APIController {
 
     /** Password encoder instance */
-    static PasswordEncoder pe = new BCryptPasswordEncoder();
+    static PasswordEncoder pe = new BCryptPasswordEncoder( DBUtil.getBCryptStrength() );
 
     @Autowired
     Environment            environment;
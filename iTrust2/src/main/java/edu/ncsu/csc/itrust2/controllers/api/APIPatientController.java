@@ -1,6 +1,10 @@
 package edu.ncsu.csc.itrust2.controllers.api;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -13,12 +17,15 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import edu.ncsu.csc.itrust2.forms.hcp_patient.PatientForm;
 import edu.ncsu.csc.itrust2.models.enums.Role;
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
+import edu.ncsu.csc.itrust2.models.persistent.Page;
 import edu.ncsu.csc.itrust2.models.persistent.Patient;
+import edu.ncsu.csc.itrust2.models.persistent.PatientSummary;
 import edu.ncsu.csc.itrust2.models.persistent.User;
 import edu.ncsu.csc.itrust2.utils.LoggerUtil;
 
@@ -48,6 +55,44 @@ public class APIPatientController extends APIController {
         return patients;
     }
 
+    /**
+     * Streams the list of all Patients, for `/patients?stream=true`
+     *
+     * @param response
+     *            The response to write the patients to
+     * @throws IOException
+     *             If the response cannot be written to
+     */
+    @GetMapping ( value = BASE_PATH + "/patients", params = STREAM )
+    public void streamPatients ( final HttpServletResponse response ) throws IOException {
+        streamJson( response, out -> Patient.streamPatients( p -> {
+            p.setRepresentatives( null );
+            p.setRepresented( null );
+            out.write( p );
+        } ) );
+    }
+
+    /**
+     * Retrieves one page of the Patients, for `/patients?limit=...`. The
+     * patients can be filtered and sorted by any of the fields in
+     * Patient.QUERY; see ListQuery for the parameters understood.
+     *
+     * @param params
+     *            The request parameters
+     * @return The page of patients, or a 400 if the parameters are invalid
+     */
+    @GetMapping ( value = BASE_PATH + "/patients", params = { PAGE, "!stream" } )
+    public ResponseEntity getPatientsPage ( @RequestParam final Map<String, String> params ) {
+        return page( Patient.QUERY, params, q -> {
+            final Page<Patient> page = Patient.getPage( q );
+            for ( final Patient p : page.getItems() ) {
+                p.setRepresentatives( null );
+                p.setRepresented( null );
+            }
+            return page;
+        } );
+    }
+
     /**
      * If you are logged in as a patient, then you can use this convenience
      * lookup to find your own information without remembering your id. This
@@ -97,6 +142,58 @@ public class APIPatientController extends APIController {
         }
     }
 
+    /**
+     * Retrieves the clinical summary of the currently authenticated patient:
+     * their demographics, latest vitals, recent diagnoses and current
+     * prescriptions
+     *
+     * @return The summary for the currently authenticated user
+     */
+    @GetMapping ( BASE_PATH + "/patient/summary" )
+    @PreAuthorize ( "hasRole('ROLE_PATIENT')" )
+    public ResponseEntity getPatientSummary () {
+        final String username = LoggerUtil.currentUser();
+        final PatientSummary summary = PatientSummary.getForPatient( username );
+        if ( summary == null ) {
+            return new ResponseEntity( errorResponse( "Could not find a patient entry for you, " + username ),
+                    HttpStatus.NOT_FOUND );
+        }
+        LoggerUtil.log( TransactionType.VIEW_DEMOGRAPHICS, username, "Retrieved summary for user " + username );
+        return new ResponseEntity( summary, HttpStatus.OK );
+    }
+
+    /**
+     * Retrieves the clinical summary of the Patient with the username provided
+     *
+     * @param username
+     *            The username of the Patient
+     * @return The summary, or a 404 if there is no such patient
+     */
+    @GetMapping ( BASE_PATH + "/patients/{username}/summary" )
+    @PreAuthorize ( "hasAnyRole('ROLE_HCP', 'ROLE_OD', 'ROLE_OPH', 'ROLE_ER')" )
+    public ResponseEntity getPatientSummary ( @PathVariable ( "username" ) final String username ) {
+        final PatientSummary summary = PatientSummary.getForPatient( username );
+        if ( summary == null ) {
+            return new ResponseEntity( errorResponse( "No Patient found for username " + username ),
+                    HttpStatus.NOT_FOUND );
+        }
+        LoggerUtil.log( TransactionType.PATIENT_DEMOGRAPHICS_VIEW, LoggerUtil.currentUser(), username,
+                "HCP retrieved summary for patient with username " + username );
+        return new ResponseEntity( summary, HttpStatus.OK );
+    }
+
+    /**
+     * Rebuilds every patient's clinical summary from their records, for
+     * backfilling existing data
+     *
+     * @return The number of summaries rebuilt
+     */
+    @PostMapping ( BASE_PATH + "/patientsummaries/rebuild" )
+    @PreAuthorize ( "hasRole('ROLE_ADMIN')" )
+    public ResponseEntity rebuildPatientSummaries () {
+        return new ResponseEntity( PatientSummary.rebuildAll(), HttpStatus.OK );
+    }
+
     /**
      * Creates a new Patient record for a User from the RequestBody provided.
      *
@@ -2,6 +2,7 @@ package edu.ncsu.csc.itrust2.controllers.api;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -11,6 +12,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import edu.ncsu.csc.itrust2.forms.personnel.PersonnelForm;
@@ -41,6 +43,20 @@ public class APIPersonnelController extends APIController {
         return Personnel.getPersonnel();
     }
 
+    /**
+     * Retrieves one page of the Personnel, for `/personnel?limit=...`. The
+     * personnel can be filtered and sorted by any of the fields in
+     * Personnel.QUERY; see ListQuery for the parameters understood.
+     *
+     * @param params
+     *            The request parameters
+     * @return The page of personnel, or a 400 if the parameters are invalid
+     */
+    @GetMapping ( value = BASE_PATH + "/personnel", params = PAGE )
+    public ResponseEntity getPersonnelPage ( @RequestParam final Map<String, String> params ) {
+        return page( Personnel.QUERY, params, Personnel::getPage );
+    }
+
     /**
      * Retrieves and returns the Personnel with the username provided
      *
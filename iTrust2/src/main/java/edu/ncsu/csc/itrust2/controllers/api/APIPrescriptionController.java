@@ -1,6 +1,10 @@
 package edu.ncsu.csc.itrust2.controllers.api;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -11,6 +15,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import edu.ncsu.csc.itrust2.forms.hcp.PrescriptionForm;
@@ -140,6 +145,59 @@ public class APIPrescriptionController extends APIController {
         }
     }
 
+    /**
+     * Streams the prescriptions the current user may see, for
+     * `/prescriptions?stream=true`: all of them for a doctor, or a patient's
+     * own
+     *
+     * @param response
+     *            The response to write the prescriptions to
+     * @throws IOException
+     *             If the response cannot be written to
+     */
+    @PreAuthorize ( "hasAnyRole('ROLE_HCP', 'ROLE_OD', 'ROLE_OPH', 'ROLE_PATIENT')" )
+    @GetMapping ( value = BASE_PATH + "/prescriptions", params = STREAM )
+    public void streamPrescriptions ( final HttpServletResponse response ) throws IOException {
+        final User self = User.getByName( LoggerUtil.currentUser() );
+        if ( self.isDoctor() ) {
+            LoggerUtil.log( TransactionType.PRESCRIPTION_VIEW, LoggerUtil.currentUser(),
+                    "HCP viewed a list of all prescriptions" );
+            streamJson( response, out -> Prescription.streamPrescriptions( out::write ) );
+        }
+        else {
+            LoggerUtil.log( TransactionType.PATIENT_PRESCRIPTION_VIEW, LoggerUtil.currentUser(),
+                    "Patient viewed a list of their prescriptions" );
+            streamJson( response, out -> Prescription.streamForPatient( self, out::write ) );
+        }
+    }
+
+    /**
+     * Retrieves one page of the prescriptions the current user may see, for
+     * `/prescriptions?limit=...`: all of them for a doctor, or a patient's own.
+     * The prescriptions can be filtered and sorted by any of the fields in
+     * Prescription.QUERY; see ListQuery for the parameters understood.
+     *
+     * @param params
+     *            The request parameters
+     * @return The page of prescriptions, or a 400 if the parameters are
+     *         invalid
+     */
+    @PreAuthorize ( "hasAnyRole('ROLE_HCP', 'ROLE_OD', 'ROLE_OPH', 'ROLE_PATIENT')" )
+    @GetMapping ( value = BASE_PATH + "/prescriptions", params = { PAGE, "!stream" } )
+    public ResponseEntity getPrescriptionsPage ( @RequestParam final Map<String, String> params ) {
+        final User self = User.getByName( LoggerUtil.currentUser() );
+        if ( self.isDoctor() ) {
+            LoggerUtil.log( TransactionType.PRESCRIPTION_VIEW, LoggerUtil.currentUser(),
+                    "HCP viewed a list of all prescriptions" );
+            return page( Prescription.QUERY, params, Prescription::getPage );
+        }
+        else {
+            LoggerUtil.log( TransactionType.PATIENT_PRESCRIPTION_VIEW, LoggerUtil.currentUser(),
+                    "Patient viewed a list of their prescriptions" );
+            return page( Prescription.QUERY, params, q -> Prescription.getPageForPatient( self, q ) );
+        }
+    }
+
     /**
      * Returns a single prescription using the given id.
      *
@@ -1,6 +1,10 @@
 package edu.ncsu.csc.itrust2.controllers.api;
 
+import java.io.IOException;
 import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
 
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -15,6 +19,7 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import edu.ncsu.csc.itrust2.forms.admin.UserForm;
@@ -67,6 +72,35 @@ public class APIUserController extends APIController {
         return User.getUsers();
     }
 
+    /**
+     * Streams the list of all Users, for `/users?stream=true`
+     *
+     * @param response
+     *            The response to write the users to
+     * @throws IOException
+     *             If the response cannot be written to
+     */
+    @GetMapping ( value = BASE_PATH + "/users", params = STREAM )
+    public void streamUsers ( final HttpServletResponse response ) throws IOException {
+        LoggerUtil.log( TransactionType.VIEW_USERS, LoggerUtil.currentUser() );
+        streamJson( response, out -> User.streamUsers( out::write ) );
+    }
+
+    /**
+     * Retrieves one page of the Users, for `/users?limit=...`. The users can be
+     * filtered and sorted by any of the fields in User.QUERY; see ListQuery
+     * for the parameters understood.
+     *
+     * @param params
+     *            The request parameters
+     * @return The page of users, or a 400 if the parameters are invalid
+     */
+    @GetMapping ( value = BASE_PATH + "/users", params = { PAGE, "!stream" } )
+    public ResponseEntity getUsersPage ( @RequestParam final Map<String, String> params ) {
+        LoggerUtil.log( TransactionType.VIEW_USERS, LoggerUtil.currentUser() );
+        return page( User.QUERY, params, User::getPage );
+    }
+
     /**
      * Retrieves and returns the user with the username provided
      *
@@ -20,6 +20,15 @@ public class LogEntryRequestBody {
     /** Number of items per page */
     public int    pageLength;
 
+    /**
+     * Date/time of the last entry on the previous page (optional). When given
+     * along with beforeId, the page starts right after that entry rather than
+     * at an offset computed from the page number.
+     */
+    public String beforeTime;
+    /** ID of the last entry on the previous page (optional) */
+    public Long   beforeId;
+
     /**
      * Empty Constructor required for spring to use this as a RequestBody
      */
@@ -103,4 +112,42 @@ public class LogEntryRequestBody {
         this.pageLength = pageLength;
     }
 
+    /**
+     * Gets the date/time of the last entry on the previous page
+     *
+     * @return date/time of the last entry seen, or null
+     */
+    public String getBeforeTime () {
+        return beforeTime;
+    }
+
+    /**
+     * Sets the date/time of the last entry on the previous page
+     *
+     * @param beforeTime
+     *            date/time of the last entry seen
+     */
+    public void setBeforeTime ( final String beforeTime ) {
+        this.beforeTime = beforeTime;
+    }
+
+    /**
+     * Gets the ID of the last entry on the previous page
+     *
+     * @return ID of the last entry seen, or null
+     */
+    public Long getBeforeId () {
+        return beforeId;
+    }
+
+    /**
+     * Sets the ID of the last entry on the previous page
+     *
+     * @param beforeId
+     *            ID of the last entry seen
+     */
+    public void setBeforeId ( final Long beforeId ) {
+        this.beforeId = beforeId;
+    }
+
 }
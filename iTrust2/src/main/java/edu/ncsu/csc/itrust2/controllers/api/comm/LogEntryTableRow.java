@@ -22,6 +22,8 @@ public class LogEntryTableRow {
     private boolean isPatient = false;
     /** total number of pages in the table */
     private int     numPages  = 1;
+    /** ID of the log entry, used as the cursor for the next page */
+    private Long    id;
 
     /**
      * Empty constructor so that Spring is able to use this class for
@@ -165,4 +167,24 @@ public class LogEntryTableRow {
         this.transactionType = transactionType;
     }
 
+    /**
+     * Gets the ID of the log entry. Sent back along with the date/time as the
+     * cursor for the next page.
+     *
+     * @return ID of the log entry
+     */
+    public Long getId () {
+        return id;
+    }
+
+    /**
+     * Sets the ID of the log entry.
+     *
+     * @param id
+     *            ID of the log entry
+     */
+    public void setId ( final Long id ) {
+        this.id = id;
+    }
+
 }
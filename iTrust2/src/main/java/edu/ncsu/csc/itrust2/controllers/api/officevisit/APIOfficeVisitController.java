@@ -1,10 +1,17 @@
 package edu.ncsu.csc.itrust2.controllers.api.officevisit;
 
+import java.io.IOException;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import edu.ncsu.csc.itrust2.controllers.api.APIController;
@@ -43,35 +50,93 @@ public class APIOfficeVisitController extends APIController {
     }
 
     /**
-     * Retrieves all of the office visits for the current HCP.
+     * Streams the list of all OfficeVisits, for `/officevisits?stream=true`
+     *
+     * @param response
+     *            The response to write the visits to
+     * @throws IOException
+     *             If the response cannot be written to
+     */
+    @GetMapping ( value = BASE_PATH + "/officevisits", params = STREAM )
+    @PreAuthorize ( "hasRole('ROLE_HCP') or hasRole('ROLE_OD') or hasRole('ROLE_OPH')" )
+    public void streamOfficeVisits ( final HttpServletResponse response ) throws IOException {
+        streamJson( response, out -> OfficeVisit.streamOfficeVisits( out::write ) );
+    }
+
+    /**
+     * Retrieves one page of the OfficeVisits of every type, for
+     * `/officevisits?limit=...`. The visits can be filtered and sorted by any
+     * of the fields in OfficeVisit.QUERY; see ListQuery for the parameters
+     * understood.
      *
+     * @param params
+     *            The request parameters
+     * @return The page of visits, or a 400 if the parameters are invalid
+     */
+    @GetMapping ( value = BASE_PATH + "/officevisits", params = { PAGE, "!stream" } )
+    @PreAuthorize ( "hasRole('ROLE_HCP') or hasRole('ROLE_OD') or hasRole('ROLE_OPH')" )
+    public ResponseEntity getOfficeVisitsPage ( @RequestParam final Map<String, String> params ) {
+        return page( OfficeVisit.QUERY, params, OfficeVisit::getPage );
+    }
+
+    /**
+     * Retrieves all of the office visits for the current HCP. Which kinds of
+     * visit are included depends on the HCP's role; all of them are read by a
+     * single query. A page of the list, oldest visits first, can be requested
+     * with `page` (starting from 1) and `pageLength`.
+     *
+     * @param page
+     *            Page to retrieve, starting from 1
+     * @param pageLength
+     *            Visits per page, or 0 for all of them
      * @return all of the office visits for the current HCP.
      */
     @GetMapping ( BASE_PATH + "/officevisits/HCP" )
-    public List<OfficeVisit> getOfficeVisitsForHCP () {
+    public List<OfficeVisit> getOfficeVisitsForHCP ( @RequestParam ( value = "page", defaultValue = "1" ) final int page,
+            @RequestParam ( value = "pageLength", defaultValue = "0" ) final int pageLength ) {
         final User self = User.getByName( LoggerUtil.currentUser() );
-        final List<OfficeVisit> visits = OfficeVisit.getForType( AppointmentType.GENERAL_CHECKUP );
+        final EnumSet<AppointmentType> types = EnumSet.of( AppointmentType.GENERAL_CHECKUP );
         if ( self.getRole() == Role.ROLE_OPH ) {
-            visits.addAll( OfficeVisit.getForType( AppointmentType.GENERAL_OPHTHALMOLOGY ) );
-            visits.addAll( OfficeVisit.getForType( AppointmentType.OPHTHALMOLOGY_SURGERY ) );
+            types.add( AppointmentType.GENERAL_OPHTHALMOLOGY );
+            types.add( AppointmentType.OPHTHALMOLOGY_SURGERY );
         }
         else if ( self.getRole() == Role.ROLE_OD ) {
-            visits.addAll( OfficeVisit.getForType( AppointmentType.GENERAL_OPHTHALMOLOGY ) );
+            types.add( AppointmentType.GENERAL_OPHTHALMOLOGY );
         }
-        return visits;
+        return OfficeVisit.getForTypes( types, firstOf( page, pageLength ), Math.max( pageLength, 0 ) );
     }
 
     /**
-     * Retrieves a list of all OfficeVisits in the database
+     * Retrieves a list of all OfficeVisits for the current patient, oldest
+     * first. A page of the list can be requested with `page` (starting from
+     * 1) and `pageLength`.
      *
+     * @param page
+     *            Page to retrieve, starting from 1
+     * @param pageLength
+     *            Visits per page, or 0 for all of them
      * @return list of office visits
      */
     @GetMapping ( BASE_PATH + "/officevisits/myofficevisits" )
     @PreAuthorize ( "hasRole('ROLE_PATIENT')" )
-    public List<OfficeVisit> getMyOfficeVisits () {
+    public List<OfficeVisit> getMyOfficeVisits ( @RequestParam ( value = "page", defaultValue = "1" ) final int page,
+            @RequestParam ( value = "pageLength", defaultValue = "0" ) final int pageLength ) {
         final User self = User.getByName( LoggerUtil.currentUser() );
         LoggerUtil.log( TransactionType.VIEW_ALL_OFFICE_VISITS, self );
-        return OfficeVisit.getForPatient( self.getId() );
+        return OfficeVisit.getForPatient( self.getId(), firstOf( page, pageLength ), Math.max( pageLength, 0 ) );
+    }
+
+    /**
+     * Index of the first visit on a page
+     *
+     * @param page
+     *            The page, starting from 1
+     * @param pageLength
+     *            Visits per page, or 0 if the list isn't paged
+     * @return Number of visits to skip
+     */
+    private static int firstOf ( final int page, final int pageLength ) {
+        return pageLength > 0 ? Math.max( page - 1, 0 ) * pageLength : 0;
     }
 
     /**
@@ -2,17 +2,15 @@ package edu.ncsu.csc.itrust2.forms.personnel;
 
 import java.io.Serializable;
 import java.time.LocalDate;
-import java.time.Period;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
 import java.util.ArrayList;
-import java.util.Date;
 import java.util.List;
 
 import org.hibernate.validator.constraints.NotEmpty;
 
+import edu.ncsu.csc.itrust2.models.enums.Role;
 import edu.ncsu.csc.itrust2.models.persistent.Diagnosis;
 import edu.ncsu.csc.itrust2.models.persistent.Patient;
+import edu.ncsu.csc.itrust2.models.persistent.PatientSummary;
 import edu.ncsu.csc.itrust2.models.persistent.Prescription;
 import edu.ncsu.csc.itrust2.models.persistent.User;
 
@@ -21,6 +19,11 @@ import edu.ncsu.csc.itrust2.models.persistent.User;
  * well as recent prescriptions and diagnoses associated with the patient. Can
  * be created/called as either an HCP or an ER.
  *
+ * Since this is used in the ER, the whole record is read from the patient's
+ * PatientSummary, which is a single lookup however many visits and
+ * prescriptions they have had. The patient returned is built from the summary
+ * too, and is not the saved record.
+ *
  * @author Alexander Phelps
  *
  */
@@ -88,6 +91,16 @@ public class EmergencyRecordForm implements Serializable {
      */
     private List<Prescription> prescriptions;
 
+    /**
+     * What the record is read from; null if there is no such patient
+     */
+    private transient PatientSummary summary;
+
+    /**
+     * The date the record is as of
+     */
+    private transient LocalDate today = LocalDate.now();
+
     /**
      * Creates an EmergencyRecordForm from the patient provided
      *
@@ -122,7 +135,19 @@ public class EmergencyRecordForm implements Serializable {
      *            The username of the patient to grab.
      */
     public void setPatient ( final String user ) {
-        this.patient = Patient.getByName( user );
+        this.summary = PatientSummary.getForPatient( user );
+        if ( null == summary ) {
+            this.patient = null;
+            return;
+        }
+        final Patient p = new Patient( new User( summary.getUsername(), null, Role.ROLE_PATIENT, 1 ) );
+        p.setFirstName( summary.getFirstName() );
+        p.setPreferredName( summary.getPreferredName() );
+        p.setLastName( summary.getLastName() );
+        p.setDateOfBirth( summary.getDateOfBirth() );
+        p.setGender( summary.getGender() );
+        p.setBloodType( summary.getBloodType() );
+        this.patient = p;
     }
 
     /**
@@ -176,8 +201,7 @@ public class EmergencyRecordForm implements Serializable {
      */
     void setAge () {
         try {
-            final LocalDate dob = this.patient.getDateOfBirth();
-            this.age = Integer.toString( Period.between( dob, LocalDate.now() ).getYears() );
+            this.age = this.summary.getAge( today ).toString();
         } catch ( final NullPointerException e ) {
             this.age = "NA";
         }
@@ -268,21 +292,7 @@ public class EmergencyRecordForm implements Serializable {
      */
     public void setDiagnoses () {
         try {
-            final List<Diagnosis> allDiagnoses = Diagnosis
-                    .getForPatient( User.getByName( this.patient.getSelf().getUsername() ) );
-            final List<Diagnosis> recentDiagnoses = new ArrayList<Diagnosis>();
-
-            final Date date = new Date();
-            final LocalDate now = date.toInstant().atZone( ZoneId.systemDefault() ).toLocalDate();
-            for ( final Diagnosis diag : allDiagnoses ) {
-                final ZonedDateTime officeVisitDate = diag.getVisit().getDate();
-                final LocalDate diagnosisDate = officeVisitDate.toInstant().atZone( ZoneId.systemDefault() )
-                        .toLocalDate();
-                if ( Period.between( diagnosisDate, now ).getDays() <= 60 ) {
-                    recentDiagnoses.add( diag );
-                }
-            }
-            this.diagnoses = recentDiagnoses;
+            this.diagnoses = this.summary.getRecentDiagnoses( today );
         }
         catch ( final NullPointerException e ) {
             this.diagnoses = new ArrayList<Diagnosis>();
@@ -304,19 +314,7 @@ public class EmergencyRecordForm implements Serializable {
      */
     public void setPrescriptions () {
         try {
-            final List<Prescription> allPrescriptions = Prescription
-                    .getForPatient( this.patient.getSelf().getUsername() );
-            final List<Prescription> recentPrescriptions = new ArrayList<Prescription>();
-
-            final Date date = new Date();
-            final LocalDate now = date.toInstant().atZone( ZoneId.systemDefault() ).toLocalDate();
-            for ( final Prescription drug : allPrescriptions ) {
-                final LocalDate endDate = drug.getEndDate();
-                if ( Period.between( endDate, now ).getDays() <= 90 || now.isBefore( endDate ) ) {
-                    recentPrescriptions.add( drug );
-                }
-            }
-            this.prescriptions = recentPrescriptions;
+            this.prescriptions = this.summary.getRecentPrescriptions( today );
         }
         catch ( final NullPointerException e ) {
             this.prescriptions = new ArrayList<Prescription>();
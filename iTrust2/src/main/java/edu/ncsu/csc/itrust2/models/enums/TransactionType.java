@@ -1,5 +1,8 @@
 package edu.ncsu.csc.itrust2.models.enums;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * A TransactionType represents an event that took place in the system and that
  * is to be logged. This is used to provide a code that can easily be saved in
@@ -7,7 +10,10 @@ package edu.ncsu.csc.itrust2.models.enums;
  * user. Also stores whether the event is patient-visible.
  *
  * As new functionality is added to iTrust2, add in new TransactionType codes
- * representing the event.
+ * representing the event. LogEntries are stored by code, so each code must be
+ * unique and must never be changed once in use. Until every database has been
+ * through LogCodeMigration, which re-codes the entries written by ordinal,
+ * add new constants at the end and do not reorder the others.
  *
  * @author Kai Presler-Marshall
  * @author Jack MacDonald
@@ -382,7 +388,7 @@ public enum TransactionType {
     /**
      * Patient deletes ophthalmology surgery
      */
-    PATIENT_DELETES_OPH_SURG(2013, "Patient deletes ophthalmology surgery", false),
+    PATIENT_DELETES_OPH_SURG(2014, "Patient deletes ophthalmology surgery", false),
     /**
      * OPH approves appointment request
      */
@@ -394,11 +400,11 @@ public enum TransactionType {
     /**
      * OPH approves surgery request
      */
-    OPH_SURG_REQ_APPROVED(2020, "OPH approves surgery request", true),
+    OPH_SURG_REQ_APPROVED(2022, "OPH approves surgery request", true),
     /**
      * OPH denies surgery request
      */
-    OPH_SURG_REQ_DENIED(2020, "OPH denies surgery request", true),
+    OPH_SURG_REQ_DENIED(2023, "OPH denies surgery request", true),
     /**
      * OPH updates appointment request
      */
@@ -465,6 +471,31 @@ public enum TransactionType {
         this.patientView = patientViewable;
     }
 
+    /**
+     * Each TransactionType by its code
+     */
+    private static final Map<Integer, TransactionType> BY_CODE = new HashMap<Integer, TransactionType>();
+
+    static {
+        for ( final TransactionType type : values() ) {
+            final TransactionType other = BY_CODE.put( type.code, type );
+            if ( null != other ) {
+                throw new IllegalStateException( type + " and " + other + " share the code " + type.code );
+            }
+        }
+    }
+
+    /**
+     * Finds the TransactionType with the given code
+     *
+     * @param code
+     *            Code of the event
+     * @return The matching TransactionType, or null if there is none
+     */
+    public static TransactionType parse ( final int code ) {
+        return BY_CODE.get( code );
+    }
+
     /**
      * Code of the TransactionType, from the iTrust2 wiki.
      */
@@ -2,6 +2,7 @@ package edu.ncsu.csc.itrust2.models.persistent;
 
 import java.text.ParseException;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
 
@@ -13,6 +14,7 @@ import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
@@ -38,9 +40,32 @@ import edu.ncsu.csc.itrust2.models.enums.Status;
  */
 
 @Entity
-@Table ( name = "AppointmentRequests" )
+@Table ( name = "AppointmentRequests", indexes = { @Index ( columnList = "date" ),
+        @Index ( columnList = "status,date" ) } )
 public class AppointmentRequest extends DomainObject<AppointmentRequest> {
 
+    /**
+     * Fields the list of appointment requests can be filtered and sorted by
+     */
+    public static final QuerySchema<AppointmentRequest> QUERY = new QuerySchema<AppointmentRequest>(
+            AppointmentRequest.class, "id", "id", QuerySchema.LONG, AppointmentRequest::getId )
+                    .field( "patient", "patient.username", QuerySchema.STRING, r -> r.getPatient().getUsername() )
+                    .field( "hcp", "hcp.username", QuerySchema.STRING, r -> r.getHcp().getUsername() )
+                    .field( "date", "date", QuerySchema.TIME, AppointmentRequest::getDate )
+                    .field( "type", "type", QuerySchema.enumOf( AppointmentType.class ), AppointmentRequest::getType )
+                    .field( "status", "status", QuerySchema.enumOf( Status.class ), AppointmentRequest::getStatus );
+
+    /**
+     * Get one page of the appointment requests, filtered and sorted as asked
+     *
+     * @param query
+     *            The filters, sort order and page
+     * @return The page of appointment requests
+     */
+    public static Page<AppointmentRequest> getPage ( final ListQuery<AppointmentRequest> query ) {
+        return getPage( query, new ArrayList<Criterion>() );
+    }
+
     /**
      * Retrieve an AppointmentRequest by its numerical ID.
      *
@@ -1,11 +1,10 @@
 package edu.ncsu.csc.itrust2.models.persistent;
 
+import java.util.Comparator;
 import java.util.List;
-import java.util.Vector;
 
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
@@ -13,6 +12,9 @@ import javax.persistence.Table;
 import javax.validation.constraints.NotNull;
 
 import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.DetachedCriteria;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Subqueries;
 
 /**
  * Class to represent a Diagnosis made by an HCP as part of an Office Visit
@@ -33,7 +35,7 @@ public class Diagnosis extends DomainObject<Diagnosis> {
     private String      note;
 
     @Id
-    @GeneratedValue ( strategy = GenerationType.AUTO )
+    @GeneratedValue ( generator = "pooledIds" )
     private Long        id;
 
     @NotNull
@@ -149,21 +151,40 @@ public class Diagnosis extends DomainObject<Diagnosis> {
      * @return The list of Diagnoses
      */
     public static List<Diagnosis> getByVisit ( final Long id ) {
-        return getWhere( eqList( "visit", OfficeVisit.getById( id ) ) );
+        return getWhere( eqList( "visit.id", id ) );
     }
 
     /**
-     * Returns a list of diagnoses for the specified Patient
+     * Returns a list of diagnoses for the specified Patient, ordered by the
+     * date of the visit they were made at. The diagnoses from every visit are
+     * read by a single query, however many visits the patient has had.
      *
      * @param user
      *            The patient to get diagnoses for
      * @return The list of diagnoses
      */
     public static List<Diagnosis> getForPatient ( final User user ) {
-        final List<Diagnosis> diagnoses = new Vector<Diagnosis>();
-        OfficeVisit.getForPatient( user.getId() ).stream().map( OfficeVisit::getId )
-                .forEach( e -> diagnoses.addAll( getByVisit( e ) ) );
+        final DetachedCriteria visits = DetachedCriteria.forClass( GeneralCheckup.class )
+                .add( eq( "patient", user ) ).setProjection( Projections.id() );
+        final List<Diagnosis> diagnoses = getWhere( createCriterionList( Subqueries.propertyIn( "visit", visits ) ) );
+        diagnoses.sort( Comparator.comparing( ( final Diagnosis d ) -> d.getVisit().getDate() )
+                .thenComparing( d -> d.getVisit().getId() ).thenComparing( Diagnosis::getId ) );
         return diagnoses;
+    }
 
+    /**
+     * Keeps the patient's PatientSummary up to date with this diagnosis
+     */
+    @Override
+    protected void afterSave () {
+        PatientSummary.diagnosisSaved( this );
+    }
+
+    /**
+     * Removes this diagnosis from the patient's PatientSummary
+     */
+    @Override
+    protected void afterDelete () {
+        PatientSummary.diagnosisDeleted( this );
     }
 }
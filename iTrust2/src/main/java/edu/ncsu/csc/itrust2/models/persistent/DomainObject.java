@@ -1,20 +1,39 @@
 package edu.ncsu.csc.itrust2.models.persistent;
 
 import java.io.Serializable;
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
-import java.util.Arrays;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
+import org.hibernate.CacheMode;
 import org.hibernate.Criteria;
+import org.hibernate.FetchMode;
+import org.hibernate.FlushMode;
+import org.hibernate.Hibernate;
+import org.hibernate.HibernateException;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projection;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.metadata.ClassMetadata;
+import org.hibernate.persister.entity.EntityPersister;
 import org.springframework.transaction.annotation.Transactional;
 
+import edu.ncsu.csc.itrust2.utils.DBUtil;
 import edu.ncsu.csc.itrust2.utils.HibernateUtil;
+import edu.ncsu.csc.itrust2.utils.ReferenceDataCache;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
 
 /**
  * The common super-class for all database entities. This is done to centralize
@@ -31,6 +50,14 @@ import edu.ncsu.csc.itrust2.utils.HibernateUtil;
  * performance out of the underlying database system. It is not _required_ but
  * is better to have it than not.
  *
+ * By default each helper opens and commits its own Session. When a UnitOfWork
+ * is active on the current thread (for instance, for the duration of an HTTP
+ * request) they all join its Session and transaction instead.
+ *
+ * Saving or deleting anything drops the cached list (if there is one) of that
+ * class in ReferenceDataCache, and then calls {@link #afterSave()} or
+ * {@link #afterDelete()}.
+ *
  * @author Kai Presler-Marshall
  *
  * @param <D>
@@ -58,6 +85,9 @@ public abstract class DomainObject <D extends DomainObject<D>> {
      */
     @Transactional ( readOnly = true )
     protected static List< ? extends DomainObject> getAll ( final Class cls ) {
+        if ( UnitOfWork.isActive() ) {
+            return UnitOfWork.currentSession().createCriteria( cls ).list();
+        }
         List< ? extends DomainObject> results = null;
         final Session session = HibernateUtil.openSession();
         try {
@@ -82,7 +112,8 @@ public abstract class DomainObject <D extends DomainObject<D>> {
     /**
      * When we want to perform an update, rather than deleting and re-creating,
      * we can perform a copyFrom instead. This is advantageous because it's
-     * faster and won't break references.
+     * faster and won't break references. The fields of each class are looked
+     * up only once; see FieldCopier.
      *
      * @param other
      *            Object to copy from
@@ -93,33 +124,7 @@ public abstract class DomainObject <D extends DomainObject<D>> {
         if ( !this.getClass().equals( other.getClass() ) ) {
             throw new IllegalArgumentException( "Cannot copy between different types!" );
         }
-        final List<Field> fields = Arrays.asList( this.getClass().getDeclaredFields() );
-        try {
-            for ( final Field f : fields ) {
-                final Integer modifiers = f.getModifiers();
-                if ( Modifier.isFinal( modifiers ) ) {
-                    continue;
-                }
-
-                f.setAccessible( true );
-                boolean id = false;
-                final List<Annotation> annotations = Arrays.asList( f.getAnnotations() );
-                for ( final Annotation annotation : annotations ) {
-                    if ( annotation.annotationType().equals( javax.persistence.Id.class ) ) {
-                        id = true;
-                    }
-                }
-                if ( ( id && includeId ) || !id ) {
-                    f.set( this, f.get( other ) );
-                }
-
-            }
-
-        }
-        catch ( final Exception e ) {
-            throw new IllegalArgumentException( e );
-        }
-
+        FieldCopier.forClass( this.getClass() ).copy( this, other, includeId );
     }
 
     /**
@@ -139,16 +144,230 @@ public abstract class DomainObject <D extends DomainObject<D>> {
      */
     @Transactional ( readOnly = true )
     protected static List< ? extends DomainObject> getWhere ( final Class cls, final List<Criterion> criteriaList ) {
+        return getWhere( cls, criteriaList, Collections.emptyList(), 0 );
+    }
+
+    /**
+     * Retrieves the first few DomainObjects matching the criteria, in the
+     * order given. The ordering and the limit are both applied by the
+     * database, so this is the method to use when only a page of a large
+     * table is needed.
+     *
+     * @param cls
+     *            Subclass of DomainObject to retrieve
+     * @param criteriaList
+     *            List of Criterion to AND together and search by
+     * @param order
+     *            Orderings to sort by, most significant first
+     * @param maxResults
+     *            Maximum number of records to retrieve, or 0 for all of them
+     * @return The resulting list of elements found
+     */
+    @Transactional ( readOnly = true )
+    protected static List< ? extends DomainObject> getWhere ( final Class cls, final List<Criterion> criteriaList,
+            final List<Order> order, final int maxResults ) {
+        return getWhere( cls, criteriaList, order, 0, maxResults );
+    }
+
+    /**
+     * Retrieves one page of the DomainObjects matching the criteria, in the
+     * order given. Both the ordering and the page are applied by the database.
+     *
+     * @param cls
+     *            Subclass of DomainObject to retrieve
+     * @param criteriaList
+     *            List of Criterion to AND together and search by
+     * @param order
+     *            Orderings to sort by, most significant first
+     * @param firstResult
+     *            Number of matching records to skip
+     * @param maxResults
+     *            Maximum number of records to retrieve, or 0 for all of them
+     * @return The resulting list of elements found
+     */
+    @Transactional ( readOnly = true )
+    protected static List< ? extends DomainObject> getWhere ( final Class cls, final List<Criterion> criteriaList,
+            final List<Order> order, final int firstResult, final int maxResults ) {
+        if ( UnitOfWork.isActive() ) {
+            return buildCriteria( UnitOfWork.currentSession(), cls, criteriaList, order, firstResult, maxResults )
+                    .list();
+        }
         final Session session = HibernateUtil.openSession();
 
         List< ? extends DomainObject> results = null;
+        try {
+            session.beginTransaction();
+            results = buildCriteria( session, cls, criteriaList, order, firstResult, maxResults ).list();
+        }
+        finally {
+            try {
+                session.getTransaction().commit();
+                session.close();
+            }
+            catch ( final Exception e ) {
+                e.printStackTrace( System.out );
+                // Continue
+            }
+        }
+
+        return results;
+    }
+
+    /**
+     * Builds the Criteria query used by getWhere
+     *
+     * @param session
+     *            Session to build the query in
+     * @param cls
+     *            Subclass of DomainObject to retrieve
+     * @param criteriaList
+     *            List of Criterion to AND together
+     * @param order
+     *            Orderings to sort by
+     * @param firstResult
+     *            Number of records to skip
+     * @param maxResults
+     *            Maximum number of records, or 0 for no limit
+     * @return The Criteria query
+     */
+    private static Criteria buildCriteria ( final Session session, final Class cls,
+            final List<Criterion> criteriaList, final List<Order> order, final int firstResult,
+            final int maxResults ) {
+        final Criteria c = session.createCriteria( cls );
+        for ( final Criterion criterion : criteriaList ) {
+            c.add( criterion );
+        }
+        for ( final Order o : order ) {
+            c.addOrder( o );
+        }
+        if ( firstResult > 0 ) {
+            c.setFirstResult( firstResult );
+        }
+        if ( maxResults > 0 ) {
+            c.setMaxResults( maxResults );
+        }
+        return c;
+    }
+
+    /**
+     * Makes the query read the class's collections with selects of their own
+     * rather than joining them in. A joined collection repeats its owner's
+     * row once per element, which breaks LIMIT and scrolling.
+     *
+     * @param c
+     *            The query
+     * @param session
+     *            Session the query was built in
+     * @param cls
+     *            Subclass of DomainObject the query is for
+     * @return The query
+     */
+    private static Criteria fetchCollectionsBySelect ( final Criteria c, final Session session, final Class cls ) {
+        final ClassMetadata meta = session.getSessionFactory().getClassMetadata( cls );
+        for ( final String property : meta.getPropertyNames() ) {
+            if ( meta.getPropertyType( property ).isCollectionType() ) {
+                c.setFetchMode( property, FetchMode.SELECT );
+            }
+        }
+        return c;
+    }
+
+    /**
+     * Retrieves one page of the DomainObjects matching the base criteria and
+     * the query's filters, in the query's order, along with the total count if
+     * the query asks for it. The filters, order and page all go to the
+     * database; see ListQuery.
+     *
+     * @param <D>
+     *            Subclass of DomainObject to retrieve
+     * @param query
+     *            The filters, sort order and page asked for
+     * @param base
+     *            Criteria every result must also match, such as belonging to
+     *            the current user; the client cannot remove these
+     * @return The page
+     */
+    @Transactional ( readOnly = true )
+    protected static <D> Page<D> getPage ( final ListQuery<D> query, final List<Criterion> base ) {
+        final Class cls = query.getDomainClass();
+        final List<Criterion> where = new ArrayList<Criterion>( base );
+        where.addAll( query.getFilters() );
+        final Long total = query.isCount() ? count( cls, where ) : null;
+
+        final List<Criterion> pageWhere = new ArrayList<Criterion>( base );
+        pageWhere.addAll( query.getPageFilters() );
+        // One extra row tells us whether there is a next page
+        final int max = query.getLimit() + 1;
+        List<D> rows;
+        if ( UnitOfWork.isActive() ) {
+            final Session session = UnitOfWork.currentSession();
+            rows = fetchCollectionsBySelect(
+                    buildCriteria( session, cls, pageWhere, query.getOrders(), query.getOffset(), max ), session, cls )
+                            .list();
+        }
+        else {
+            final Session session = HibernateUtil.openSession();
+            rows = null;
+            try {
+                session.beginTransaction();
+                rows = fetchCollectionsBySelect(
+                        buildCriteria( session, cls, pageWhere, query.getOrders(), query.getOffset(), max ), session,
+                        cls ).list();
+            }
+            finally {
+                try {
+                    session.getTransaction().commit();
+                    session.close();
+                }
+                catch ( final Exception e ) {
+                    e.printStackTrace( System.out );
+                    // Continue
+                }
+            }
+        }
+
+        String next = null;
+        if ( rows.size() > query.getLimit() ) {
+            rows = new ArrayList<D>( rows.subList( 0, query.getLimit() ) );
+            next = query.cursorFor( rows.get( rows.size() - 1 ) );
+        }
+        return new Page<D>( rows, total, next, query.getOffset(), query.getLimit() );
+    }
+
+    /**
+     * Runs a projection (a count, max, etc) over the rows matching the
+     * criteria and returns the single value it produces. This lets the
+     * database do the aggregation instead of loading every row into memory to
+     * count or compare them.
+     *
+     * @param cls
+     *            Subclass of DomainObject to query
+     * @param criteriaList
+     *            List of Criterion to AND together and search by
+     * @param projection
+     *            The aggregate to compute, such as Projections.rowCount()
+     * @return The value of the projection; may be null (eg, max of no rows)
+     */
+    @Transactional ( readOnly = true )
+    protected static Object getProjection ( final Class cls, final List<Criterion> criteriaList,
+            final Projection projection ) {
+        if ( UnitOfWork.isActive() ) {
+            final Criteria c = UnitOfWork.currentSession().createCriteria( cls );
+            for ( final Criterion criterion : criteriaList ) {
+                c.add( criterion );
+            }
+            return c.setProjection( projection ).uniqueResult();
+        }
+        final Session session = HibernateUtil.openSession();
+
+        Object result = null;
         try {
             session.beginTransaction();
             final Criteria c = session.createCriteria( cls );
             for ( final Criterion criterion : criteriaList ) {
                 c.add( criterion );
             }
-            results = c.list();
+            result = c.setProjection( projection ).uniqueResult();
         }
         finally {
             try {
@@ -161,12 +380,111 @@ public abstract class DomainObject <D extends DomainObject<D>> {
             }
         }
 
-        return results;
+        return result;
+    }
+
+    /**
+     * Counts the DomainObjects matching the criteria provided, in the
+     * database, without loading them.
+     *
+     * @param cls
+     *            Subclass of DomainObject to count
+     * @param criteriaList
+     *            List of Criterion to AND together and search by
+     * @return The number of matching records
+     */
+    protected static long count ( final Class cls, final List<Criterion> criteriaList ) {
+        final Number n = (Number) getProjection( cls, criteriaList, Projections.rowCount() );
+        return null == n ? 0 : n.longValue();
+    }
+
+    /**
+     * Hands each DomainObject matching the criteria to the action, one at a
+     * time and in order of their IDs, without ever holding all of them in
+     * memory. Rows are read through a database cursor `streamFetchSize` (see
+     * db.properties) at a time, and each batch is dropped from the Session
+     * once the action has seen it, so the action must not keep the objects
+     * around. Collections are read with selects of their own rather than
+     * joined in, so each object is handed over exactly once.
+     *
+     * This always works in a Session of its own, even when a UnitOfWork is
+     * active, so that dropping each batch does not detach anything the unit
+     * of work has loaded. The Session uses a connection from
+     * DBUtil.streamingDataSource(), the only pool whose connections have
+     * cursors turned on; the selects for collections, and anything else the
+     * action reads, run over that connection while the cursor is open.
+     *
+     * @param cls
+     *            Subclass of DomainObject to retrieve
+     * @param criteriaList
+     *            List of Criterion to AND together and search by
+     * @param action
+     *            What to do with each object
+     * @return The number of objects handed to the action
+     */
+    @Transactional ( readOnly = true )
+    protected static long stream ( final Class cls, final List<Criterion> criteriaList,
+            final Consumer action ) {
+        final int fetchSize = DBUtil.getStreamFetchSize();
+        final Connection conn;
+        try {
+            conn = DBUtil.getStreamingConnection();
+        }
+        catch ( final SQLException e ) {
+            throw new HibernateException( "Could not get a connection to stream " + cls.getSimpleName(), e );
+        }
+        final Session session = HibernateUtil.openSession( conn );
+        // Nothing the action does to the objects is ever written back
+        session.setFlushMode( FlushMode.MANUAL );
+        session.setDefaultReadOnly( true );
+        session.setCacheMode( CacheMode.IGNORE );
+        long n = 0;
+        try {
+            session.beginTransaction();
+            final ClassMetadata meta = session.getSessionFactory().getClassMetadata( cls );
+            final Criteria c = fetchCollectionsBySelect( buildCriteria( session, cls, criteriaList,
+                    Collections.singletonList( Order.asc( meta.getIdentifierPropertyName() ) ), 0, 0 ), session,
+                    cls );
+            c.setReadOnly( true ).setFetchSize( fetchSize );
+            final ScrollableResults results = c.scroll( ScrollMode.FORWARD_ONLY );
+            try {
+                while ( results.next() ) {
+                    action.accept( results.get( 0 ) );
+                    if ( ++n % fetchSize == 0 ) {
+                        session.clear();
+                    }
+                }
+            }
+            finally {
+                results.close();
+            }
+        }
+        finally {
+            try {
+                session.getTransaction().commit();
+                session.close();
+            }
+            catch ( final Exception e ) {
+                e.printStackTrace( System.out );
+                // Continue
+            }
+            finally {
+                try {
+                    conn.close();
+                }
+                catch ( final SQLException e ) {
+                    e.printStackTrace( System.out );
+                }
+            }
+        }
+        return n;
     }
 
     /**
      * Provides the ability to quickly delete all instances of the current
-     * class. Useful for clearing out data for testing or regeneration.
+     * class. Useful for clearing out data for testing or regeneration. Does
+     * not call afterDelete; PatientSummaries made from the class are deleted
+     * in bulk instead.
      * Visibility is set to protected to force subclasses of DomainObject to
      * override this.
      *
@@ -174,6 +492,23 @@ public abstract class DomainObject <D extends DomainObject<D>> {
      *            class to delete instances of
      */
     public static void deleteAll ( final Class cls ) {
+        if ( UnitOfWork.isActive() ) {
+            final Session session = UnitOfWork.currentSession();
+            try {
+                session.clear();
+                for ( final DomainObject d : (List<DomainObject>) session.createCriteria( cls ).list() ) {
+                    session.delete( d );
+                }
+                session.flush();
+            }
+            catch ( final RuntimeException e ) {
+                UnitOfWork.failed();
+                throw e;
+            }
+            ReferenceDataCache.cleared( cls );
+            PatientSummary.cleared( cls );
+            return;
+        }
         final Session session = HibernateUtil.openSession();
         session.beginTransaction();
         final List<DomainObject> instances = session.createCriteria( cls ).list();
@@ -182,6 +517,8 @@ public abstract class DomainObject <D extends DomainObject<D>> {
         }
         session.getTransaction().commit();
         session.close();
+        ReferenceDataCache.cleared( cls );
+        PatientSummary.cleared( cls );
     }
 
     /**
@@ -190,12 +527,36 @@ public abstract class DomainObject <D extends DomainObject<D>> {
      * exists in the DB, then the existing record will be updated.
      */
     public void save () {
+        if ( UnitOfWork.isActive() ) {
+            final Session session = UnitOfWork.currentSession();
+            try {
+                // Re-attach rather than flipping the read-only flag so that
+                // changes made before save() are written as well
+                if ( session.contains( this ) ) {
+                    session.evict( this );
+                }
+                else {
+                    evictOtherInstance( session );
+                }
+                session.saveOrUpdate( this );
+                session.flush();
+                session.setReadOnly( this, true );
+            }
+            catch ( final RuntimeException e ) {
+                UnitOfWork.failed();
+                throw e;
+            }
+            ReferenceDataCache.invalidate( Hibernate.getClass( this ) );
+            afterSave();
+            return;
+        }
         final Session session = HibernateUtil.openSession();
         session.beginTransaction();
         session.saveOrUpdate( this );
         session.getTransaction().commit();
         session.close();
-
+        ReferenceDataCache.invalidate( Hibernate.getClass( this ) );
+        afterSave();
     }
 
     /**
@@ -203,11 +564,108 @@ public abstract class DomainObject <D extends DomainObject<D>> {
      * cannot be reversed.
      */
     public void delete () {
+        if ( UnitOfWork.isActive() ) {
+            final Session session = UnitOfWork.currentSession();
+            try {
+                if ( !session.contains( this ) ) {
+                    evictOtherInstance( session );
+                }
+                session.delete( this );
+                session.flush();
+            }
+            catch ( final RuntimeException e ) {
+                UnitOfWork.failed();
+                throw e;
+            }
+            ReferenceDataCache.invalidate( Hibernate.getClass( this ) );
+            afterDelete();
+            return;
+        }
         final Session session = HibernateUtil.openSession();
         session.beginTransaction();
         session.delete( this );
         session.getTransaction().commit();
         session.close();
+        ReferenceDataCache.invalidate( Hibernate.getClass( this ) );
+        afterDelete();
+    }
+
+    /**
+     * Saves and deletes a group of objects together, in one transaction and
+     * one flush, so that Hibernate sends them as JDBC batches (see
+     * `jdbcBatchSize` in db.properties) rather than a round trip apiece. Joins
+     * the current unit of work if there is one; either way, if any of the
+     * writes fails none of them take effect.
+     *
+     * Unlike save() and delete(), this does not call afterSave or
+     * afterDelete; whoever writes the group keeps anything derived from it up
+     * to date, once for the whole group.
+     *
+     * @param saves
+     *            Objects to insert or update
+     * @param deletes
+     *            Objects to delete
+     */
+    protected static void saveAndDelete ( final Collection< ? extends DomainObject> saves,
+            final Collection< ? extends DomainObject> deletes ) {
+        UnitOfWork.begin();
+        try {
+            final Session session = UnitOfWork.currentSession();
+            try {
+                for ( final DomainObject d : deletes ) {
+                    if ( !session.contains( d ) ) {
+                        d.evictOtherInstance( session );
+                    }
+                    session.delete( d );
+                }
+                for ( final DomainObject d : saves ) {
+                    if ( session.contains( d ) ) {
+                        session.evict( d );
+                    }
+                    else {
+                        d.evictOtherInstance( session );
+                    }
+                    session.saveOrUpdate( d );
+                }
+                session.flush();
+                for ( final DomainObject d : saves ) {
+                    session.setReadOnly( d, true );
+                }
+            }
+            catch ( final RuntimeException e ) {
+                UnitOfWork.failed();
+                throw e;
+            }
+        }
+        catch ( final RuntimeException e ) {
+            UnitOfWork.setRollbackOnly();
+            throw e;
+        }
+        finally {
+            UnitOfWork.end();
+        }
+        final Set<Class> classes = new HashSet<Class>();
+        saves.forEach( d -> classes.add( Hibernate.getClass( d ) ) );
+        deletes.forEach( d -> classes.add( Hibernate.getClass( d ) ) );
+        classes.forEach( ReferenceDataCache::invalidate );
+    }
+
+    /**
+     * Called once this object has been saved, within the same unit of work
+     * if one is active. Does nothing by default; classes that other records
+     * are derived from (see PatientSummary) override it to keep those records
+     * up to date.
+     */
+    protected void afterSave () {
+        // Nothing derived from most records
+    }
+
+    /**
+     * Called once this object has been deleted, within the same unit of work
+     * if one is active. Does nothing by default.
+     */
+    protected void afterDelete () {
+        // Nothing derived from most records
     }
 
     /**
@@ -222,6 +680,9 @@ public abstract class DomainObject <D extends DomainObject<D>> {
      */
     @Transactional ( readOnly = true )
     public static DomainObject getById ( final Class cls, final Object id ) {
+        if ( UnitOfWork.isActive() ) {
+            return (DomainObject) UnitOfWork.currentSession().get( cls, (Serializable) id );
+        }
         DomainObject obj;
         try {
             obj = (DomainObject) cls.newInstance();
@@ -260,6 +721,29 @@ public abstract class DomainObject <D extends DomainObject<D>> {
         }
     }
 
+    /**
+     * Inside a unit of work, the Session may already be managing a different
+     * instance with the same ID as this one (for instance, the copy that was
+     * looked up before a Form was turned into a fresh object). Hibernate
+     * refuses to attach a second instance for the same row, so the old one is
+     * evicted first.
+     *
+     * @param session
+     *            The unit of work's Session
+     */
+    private void evictOtherInstance ( final Session session ) {
+        final Serializable id = getId();
+        if ( null == id ) {
+            return;
+        }
+        final SessionImplementor impl = (SessionImplementor) session;
+        final EntityPersister persister = impl.getEntityPersister( null, this );
+        final Object other = impl.getPersistenceContext().getEntity( impl.generateEntityKey( id, persister ) );
+        if ( null != other && other != this ) {
+            session.evict( other );
+        }
+    }
+
     /**
      * Retrieves the ID of the DomainObject. May be a numeric ID assigned by the
      * database or another primary key that is user-assigned
@@ -335,4 +819,46 @@ public abstract class DomainObject <D extends DomainObject<D>> {
         return Restrictions.between( field, lbound, ubound );
     }
 
+    /**
+     * Creates a greater-than-relation Criterion between the field and the
+     * value provided.
+     *
+     * @param field
+     *            Field to compare
+     * @param value
+     *            Exclusive lower bound for the field
+     * @return Criterion created
+     */
+    protected static Criterion gt ( final String field, final Object value ) {
+        return Restrictions.gt( field, value );
+    }
+
+    /**
+     * Creates a less-than-or-equal-relation Criterion between the field and
+     * the value provided.
+     *
+     * @param field
+     *            Field to compare
+     * @param value
+     *            Inclusive upper bound for the field
+     * @return Criterion created
+     */
+    protected static Criterion le ( final String field, final Object value ) {
+        return Restrictions.le( field, value );
+    }
+
+    /**
+     * Creates a Criterion that matches any of the values provided. Think of
+     * this as SQL similar to: `WHERE field IN (value1, value2, ...)`
+     *
+     * @param field
+     *            Name of the field to match on
+     * @param values
+     *            Values that the field may take
+     * @return Criterion matching any of the values
+     */
+    protected static Criterion in ( final String field, final Collection< ? > values ) {
+        return Restrictions.in( field, values );
+    }
+
 }
@@ -1,6 +1,8 @@
 package edu.ncsu.csc.itrust2.models.persistent;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
@@ -15,6 +17,7 @@ import org.hibernate.validator.constraints.Length;
 import org.hibernate.validator.constraints.NotEmpty;
 
 import edu.ncsu.csc.itrust2.forms.admin.DrugForm;
+import edu.ncsu.csc.itrust2.utils.ReferenceDataCache;
 
 /**
  * Represents a drug in the NDC format.
@@ -188,7 +191,19 @@ public class Drug extends DomainObject<Drug> {
      */
     @SuppressWarnings ( "unchecked" )
     public static List<Drug> getAll () {
-        return (List<Drug>) DomainObject.getAll( Drug.class );
+        return ReferenceDataCache.getAll( Drug.class, () -> (List<Drug>) DomainObject.getAll( Drug.class ) );
+    }
+
+    /**
+     * Hands every drug in the system to the action, one at a time, straight
+     * from the database rather than the cached list. See DomainObject.stream.
+     *
+     * @param action
+     *            What to do with each drug
+     * @return The number of drugs
+     */
+    public static long streamAll ( final Consumer<Drug> action ) {
+        return stream( Drug.class, Collections.emptyList(), action );
     }
 
 }
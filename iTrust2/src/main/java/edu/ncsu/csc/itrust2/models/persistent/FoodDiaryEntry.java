@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.Vector;
 
 import javax.persistence.Basic;
+import javax.persistence.Column;
 import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
@@ -23,8 +24,10 @@ import org.hibernate.validator.constraints.Length;
 import org.springframework.data.jpa.convert.threeten.Jsr310JpaConverters.LocalDateConverter;
 
 import edu.ncsu.csc.itrust2.adapters.LocalDateAdapter;
+import edu.ncsu.csc.itrust2.adapters.UsernameAttributeConverter;
 import edu.ncsu.csc.itrust2.forms.patient.FoodDiaryEntryForm;
 import edu.ncsu.csc.itrust2.models.enums.MealType;
+import edu.ncsu.csc.itrust2.utils.NameDictionary;
 
 /**
  * Class representing a DiaryEntry obejct. This deals with any information that
@@ -98,6 +101,16 @@ public class FoodDiaryEntry extends DomainObject<FoodDiaryEntry> implements Seri
         setProtein(def.getProtein());
     }
 
+    /**
+     * Saves the DiaryEntry, first giving its patient a number in the
+     * NameDictionary if they do not have one yet
+     */
+    @Override
+    public void save() {
+        NameDictionary.assign(getPatient());
+        super.save();
+    }
+
     /**
      * The date as milliseconds since epoch of this DiaryEntry
      */
@@ -169,9 +182,12 @@ public class FoodDiaryEntry extends DomainObject<FoodDiaryEntry> implements Seri
     private Integer protein;
 
     /**
-     * The username of the patient for this DiaryEntry
+     * The username of the patient for this DiaryEntry, stored as its number in
+     * the NameDictionary
      */
     @Length(max = 20)
+    @Column(name = "patientId")
+    @Convert(converter = UsernameAttributeConverter.class)
     private String patient;
 
     /**
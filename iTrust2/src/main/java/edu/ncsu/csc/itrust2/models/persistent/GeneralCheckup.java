@@ -1,9 +1,13 @@
 package edu.ncsu.csc.itrust2.models.persistent;
 
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import javax.persistence.Entity;
@@ -12,10 +16,14 @@ import javax.persistence.JoinColumn;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
 
+import org.hibernate.annotations.Fetch;
+import org.hibernate.annotations.FetchMode;
+
 import edu.ncsu.csc.itrust2.forms.hcp.GeneralCheckupForm;
 import edu.ncsu.csc.itrust2.forms.hcp.PrescriptionForm;
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
 import edu.ncsu.csc.itrust2.utils.LoggerUtil;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
 
 /**
  * Model class for a general checkup.
@@ -163,169 +171,186 @@ public class GeneralCheckup extends OfficeVisit {
     @OneToMany ( mappedBy = "visit" )
     private transient List<LabProcedure> labProcedures;
 
+    /**
+     * The prescriptions written at this visit. Loaded for every visit in a
+     * list by one extra query, rather than joined into the query for the
+     * visits, so that lists of visits can be paged by the database.
+     */
     @OneToMany ( fetch = FetchType.EAGER )
+    @Fetch ( FetchMode.SUBSELECT )
     @JoinColumn ( name = "prescriptions_id" )
     private List<Prescription>           prescriptions = Collections.emptyList();
 
+    /**
+     * Saves the visit along with its basic health metrics, prescriptions,
+     * diagnoses and lab procedures, as one unit: either all of it is saved or
+     * none of it is. What was saved before is read with one query for each
+     * kind of record and compared in memory, and then every insert, update and
+     * delete goes to the database in a single flush, as JDBC batches. Saving a
+     * visit with many records therefore costs the same number of round trips
+     * as saving one with a few. Prescriptions, diagnoses and lab procedures no
+     * longer on the visit are deleted; if the diagnoses or lab procedures are
+     * null they were not provided, and the ones saved before are kept as they
+     * are.
+     *
+     * The audit log entries for the records created, edited and deleted are
+     * queued together once the save has been committed, and the patient's
+     * PatientSummary is brought up to date once for the whole visit.
+     */
     @Override
     public void save () {
-        //// SAVE PRESCRIPTIONS ////
-
-        // Get saved visit
-        final GeneralCheckup oldVisit = (GeneralCheckup) OfficeVisit.getById( this.getId() );
-
-        // Get prescription ids included in this office visit
-        final Set<Long> currentIds = this.getPrescriptions().stream().map( Prescription::getId )
-                .collect( Collectors.toSet() );
-
-        // Get prescription ids saved previously
-        final Set<Long> savedIds = oldVisit == null ? Collections.emptySet()
-                : oldVisit.getPrescriptions().stream().map( Prescription::getId ).collect( Collectors.toSet() );
-
-        // Save each of the prescriptions
-        this.getPrescriptions().forEach( p -> {
-            final boolean isSaved = savedIds.contains( p.getId() );
-            if ( isSaved ) {
-                LoggerUtil.log( TransactionType.PRESCRIPTION_EDIT, LoggerUtil.currentUser(), getPatient().getUsername(),
-                        "Editing prescription with id " + p.getId() );
-            }
-            else {
-                LoggerUtil.log( TransactionType.PRESCRIPTION_CREATE, LoggerUtil.currentUser(),
-                        getPatient().getUsername(), "Creating prescription with id " + p.getId() );
-            }
-            p.save();
-        } );
-
-        // Remove prescriptions no longer included
-        if ( !savedIds.isEmpty() ) {
-            savedIds.forEach( id -> {
-                final boolean isMissing = currentIds.contains( id );
-                if ( isMissing ) {
-                    LoggerUtil.log( TransactionType.PRESCRIPTION_DELETE, LoggerUtil.currentUser(),
-                            getPatient().getUsername(), "Deleting prescription with id " + id );
-                    Prescription.getById( id ).delete();
-                }
-            } );
-        }
-
-        //// END PRESCRIPTIONS ////
+        final String user = LoggerUtil.currentUser();
+        final String patient = getPatient().getUsername();
+        final String hcp = null == getHcp() ? user : getHcp().getUsername();
+        final List<LogEntry> log = new ArrayList<LogEntry>();
 
+        UnitOfWork.begin();
         try {
-            super.save();
+            // What was saved before; nothing, for a new visit. Diagnoses and
+            // lab procedures left null were not sent, rather than removed, so
+            // the ones saved before are neither read nor deleted.
+            final boolean existing = null != getId();
+            final Map<Long, Prescription> oldPrescriptions = byId(
+                    existing ? Prescription.getForVisit( getId() ) : null, Prescription::getId );
+            final Map<Long, Diagnosis> oldDiagnoses = byId(
+                    existing && null != getDiagnoses() ? Diagnosis.getByVisit( getId() ) : null, Diagnosis::getId );
+            final Map<Long, LabProcedure> oldProcedures = byId(
+                    existing && null != getLabProcedures() ? LabProcedure.getByVisit( getId() ) : null,
+                    LabProcedure::getId );
+
+            final List<Prescription> createdPrescriptions = new ArrayList<Prescription>();
+            final List<Prescription> editedPrescriptions = new ArrayList<Prescription>();
+            for ( final Prescription p : getPrescriptions() ) {
+                ( null == oldPrescriptions.remove( p.getId() ) ? createdPrescriptions : editedPrescriptions )
+                        .add( p );
+            }
 
-            // get list of ids associated with this visit if this visit already
-            // exists
-            final Set<Long> previous = Diagnosis.getByVisit( this.getId() ).stream().map( Diagnosis::getId )
-                    .collect( Collectors.toSet() );
-            if ( getDiagnoses() != null ) {
+            final List<Diagnosis> savedDiagnoses = new ArrayList<Diagnosis>();
+            final List<Diagnosis> createdDiagnoses = new ArrayList<Diagnosis>();
+            final List<Diagnosis> editedDiagnoses = new ArrayList<Diagnosis>();
+            if ( null != getDiagnoses() ) {
                 for ( final Diagnosis d : getDiagnoses() ) {
-                    if ( d == null ) {
+                    if ( null == d ) {
                         continue;
                     }
-
-                    final boolean had = previous.remove( d.getId() );
-                    try {
-                        if ( !had ) {
-                            // new Diagnosis
-                            LoggerUtil.log( TransactionType.DIAGNOSIS_CREATE, getHcp().getUsername(),
-                                    getPatient().getUsername(), getHcp() + " created a diagnosis for " + getPatient() );
-                        }
-                        else {
-                            // already had - check if edited
-                            final Diagnosis old = Diagnosis.getById( d.getId() );
-                            if ( !old.getCode().getCode().equals( d.getCode().getCode() )
-                                    || !old.getNote().equals( d.getNote() ) ) {
-                                // was edited:
-                                LoggerUtil.log( TransactionType.DIAGNOSIS_EDIT, getHcp().getUsername(),
-                                        getPatient().getUsername(),
-                                        getHcp() + " edit a diagnosis for " + getPatient() );
-
-                            }
-                        }
+                    d.setVisit( this );
+                    savedDiagnoses.add( d );
+                    final Diagnosis old = oldDiagnoses.remove( d.getId() );
+                    if ( null == old ) {
+                        createdDiagnoses.add( d );
                     }
-                    catch ( final Exception e ) {
-                        e.printStackTrace();
-                    }
-                    d.save();
-
-                }
-            }
-            // delete any previous associations - they were deleted by user.
-            for ( final Long oldId : previous ) {
-                final Diagnosis dDie = Diagnosis.getById( oldId );
-                if ( dDie != null ) {
-                    dDie.delete();
-                    try {
-                        LoggerUtil.log( TransactionType.DIAGNOSIS_DELETE, getHcp().getUsername(),
-                                getPatient().getUsername(),
-                                getHcp().getUsername() + " deleted a diagnosis for " + getPatient().getUsername() );
-                    }
-                    catch ( final Exception e ) {
-                        e.printStackTrace();
+                    else if ( !old.getCode().getCode().equals( d.getCode().getCode() )
+                            || !Objects.equals( old.getNote(), d.getNote() ) ) {
+                        editedDiagnoses.add( d );
                     }
                 }
             }
 
-            // get list of ids associated with this visit if this visit already
-            // exists
-            final Set<Long> prev = LabProcedure.getByVisit( this.getId() ).stream().map( LabProcedure::getId )
-                    .collect( Collectors.toSet() );
-            if ( getLabProcedures() != null ) {
+            final List<LabProcedure> savedProcedures = new ArrayList<LabProcedure>();
+            final List<LabProcedure> createdProcedures = new ArrayList<LabProcedure>();
+            final List<LabProcedure> editedProcedures = new ArrayList<LabProcedure>();
+            if ( null != getLabProcedures() ) {
                 for ( final LabProcedure d : getLabProcedures() ) {
-                    if ( d == null ) {
+                    if ( null == d ) {
                         continue;
                     }
-
-                    final boolean had = prev.remove( d.getId() );
-                    try {
-                        if ( !had ) {
-                            // new Lab Procedure
-                            LoggerUtil.log( TransactionType.HCP_CREATE_PROC, getHcp().getUsername(),
-                                    d.getAssignedTech().getUsername(),
-                                    getHcp() + " created a Lab Procedure for " + getPatient() );
-                        }
-                        else {
-                            // already had - check if edited
-                            final LabProcedure old = LabProcedure.getById( d.getId() );
-                            if ( !old.getLoinc().getCode().equals( d.getLoinc().getCode() )
-                                    || !old.getComments().equals( d.getComments() )
-                                    || !old.getAssignedTech().equals( d.getAssignedTech() )
-                                    || !old.getPriority().equals( d.getPriority() )
-                                    || !old.getStatus().equals( d.getStatus() ) ) {
-                                // was edited:
-                                LoggerUtil.log( TransactionType.HCP_EDIT_PROC, getHcp().getUsername(),
-                                        d.getAssignedTech().getUsername(),
-                                        getHcp() + " edited a Lab Procedure for " + getPatient() );
-
-                            }
-                        }
+                    d.setVisit( this );
+                    savedProcedures.add( d );
+                    final LabProcedure old = oldProcedures.remove( d.getId() );
+                    if ( null == old ) {
+                        createdProcedures.add( d );
                     }
-                    catch ( final Exception e ) {
-                        e.printStackTrace();
+                    else if ( !old.getLoinc().getCode().equals( d.getLoinc().getCode() )
+                            || !Objects.equals( old.getComments(), d.getComments() )
+                            || !Objects.equals( old.getAssignedTech(), d.getAssignedTech() )
+                            || old.getPriority() != d.getPriority() || old.getStatus() != d.getStatus() ) {
+                        editedProcedures.add( d );
                     }
-                    d.save();
-
                 }
             }
-            // delete any previous associations - they were deleted by user.
-            for ( final Long oldId : previous ) {
-                final LabProcedure dDie = LabProcedure.getById( oldId );
-                if ( dDie != null ) {
-                    dDie.delete();
-                    try {
-                        LoggerUtil.log( TransactionType.HCP_DELETE_PROC, getHcp().getUsername(),
-                                dDie.getAssignedTech().getUsername(),
-                                getHcp().getUsername() + " deleted a Lab Procedure for " + getPatient().getUsername() );
-                    }
-                    catch ( final Exception e ) {
-                        e.printStackTrace();
-                    }
-                }
+
+            // Parents before children, so that the children's references to
+            // them are already assigned IDs
+            final List<DomainObject> saves = new ArrayList<DomainObject>();
+            saves.add( getBasicHealthMetrics() );
+            saves.addAll( getPrescriptions() );
+            saves.add( this );
+            saves.addAll( savedDiagnoses );
+            saves.addAll( savedProcedures );
+            final List<DomainObject> deletes = new ArrayList<DomainObject>();
+            deletes.addAll( oldPrescriptions.values() );
+            deletes.addAll( oldDiagnoses.values() );
+            deletes.addAll( oldProcedures.values() );
+            saveAndDelete( saves, deletes );
+
+            PatientSummary.visitWritten( this, savedDiagnoses, oldDiagnoses.values(), getPrescriptions(),
+                    oldPrescriptions.values() );
+
+            // IDs of new records are only known once they have been saved
+            for ( final Prescription p : createdPrescriptions ) {
+                log.add( new LogEntry( TransactionType.PRESCRIPTION_CREATE, user, patient,
+                        "Creating prescription with id " + p.getId() ) );
+            }
+            for ( final Prescription p : editedPrescriptions ) {
+                log.add( new LogEntry( TransactionType.PRESCRIPTION_EDIT, user, patient,
+                        "Editing prescription with id " + p.getId() ) );
+            }
+            for ( final Prescription p : oldPrescriptions.values() ) {
+                log.add( new LogEntry( TransactionType.PRESCRIPTION_DELETE, user, patient,
+                        "Deleting prescription with id " + p.getId() ) );
+            }
+            for ( int i = 0; i < createdDiagnoses.size(); i++ ) {
+                log.add( new LogEntry( TransactionType.DIAGNOSIS_CREATE, hcp, patient,
+                        getHcp() + " created a diagnosis for " + getPatient() ) );
+            }
+            for ( int i = 0; i < editedDiagnoses.size(); i++ ) {
+                log.add( new LogEntry( TransactionType.DIAGNOSIS_EDIT, hcp, patient,
+                        getHcp() + " edit a diagnosis for " + getPatient() ) );
+            }
+            for ( int i = 0; i < oldDiagnoses.size(); i++ ) {
+                log.add( new LogEntry( TransactionType.DIAGNOSIS_DELETE, hcp, patient,
+                        hcp + " deleted a diagnosis for " + patient ) );
+            }
+            for ( final LabProcedure d : createdProcedures ) {
+                log.add( new LogEntry( TransactionType.HCP_CREATE_PROC, hcp, d.getAssignedTech().getUsername(),
+                        getHcp() + " created a Lab Procedure for " + getPatient() ) );
             }
+            for ( final LabProcedure d : editedProcedures ) {
+                log.add( new LogEntry( TransactionType.HCP_EDIT_PROC, hcp, d.getAssignedTech().getUsername(),
+                        getHcp() + " edited a Lab Procedure for " + getPatient() ) );
+            }
+            for ( final LabProcedure d : oldProcedures.values() ) {
+                log.add( new LogEntry( TransactionType.HCP_DELETE_PROC, hcp, d.getAssignedTech().getUsername(),
+                        hcp + " deleted a Lab Procedure for " + patient ) );
+            }
+            UnitOfWork.afterCommit( () -> LoggerUtil.log( log ) );
+        }
+        catch ( final RuntimeException e ) {
+            UnitOfWork.setRollbackOnly();
+            throw e;
         }
-        catch ( final Exception e ) {
-            // Do nothing
+        finally {
+            UnitOfWork.end();
+        }
+    }
+
+    /**
+     * Indexes records by their IDs
+     *
+     * @param records
+     *            The records, or null for none
+     * @param id
+     *            Gets the ID of a record
+     * @return The records, by ID
+     */
+    private static <T> Map<Long, T> byId ( final List<T> records, final Function<T, Long> id ) {
+        final Map<Long, T> map = new LinkedHashMap<Long, T>();
+        if ( null != records ) {
+            for ( final T t : records ) {
+                map.put( id.apply( t ), t );
+            }
         }
+        return map;
     }
 
     /**
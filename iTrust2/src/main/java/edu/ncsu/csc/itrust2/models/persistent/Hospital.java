@@ -15,6 +15,7 @@ import org.hibernate.validator.constraints.NotEmpty;
 
 import edu.ncsu.csc.itrust2.forms.admin.HospitalForm;
 import edu.ncsu.csc.itrust2.models.enums.State;
+import edu.ncsu.csc.itrust2.utils.ReferenceDataCache;
 
 /**
  * Class representing a Hospital object, as stored in the DB
@@ -99,7 +100,7 @@ public class Hospital extends DomainObject<Hospital> implements Serializable {
      */
     @SuppressWarnings ( "unchecked" )
     public static List<Hospital> getHospitals () {
-        return (List<Hospital>) getAll( Hospital.class );
+        return ReferenceDataCache.getAll( Hospital.class, () -> (List<Hospital>) getAll( Hospital.class ) );
     }
 
     /**
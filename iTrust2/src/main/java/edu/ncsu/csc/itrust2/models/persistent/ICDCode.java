@@ -1,6 +1,8 @@
 package edu.ncsu.csc.itrust2.models.persistent;
 
+import java.util.Collections;
 import java.util.List;
+import java.util.function.Consumer;
 
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
@@ -11,6 +13,9 @@ import javax.persistence.Table;
 import org.hibernate.criterion.Criterion;
 
 import edu.ncsu.csc.itrust2.forms.admin.ICDCodeForm;
+import edu.ncsu.csc.itrust2.utils.ReferenceDataCache;
+import edu.ncsu.csc.itrust2.utils.SearchIndex;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
 
 /**
  * Class for Diagnosis codes. These codes themselves are stored as a String,
@@ -24,6 +29,17 @@ import edu.ncsu.csc.itrust2.forms.admin.ICDCodeForm;
 @Table ( name = "ICDCodes" )
 public class ICDCode extends DomainObject<Diagnosis> {
 
+    /**
+     * Typeahead index over every code, kept up to date as codes are saved and
+     * deleted
+     */
+    private static final SearchIndex<ICDCode> SEARCH = new SearchIndex<ICDCode>( ICDCode::getId, ICDCode::getCode,
+            ICDCode::getDescription, ICDCode::getAll );
+
+    static {
+        ReferenceDataCache.addClearListener( ICDCode.class, SEARCH::clear );
+    }
+
     @Id
     @GeneratedValue ( strategy = GenerationType.AUTO )
     private Long   id;
@@ -188,7 +204,63 @@ public class ICDCode extends DomainObject<Diagnosis> {
      */
     @SuppressWarnings ( "unchecked" )
     public static List<ICDCode> getAll () {
-        return (List<ICDCode>) DomainObject.getAll( ICDCode.class );
+        return ReferenceDataCache.getAll( ICDCode.class, () -> (List<ICDCode>) DomainObject.getAll( ICDCode.class ) );
+    }
+
+    /**
+     * Hands every code in the system to the action, one at a time, straight
+     * from the database rather than the cached list. See DomainObject.stream.
+     *
+     * @param action
+     *            What to do with each code
+     * @return The number of codes
+     */
+    public static long streamAll ( final Consumer<ICDCode> action ) {
+        return stream( ICDCode.class, Collections.emptyList(), action );
+    }
+
+    /**
+     * Finds the codes matching a typeahead query: those whose code starts
+     * with the query, followed by those with a word starting with each word
+     * of the query in their description.
+     *
+     * @param query
+     *            What the user has typed so far
+     * @param limit
+     *            Largest number of codes to return
+     * @return The matching codes, best matches first
+     */
+    public static List<ICDCode> search ( final String query, final int limit ) {
+        return SEARCH.search( query, limit );
+    }
+
+    /**
+     * Loads every code into the typeahead index now, rather than on the first
+     * search
+     */
+    public static void buildSearchIndex () {
+        SEARCH.build();
+    }
+
+    /**
+     * Saves the code, and updates its entry in the typeahead index once the
+     * save has committed
+     */
+    @Override
+    public void save () {
+        super.save();
+        UnitOfWork.afterCommit( () -> SEARCH.put( this ) );
+    }
+
+    /**
+     * Deletes the code, and removes it from the typeahead index once the
+     * delete has committed
+     */
+    @Override
+    public void delete () {
+        final Long id = getId();
+        super.delete();
+        UnitOfWork.afterCommit( () -> SEARCH.remove( id ) );
     }
 
 }
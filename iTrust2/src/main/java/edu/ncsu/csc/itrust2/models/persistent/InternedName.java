@@ -0,0 +1,87 @@
+package edu.ncsu.csc.itrust2.models.persistent;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * A username that is stored elsewhere as a number. The audit log and the food
+ * diary refer to users by the ID of one of these rather than repeating the
+ * username on every row. Names are compared exactly, byte for byte, and are
+ * never removed, so an ID always means the same name.
+ *
+ * Rows are added and read by NameDictionary rather than through Hibernate;
+ * this class only describes the table.
+ */
+@Entity
+@Table ( name = "InternedNames", uniqueConstraints = @UniqueConstraint ( name = InternedName.NAME_KEY,
+        columnNames = "name" ) )
+public class InternedName extends DomainObject<InternedName> {
+
+    /**
+     * Name of the unique key on the name, so that NameMigration creates the
+     * same key Hibernate would
+     */
+    public static final String NAME_KEY = "UK_InternedNames_name";
+
+    @Id
+    @GeneratedValue ( strategy = GenerationType.IDENTITY )
+    private Integer            id;
+
+    /**
+     * The name. Binary so that names differing only in case or accents are
+     * kept apart, as they were when they were stored in full.
+     */
+    @Column ( nullable = false, columnDefinition = "varbinary(255)" )
+    private String             name;
+
+    /**
+     * Empty constructor for Hibernate
+     */
+    public InternedName () {
+    }
+
+    /**
+     * Returns the ID of the name
+     *
+     * @return the id
+     */
+    @Override
+    public Integer getId () {
+        return id;
+    }
+
+    /**
+     * Sets the ID of the name
+     *
+     * @param id
+     *            the id to set
+     */
+    public void setId ( final Integer id ) {
+        this.id = id;
+    }
+
+    /**
+     * Returns the name
+     *
+     * @return the name
+     */
+    public String getName () {
+        return name;
+    }
+
+    /**
+     * Sets the name
+     *
+     * @param name
+     *            the name to set
+     */
+    public void setName ( final String name ) {
+        this.name = name;
+    }
+
+}
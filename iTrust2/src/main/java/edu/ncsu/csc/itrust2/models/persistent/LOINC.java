@@ -12,6 +12,9 @@ import javax.persistence.Table;
 import org.hibernate.criterion.Criterion;
 
 import edu.ncsu.csc.itrust2.forms.admin.LOINCForm;
+import edu.ncsu.csc.itrust2.utils.ReferenceDataCache;
+import edu.ncsu.csc.itrust2.utils.SearchIndex;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
 
 /**
  * Class for Lab Procedure codes. These codes themselves are stored as a String,
@@ -24,6 +27,17 @@ import edu.ncsu.csc.itrust2.forms.admin.LOINCForm;
 @Table ( name = "LOINCCodes" )
 public class LOINC extends DomainObject<LOINC> {
 
+    /**
+     * Typeahead index over every code, kept up to date as codes are saved and
+     * deleted
+     */
+    private static final SearchIndex<LOINC> SEARCH = new SearchIndex<LOINC>( LOINC::getId, LOINC::getCode,
+            l -> l.getCommonName() + " " + l.getComponent() + " " + l.getProperty(), LOINC::getAll );
+
+    static {
+        ReferenceDataCache.addClearListener( LOINC.class, SEARCH::clear );
+    }
+
     @Id
     @GeneratedValue ( strategy = GenerationType.AUTO )
     private Long   id;
@@ -217,7 +231,51 @@ public class LOINC extends DomainObject<LOINC> {
      */
     @SuppressWarnings ( "unchecked" )
     public static List<LOINC> getAll () {
-        return (List<LOINC>) DomainObject.getAll( LOINC.class );
+        return ReferenceDataCache.getAll( LOINC.class, () -> (List<LOINC>) DomainObject.getAll( LOINC.class ) );
+    }
+
+    /**
+     * Finds the codes matching a typeahead query: those whose code starts
+     * with the query, followed by those with a word starting with each word
+     * of the query in their common name, component or property.
+     *
+     * @param query
+     *            What the user has typed so far
+     * @param limit
+     *            Largest number of codes to return
+     * @return The matching codes, best matches first
+     */
+    public static List<LOINC> search ( final String query, final int limit ) {
+        return SEARCH.search( query, limit );
+    }
+
+    /**
+     * Loads every code into the typeahead index now, rather than on the first
+     * search
+     */
+    public static void buildSearchIndex () {
+        SEARCH.build();
+    }
+
+    /**
+     * Saves the code, and updates its entry in the typeahead index once the
+     * save has committed
+     */
+    @Override
+    public void save () {
+        super.save();
+        UnitOfWork.afterCommit( () -> SEARCH.put( this ) );
+    }
+
+    /**
+     * Deletes the code, and removes it from the typeahead index once the
+     * delete has committed
+     */
+    @Override
+    public void delete () {
+        final Long id = getId();
+        super.delete();
+        UnitOfWork.afterCommit( () -> SEARCH.remove( id ) );
     }
 
 }
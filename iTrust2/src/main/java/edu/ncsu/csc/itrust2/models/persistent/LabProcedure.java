@@ -3,13 +3,14 @@ package edu.ncsu.csc.itrust2.models.persistent;
 import java.text.ParseException;
 import java.util.List;
 import java.util.Vector;
+import java.util.function.Consumer;
 
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
@@ -29,9 +30,45 @@ import edu.ncsu.csc.itrust2.models.enums.Role;
  *
  */
 @Entity
-@Table ( name = "LabProcedures" )
+@Table ( name = "LabProcedures", indexes = { @Index ( columnList = "status,priority" ) } )
 public class LabProcedure extends DomainObject<LabProcedure> {
 
+    /**
+     * Fields the list of lab procedures can be filtered and sorted by
+     */
+    public static final QuerySchema<LabProcedure> QUERY = new QuerySchema<LabProcedure>( LabProcedure.class, "id",
+            "id", QuerySchema.LONG, LabProcedure::getId )
+                    .field( "patient", "patient.username", QuerySchema.STRING, p -> p.getPatient().getUsername() )
+                    .field( "labtech", "labtech.username", QuerySchema.STRING,
+                            p -> null == p.getAssignedTech() ? null : p.getAssignedTech().getUsername() )
+                    .field( "priority", "priority", QuerySchema.enumOf( Priority.class ), LabProcedure::getPriority )
+                    .field( "status", "status", QuerySchema.enumOf( LabStatus.class ), LabProcedure::getStatus );
+
+    /**
+     * Get one page of all of the lab procedures, filtered and sorted as asked
+     *
+     * @param query
+     *            The filters, sort order and page
+     * @return The page of lab procedures
+     */
+    public static Page<LabProcedure> getPage ( final ListQuery<LabProcedure> query ) {
+        return getPage( query, new Vector<Criterion>() );
+    }
+
+    /**
+     * Get one page of a Lab Tech's procedures, filtered and sorted as asked
+     *
+     * @param techName
+     *            the name of the Lab Tech
+     * @param query
+     *            The filters, sort order and page
+     * @return The page of lab procedures
+     */
+    public static Page<LabProcedure> getPageForLabtech ( final String techName,
+            final ListQuery<LabProcedure> query ) {
+        return getPage( query, eqList( "labtech", User.getByNameAndRole( techName, Role.ROLE_LABTECH ) ) );
+    }
+
     /**
      * The LOINC of this Lab Procedure
      */
@@ -63,7 +100,7 @@ public class LabProcedure extends DomainObject<LabProcedure> {
      * The id of this LabProcedure
      */
     @Id
-    @GeneratedValue ( strategy = GenerationType.AUTO )
+    @GeneratedValue ( generator = "pooledIds" )
     private Long           id;
 
     /**
@@ -107,15 +144,16 @@ public class LabProcedure extends DomainObject<LabProcedure> {
     }
 
     /**
-     * Get a specific lab procedure by the office visit ID
+     * Get the lab procedures of an office visit by its ID, with a single query
+     * and without loading the visit first
      *
      * @param id
      *            the database ID
-     * @return the specific lab procedure with the desired visit ID
+     * @return the lab procedures with the desired visit ID
      */
     public static List<LabProcedure> getByVisit ( final Long id ) {
         try {
-            return getWhere( eqList( "visit", GeneralCheckup.getById( id ) ) );
+            return getWhere( eqList( "visit.id", id ) );
         }
         catch ( final Exception e ) {
             return null;
@@ -183,6 +221,33 @@ public class LabProcedure extends DomainObject<LabProcedure> {
         return procedures;
     }
 
+    /**
+     * Hands every LabProcedure in the system to the action, one at a time,
+     * without loading them all into memory. See DomainObject.stream.
+     *
+     * @param action
+     *            What to do with each procedure
+     * @return The number of procedures
+     */
+    public static long streamLabProcedures ( final Consumer<LabProcedure> action ) {
+        return stream( LabProcedure.class, new Vector<Criterion>(), action );
+    }
+
+    /**
+     * Hands each of the Lab Tech's procedures to the action, one at a time,
+     * without loading them all into memory. See DomainObject.stream.
+     *
+     * @param techName
+     *            the name of the Lab Tech
+     * @param action
+     *            What to do with each procedure
+     * @return The number of procedures
+     */
+    public static long streamForLabtech ( final String techName, final Consumer<LabProcedure> action ) {
+        return stream( LabProcedure.class, eqList( "labtech", User.getByNameAndRole( techName, Role.ROLE_LABTECH ) ),
+                action );
+    }
+
     /**
      * Helper method to pass to the DomainObject class that performs a specific
      * query on the database.
@@ -0,0 +1,467 @@
+package edu.ncsu.csc.itrust2.models.persistent;
+
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Disjunction;
+import org.hibernate.criterion.MatchMode;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+/**
+ * One page of a filtered, sorted list of DomainObjects, as asked for through
+ * the query parameters of a list endpoint. Everything here turns into the
+ * WHERE, ORDER BY and LIMIT of a single query (plus a COUNT, if asked for), so
+ * no filtering or sorting is done in memory. See DomainObject.getPage.
+ *
+ * The parameters understood are:
+ *
+ * - `limit`: the most results to return, up to {@link #MAX_LIMIT}
+ *
+ * - `offset`: the number of results to skip
+ *
+ * - `after`: the `next` cursor of the previous page. Reading pages this way
+ * (keyset paging) stays fast however deep into the list it goes, and does not
+ * skip or repeat results when rows are added or removed in between. It cannot
+ * be combined with `offset`.
+ *
+ * - `sort`: a comma-separated list of fields, each followed by `,desc` or
+ * prefixed with `-` to sort in descending order. The schema's key is always
+ * added last.
+ *
+ * - `count=true`: also return the total number of matching results
+ *
+ * - `field=value`, or `field.op=value` where op is one of eq, ne, lt, le, gt,
+ * ge or starts: a filter on one of the schema's fields. Filters are AND'ed
+ * together.
+ *
+ * @param <D>
+ *            The DomainObject being listed
+ */
+public class ListQuery <D> {
+
+    /** Most results a single page may have */
+    public static final int                  MAX_LIMIT  = 500;
+
+    /** Used to encode cursors */
+    private static final Gson                GSON       = new Gson();
+
+    /** Fields that may be used */
+    private final QuerySchema<D>             schema;
+
+    /** Filters, AND'ed together */
+    private final List<Criterion>            filters    = new ArrayList<Criterion>();
+
+    /** Fields to sort by, most significant first */
+    private final List<QuerySchema.Field<D>> sortFields = new ArrayList<QuerySchema.Field<D>>();
+
+    /** Direction of each of sortFields */
+    private final List<Boolean>              ascending  = new ArrayList<Boolean>();
+
+    /** Most results to return */
+    private int                              limit      = MAX_LIMIT;
+
+    /** Results to skip */
+    private int                              offset     = 0;
+
+    /** Values of the sort fields of the last result of the previous page */
+    private List<Object>                     after;
+
+    /** Whether to count all of the matching results */
+    private boolean                          count      = false;
+
+    /**
+     * Creates a query for everything in the schema's class, sorted by its key
+     *
+     * @param schema
+     *            The fields that may be used
+     */
+    public ListQuery ( final QuerySchema<D> schema ) {
+        this.schema = schema;
+    }
+
+    /**
+     * Reads a query from the parameters of a request
+     *
+     * @param <D>
+     *            The DomainObject being listed
+     * @param schema
+     *            The fields that may be used
+     * @param params
+     *            The request parameters
+     * @return The query
+     * @throws IllegalArgumentException
+     *             If a parameter is not understood, names a field that is not
+     *             in the schema, or has a value that cannot be parsed
+     */
+    public static <D> ListQuery<D> parse ( final QuerySchema<D> schema, final Map<String, String> params ) {
+        final ListQuery<D> q = new ListQuery<D>( schema );
+        String cursor = null;
+        for ( final Map.Entry<String, String> param : params.entrySet() ) {
+            final String name = param.getKey();
+            final String value = param.getValue();
+            try {
+                switch ( name ) {
+                    case "limit":
+                        q.limit( Integer.parseInt( value ) );
+                        break;
+                    case "offset":
+                        q.offset( Integer.parseInt( value ) );
+                        break;
+                    case "count":
+                        q.count( Boolean.parseBoolean( value ) );
+                        break;
+                    case "sort":
+                        final String[] keys = value.split( "," );
+                        for ( int i = 0; i < keys.length; i++ ) {
+                            final String key = keys[i].trim();
+                            if ( key.isEmpty() ) {
+                                continue;
+                            }
+                            if ( i + 1 < keys.length && ( "desc".equalsIgnoreCase( keys[i + 1].trim() )
+                                    || "asc".equalsIgnoreCase( keys[i + 1].trim() ) ) ) {
+                                q.sort( key, "asc".equalsIgnoreCase( keys[++i].trim() ) );
+                            }
+                            else if ( key.startsWith( "-" ) ) {
+                                q.sort( key.substring( 1 ), false );
+                            }
+                            else {
+                                q.sort( key, true );
+                            }
+                        }
+                        break;
+                    case "after":
+                        cursor = value;
+                        break;
+                    default:
+                        final int dot = name.lastIndexOf( '.' );
+                        if ( dot > 0 && isOperator( name.substring( dot + 1 ) ) ) {
+                            q.filter( name.substring( 0, dot ), name.substring( dot + 1 ), value );
+                        }
+                        else {
+                            q.filter( name, "eq", value );
+                        }
+                }
+            }
+            catch ( final NumberFormatException | DateTimeParseException e ) {
+                throw new IllegalArgumentException( "Could not understand " + name + "=" + value, e );
+            }
+        }
+        // The cursor holds values for the sort fields, so read it once they
+        // are all known
+        if ( null != cursor ) {
+            q.after( cursor );
+        }
+        return q;
+    }
+
+    /**
+     * Whether the text is one of the filter operators
+     */
+    private static boolean isOperator ( final String op ) {
+        switch ( op ) {
+            case "eq":
+            case "ne":
+            case "lt":
+            case "le":
+            case "gt":
+            case "ge":
+            case "starts":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Adds a filter
+     *
+     * @param field
+     *            Name of the field to filter on
+     * @param op
+     *            One of eq, ne, lt, le, gt, ge or starts
+     * @param text
+     *            The value to compare to, as text
+     * @return This query
+     */
+    public ListQuery<D> filter ( final String field, final String op, final String text ) {
+        final QuerySchema.Field<D> f = schema.get( field );
+        final String p = f.property;
+        if ( "starts".equals( op ) ) {
+            // Escape LIKE's wildcards so that the prefix is matched literally
+            final String prefix = text.replace( "\\", "\\\\" ).replace( "%", "\\%" ).replace( "_", "\\_" );
+            filters.add( Restrictions.like( p, prefix, MatchMode.START ) );
+            return this;
+        }
+        final Object value = f.parser.apply( text );
+        switch ( op ) {
+            case "eq":
+                filters.add( Restrictions.eq( p, value ) );
+                break;
+            case "ne":
+                filters.add( Restrictions.ne( p, value ) );
+                break;
+            case "lt":
+                filters.add( Restrictions.lt( p, value ) );
+                break;
+            case "le":
+                filters.add( Restrictions.le( p, value ) );
+                break;
+            case "gt":
+                filters.add( Restrictions.gt( p, value ) );
+                break;
+            case "ge":
+                filters.add( Restrictions.ge( p, value ) );
+                break;
+            default:
+                throw new IllegalArgumentException( "Unknown filter operator " + op );
+        }
+        return this;
+    }
+
+    /**
+     * Adds a field to sort by, after any added already
+     *
+     * @param field
+     *            Name of the field
+     * @param asc
+     *            true for ascending order, false for descending
+     * @return This query
+     */
+    public ListQuery<D> sort ( final String field, final boolean asc ) {
+        final QuerySchema.Field<D> f = schema.get( field );
+        if ( f != schema.getKey() && !sortFields.contains( f ) ) {
+            sortFields.add( f );
+            ascending.add( asc );
+        }
+        return this;
+    }
+
+    /**
+     * Sets the most results to return
+     *
+     * @param limit
+     *            Between 1 and MAX_LIMIT
+     * @return This query
+     */
+    public ListQuery<D> limit ( final int limit ) {
+        if ( limit < 1 || limit > MAX_LIMIT ) {
+            throw new IllegalArgumentException( "limit must be between 1 and " + MAX_LIMIT );
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Sets the number of results to skip
+     *
+     * @param offset
+     *            Zero or more
+     * @return This query
+     */
+    public ListQuery<D> offset ( final int offset ) {
+        if ( offset < 0 ) {
+            throw new IllegalArgumentException( "offset cannot be negative" );
+        }
+        if ( offset > 0 && null != after ) {
+            throw new IllegalArgumentException( "Cannot use both offset and after" );
+        }
+        this.offset = offset;
+        return this;
+    }
+
+    /**
+     * Sets whether to count all of the matching results
+     *
+     * @param count
+     *            true to count them
+     * @return This query
+     */
+    public ListQuery<D> count ( final boolean count ) {
+        this.count = count;
+        return this;
+    }
+
+    /**
+     * Starts the page just after the result the cursor was made from. Call
+     * this after the sort order has been set; the cursor only makes sense for
+     * the same filters and sort order as the page it came from.
+     *
+     * @param cursor
+     *            The `next` cursor of the previous page
+     * @return This query
+     */
+    public ListQuery<D> after ( final String cursor ) {
+        if ( offset > 0 ) {
+            throw new IllegalArgumentException( "Cannot use both offset and after" );
+        }
+        final String[] text;
+        try {
+            text = GSON.fromJson( new String( Base64.getUrlDecoder().decode( cursor ), StandardCharsets.UTF_8 ),
+                    String[].class );
+        }
+        catch ( final JsonParseException | IllegalArgumentException e ) {
+            throw new IllegalArgumentException( "Invalid cursor " + cursor, e );
+        }
+        final List<QuerySchema.Field<D>> fields = allSortFields();
+        if ( null == text || text.length != fields.size() ) {
+            throw new IllegalArgumentException( "Cursor does not match the sort order" );
+        }
+        final List<Object> values = new ArrayList<Object>();
+        for ( int i = 0; i < text.length; i++ ) {
+            values.add( null == text[i] ? null : fields.get( i ).parser.apply( text[i] ) );
+        }
+        after = values;
+        return this;
+    }
+
+    /**
+     * The class being listed
+     *
+     * @return The class
+     */
+    Class<D> getDomainClass () {
+        return schema.getDomainClass();
+    }
+
+    /**
+     * Most results to return
+     *
+     * @return The limit
+     */
+    public int getLimit () {
+        return limit;
+    }
+
+    /**
+     * Results to skip
+     *
+     * @return The offset
+     */
+    public int getOffset () {
+        return offset;
+    }
+
+    /**
+     * Whether to count all of the matching results
+     *
+     * @return true to count them
+     */
+    public boolean isCount () {
+        return count;
+    }
+
+    /**
+     * The filters, without the cursor
+     *
+     * @return The filters
+     */
+    List<Criterion> getFilters () {
+        return Collections.unmodifiableList( filters );
+    }
+
+    /**
+     * The filters, along with the condition that results come after the cursor
+     * if there is one
+     *
+     * @return The filters
+     */
+    List<Criterion> getPageFilters () {
+        if ( null == after ) {
+            return getFilters();
+        }
+        final List<Criterion> all = new ArrayList<Criterion>( filters );
+        all.add( afterCursor() );
+        return all;
+    }
+
+    /**
+     * The sort order, ending with the key
+     *
+     * @return The orderings
+     */
+    List<Order> getOrders () {
+        final List<Order> orders = new ArrayList<Order>();
+        final List<QuerySchema.Field<D>> fields = allSortFields();
+        for ( int i = 0; i < fields.size(); i++ ) {
+            final String p = fields.get( i ).property;
+            orders.add( isAscending( i ) ? Order.asc( p ) : Order.desc( p ) );
+        }
+        return orders;
+    }
+
+    /**
+     * Makes the cursor that starts the next page after the result given
+     *
+     * @param last
+     *            The last result of this page
+     * @return The cursor
+     */
+    String cursorFor ( final D last ) {
+        final List<QuerySchema.Field<D>> fields = allSortFields();
+        final String[] text = new String[fields.size()];
+        for ( int i = 0; i < text.length; i++ ) {
+            final Object value = fields.get( i ).getter.apply( last );
+            text[i] = null == value ? null : value instanceof Enum ? ( (Enum< ? >) value ).name() : value.toString();
+        }
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString( GSON.toJson( text ).getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    /**
+     * The sort fields followed by the key
+     */
+    private List<QuerySchema.Field<D>> allSortFields () {
+        final List<QuerySchema.Field<D>> fields = new ArrayList<QuerySchema.Field<D>>( sortFields );
+        fields.add( schema.getKey() );
+        return fields;
+    }
+
+    /**
+     * Whether the i'th of allSortFields is sorted in ascending order; the key
+     * always is
+     */
+    private boolean isAscending ( final int i ) {
+        return i >= ascending.size() || ascending.get( i );
+    }
+
+    /**
+     * Matches the results that sort after the cursor: those that are past it
+     * on the first sort field, or tied on the first and past it on the second,
+     * and so on. MySQL sorts nulls before everything else in ascending order,
+     * and after everything else in descending order.
+     */
+    private Criterion afterCursor () {
+        final List<QuerySchema.Field<D>> fields = allSortFields();
+        final Disjunction or = Restrictions.disjunction();
+        final List<Criterion> tied = new ArrayList<Criterion>();
+        for ( int i = 0; i < fields.size(); i++ ) {
+            final String p = fields.get( i ).property;
+            final Object value = after.get( i );
+            final Criterion past;
+            if ( isAscending( i ) ) {
+                past = null == value ? Restrictions.isNotNull( p ) : Restrictions.gt( p, value );
+            }
+            else {
+                past = null == value ? null : Restrictions.or( Restrictions.lt( p, value ), Restrictions.isNull( p ) );
+            }
+            if ( null != past ) {
+                final List<Criterion> clause = new ArrayList<Criterion>( tied );
+                clause.add( past );
+                or.add( Restrictions.and( clause.toArray( new Criterion[clause.size()] ) ) );
+            }
+            tied.add( null == value ? Restrictions.isNull( p ) : Restrictions.eq( p, value ) );
+        }
+        return or;
+    }
+
+}
@@ -1,27 +1,43 @@
 package edu.ncsu.csc.itrust2.models.persistent;
 
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Vector;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import javax.persistence.Basic;
+import javax.persistence.Column;
 import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Table;
 import javax.validation.constraints.NotNull;
 
 import com.google.gson.annotations.JsonAdapter;
 
 import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Projections;
 import org.hibernate.criterion.Restrictions;
 
+import edu.ncsu.csc.itrust2.adapters.TransactionTypeAttributeConverter;
+import edu.ncsu.csc.itrust2.adapters.UsernameAttributeConverter;
 import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAdapter;
 import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAttributeConverter;
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
+import edu.ncsu.csc.itrust2.utils.AuditArchive;
+import edu.ncsu.csc.itrust2.utils.AuditLogWriter;
 import edu.ncsu.csc.itrust2.utils.LoggerUtil;
+import edu.ncsu.csc.itrust2.utils.NameDictionary;
 
 /**
  * Class that represents a LogEntry that is created in response to certain user
@@ -33,19 +49,39 @@ import edu.ncsu.csc.itrust2.utils.LoggerUtil;
  *
  */
 @Entity
-@Table ( name = "LogEntries" )
+@Table ( name = "LogEntries", indexes = { @Index ( columnList = "primaryUserId,time" ),
+        @Index ( columnList = "secondaryUserId,time" ), @Index ( columnList = "primaryUserId,logCode,time" ),
+        @Index ( columnList = "secondaryUserId,logCode,time" ), @Index ( columnList = "time" ) } )
 public class LogEntry extends DomainObject<LogEntry> {
 
     /**
-     * Type of event that has been logged
+     * The TransactionTypes that a patient may see in their own log. Bound as
+     * their codes, so that the database only reads the visible entries from
+     * the (user, logCode, time) indexes.
+     */
+    private static final List<TransactionType> PATIENT_VIEWABLE = Arrays.stream( TransactionType.values() )
+            .filter( TransactionType::isPatientViewable ).collect( Collectors.toList() );
+
+    /**
+     * Order in which a user's log is shown: newest first, ties broken by ID
+     */
+    private static final List<Order>           NEWEST_FIRST     = Arrays.asList( Order.desc( "time" ),
+            Order.desc( ID ) );
+
+    /**
+     * Type of event that has been logged, stored as its code
      */
     @NotNull
+    @Convert ( converter = TransactionTypeAttributeConverter.class )
     private TransactionType logCode;
 
     /**
-     * The primary user for the event that has been logged
+     * The primary user for the event that has been logged, stored as its
+     * number in the NameDictionary
      */
     @NotNull
+    @Column ( name = "primaryUserId" )
+    @Convert ( converter = UsernameAttributeConverter.class )
     private String          primaryUser;
 
     /**
@@ -59,8 +95,11 @@ public class LogEntry extends DomainObject<LogEntry> {
     private ZonedDateTime        time;
 
     /**
-     * The secondary user for the event that has been logged (optional)
+     * The secondary user for the event that has been logged (optional), stored
+     * as its number in the NameDictionary
      */
+    @Column ( name = "secondaryUserId" )
+    @Convert ( converter = UsernameAttributeConverter.class )
     private String          secondaryUser;
 
     /**
@@ -77,12 +116,15 @@ public class LogEntry extends DomainObject<LogEntry> {
     private Long            id;
 
     /**
-     * Retrieve all LogEntries from the database.
+     * Retrieve all LogEntries from the database. Anything still waiting to be
+     * written by AuditLogWriter is written first. Entries that AuditArchive
+     * has moved out of the database are not included.
      *
-     * @return All LogEntries in the system
+     * @return All LogEntries in the LogEntries table
      */
     @SuppressWarnings ( "unchecked" )
     public static List<LogEntry> getLogEntries () {
+        AuditLogWriter.flush();
         return (List<LogEntry>) getAll( LogEntry.class );
     }
 
@@ -106,7 +148,10 @@ public class LogEntry extends DomainObject<LogEntry> {
 
     /**
      * Retrieves a LogEntry list within the date range startDate and endDate is
-     * parsed by APILogEntry
+     * parsed by APILogEntry. Always read from the database and the
+     * AuditArchive, which every server writes to, rather than from the
+     * AuditJournal, which only holds what this server wrote and may have
+     * missed a batch it could not append.
      *
      * @param startDate
      *            The start date of the time range
@@ -120,12 +165,180 @@ public class LogEntry extends DomainObject<LogEntry> {
         endDate.plusDays( 1 ); // To make inclusive
 
         final String user = LoggerUtil.currentUser();
+        AuditLogWriter.flush();
 
         final List<Criterion> search = new Vector<Criterion>();
         search.add( bt( "time", startDate, endDate ) );
         search.add( Restrictions.or( eq( "primaryUser", user ), eq( "secondaryUser", user ) ) );
 
-        return getWhere( search );
+        final List<LogEntry> entries = new ArrayList<LogEntry>( getWhere( search ) );
+        if ( !AuditArchive.isEmpty() ) {
+            entries.addAll( AuditArchive.find( startDate, endDate, user, involving( user, false ), 0 ) );
+        }
+        return entries;
+    }
+
+    /**
+     * Retrieves one page of the LogEntries that a user is involved in, newest
+     * first. Everything (the user, the date range, which events a patient may
+     * see, and the page boundary) is evaluated by the database. The entries
+     * where the user is the primary user and those where they are the
+     * secondary user are fetched separately, so that each query can use its
+     * own index, and then merged.
+     *
+     * A page can be found either by offset or, much more cheaply for pages
+     * deep into the log, by passing the time and ID of the last entry on the
+     * previous page (keyset pagination).
+     *
+     * Entries that AuditArchive has moved out of the database are included,
+     * reading only the archived blocks that the range and page reach and that
+     * may hold the user.
+     *
+     * @param user
+     *            The user whose log to retrieve
+     * @param patientView
+     *            Whether to only include events that patients may see
+     * @param startDate
+     *            Start of the date range, or null for no lower bound
+     * @param endDate
+     *            End of the date range, or null for no upper bound
+     * @param beforeTime
+     *            Time of the last entry on the previous page, or null
+     * @param beforeId
+     *            ID of the last entry on the previous page, or null
+     * @param offset
+     *            Number of entries (after the cursor, if any) to skip
+     * @param pageLength
+     *            Number of entries to retrieve
+     * @return The page of LogEntries, newest first
+     */
+    public static List<LogEntry> getPageForUser ( final String user, final boolean patientView,
+            final ZonedDateTime startDate, final ZonedDateTime endDate, final ZonedDateTime beforeTime,
+            final Long beforeId, final int offset, final int pageLength ) {
+        AuditLogWriter.flush();
+
+        final int fetch = offset + pageLength;
+        final List<LogEntry> merged = new ArrayList<LogEntry>( 2 * fetch );
+        for ( final String field : new String[] { "primaryUser", "secondaryUser" } ) {
+            final List<Criterion> search = visibleTo( field, user, patientView, startDate, endDate );
+            if ( null != beforeTime && null != beforeId ) {
+                search.add( Restrictions.or( Restrictions.lt( "time", beforeTime ),
+                        Restrictions.and( eq( "time", beforeTime ), Restrictions.lt( ID, beforeId ) ) ) );
+            }
+            merged.addAll( getWhere( LogEntry.class, search, NEWEST_FIRST, fetch ).stream()
+                    .map( LogEntry.class::cast ).collect( Collectors.toList() ) );
+        }
+
+        if ( !AuditArchive.isEmpty() ) {
+            final Predicate<LogEntry> involved = involving( user, patientView );
+            final Predicate<LogEntry> filter = null == beforeTime || null == beforeId ? involved
+                    : involved.and( e -> e.getTime().isBefore( beforeTime )
+                            || e.getTime().isEqual( beforeTime ) && e.getId() < beforeId );
+            merged.addAll( AuditArchive.find( startDate, endDate, user, filter, fetch ) );
+        }
+
+        merged.sort( Comparator.comparing( LogEntry::getTime ).thenComparing( LogEntry::getId ).reversed() );
+        return new ArrayList<LogEntry>(
+                merged.subList( Math.min( offset, merged.size() ), Math.min( fetch, merged.size() ) ) );
+    }
+
+    /**
+     * Counts the LogEntries that a user is involved in, with the same filters
+     * as {@link #getPageForUser}. Each half of the count is answered from an
+     * index without reading the entries themselves; archived entries are
+     * counted from the archived blocks the range reaches that may hold the
+     * user.
+     *
+     * @param user
+     *            The user whose log to count
+     * @param patientView
+     *            Whether to only include events that patients may see
+     * @param startDate
+     *            Start of the date range, or null for no lower bound
+     * @param endDate
+     *            End of the date range, or null for no upper bound
+     * @return The number of matching LogEntries
+     */
+    public static long countForUser ( final String user, final boolean patientView, final ZonedDateTime startDate,
+            final ZonedDateTime endDate ) {
+        AuditLogWriter.flush();
+        return count( LogEntry.class, visibleTo( "primaryUser", user, patientView, startDate, endDate ) )
+                + count( LogEntry.class, visibleTo( "secondaryUser", user, patientView, startDate, endDate ) )
+                + ( AuditArchive.isEmpty() ? 0
+                        : AuditArchive.count( startDate, endDate, user, involving( user, patientView ) ) );
+    }
+
+    /**
+     * The archive's equivalent of the criteria from visibleTo, for both user
+     * fields at once
+     *
+     * @param user
+     *            The user to match
+     * @param patientView
+     *            Whether to only include events that patients may see
+     * @return Whether an entry matches
+     */
+    private static Predicate<LogEntry> involving ( final String user, final boolean patientView ) {
+        return e -> ( user.equals( e.getPrimaryUser() ) || user.equals( e.getSecondaryUser() ) )
+                && ( !patientView || null != e.getLogCode() && e.getLogCode().isPatientViewable() );
+    }
+
+    /**
+     * The time of the oldest entry in the LogEntries table
+     *
+     * @return The oldest time, or null if the table is empty
+     */
+    public static ZonedDateTime getOldestTime () {
+        return (ZonedDateTime) getProjection( LogEntry.class, Collections.emptyList(), Projections.min( "time" ) );
+    }
+
+    /**
+     * Hands each entry in the LogEntries table from a range of time to the
+     * action, in order of their IDs and without holding them all in memory.
+     * Used by AuditArchive to copy out the months it archives.
+     *
+     * @param start
+     *            Earliest time to include
+     * @param end
+     *            Time to stop before
+     * @param action
+     *            What to do with each entry
+     * @return The number of entries handed to the action
+     */
+    public static long streamBetween ( final ZonedDateTime start, final ZonedDateTime end,
+            final Consumer<LogEntry> action ) {
+        final List<Criterion> search = new Vector<Criterion>();
+        search.add( Restrictions.ge( "time", start ) );
+        search.add( Restrictions.lt( "time", end ) );
+        return stream( LogEntry.class, search, action );
+    }
+
+    /**
+     * Builds the criteria shared by getPageForUser and countForUser
+     *
+     * @param field
+     *            Which user field (primaryUser or secondaryUser) to match on
+     * @param user
+     *            The user to match
+     * @param patientView
+     *            Whether to only include events that patients may see
+     * @param startDate
+     *            Start of the date range, or null
+     * @param endDate
+     *            End of the date range, or null
+     * @return The list of criteria
+     */
+    private static List<Criterion> visibleTo ( final String field, final String user, final boolean patientView,
+            final ZonedDateTime startDate, final ZonedDateTime endDate ) {
+        final List<Criterion> search = new Vector<Criterion>();
+        search.add( eq( field, user ) );
+        if ( null != startDate && null != endDate ) {
+            search.add( bt( "time", startDate, endDate ) );
+        }
+        if ( patientView ) {
+            search.add( in( "logCode", PATIENT_VIEWABLE ) );
+        }
+        return search;
     }
 
     /**
@@ -142,13 +355,14 @@ public class LogEntry extends DomainObject<LogEntry> {
 
     /**
      * Retrieve all LogEntries where the user provided was either the primary or
-     * secondary user on the LogEntry.
+     * secondary user on the LogEntry. Archived entries are not included.
      *
      * @param user
      *            The user to match on
      * @return All matching LogEntries
      */
     public static List<LogEntry> getAllForUser ( final String user ) {
+        AuditLogWriter.flush();
         return getWhere( createCriterionList(
                 Restrictions.or( eq( "primaryUser", user ), eq( "secondaryUser", user ) ) ) );
     }
@@ -180,6 +394,17 @@ public class LogEntry extends DomainObject<LogEntry> {
     public LogEntry () {
     }
 
+    /**
+     * Saves the LogEntry straight away, rather than through AuditLogWriter,
+     * first giving its users numbers in the NameDictionary if they do not
+     * have them yet
+     */
+    @Override
+    public void save () {
+        NameDictionary.assign( getPrimaryUser(), getSecondaryUser() );
+        super.save();
+    }
+
     /**
      * Retrieves the ID of the LogEntry
      */
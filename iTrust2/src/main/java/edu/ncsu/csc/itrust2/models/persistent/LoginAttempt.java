@@ -4,11 +4,13 @@ import java.time.ZonedDateTime;
 import java.util.List;
 
 import javax.persistence.Basic;
+import javax.persistence.Column;
 import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
@@ -17,6 +19,7 @@ import com.google.gson.annotations.JsonAdapter;
 
 import org.hibernate.criterion.Criterion;
 
+import edu.ncsu.csc.itrust2.adapters.IpAddressAttributeConverter;
 import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAdapter;
 import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAttributeConverter;
 
@@ -30,18 +33,27 @@ import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAttributeConverter;
  * created, one for the IP and one for the user. If the username is unknown,
  * then only one is created for the IP.
  *
+ * The login path no longer writes these; FailureHandler counts failures in
+ * memory with LoginFailureTracker instead.
+ *
  * @author Thomas
  * @author Kai Presler-Marshall
  *
  */
 @Entity
-@Table ( name = "LoginAttempts" )
+@Table ( name = "LoginAttempts", indexes = { @Index ( columnList = "ipAddress,time" ),
+        @Index ( columnList = "user_id,time" ) } )
 public class LoginAttempt extends DomainObject<LoginAttempt> {
 
     @Id
     @GeneratedValue ( strategy = GenerationType.AUTO )
     private Long     id;
 
+    /**
+     * The IP address, stored as its 4 or 16 bytes
+     */
+    @Column ( name = "ipAddress", columnDefinition = "varbinary(16)" )
+    @Convert ( converter = IpAddressAttributeConverter.class )
     private String   ip;
 
     @ManyToOne
@@ -152,7 +164,7 @@ public class LoginAttempt extends DomainObject<LoginAttempt> {
      * @return the number of failures from the given IP
      */
     public static int getIPFailures ( final String addr ) {
-        return getWhere( eqList( "ip", addr ) ).size();
+        return (int) count( LoginAttempt.class, eqList( "ip", addr ) );
     }
 
     /**
@@ -173,7 +185,7 @@ public class LoginAttempt extends DomainObject<LoginAttempt> {
      * @return The number of failed attempts for the User.
      */
     public static int getUserFailures ( final User user ) {
-        return getWhere( eqList( "user", user ) ).size();
+        return (int) count( LoginAttempt.class, eqList( "user", user ) );
     }
 
     /**
@@ -4,11 +4,13 @@ import java.time.ZonedDateTime;
 import java.util.List;
 
 import javax.persistence.Basic;
+import javax.persistence.Column;
 import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
@@ -17,8 +19,13 @@ import com.google.gson.annotations.JsonAdapter;
 
 import org.hibernate.criterion.Criterion;
 
+import edu.ncsu.csc.itrust2.adapters.IpAddressAttributeConverter;
 import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAdapter;
 import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAttributeConverter;
+import edu.ncsu.csc.itrust2.utils.ExpiringCache;
+import edu.ncsu.csc.itrust2.utils.ReferenceDataCache;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
+import edu.ncsu.csc.itrust2.utils.UserDetailsCache;
 
 /**
  * Contains info about a LoginBan from the system. A ban does not expire, and
@@ -30,13 +37,31 @@ import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAttributeConverter;
  *
  */
 @Entity
-@Table ( name = "LoginBans" )
+@Table ( name = "LoginBans", indexes = { @Index ( columnList = "ipAddress" ), @Index ( columnList = "user_id" ) } )
 public class LoginBan extends DomainObject<LoginBan> {
 
+    /**
+     * IPFilter asks whether the IP is banned on every request, so the answer
+     * is cached per IP. Invalidated whenever a ban for the IP is saved or
+     * deleted.
+     */
+    private static final ExpiringCache<String, Boolean> IP_BANNED = new ExpiringCache<String, Boolean>( 30 * 1000,
+            10000 );
+
+    static {
+        // DomainObject.deleteAll does not go through delete()
+        ReferenceDataCache.addClearListener( LoginBan.class, IP_BANNED::clear );
+    }
+
     @Id
     @GeneratedValue ( strategy = GenerationType.AUTO )
     private Long     id;
 
+    /**
+     * The IP address, stored as its 4 or 16 bytes
+     */
+    @Column ( name = "ipAddress", columnDefinition = "varbinary(16)" )
+    @Convert ( converter = IpAddressAttributeConverter.class )
     private String   ip;
 
     @ManyToOne
@@ -146,7 +171,10 @@ public class LoginBan extends DomainObject<LoginBan> {
      * @return true if banned, false otherwise
      */
     public static boolean isIPBanned ( final String addr ) {
-        return getWhere( eqList( "ip", addr ) ).size() > 0;
+        if ( null == addr ) {
+            return false;
+        }
+        return IP_BANNED.get( addr, a -> count( LoginBan.class, eqList( "ip", a ) ) > 0 );
     }
 
     /**
@@ -157,7 +185,7 @@ public class LoginBan extends DomainObject<LoginBan> {
      * @return true if banned, false otherwise.
      */
     public static boolean isUserBanned ( final User user ) {
-        return getWhere( eqList( "user", user ) ).size() > 0;
+        return count( LoginBan.class, eqList( "user", user ) ) > 0;
     }
 
     /**
@@ -179,4 +207,41 @@ public class LoginBan extends DomainObject<LoginBan> {
     public static void clearUser ( final User user ) {
         getWhere( eqList( "user", user ) ).stream().forEach( e -> e.delete() );
     }
+
+    /**
+     * Forgets the cached answer for an IP. It is dropped again once the
+     * current unit of work has finished, so that an answer read by another
+     * request before this one committed is not kept.
+     *
+     * @param addr
+     *            The IP, which may be null
+     */
+    private static void forgetIP ( final String addr ) {
+        IP_BANNED.invalidate( addr );
+        UnitOfWork.afterCompletion( () -> IP_BANNED.invalidate( addr ) );
+    }
+
+    /**
+     * Saves the ban, and forgets any cached answer for its IP or user
+     */
+    @Override
+    public void save () {
+        super.save();
+        forgetIP( ip );
+        if ( null != user ) {
+            UserDetailsCache.invalidate( user.getUsername() );
+        }
+    }
+
+    /**
+     * Deletes the ban, and forgets any cached answer for its IP or user
+     */
+    @Override
+    public void delete () {
+        super.delete();
+        forgetIP( ip );
+        if ( null != user ) {
+            UserDetailsCache.invalidate( user.getUsername() );
+        }
+    }
 }
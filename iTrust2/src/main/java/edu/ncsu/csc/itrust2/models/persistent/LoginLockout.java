@@ -2,14 +2,16 @@ package edu.ncsu.csc.itrust2.models.persistent;
 
 import java.time.ZonedDateTime;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Vector;
 
 import javax.persistence.Basic;
+import javax.persistence.Column;
 import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
@@ -17,9 +19,15 @@ import javax.persistence.Table;
 import com.google.gson.annotations.JsonAdapter;
 
 import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Projections;
 
+import edu.ncsu.csc.itrust2.adapters.IpAddressAttributeConverter;
 import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAdapter;
 import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAttributeConverter;
+import edu.ncsu.csc.itrust2.utils.ExpiringCache;
+import edu.ncsu.csc.itrust2.utils.ReferenceDataCache;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
+import edu.ncsu.csc.itrust2.utils.UserDetailsCache;
 
 /**
  * Class that holds a lockout for a user or ip. It contains a timestamp used to
@@ -32,13 +40,43 @@ import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAttributeConverter;
  *
  */
 @Entity
-@Table ( name = "LoginLockouts" )
+@Table ( name = "LoginLockouts", indexes = { @Index ( columnList = "ipAddress,time" ),
+        @Index ( columnList = "user_id,time" ) } )
 public class LoginLockout extends DomainObject<LoginLockout> {
 
+    /**
+     * How long a lockout lasts, in minutes
+     */
+    public static final int                            LOCKOUT_MINUTES    = 60;
+
+    /**
+     * Window, in minutes, over which lockouts are counted towards a ban
+     */
+    public static final int                            BAN_WINDOW_MINUTES = 1440;
+
+    /**
+     * IPFilter asks whether the IP is locked on every request. Caches, per
+     * IP, the epoch millisecond at which its most recent lockout ends (0 if it
+     * is not locked) so that the usual "not locked" answer does not need the
+     * database. Invalidated whenever a lockout for the IP is saved or deleted.
+     */
+    private static final ExpiringCache<String, Long> IP_LOCKED_UNTIL    = new ExpiringCache<String, Long>( 30 * 1000,
+            10000 );
+
+    static {
+        // DomainObject.deleteAll does not go through delete()
+        ReferenceDataCache.addClearListener( LoginLockout.class, IP_LOCKED_UNTIL::clear );
+    }
+
     @Id
     @GeneratedValue ( strategy = GenerationType.AUTO )
     private Long     id;
 
+    /**
+     * The IP address, stored as its 4 or 16 bytes
+     */
+    @Column ( name = "ipAddress", columnDefinition = "varbinary(16)" )
+    @Convert ( converter = IpAddressAttributeConverter.class )
     private String   ip;
 
     @ManyToOne
@@ -139,10 +177,41 @@ public class LoginLockout extends DomainObject<LoginLockout> {
      * @return The number of lockouts for the given IP
      */
     public static int getRecentIPLockouts ( final String addr ) {
-        final long now = ZonedDateTime.now().toEpochSecond();
-        return getWhere( eqList( "ip", addr ) ).stream()
-                .filter( e -> ( now - e.getTime().toEpochSecond() ) < 1440 * 60 * 1000 )
-                .collect( Collectors.toList() ).size(); // 1440 minutes
+        return (int) countSince( eq( "ip", addr ), BAN_WINDOW_MINUTES );
+    }
+
+    /**
+     * Counts the lockouts matching the given Criterion that started within the
+     * last `minutes` minutes. Evaluated entirely in the database.
+     *
+     * @param who
+     *            Criterion selecting the IP or User
+     * @param minutes
+     *            How far back to look
+     * @return The number of matching lockouts
+     */
+    private static long countSince ( final Criterion who, final int minutes ) {
+        final List<Criterion> where = new Vector<Criterion>();
+        where.add( who );
+        where.add( gt( "time", ZonedDateTime.now().minusMinutes( minutes ) ) );
+        return count( LoginLockout.class, where );
+    }
+
+    /**
+     * Finds when the most recent still-active lockout of the IP ends
+     *
+     * @param addr
+     *            The IP to check
+     * @return The end of the lockout in epoch milliseconds, or 0 if the IP is
+     *         not locked out
+     */
+    private static Long queryIPLockedUntil ( final String addr ) {
+        final List<Criterion> where = new Vector<Criterion>();
+        where.add( eq( "ip", addr ) );
+        where.add( gt( "time", ZonedDateTime.now().minusMinutes( LOCKOUT_MINUTES ) ) );
+        final ZonedDateTime latest = (ZonedDateTime) getProjection( LoginLockout.class, where,
+                Projections.max( "time" ) );
+        return null == latest ? 0L : latest.plusMinutes( LOCKOUT_MINUTES ).toInstant().toEpochMilli();
     }
 
     /**
@@ -178,18 +247,18 @@ public class LoginLockout extends DomainObject<LoginLockout> {
     }
 
     /**
-     * Returns true if the given IP is locked out currently.
+     * Returns true if the given IP is locked out currently. Usually answered
+     * from memory; see {@link #IP_LOCKED_UNTIL}.
      *
      * @param addr
      *            The IP to check.
      * @return true if IP is locked out, flase otherwise
      */
     public static boolean isIPLocked ( final String addr ) {
-        final long now = ZonedDateTime.now().toEpochSecond();
-        return getWhere( eqList( "ip", addr ) ).stream()
-                .filter( e -> ( now - e.getTime().toEpochSecond() ) < 60 * 60 * 1000 ).collect( Collectors.toList() )
-                .size() > 0; // locked if within 60 minutes
-
+        if ( null == addr ) {
+            return false;
+        }
+        return System.currentTimeMillis() < IP_LOCKED_UNTIL.get( addr, LoginLockout::queryIPLockedUntil );
     }
 
     /**
@@ -201,10 +270,7 @@ public class LoginLockout extends DomainObject<LoginLockout> {
      * @return The number of lockouts for the user
      */
     public static int getRecentUserLockouts ( final User user ) {
-        final long now = ZonedDateTime.now().toEpochSecond();
-        return getWhere( eqList( "user", user ) ).stream()
-                .filter( e -> ( now - e.getTime().toEpochSecond() ) < 1440 * 60 * 1000 )
-                .collect( Collectors.toList() ).size(); // 1440 minutes
+        return (int) countSince( eq( "user", user ), BAN_WINDOW_MINUTES );
     }
 
     /**
@@ -225,10 +291,44 @@ public class LoginLockout extends DomainObject<LoginLockout> {
      * @return true if the user is locked out, false otherwise
      */
     public static boolean isUserLocked ( final User user ) {
-        final long now = ZonedDateTime.now().toEpochSecond();
-        return getWhere( eqList( "user", user ) ).stream()
-                .filter( e -> ( now - e.getTime().toEpochSecond() ) < 60 * 60 * 1000 ).collect( Collectors.toList() )
-                .size() > 0; // locked if within 60 minutes
+        return countSince( eq( "user", user ), LOCKOUT_MINUTES ) > 0;
+    }
+
+    /**
+     * Forgets the cached answer for an IP. It is dropped again once the
+     * current unit of work has finished, so that an answer read by another
+     * request before this one committed is not kept.
+     *
+     * @param addr
+     *            The IP, which may be null
+     */
+    private static void forgetIP ( final String addr ) {
+        IP_LOCKED_UNTIL.invalidate( addr );
+        UnitOfWork.afterCompletion( () -> IP_LOCKED_UNTIL.invalidate( addr ) );
+    }
+
+    /**
+     * Saves the lockout, and forgets any cached answer for its IP or user
+     */
+    @Override
+    public void save () {
+        super.save();
+        forgetIP( ip );
+        if ( null != user ) {
+            UserDetailsCache.invalidate( user.getUsername() );
+        }
+    }
+
+    /**
+     * Deletes the lockout, and forgets any cached answer for its IP or user
+     */
+    @Override
+    public void delete () {
+        super.delete();
+        forgetIP( ip );
+        if ( null != user ) {
+            UserDetailsCache.invalidate( user.getUsername() );
+        }
     }
 
 }
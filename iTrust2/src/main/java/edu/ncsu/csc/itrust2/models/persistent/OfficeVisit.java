@@ -3,26 +3,34 @@ package edu.ncsu.csc.itrust2.models.persistent;
 import java.text.ParseException;
 import java.time.LocalDate;
 import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.Vector;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import javax.persistence.Basic;
 import javax.persistence.Convert;
+import javax.persistence.Entity;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Inheritance;
+import javax.persistence.InheritanceType;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
-import javax.persistence.MappedSuperclass;
 import javax.persistence.OneToOne;
+import javax.persistence.Table;
 import javax.validation.constraints.NotNull;
 
 import com.google.gson.annotations.JsonAdapter;
 
 import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Order;
 
 import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAdapter;
 import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAttributeConverter;
@@ -31,14 +39,52 @@ import edu.ncsu.csc.itrust2.models.enums.AppointmentType;
 import edu.ncsu.csc.itrust2.models.enums.Role;
 
 /**
- * This is the validated database-persisted office visit representation
+ * This is the validated database-persisted office visit representation.
+ *
+ * The fields every visit shares live in the OfficeVisits table, and each kind
+ * of visit keeps its own fields in its own table joined on the ID. Visits of
+ * every kind can therefore be read with a single query against OfficeVisits,
+ * which is indexed by patient and by HCP, each followed by date.
  *
  * @author Kai Presler-Marshall
  *
  */
-@MappedSuperclass
+@Entity
+@Table ( name = "OfficeVisits", indexes = { @Index ( columnList = "patient_id,date" ), @Index ( columnList = "date" ),
+        @Index ( columnList = "hcp_id,date" ) } )
+@Inheritance ( strategy = InheritanceType.JOINED )
 public abstract class OfficeVisit extends DomainObject<OfficeVisit> {
 
+    /**
+     * Fields the list of office visits can be filtered and sorted by
+     */
+    public static final QuerySchema<OfficeVisit> QUERY = new QuerySchema<OfficeVisit>( OfficeVisit.class, "id", "id",
+            QuerySchema.LONG, OfficeVisit::getId )
+                    .field( "patient", "patient.username", QuerySchema.STRING, v -> v.getPatient().getUsername() )
+                    .field( "hcp", "hcp.username", QuerySchema.STRING, v -> v.getHcp().getUsername() )
+                    .field( "date", "date", QuerySchema.TIME, OfficeVisit::getDate )
+                    .field( "type", "type", QuerySchema.enumOf( AppointmentType.class ), OfficeVisit::getType )
+                    .field( "hospital", "hospital.name", QuerySchema.STRING,
+                            v -> null == v.getHospital() ? null : v.getHospital().getName() );
+
+    /**
+     * Get one page of the office visits of every type, filtered and sorted as
+     * asked
+     *
+     * @param query
+     *            The filters, sort order and page
+     * @return The page of office visits
+     */
+    public static Page<OfficeVisit> getPage ( final ListQuery<OfficeVisit> query ) {
+        return getPage( query, new Vector<Criterion>() );
+    }
+
+    /**
+     * Visits are listed oldest first; the ID breaks ties so that pages are
+     * stable
+     */
+    private static final List<Order> BY_DATE = Arrays.asList( Order.asc( "date" ), Order.asc( ID ) );
+
     /**
      * Get a specific office visit by the database ID
      *
@@ -64,7 +110,24 @@ public abstract class OfficeVisit extends DomainObject<OfficeVisit> {
      * @return the office visits of the queried patient
      */
     public static List<OfficeVisit> getForPatient ( final String patientName ) {
-        return getWhere( eqList( "patient", User.getByNameAndRole( patientName, Role.ROLE_PATIENT ) ) );
+        return getForPatient( patientName, 0, 0 );
+    }
+
+    /**
+     * Get one page of the office visits for a specific patient, oldest first
+     *
+     * @param patientName
+     *            the name of the patient
+     * @param first
+     *            index of the first visit to return
+     * @param max
+     *            largest number of visits to return, or 0 for all of them
+     * @return the office visits of the queried patient
+     */
+    @SuppressWarnings ( "unchecked" )
+    public static List<OfficeVisit> getForPatient ( final String patientName, final int first, final int max ) {
+        return (List<OfficeVisit>) getWhere( OfficeVisit.class,
+                eqList( "patient", User.getByNameAndRole( patientName, Role.ROLE_PATIENT ) ), BY_DATE, first, max );
     }
 
     /**
@@ -75,9 +138,26 @@ public abstract class OfficeVisit extends DomainObject<OfficeVisit> {
      * @return the office visits of the queried HCP
      */
     public static List<OfficeVisit> getForHCP ( final String hcpName ) {
-        return getWhere( eqList( "hcp", User.getByName( hcpName ) ) );
+        return getForHCP( hcpName, 0, 0 );
     }
-    
+
+    /**
+     * Get one page of the office visits for a specific HCP, oldest first
+     *
+     * @param hcpName
+     *            the name of the HCP
+     * @param first
+     *            index of the first visit to return
+     * @param max
+     *            largest number of visits to return, or 0 for all of them
+     * @return the office visits of the queried HCP
+     */
+    @SuppressWarnings ( "unchecked" )
+    public static List<OfficeVisit> getForHCP ( final String hcpName, final int first, final int max ) {
+        return (List<OfficeVisit>) getWhere( OfficeVisit.class, eqList( "hcp", User.getByName( hcpName ) ), BY_DATE,
+                first, max );
+    }
+
     /**
      * Gets all of the office visits of the specified type.
      * @param type The AppointmentType
@@ -87,6 +167,25 @@ public abstract class OfficeVisit extends DomainObject<OfficeVisit> {
         return getWhere( eqList( "type", type ) );
     }
 
+    /**
+     * Gets one page of the office visits of any of the specified types,
+     * oldest first, in a single query.
+     *
+     * @param types
+     *            The AppointmentTypes to include
+     * @param first
+     *            index of the first visit to return
+     * @param max
+     *            largest number of visits to return, or 0 for all of them
+     * @return the office visits of the specified types
+     */
+    @SuppressWarnings ( "unchecked" )
+    public static List<OfficeVisit> getForTypes ( final Collection<AppointmentType> types, final int first,
+            final int max ) {
+        return (List<OfficeVisit>) getWhere( OfficeVisit.class, createCriterionList( in( "type", types ) ), BY_DATE,
+                first, max );
+    }
+
     /**
      * Get all office visits done by a specific HCP for a specific patient
      *
@@ -109,19 +208,26 @@ public abstract class OfficeVisit extends DomainObject<OfficeVisit> {
      *
      * @return all office visits in the database
      */
-    @SuppressWarnings ( "unchecked" )
     public static List<OfficeVisit> getOfficeVisits () {
-        final List<OfficeVisit> visits = (List<OfficeVisit>) getAll( GeneralCheckup.class );
-        // append new appointment types
-        visits.addAll( (List<OfficeVisit>) getAll( GeneralOphthalmology.class ) );
-        visits.addAll( (List<OfficeVisit>) getAll( OphthalmologySurgery.class ) );
-        visits.sort( ( x1, x2 ) -> x1.getDate().compareTo( x2.getDate() ) );
-        return visits;
+        return getWhere( new Vector<Criterion>() );
+    }
+
+    /**
+     * Hands every office visit, of every type, to the action one at a time,
+     * without loading them all into memory. See DomainObject.stream.
+     *
+     * @param action
+     *            What to do with each visit
+     * @return The number of visits
+     */
+    public static long streamOfficeVisits ( final Consumer<OfficeVisit> action ) {
+        return stream( OfficeVisit.class, new Vector<Criterion>(), action );
     }
 
     /**
      * Helper method to pass to the DomainObject class that performs a specific
-     * query on the database.
+     * query on the database. Visits of every type are read by the one query,
+     * oldest first.
      *
      * @SuppressWarnings for Unchecked cast from List<capture#1-of ? extends
      *                   DomainObject> to List<OfficeVisit> Because get all just
@@ -133,10 +239,7 @@ public abstract class OfficeVisit extends DomainObject<OfficeVisit> {
      */
     @SuppressWarnings ( "unchecked" )
     private static List<OfficeVisit> getWhere ( final List<Criterion> where ) {
-        final List<OfficeVisit> visits = (List<OfficeVisit>) getWhere( GeneralCheckup.class, where );
-        visits.addAll( (List<OfficeVisit>) getWhere( GeneralOphthalmology.class, where ) );
-        visits.addAll( (List<OfficeVisit>) getWhere( OphthalmologySurgery.class, where ) );
-        return visits;
+        return (List<OfficeVisit>) getWhere( OfficeVisit.class, where, BY_DATE, 0, 0 );
     }
 
     /** For Hibernate/Thymeleaf _must_ be an empty constructor */
@@ -531,6 +634,23 @@ public abstract class OfficeVisit extends DomainObject<OfficeVisit> {
 
     }
 
+    /**
+     * Keeps the patient's PatientSummary up to date with the vitals taken and
+     * the date of this visit
+     */
+    @Override
+    protected void afterSave () {
+        PatientSummary.visitSaved( this );
+    }
+
+    /**
+     * Removes this visit from the patient's PatientSummary
+     */
+    @Override
+    protected void afterDelete () {
+        PatientSummary.visitDeleted( this );
+    }
+
     // /**
     // * Deletes all Office visits
     // */
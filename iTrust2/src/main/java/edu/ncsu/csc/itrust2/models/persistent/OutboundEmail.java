@@ -0,0 +1,416 @@
+package edu.ncsu.csc.itrust2.models.persistent;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+
+import org.hibernate.Session;
+import org.hibernate.criterion.Order;
+import org.hibernate.criterion.Restrictions;
+
+import edu.ncsu.csc.itrust2.utils.HibernateUtil;
+
+/**
+ * An email that has been queued to be sent but has not been delivered yet.
+ * Requests only save one of these; NotificationQueue sends them in the
+ * background and deletes each one once it has been delivered. An email that
+ * still cannot be sent after the maximum number of attempts is kept, marked as
+ * failed, so that it can be looked into.
+ *
+ * A sender claims the emails it is about to send by writing its name and a
+ * deadline into the row, so that other senders, in this server or another one
+ * sharing the database, leave them alone. A claim whose deadline has passed,
+ * such as one left by a server that stopped part way through sending, no
+ * longer counts and the email is picked up again.
+ */
+@Entity
+@Table ( name = "OutboundEmails", indexes = { @Index ( columnList = "failed,nextAttempt" ) } )
+public class OutboundEmail extends DomainObject<OutboundEmail> {
+
+    /**
+     * Due emails are sent oldest first
+     */
+    private static final List<Order> BY_DUE = Arrays.asList( Order.asc( "nextAttempt" ), Order.asc( ID ) );
+
+    @Id
+    @GeneratedValue ( strategy = GenerationType.AUTO )
+    private Long                     id;
+
+    @NotNull
+    private String                   address;
+
+    @NotNull
+    private String                   subject;
+
+    @NotNull
+    @Column ( length = 4000 )
+    private String                   body;
+
+    /**
+     * Number of times sending this email has been tried
+     */
+    private int                      attempts;
+
+    /**
+     * Time (in epoch ms) before which this email should not be tried again
+     */
+    private long                     nextAttempt;
+
+    /**
+     * Why the last attempt failed, if it did
+     */
+    @Column ( length = 1000 )
+    private String                   lastError;
+
+    /**
+     * Whether sending has been given up on
+     */
+    private boolean                  failed;
+
+    /**
+     * Name of the sender that has claimed this email, if any
+     */
+    @Column ( length = 100 )
+    private String                   claimedBy;
+
+    /**
+     * Time (in epoch ms) the claim on this email runs out; no longer claimed
+     * once it has passed
+     */
+    private long                     claimedUntil;
+
+    /**
+     * Empty constructor for Hibernate
+     */
+    public OutboundEmail () {
+    }
+
+    /**
+     * Creates an email that is due to be sent straight away
+     *
+     * @param address
+     *            Address to send to
+     * @param subject
+     *            Subject of the email
+     * @param body
+     *            Body of the message
+     */
+    public OutboundEmail ( final String address, final String subject, final String body ) {
+        setAddress( address );
+        setSubject( subject );
+        setBody( body );
+        setNextAttempt( System.currentTimeMillis() );
+    }
+
+    /**
+     * Returns the emails that are due to be sent, oldest first
+     *
+     * @param max
+     *            Largest number of emails to return
+     * @return The emails that are due
+     */
+    @SuppressWarnings ( "unchecked" )
+    public static List<OutboundEmail> getDue ( final int max ) {
+        return (List<OutboundEmail>) getWhere( OutboundEmail.class,
+                Arrays.asList( eq( "failed", false ), le( "nextAttempt", System.currentTimeMillis() ) ), BY_DUE,
+                max );
+    }
+
+    /**
+     * Claims the emails that are due to be sent and that nobody holds a claim
+     * on, oldest first. They are claimed with one statement, in a transaction
+     * of its own, so that two senders claiming at the same time never get the
+     * same email: the second waits for the rows the first has claimed and then
+     * finds they no longer match.
+     *
+     * @param claimant
+     *            Name to claim them under, which should not be used by any
+     *            other claim
+     * @param max
+     *            Largest number of emails to claim
+     * @param claimMs
+     *            How long, in milliseconds, the claim lasts. Should be well
+     *            beyond the time it takes to send them.
+     * @return The emails claimed
+     */
+    @SuppressWarnings ( "unchecked" )
+    public static List<OutboundEmail> claim ( final String claimant, final int max, final long claimMs ) {
+        final long now = System.currentTimeMillis();
+        final Session session = HibernateUtil.openSession();
+        try {
+            session.beginTransaction();
+            session.createSQLQuery( "UPDATE OutboundEmails SET claimedBy = :claimant, claimedUntil = :until "
+                    + "WHERE failed = false AND nextAttempt <= :now AND claimedUntil <= :now "
+                    + "ORDER BY nextAttempt, id LIMIT :max" ).setParameter( "claimant", claimant )
+                    .setParameter( "until", now + claimMs ).setParameter( "now", now ).setParameter( "max", max )
+                    .executeUpdate();
+            final List<OutboundEmail> claimed = session.createCriteria( OutboundEmail.class )
+                    .add( Restrictions.eq( "claimedBy", claimant ) ).addOrder( Order.asc( "nextAttempt" ) )
+                    .addOrder( Order.asc( ID ) ).list();
+            session.getTransaction().commit();
+            return claimed;
+        }
+        catch ( final RuntimeException e ) {
+            session.getTransaction().rollback();
+            throw e;
+        }
+        finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Returns every queued email, whether it is due or not
+     *
+     * @return All of the queued emails
+     */
+    @SuppressWarnings ( "unchecked" )
+    public static List<OutboundEmail> getAll () {
+        return (List<OutboundEmail>) getAll( OutboundEmail.class );
+    }
+
+    /**
+     * Returns the emails that were given up on
+     *
+     * @return The failed emails
+     */
+    @SuppressWarnings ( "unchecked" )
+    public static List<OutboundEmail> getFailed () {
+        return (List<OutboundEmail>) getWhere( OutboundEmail.class, eqList( "failed", true ) );
+    }
+
+    /**
+     * Number of emails that have not been sent or given up on yet
+     *
+     * @return The number of emails waiting
+     */
+    public static long countPending () {
+        return count( OutboundEmail.class, eqList( "failed", false ) );
+    }
+
+    /**
+     * Get a specific email by the database ID
+     *
+     * @param id
+     *            the database ID
+     * @return the email with the desired ID
+     */
+    public static OutboundEmail getById ( final Long id ) {
+        try {
+            return (OutboundEmail) getWhere( OutboundEmail.class, eqList( ID, id ) ).get( 0 );
+        }
+        catch ( final Exception e ) {
+            return null;
+        }
+    }
+
+    /**
+     * Deletes every queued email
+     */
+    public static void deleteAll () {
+        DomainObject.deleteAll( OutboundEmail.class );
+    }
+
+    /**
+     * Returns the ID of this email
+     *
+     * @return the id
+     */
+    @Override
+    public Long getId () {
+        return id;
+    }
+
+    /**
+     * Sets the ID of this email
+     *
+     * @param id
+     *            the id to set
+     */
+    public void setId ( final Long id ) {
+        this.id = id;
+    }
+
+    /**
+     * Returns the address this email goes to
+     *
+     * @return the address
+     */
+    public String getAddress () {
+        return address;
+    }
+
+    /**
+     * Sets the address this email goes to
+     *
+     * @param address
+     *            the address to set
+     */
+    public void setAddress ( final String address ) {
+        this.address = address;
+    }
+
+    /**
+     * Returns the subject of this email
+     *
+     * @return the subject
+     */
+    public String getSubject () {
+        return subject;
+    }
+
+    /**
+     * Sets the subject of this email
+     *
+     * @param subject
+     *            the subject to set
+     */
+    public void setSubject ( final String subject ) {
+        this.subject = subject;
+    }
+
+    /**
+     * Returns the body of this email
+     *
+     * @return the body
+     */
+    public String getBody () {
+        return body;
+    }
+
+    /**
+     * Sets the body of this email
+     *
+     * @param body
+     *            the body to set
+     */
+    public void setBody ( final String body ) {
+        this.body = body;
+    }
+
+    /**
+     * Returns the number of times sending this email has been tried
+     *
+     * @return the number of attempts
+     */
+    public int getAttempts () {
+        return attempts;
+    }
+
+    /**
+     * Sets the number of times sending this email has been tried
+     *
+     * @param attempts
+     *            the number of attempts
+     */
+    public void setAttempts ( final int attempts ) {
+        this.attempts = attempts;
+    }
+
+    /**
+     * Returns the time (in epoch ms) before which this email should not be
+     * tried again
+     *
+     * @return the time of the next attempt
+     */
+    public long getNextAttempt () {
+        return nextAttempt;
+    }
+
+    /**
+     * Sets the time (in epoch ms) before which this email should not be tried
+     * again
+     *
+     * @param nextAttempt
+     *            the time of the next attempt
+     */
+    public void setNextAttempt ( final long nextAttempt ) {
+        this.nextAttempt = nextAttempt;
+    }
+
+    /**
+     * Returns why the last attempt to send this email failed
+     *
+     * @return the last error, or null
+     */
+    public String getLastError () {
+        return lastError;
+    }
+
+    /**
+     * Records why the last attempt to send this email failed
+     *
+     * @param lastError
+     *            the error to record
+     */
+    public void setLastError ( final String lastError ) {
+        this.lastError = null == lastError || lastError.length() <= 1000 ? lastError
+                : lastError.substring( 0, 1000 );
+    }
+
+    /**
+     * Returns whether sending this email has been given up on
+     *
+     * @return true if the email will not be tried again
+     */
+    public boolean isFailed () {
+        return failed;
+    }
+
+    /**
+     * Sets whether sending this email has been given up on
+     *
+     * @param failed
+     *            true if the email should not be tried again
+     */
+    public void setFailed ( final boolean failed ) {
+        this.failed = failed;
+    }
+
+    /**
+     * Returns the name of the sender that has claimed this email
+     *
+     * @return the claimant, or null
+     */
+    public String getClaimedBy () {
+        return claimedBy;
+    }
+
+    /**
+     * Sets the name of the sender that has claimed this email
+     *
+     * @param claimedBy
+     *            the claimant, or null to release it
+     */
+    public void setClaimedBy ( final String claimedBy ) {
+        this.claimedBy = claimedBy;
+    }
+
+    /**
+     * Returns the time (in epoch ms) the claim on this email runs out
+     *
+     * @return the end of the claim
+     */
+    public long getClaimedUntil () {
+        return claimedUntil;
+    }
+
+    /**
+     * Sets the time (in epoch ms) the claim on this email runs out
+     *
+     * @param claimedUntil
+     *            the end of the claim, or 0 to release it
+     */
+    public void setClaimedUntil ( final long claimedUntil ) {
+        this.claimedUntil = claimedUntil;
+    }
+
+}
@@ -0,0 +1,107 @@
+package edu.ncsu.csc.itrust2.models.persistent;
+
+import java.util.List;
+
+/**
+ * One page of a list of DomainObjects, as returned by DomainObject.getPage and
+ * sent by the list endpoints when they are asked for a page.
+ *
+ * @param <D>
+ *            The DomainObject listed
+ */
+public class Page <D> {
+
+    /**
+     * The results on this page
+     */
+    private final List<D> items;
+
+    /**
+     * Total number of matching results, or null if it was not asked for
+     */
+    private final Long    total;
+
+    /**
+     * Cursor to pass as `after` to get the next page, or null if this is the
+     * last page
+     */
+    private final String  next;
+
+    /**
+     * Number of results skipped before this page
+     */
+    private final int     offset;
+
+    /**
+     * Most results the page could have held
+     */
+    private final int     limit;
+
+    /**
+     * Creates a page
+     *
+     * @param items
+     *            The results on this page
+     * @param total
+     *            Total number of matching results, or null if not counted
+     * @param next
+     *            Cursor for the next page, or null if there is none
+     * @param offset
+     *            Number of results skipped before this page
+     * @param limit
+     *            Most results the page could have held
+     */
+    public Page ( final List<D> items, final Long total, final String next, final int offset, final int limit ) {
+        this.items = items;
+        this.total = total;
+        this.next = next;
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    /**
+     * The results on this page
+     *
+     * @return The results
+     */
+    public List<D> getItems () {
+        return items;
+    }
+
+    /**
+     * Total number of matching results
+     *
+     * @return The total, or null if it was not asked for
+     */
+    public Long getTotal () {
+        return total;
+    }
+
+    /**
+     * Cursor to pass as `after` to get the next page
+     *
+     * @return The cursor, or null if this is the last page
+     */
+    public String getNext () {
+        return next;
+    }
+
+    /**
+     * Number of results skipped before this page
+     *
+     * @return The offset
+     */
+    public int getOffset () {
+        return offset;
+    }
+
+    /**
+     * Most results the page could have held
+     *
+     * @return The limit
+     */
+    public int getLimit () {
+        return limit;
+    }
+
+}
@@ -7,6 +7,7 @@ import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import javax.persistence.Basic;
 import javax.persistence.Convert;
@@ -17,6 +18,7 @@ import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.JoinTable;
 import javax.persistence.ManyToMany;
@@ -47,9 +49,34 @@ import edu.ncsu.csc.itrust2.models.enums.State;
  *
  */
 @Entity
-@Table ( name = "Patients" )
+@Table ( name = "Patients", indexes = { @Index ( columnList = "lastName,firstName" ),
+        @Index ( columnList = "dateOfBirth" ) } )
 public class Patient extends DomainObject<Patient> implements Serializable {
 
+    /**
+     * Fields the list of patients can be filtered and sorted by
+     */
+    public static final QuerySchema<Patient> QUERY = new QuerySchema<Patient>( Patient.class, "username",
+            "self.username", QuerySchema.STRING, p -> p.getSelf().getUsername() )
+                    .field( "firstName", "firstName", QuerySchema.STRING, Patient::getFirstName )
+                    .field( "lastName", "lastName", QuerySchema.STRING, Patient::getLastName )
+                    .field( "dateOfBirth", "dateOfBirth", QuerySchema.DATE, Patient::getDateOfBirth )
+                    .field( "gender", "gender", QuerySchema.enumOf( Gender.class ), Patient::getGender )
+                    .field( "city", "city", QuerySchema.STRING, Patient::getCity )
+                    .field( "state", "state", QuerySchema.enumOf( State.class ), Patient::getState )
+                    .field( "zip", "zip", QuerySchema.STRING, Patient::getZip );
+
+    /**
+     * Get one page of the patients, filtered and sorted as asked
+     *
+     * @param query
+     *            The filters, sort order and page
+     * @return The page of patients
+     */
+    public static Page<Patient> getPage ( final ListQuery<Patient> query ) {
+        return getPage( query, new ArrayList<Criterion>() );
+    }
+
     /**
      * Randomly generated ID.
      */
@@ -78,6 +105,18 @@ public class Patient extends DomainObject<Patient> implements Serializable {
         return rPats;
     }
 
+    /**
+     * Hands every Patient in the system to the action, one at a time, without
+     * loading them all into memory. See DomainObject.stream.
+     *
+     * @param action
+     *            What to do with each patient
+     * @return The number of patients
+     */
+    public static long streamPatients ( final Consumer<Patient> action ) {
+        return stream( Patient.class, new ArrayList<Criterion>(), action );
+    }
+
     /**
      * Get a specific patient by username
      *
@@ -842,4 +881,20 @@ public class Patient extends DomainObject<Patient> implements Serializable {
     public List<Diagnosis> getDiagnoses () {
         return Diagnosis.getForPatient( this.self );
     }
+
+    /**
+     * Keeps the patient's PatientSummary up to date with their demographics
+     */
+    @Override
+    protected void afterSave () {
+        PatientSummary.patientSaved( this );
+    }
+
+    /**
+     * Deletes the patient's PatientSummary along with them
+     */
+    @Override
+    protected void afterDelete () {
+        PatientSummary.patientDeleted( this );
+    }
 }
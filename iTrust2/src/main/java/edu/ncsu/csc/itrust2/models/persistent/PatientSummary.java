@@ -0,0 +1,927 @@
+package edu.ncsu.csc.itrust2.models.persistent;
+
+import java.io.Serializable;
+import java.lang.reflect.Type;
+import java.time.LocalDate;
+import java.time.Period;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import javax.persistence.Basic;
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+
+import com.google.gson.Gson;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.reflect.TypeToken;
+
+import org.hibernate.LockMode;
+import org.hibernate.LockOptions;
+import org.hibernate.Session;
+import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.Order;
+import org.hibernate.engine.spi.EntityKey;
+import org.springframework.data.jpa.convert.threeten.Jsr310JpaConverters.LocalDateConverter;
+
+import edu.ncsu.csc.itrust2.adapters.LocalDateAdapter;
+import edu.ncsu.csc.itrust2.adapters.RawJsonAdapter;
+import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAdapter;
+import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAttributeConverter;
+import edu.ncsu.csc.itrust2.models.enums.BloodType;
+import edu.ncsu.csc.itrust2.models.enums.Gender;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
+
+/**
+ * The clinical facts about a patient that the emergency record and the
+ * patient views show together: their demographics, the vitals from their most
+ * recent office visit, their recent diagnoses and their current
+ * prescriptions. These would otherwise be worked out from the Patients,
+ * OfficeVisits, Diagnoses and Prescriptions tables on every read; instead they
+ * are kept in one row per patient, so reading them is a single lookup by
+ * username.
+ *
+ * The row is kept up to date as the records it is made from are saved and
+ * deleted (see DomainObject.afterSave), in the same unit of work as the change
+ * itself. Most changes are applied to the row as they are, without reading
+ * anything else; only moving or deleting the visit the vitals came from means
+ * looking up the latest visit again. A patient without a row gets one built
+ * the first time it is asked for, and {@link #rebuildAll()} rebuilds every
+ * patient's from scratch, for backfilling.
+ *
+ * Changes to a patient's row are made one at a time: the row is read with
+ * SELECT ... FOR UPDATE, so a second change for the same patient waits for
+ * the first to commit and then starts from what it wrote, rather than both
+ * starting from the same row and the second overwriting the first. A row
+ * being built is inserted first, or locked if someone else has just
+ * inserted it, so two builds at once do not both try to insert it.
+ *
+ * The diagnoses and prescriptions are kept as JSON, and only those that could
+ * still be recent are kept at all: diagnoses from visits in the last
+ * {@link #DIAGNOSIS_DAYS} days (or in the future), and prescriptions that
+ * ended in the last {@link #PRESCRIPTION_DAYS} days (or have not ended yet).
+ * Since something only stops being recent as time passes, the lists are
+ * filtered again by date when they are read.
+ */
+@Entity
+@Table ( name = "PatientSummaries" )
+public class PatientSummary extends DomainObject<PatientSummary> implements Serializable {
+
+    /**
+     * Diagnoses are recent for this many days after the visit
+     */
+    public static final int                DIAGNOSIS_DAYS    = 60;
+
+    /**
+     * Prescriptions are recent for this many days after they end
+     */
+    public static final int                PRESCRIPTION_DAYS = 90;
+
+    private static final long              serialVersionUID  = 1L;
+
+    /**
+     * Reads and writes the diagnosis, prescription and vitals lists
+     */
+    private static final Gson              GSON              = new Gson();
+
+    private static final Type              DIAGNOSES         = new TypeToken<List<Diagnosis>>() {
+                                                             }.getType();
+
+    private static final Type              PRESCRIPTIONS     = new TypeToken<List<Prescription>>() {
+                                                             }.getType();
+
+    /**
+     * The order Diagnosis.getForPatient returns diagnoses in
+     */
+    private static final Comparator<Diagnosis> BY_VISIT      = Comparator
+            .comparing( ( final Diagnosis d ) -> d.getVisit().getDate() ).thenComparing( d -> d.getVisit().getId() )
+            .thenComparing( Diagnosis::getId );
+
+    /**
+     * Most recent visit first
+     */
+    private static final List<Order>       LATEST            = Arrays.asList( Order.desc( "date" ), Order.desc( ID ) );
+
+    /**
+     * The classes summaries are made from
+     */
+    private static final List<Class< ? >>  SOURCES           = Arrays.asList( Patient.class, OfficeVisit.class,
+            BasicHealthMetrics.class, Diagnosis.class, Prescription.class );
+
+    /**
+     * Number of summaries rebuilt in each unit of work by rebuildAll
+     */
+    private static final int               REBUILD_BATCH     = 100;
+
+    /**
+     * Username of the patient
+     */
+    @Id
+    private String                         username;
+
+    private String                         firstName;
+
+    private String                         preferredName;
+
+    private String                         lastName;
+
+    @Basic
+    @Convert ( converter = LocalDateConverter.class )
+    @JsonAdapter ( LocalDateAdapter.class )
+    private LocalDate                      dateOfBirth;
+
+    @Enumerated ( EnumType.STRING )
+    private Gender                         gender;
+
+    @Enumerated ( EnumType.STRING )
+    private BloodType                      bloodType;
+
+    /**
+     * ID of the office visit the vitals are from
+     */
+    private Long                           vitalsVisit;
+
+    /**
+     * Date of the office visit the vitals are from
+     */
+    @Basic
+    @Convert ( converter = ZonedDateTimeAttributeConverter.class )
+    @JsonAdapter ( ZonedDateTimeAdapter.class )
+    private ZonedDateTime                  vitalsDate;
+
+    /**
+     * The BasicHealthMetrics from the latest visit, as JSON
+     */
+    @Lob
+    @JsonAdapter ( RawJsonAdapter.class )
+    private String                         vitals;
+
+    /**
+     * Recent diagnoses, as JSON, in the order Diagnosis.getForPatient gives
+     */
+    @Lob
+    @JsonAdapter ( RawJsonAdapter.class )
+    private String                         diagnoses;
+
+    /**
+     * Recent prescriptions, as JSON, in order of ID
+     */
+    @Lob
+    @JsonAdapter ( RawJsonAdapter.class )
+    private String                         prescriptions;
+
+    /**
+     * The diagnoses, once read
+     */
+    private transient List<Diagnosis>      diagnosisList;
+
+    /**
+     * The prescriptions, once read
+     */
+    private transient List<Prescription>   prescriptionList;
+
+    /**
+     * For Hibernate
+     */
+    public PatientSummary () {
+    }
+
+    /**
+     * Retrieves the summary for a patient, building it first if they do not
+     * have one yet
+     *
+     * @param username
+     *            The patient's username
+     * @return The summary, or null if there is no such patient
+     */
+    public static PatientSummary getForPatient ( final String username ) {
+        final PatientSummary summary = find( username );
+        return null != summary ? summary : rebuild( username );
+    }
+
+    /**
+     * Builds a patient's summary again from their records
+     *
+     * @param username
+     *            The patient's username
+     * @return The summary, or null if there is no such patient (in which case
+     *         any summary they had is deleted)
+     */
+    public static PatientSummary rebuild ( final String username ) {
+        UnitOfWork.begin();
+        try {
+            final Patient patient = Patient.getByName( username );
+            if ( null == patient ) {
+                final PatientSummary existing = find( username );
+                if ( null != existing ) {
+                    existing.delete();
+                }
+                return null;
+            }
+            // Takes the row's lock whether or not it was there, where a plain
+            // insert would fail on a row another build has just added
+            UnitOfWork.currentSession()
+                    .createSQLQuery( "INSERT INTO PatientSummaries (username) VALUES (:username) "
+                            + "ON DUPLICATE KEY UPDATE username = username" )
+                    .setParameter( "username", username ).executeUpdate();
+            final PatientSummary summary = lock( username );
+            final User user = patient.getSelf();
+            final LocalDate today = LocalDate.now();
+            summary.setDemographics( patient );
+            summary.storeDiagnoses( Diagnosis.getForPatient( user ).stream().filter( d -> isRecent( d, today ) )
+                    .map( PatientSummary::entry ).collect( Collectors.toList() ) );
+            summary.storePrescriptions( Prescription.getForPatient( user ).stream()
+                    .filter( p -> isRecent( p, today ) ).map( PatientSummary::entry )
+                    .collect( Collectors.toList() ) );
+            summary.setVitals( latestVisit( user ) );
+            summary.save();
+            return summary;
+        }
+        catch ( final RuntimeException e ) {
+            UnitOfWork.setRollbackOnly();
+            throw e;
+        }
+        finally {
+            UnitOfWork.end();
+        }
+    }
+
+    /**
+     * Rebuilds the summary of every patient, and deletes any left over from
+     * patients that no longer exist. Patients are rebuilt a batch at a time,
+     * each batch in a unit of work of its own.
+     *
+     * @return The number of summaries rebuilt
+     */
+    public static long rebuildAll () {
+        final List<String> patients = new ArrayList<String>();
+        Patient.streamPatients( p -> patients.add( p.getSelf().getUsername() ) );
+        final Set<String> current = new HashSet<String>( patients );
+        final List<String> orphans = new ArrayList<String>();
+        stream( PatientSummary.class, new ArrayList<Criterion>(), (Consumer<PatientSummary>) s -> {
+            if ( !current.contains( s.getUsername() ) ) {
+                orphans.add( s.getUsername() );
+            }
+        } );
+
+        for ( int i = 0; i < patients.size(); i += REBUILD_BATCH ) {
+            UnitOfWork.begin();
+            try {
+                patients.subList( i, Math.min( i + REBUILD_BATCH, patients.size() ) )
+                        .forEach( PatientSummary::rebuild );
+            }
+            catch ( final RuntimeException e ) {
+                UnitOfWork.setRollbackOnly();
+                throw e;
+            }
+            finally {
+                UnitOfWork.end();
+            }
+        }
+        for ( final String orphan : orphans ) {
+            final PatientSummary summary = find( orphan );
+            if ( null != summary ) {
+                summary.delete();
+            }
+        }
+        return patients.size();
+    }
+
+    /**
+     * Deletes every summary. They are built again as they are asked for.
+     */
+    public static void deleteAll () {
+        DomainObject.deleteAll( PatientSummary.class );
+    }
+
+    /**
+     * Called when every instance of a class has been deleted at once, which
+     * does not call afterDelete. If summaries are made from the class they
+     * are all deleted, to be built again as they are asked for.
+     *
+     * @param cls
+     *            The class deleted
+     */
+    static void cleared ( final Class< ? > cls ) {
+        for ( final Class< ? > source : SOURCES ) {
+            if ( source.isAssignableFrom( cls ) ) {
+                deleteAll();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Looks up a summary, without building it
+     *
+     * @param username
+     *            The patient's username
+     * @return The summary, or null
+     */
+    @SuppressWarnings ( "unchecked" )
+    private static PatientSummary find ( final String username ) {
+        final List<PatientSummary> found = (List<PatientSummary>) getWhere( PatientSummary.class,
+                eqList( "username", username ) );
+        return found.isEmpty() ? null : found.get( 0 );
+    }
+
+    /**
+     * Reads a summary and locks its row until the current unit of work ends.
+     * A copy already read by the unit of work may be out of date, so it is
+     * read again.
+     *
+     * @param username
+     *            The patient's username
+     * @return The summary, or null if there is none
+     */
+    private static PatientSummary lock ( final String username ) {
+        final Session session = UnitOfWork.currentSession();
+        final LockOptions forUpdate = new LockOptions( LockMode.PESSIMISTIC_WRITE );
+        boolean loaded = false;
+        for ( final Object key : session.getStatistics().getEntityKeys() ) {
+            loaded |= PatientSummary.class.getName().equals( ( (EntityKey) key ).getEntityName() )
+                    && username.equals( ( (EntityKey) key ).getIdentifier() );
+        }
+        final PatientSummary summary = (PatientSummary) session.get( PatientSummary.class, username, forUpdate );
+        if ( loaded && null != summary ) {
+            session.refresh( summary, forUpdate );
+        }
+        return summary;
+    }
+
+    /**
+     * Applies a change to a patient's summary and saves it, holding the row's
+     * lock from reading it until the unit of work ends. If they do not have
+     * one yet it is built from scratch instead, which takes in whatever has
+     * just changed.
+     *
+     * @param username
+     *            The patient's username
+     * @param change
+     *            The change to apply
+     */
+    private static void update ( final String username, final Consumer<PatientSummary> change ) {
+        UnitOfWork.begin();
+        try {
+            // Checked without a lock first: locking a row that is not there
+            // locks the gap it would go in, which the insert that builds it
+            // would then deadlock on
+            final PatientSummary summary = null == find( username ) ? null : lock( username );
+            if ( null == summary ) {
+                rebuild( username );
+                return;
+            }
+            change.accept( summary );
+            summary.save();
+        }
+        catch ( final RuntimeException e ) {
+            UnitOfWork.setRollbackOnly();
+            throw e;
+        }
+        finally {
+            UnitOfWork.end();
+        }
+    }
+
+    /**
+     * Finds the patient's most recent office visit
+     *
+     * @param user
+     *            The patient
+     * @return The visit, or null if they have had none
+     */
+    @SuppressWarnings ( "unchecked" )
+    private static OfficeVisit latestVisit ( final User user ) {
+        final List<OfficeVisit> visits = (List<OfficeVisit>) getWhere( OfficeVisit.class, eqList( "patient", user ),
+                LATEST, 1 );
+        return visits.isEmpty() ? null : visits.get( 0 );
+    }
+
+    /**
+     * Called when a Patient has been saved
+     *
+     * @param patient
+     *            The patient
+     */
+    static void patientSaved ( final Patient patient ) {
+        if ( null != patient.getSelf() ) {
+            update( patient.getSelf().getUsername(), s -> s.setDemographics( patient ) );
+        }
+    }
+
+    /**
+     * Called when a Patient has been deleted
+     *
+     * @param patient
+     *            The patient
+     */
+    static void patientDeleted ( final Patient patient ) {
+        if ( null != patient.getSelf() ) {
+            final PatientSummary summary = find( patient.getSelf().getUsername() );
+            if ( null != summary ) {
+                summary.delete();
+            }
+        }
+    }
+
+    /**
+     * Called when an office visit has been saved: its vitals become the
+     * patient's if it is now their latest visit, and the diagnoses made at it
+     * take on its date
+     *
+     * @param visit
+     *            The visit
+     */
+    static void visitSaved ( final OfficeVisit visit ) {
+        if ( null == visit.getPatient() ) {
+            return;
+        }
+        update( visit.getPatient().getUsername(), s -> s.applyVisit( visit ) );
+    }
+
+    /**
+     * Called when a general checkup has been saved along with its diagnoses
+     * and prescriptions, all at once (see GeneralCheckup.save). The summary is
+     * read and written once for all of them.
+     *
+     * @param visit
+     *            The visit
+     * @param savedDiagnoses
+     *            Diagnoses inserted or updated
+     * @param deletedDiagnoses
+     *            Diagnoses deleted
+     * @param savedPrescriptions
+     *            Prescriptions inserted or updated
+     * @param deletedPrescriptions
+     *            Prescriptions deleted
+     */
+    static void visitWritten ( final OfficeVisit visit, final Collection<Diagnosis> savedDiagnoses,
+            final Collection<Diagnosis> deletedDiagnoses, final Collection<Prescription> savedPrescriptions,
+            final Collection<Prescription> deletedPrescriptions ) {
+        if ( null == visit.getPatient() ) {
+            return;
+        }
+        update( visit.getPatient().getUsername(), s -> {
+            s.applyDiagnoses( savedDiagnoses, deletedDiagnoses );
+            s.applyPrescriptions( savedPrescriptions, deletedPrescriptions );
+            s.applyVisit( visit );
+        } );
+    }
+
+    /**
+     * Called when an office visit has been deleted
+     *
+     * @param visit
+     *            The visit
+     */
+    static void visitDeleted ( final OfficeVisit visit ) {
+        if ( null == visit.getPatient() ) {
+            return;
+        }
+        update( visit.getPatient().getUsername(), s -> {
+            if ( visit.getId().equals( s.vitalsVisit ) ) {
+                s.setVitals( latestVisit( visit.getPatient() ) );
+            }
+            final List<Diagnosis> list = new ArrayList<Diagnosis>( s.getAllDiagnoses() );
+            list.removeIf( d -> visit.getId().equals( d.getVisit().getId() ) );
+            s.storeDiagnoses( list );
+        } );
+    }
+
+    /**
+     * Called when a Diagnosis has been saved
+     *
+     * @param diagnosis
+     *            The diagnosis
+     */
+    static void diagnosisSaved ( final Diagnosis diagnosis ) {
+        if ( null == diagnosis.getVisit() || null == diagnosis.getVisit().getPatient() ) {
+            return;
+        }
+        update( diagnosis.getVisit().getPatient().getUsername(),
+                s -> s.applyDiagnoses( Collections.singletonList( diagnosis ), Collections.emptyList() ) );
+    }
+
+    /**
+     * Called when a Diagnosis has been deleted
+     *
+     * @param diagnosis
+     *            The diagnosis
+     */
+    static void diagnosisDeleted ( final Diagnosis diagnosis ) {
+        if ( null == diagnosis.getVisit() || null == diagnosis.getVisit().getPatient() ) {
+            return;
+        }
+        update( diagnosis.getVisit().getPatient().getUsername(),
+                s -> s.applyDiagnoses( Collections.emptyList(), Collections.singletonList( diagnosis ) ) );
+    }
+
+    /**
+     * Called when a Prescription has been saved
+     *
+     * @param prescription
+     *            The prescription
+     */
+    static void prescriptionSaved ( final Prescription prescription ) {
+        if ( null == prescription.getPatient() ) {
+            return;
+        }
+        update( prescription.getPatient().getUsername(),
+                s -> s.applyPrescriptions( Collections.singletonList( prescription ), Collections.emptyList() ) );
+    }
+
+    /**
+     * Called when a Prescription has been deleted
+     *
+     * @param prescription
+     *            The prescription
+     */
+    static void prescriptionDeleted ( final Prescription prescription ) {
+        if ( null == prescription.getPatient() ) {
+            return;
+        }
+        update( prescription.getPatient().getUsername(),
+                s -> s.applyPrescriptions( Collections.emptyList(), Collections.singletonList( prescription ) ) );
+    }
+
+    /**
+     * Whether a diagnosis is still recent
+     *
+     * @param d
+     *            The diagnosis
+     * @param today
+     *            The current date
+     * @return true if its visit was at most DIAGNOSIS_DAYS ago
+     */
+    private static boolean isRecent ( final Diagnosis d, final LocalDate today ) {
+        if ( null == d.getVisit().getDate() ) {
+            return false;
+        }
+        final LocalDate visitDate = d.getVisit().getDate().withZoneSameInstant( ZoneId.systemDefault() )
+                .toLocalDate();
+        return ChronoUnit.DAYS.between( visitDate, today ) <= DIAGNOSIS_DAYS;
+    }
+
+    /**
+     * Whether a prescription is still recent
+     *
+     * @param p
+     *            The prescription
+     * @param today
+     *            The current date
+     * @return true if it ended at most PRESCRIPTION_DAYS ago
+     */
+    private static boolean isRecent ( final Prescription p, final LocalDate today ) {
+        return null == p.getEndDate() || ChronoUnit.DAYS.between( p.getEndDate(), today ) <= PRESCRIPTION_DAYS;
+    }
+
+    /**
+     * Copies what the summary keeps of a diagnosis: its code and note, and the
+     * ID and date of its visit
+     *
+     * @param d
+     *            The diagnosis
+     * @return The copy
+     */
+    private static Diagnosis entry ( final Diagnosis d ) {
+        final GeneralCheckup visit = new GeneralCheckup();
+        visit.setId( d.getVisit().getId() );
+        visit.setDate( d.getVisit().getDate() );
+        final Diagnosis copy = new Diagnosis();
+        copy.setId( d.getId() );
+        copy.setVisit( visit );
+        copy.setNote( d.getNote() );
+        copy.setCode( d.getCode() );
+        return copy;
+    }
+
+    /**
+     * Copies what the summary keeps of a prescription: everything but the
+     * patient, who is the same for all of them
+     *
+     * @param p
+     *            The prescription
+     * @return The copy
+     */
+    private static Prescription entry ( final Prescription p ) {
+        final Prescription copy = new Prescription();
+        copy.copyFrom( p, true );
+        copy.setPatient( null );
+        return copy;
+    }
+
+    /**
+     * Copies the demographics from the patient's record
+     *
+     * @param patient
+     *            The patient
+     */
+    private void setDemographics ( final Patient patient ) {
+        firstName = patient.getFirstName();
+        preferredName = patient.getPreferredName();
+        lastName = patient.getLastName();
+        dateOfBirth = patient.getDateOfBirth();
+        gender = patient.getGender();
+        bloodType = patient.getBloodType();
+    }
+
+    /**
+     * Takes in a saved office visit: its vitals become the patient's if it is
+     * now their latest visit, and the diagnoses made at it take on its date
+     *
+     * @param visit
+     *            The visit
+     */
+    private void applyVisit ( final OfficeVisit visit ) {
+        if ( isAtOrAfterVitals( visit ) ) {
+            setVitals( visit );
+        }
+        else if ( visit.getId().equals( vitalsVisit ) ) {
+            // The latest visit was moved back; another may now be later
+            setVitals( latestVisit( visit.getPatient() ) );
+        }
+        final LocalDate today = LocalDate.now();
+        final List<Diagnosis> list = new ArrayList<Diagnosis>( getAllDiagnoses() );
+        list.forEach( d -> {
+            if ( visit.getId().equals( d.getVisit().getId() ) ) {
+                d.getVisit().setDate( visit.getDate() );
+            }
+        } );
+        list.removeIf( d -> !isRecent( d, today ) );
+        storeDiagnoses( list );
+    }
+
+    /**
+     * Takes in saved and deleted diagnoses
+     *
+     * @param saved
+     *            Diagnoses inserted or updated
+     * @param deleted
+     *            Diagnoses deleted
+     */
+    private void applyDiagnoses ( final Collection<Diagnosis> saved, final Collection<Diagnosis> deleted ) {
+        final Set<Long> changed = new HashSet<Long>();
+        saved.forEach( d -> changed.add( d.getId() ) );
+        deleted.forEach( d -> changed.add( d.getId() ) );
+        final List<Diagnosis> list = new ArrayList<Diagnosis>( getAllDiagnoses() );
+        list.removeIf( d -> changed.contains( d.getId() ) );
+        final LocalDate today = LocalDate.now();
+        for ( final Diagnosis d : saved ) {
+            if ( isRecent( d, today ) ) {
+                list.add( entry( d ) );
+            }
+        }
+        storeDiagnoses( list );
+    }
+
+    /**
+     * Takes in saved and deleted prescriptions
+     *
+     * @param saved
+     *            Prescriptions inserted or updated
+     * @param deleted
+     *            Prescriptions deleted
+     */
+    private void applyPrescriptions ( final Collection<Prescription> saved,
+            final Collection<Prescription> deleted ) {
+        final Set<Long> changed = new HashSet<Long>();
+        saved.forEach( p -> changed.add( p.getId() ) );
+        deleted.forEach( p -> changed.add( p.getId() ) );
+        final List<Prescription> list = new ArrayList<Prescription>( getAllPrescriptions() );
+        list.removeIf( p -> changed.contains( p.getId() ) );
+        final LocalDate today = LocalDate.now();
+        for ( final Prescription p : saved ) {
+            if ( isRecent( p, today ) ) {
+                list.add( entry( p ) );
+            }
+        }
+        storePrescriptions( list );
+    }
+
+    /**
+     * Whether an office visit is at least as recent as the one the vitals are
+     * from (or is that visit, and has not moved back)
+     *
+     * @param visit
+     *            The visit
+     * @return true if its vitals should be the patient's
+     */
+    private boolean isAtOrAfterVitals ( final OfficeVisit visit ) {
+        if ( null == vitalsVisit ) {
+            return true;
+        }
+        final int cmp = visit.getDate().compareTo( vitalsDate );
+        return cmp > 0 || cmp == 0 && visit.getId() >= vitalsVisit;
+    }
+
+    /**
+     * Takes the vitals from an office visit
+     *
+     * @param visit
+     *            The visit, or null if the patient has had none
+     */
+    private void setVitals ( final OfficeVisit visit ) {
+        if ( null == visit || null == visit.getBasicHealthMetrics() ) {
+            vitalsVisit = null;
+            vitalsDate = null;
+            vitals = null;
+            return;
+        }
+        final BasicHealthMetrics copy = new BasicHealthMetrics();
+        copy.copyFrom( visit.getBasicHealthMetrics(), true );
+        copy.setPatient( null );
+        copy.setHcp( null );
+        vitalsVisit = visit.getId();
+        vitalsDate = visit.getDate();
+        vitals = GSON.toJson( copy );
+    }
+
+    /**
+     * Stores the diagnoses, sorted
+     *
+     * @param list
+     *            The diagnoses
+     */
+    private void storeDiagnoses ( final List<Diagnosis> list ) {
+        list.sort( BY_VISIT );
+        diagnosisList = list;
+        diagnoses = GSON.toJson( list, DIAGNOSES );
+    }
+
+    /**
+     * Stores the prescriptions, sorted
+     *
+     * @param list
+     *            The prescriptions
+     */
+    private void storePrescriptions ( final List<Prescription> list ) {
+        list.sort( Comparator.comparing( Prescription::getId ) );
+        prescriptionList = list;
+        prescriptions = GSON.toJson( list, PRESCRIPTIONS );
+    }
+
+    /**
+     * Every diagnosis kept, including any that are no longer recent
+     *
+     * @return The diagnoses
+     */
+    private List<Diagnosis> getAllDiagnoses () {
+        if ( null == diagnosisList ) {
+            final List<Diagnosis> list = null == diagnoses ? null : GSON.fromJson( diagnoses, DIAGNOSES );
+            diagnosisList = null == list ? new ArrayList<Diagnosis>() : list;
+        }
+        return diagnosisList;
+    }
+
+    /**
+     * Every prescription kept, including any that are no longer recent
+     *
+     * @return The prescriptions
+     */
+    private List<Prescription> getAllPrescriptions () {
+        if ( null == prescriptionList ) {
+            final List<Prescription> list = null == prescriptions ? null
+                    : GSON.fromJson( prescriptions, PRESCRIPTIONS );
+            prescriptionList = null == list ? new ArrayList<Prescription>() : list;
+        }
+        return prescriptionList;
+    }
+
+    @Override
+    public String getId () {
+        return username;
+    }
+
+    /**
+     * Username of the patient
+     *
+     * @return The username
+     */
+    public String getUsername () {
+        return username;
+    }
+
+    /**
+     * The patient's first name
+     *
+     * @return The first name
+     */
+    public String getFirstName () {
+        return firstName;
+    }
+
+    /**
+     * The patient's preferred name
+     *
+     * @return The preferred name
+     */
+    public String getPreferredName () {
+        return preferredName;
+    }
+
+    /**
+     * The patient's last name
+     *
+     * @return The last name
+     */
+    public String getLastName () {
+        return lastName;
+    }
+
+    /**
+     * The patient's date of birth
+     *
+     * @return The date of birth
+     */
+    public LocalDate getDateOfBirth () {
+        return dateOfBirth;
+    }
+
+    /**
+     * The patient's age in whole years
+     *
+     * @param today
+     *            The current date
+     * @return The age, or null if their date of birth is not known
+     */
+    public Integer getAge ( final LocalDate today ) {
+        return null == dateOfBirth ? null : Period.between( dateOfBirth, today ).getYears();
+    }
+
+    /**
+     * The patient's gender
+     *
+     * @return The gender
+     */
+    public Gender getGender () {
+        return gender;
+    }
+
+    /**
+     * The patient's blood type
+     *
+     * @return The blood type
+     */
+    public BloodType getBloodType () {
+        return bloodType;
+    }
+
+    /**
+     * The date of the visit the vitals are from
+     *
+     * @return The date, or null if the patient has had no visits
+     */
+    public ZonedDateTime getVitalsDate () {
+        return vitalsDate;
+    }
+
+    /**
+     * The vitals from the patient's latest office visit. The copy returned
+     * has no patient or HCP set and is not saved.
+     *
+     * @return The vitals, or null if the patient has had no visits
+     */
+    public BasicHealthMetrics getVitals () {
+        return null == vitals ? null : GSON.fromJson( vitals, BasicHealthMetrics.class );
+    }
+
+    /**
+     * The diagnoses made at visits in the last DIAGNOSIS_DAYS days, in order
+     * of visit date. Each one's visit has only its ID and date set.
+     *
+     * @param today
+     *            The current date
+     * @return The diagnoses
+     */
+    public List<Diagnosis> getRecentDiagnoses ( final LocalDate today ) {
+        return getAllDiagnoses().stream().filter( d -> isRecent( d, today ) ).collect( Collectors.toList() );
+    }
+
+    /**
+     * The prescriptions that have not ended, or ended in the last
+     * PRESCRIPTION_DAYS days, in order of ID. None has the patient set.
+     *
+     * @param today
+     *            The current date
+     * @return The prescriptions
+     */
+    public List<Prescription> getRecentPrescriptions ( final LocalDate today ) {
+        return getAllPrescriptions().stream().filter( p -> isRecent( p, today ) ).collect( Collectors.toList() );
+    }
+
+}
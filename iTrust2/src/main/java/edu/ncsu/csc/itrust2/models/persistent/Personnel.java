@@ -1,5 +1,6 @@
 package edu.ncsu.csc.itrust2.models.persistent;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import javax.persistence.Entity;
@@ -8,6 +9,7 @@ import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.OneToOne;
 import javax.persistence.Table;
@@ -26,9 +28,34 @@ import edu.ncsu.csc.itrust2.models.enums.State;
  *
  */
 @Entity
-@Table ( name = "Personnel" )
+@Table ( name = "Personnel", indexes = { @Index ( columnList = "lastName,firstName" ),
+        @Index ( columnList = "specialty" ) } )
 public class Personnel extends DomainObject<Personnel> {
 
+    /**
+     * Fields the list of personnel can be filtered and sorted by
+     */
+    public static final QuerySchema<Personnel> QUERY = new QuerySchema<Personnel>( Personnel.class, "id", "id",
+            QuerySchema.LONG, Personnel::getId )
+                    .field( "username", "self.username", QuerySchema.STRING, p -> p.getSelf().getUsername() )
+                    .field( "firstName", "firstName", QuerySchema.STRING, Personnel::getFirstName )
+                    .field( "lastName", "lastName", QuerySchema.STRING, Personnel::getLastName )
+                    .field( "specialty", "specialty", QuerySchema.STRING, Personnel::getSpecialty )
+                    .field( "city", "city", QuerySchema.STRING, Personnel::getCity )
+                    .field( "state", "state", QuerySchema.enumOf( State.class ), Personnel::getState )
+                    .field( "zip", "zip", QuerySchema.STRING, Personnel::getZip );
+
+    /**
+     * Get one page of the personnel, filtered and sorted as asked
+     *
+     * @param query
+     *            The filters, sort order and page
+     * @return The page of personnel
+     */
+    public static Page<Personnel> getPage ( final ListQuery<Personnel> query ) {
+        return getPage( query, new ArrayList<Criterion>() );
+    }
+
     /**
      * Get the personnel by username
      *
@@ -2,14 +2,16 @@
 package edu.ncsu.csc.itrust2.models.persistent;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 import javax.persistence.Basic;
 import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
@@ -20,6 +22,10 @@ import com.google.gson.annotations.JsonAdapter;
 
 import org.hibernate.ObjectNotFoundException;
 import org.hibernate.criterion.Criterion;
+import org.hibernate.criterion.DetachedCriteria;
+import org.hibernate.criterion.Projections;
+import org.hibernate.criterion.Restrictions;
+import org.hibernate.criterion.Subqueries;
 import org.springframework.data.jpa.convert.threeten.Jsr310JpaConverters.LocalDateConverter;
 
 import edu.ncsu.csc.itrust2.adapters.LocalDateAdapter;
@@ -35,11 +41,45 @@ import edu.ncsu.csc.itrust2.models.enums.Role;
  * @author Matt Dzwonczyk
  */
 @Entity
-@Table ( name = "Prescriptions" )
+@Table ( name = "Prescriptions", indexes = { @Index ( columnList = "patient_id,startDate" ) } )
 public class Prescription extends DomainObject<Prescription> {
 
+    /**
+     * Fields the list of prescriptions can be filtered and sorted by
+     */
+    public static final QuerySchema<Prescription> QUERY = new QuerySchema<Prescription>( Prescription.class, "id",
+            "id", QuerySchema.LONG, Prescription::getId )
+                    .field( "patient", "patient.username", QuerySchema.STRING, p -> p.getPatient().getUsername() )
+                    .field( "drug", "drug.id", QuerySchema.LONG, p -> p.getDrug().getId() )
+                    .field( "startDate", "startDate", QuerySchema.DATE, Prescription::getStartDate )
+                    .field( "endDate", "endDate", QuerySchema.DATE, Prescription::getEndDate );
+
+    /**
+     * Get one page of all of the prescriptions, filtered and sorted as asked
+     *
+     * @param query
+     *            The filters, sort order and page
+     * @return The page of prescriptions
+     */
+    public static Page<Prescription> getPage ( final ListQuery<Prescription> query ) {
+        return getPage( query, new ArrayList<Criterion>() );
+    }
+
+    /**
+     * Get one page of a patient's prescriptions, filtered and sorted as asked
+     *
+     * @param patient
+     *            The User of the Patient to find Prescriptions for
+     * @param query
+     *            The filters, sort order and page
+     * @return The page of prescriptions
+     */
+    public static Page<Prescription> getPageForPatient ( final User patient, final ListQuery<Prescription> query ) {
+        return getPage( query, eqList( "patient", patient ) );
+    }
+
     @Id
-    @GeneratedValue ( strategy = GenerationType.AUTO )
+    @GeneratedValue ( generator = "pooledIds" )
     private Long     id;
 
     @NotNull
@@ -244,7 +284,34 @@ public class Prescription extends DomainObject<Prescription> {
      * @return The List of records that was found
      */
     public static List<Prescription> getForPatient ( final String patient ) {
-        return getWhere( eqList( "patient", User.getByNameAndRole( patient, Role.ROLE_PATIENT ) ) );
+        return getForPatient( User.getByNameAndRole( patient, Role.ROLE_PATIENT ) );
+    }
+
+    /**
+     * Rerieve all Prescriptions for the patient provided, when the User has
+     * already been looked up
+     *
+     * @param patient
+     *            The User of the Patient to find Prescriptions for
+     * @return The List of records that was found
+     */
+    public static List<Prescription> getForPatient ( final User patient ) {
+        return getWhere( eqList( "patient", patient ) );
+    }
+
+    /**
+     * Retrieve the Prescriptions written at a general checkup, with a single
+     * query and without loading the visit
+     *
+     * @param visitId
+     *            The ID of the visit
+     * @return The List of records that was found
+     */
+    public static List<Prescription> getForVisit ( final Long visitId ) {
+        final DetachedCriteria ids = DetachedCriteria.forClass( GeneralCheckup.class )
+                .add( Restrictions.idEq( visitId ) ).createAlias( "prescriptions", "p" )
+                .setProjection( Projections.property( "p.id" ) );
+        return getWhere( createCriterionList( Subqueries.propertyIn( ID, ids ) ) );
     }
 
     /**
@@ -285,4 +352,46 @@ public class Prescription extends DomainObject<Prescription> {
         return (List<Prescription>) DomainObject.getAll( Prescription.class );
     }
 
+    /**
+     * Hands every Prescription in the system to the action, one at a time,
+     * without loading them all into memory. See DomainObject.stream.
+     *
+     * @param action
+     *            What to do with each prescription
+     * @return The number of prescriptions
+     */
+    public static long streamPrescriptions ( final Consumer<Prescription> action ) {
+        return stream( Prescription.class, new ArrayList<Criterion>(), action );
+    }
+
+    /**
+     * Hands each of the patient's Prescriptions to the action, one at a time,
+     * without loading them all into memory. See DomainObject.stream.
+     *
+     * @param patient
+     *            The User of the Patient to find Prescriptions for
+     * @param action
+     *            What to do with each prescription
+     * @return The number of prescriptions
+     */
+    public static long streamForPatient ( final User patient, final Consumer<Prescription> action ) {
+        return stream( Prescription.class, eqList( "patient", patient ), action );
+    }
+
+    /**
+     * Keeps the patient's PatientSummary up to date with this prescription
+     */
+    @Override
+    protected void afterSave () {
+        PatientSummary.prescriptionSaved( this );
+    }
+
+    /**
+     * Removes this prescription from the patient's PatientSummary
+     */
+    @Override
+    protected void afterDelete () {
+        PatientSummary.prescriptionDeleted( this );
+    }
+
 }
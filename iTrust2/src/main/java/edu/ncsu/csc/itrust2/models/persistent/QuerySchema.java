@@ -0,0 +1,170 @@
+package edu.ncsu.csc.itrust2.models.persistent;
+
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Describes which fields a list of some DomainObject may be filtered and
+ * sorted by through a ListQuery, and how to read each one from the request.
+ * Each field maps a name the client uses onto a property (or property path,
+ * such as `patient.username`) of the entity, a parser that turns the text of
+ * a request parameter into a value of the property's type, and a getter used
+ * to read the field back off a result when building the cursor for the next
+ * page.
+ *
+ * Every schema also has a key: a field that is unique and never null, which
+ * is always sorted by last so that the order (and so the pages) are stable.
+ * Only the fields that are listed can be used, so a client cannot filter or
+ * sort on something that has no index behind it.
+ *
+ * @param <D>
+ *            The DomainObject the schema describes
+ */
+public class QuerySchema <D> {
+
+    /** Parses text fields */
+    public static final Function<String, Object> STRING = s -> s;
+
+    /** Parses whole-number fields */
+    public static final Function<String, Object> LONG   = Long::valueOf;
+
+    /** Parses Integer fields */
+    public static final Function<String, Object> INT    = Integer::valueOf;
+
+    /** Parses dates, such as 2018-01-31 */
+    public static final Function<String, Object> DATE   = LocalDate::parse;
+
+    /** Parses timestamps, such as 2018-01-31T09:30:00-05:00 */
+    public static final Function<String, Object> TIME   = ZonedDateTime::parse;
+
+    /**
+     * Parses the name of one of an enum's constants
+     *
+     * @param <E>
+     *            The enum
+     * @param cls
+     *            The enum's class
+     * @return The parser
+     */
+    public static <E extends Enum<E>> Function<String, Object> enumOf ( final Class<E> cls ) {
+        return s -> Enum.valueOf( cls, s );
+    }
+
+    /**
+     * A field that can be filtered and sorted by
+     *
+     * @param <D>
+     *            The DomainObject the field belongs to
+     */
+    static final class Field <D> {
+        /** Property path used in the query */
+        final String                   property;
+
+        /** Turns request text into a value of the property's type */
+        final Function<String, Object> parser;
+
+        /** Reads the value off a result */
+        final Function<D, Object>      getter;
+
+        Field ( final String property, final Function<String, Object> parser, final Function<D, Object> getter ) {
+            this.property = property;
+            this.parser = parser;
+            this.getter = getter;
+        }
+    }
+
+    /**
+     * The fields, by the name the client uses
+     */
+    private final Map<String, Field<D>> fields = new LinkedHashMap<String, Field<D>>();
+
+    /**
+     * The field that is always sorted by last
+     */
+    private final Field<D>              key;
+
+    /**
+     * The DomainObject the schema describes
+     */
+    private final Class<D>              cls;
+
+    /**
+     * Creates a schema
+     *
+     * @param cls
+     *            The DomainObject the schema describes
+     * @param name
+     *            Name of the key field
+     * @param property
+     *            Property path of the key field
+     * @param parser
+     *            Parser for the key field
+     * @param getter
+     *            Reads the key off a result
+     */
+    public QuerySchema ( final Class<D> cls, final String name, final String property,
+            final Function<String, Object> parser, final Function<D, Object> getter ) {
+        this.cls = cls;
+        this.key = new Field<D>( property, parser, getter );
+        fields.put( name, key );
+    }
+
+    /**
+     * Adds a field that may be filtered and sorted by
+     *
+     * @param name
+     *            Name the client uses for the field
+     * @param property
+     *            Property path of the field
+     * @param parser
+     *            Turns request text into a value of the property's type
+     * @param getter
+     *            Reads the field off a result
+     * @return This schema
+     */
+    public QuerySchema<D> field ( final String name, final String property, final Function<String, Object> parser,
+            final Function<D, Object> getter ) {
+        fields.put( name, new Field<D>( property, parser, getter ) );
+        return this;
+    }
+
+    /**
+     * Returns the DomainObject the schema describes
+     *
+     * @return The class
+     */
+    public Class<D> getDomainClass () {
+        return cls;
+    }
+
+    /**
+     * Looks up a field by name
+     *
+     * @param name
+     *            Name the client used
+     * @return The field
+     * @throws IllegalArgumentException
+     *             If there is no such field
+     */
+    Field<D> get ( final String name ) {
+        final Field<D> f = fields.get( name );
+        if ( null == f ) {
+            throw new IllegalArgumentException( "Cannot filter or sort by " + name + "; expected one of "
+                    + String.join( ", ", fields.keySet() ) );
+        }
+        return f;
+    }
+
+    /**
+     * Returns the key field
+     *
+     * @return The key field
+     */
+    Field<D> getKey () {
+        return key;
+    }
+
+}
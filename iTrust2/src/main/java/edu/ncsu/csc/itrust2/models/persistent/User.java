@@ -1,14 +1,18 @@
 package edu.ncsu.csc.itrust2.models.persistent;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Vector;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.Table;
 import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
@@ -20,6 +24,8 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 
 import edu.ncsu.csc.itrust2.forms.admin.UserForm;
 import edu.ncsu.csc.itrust2.models.enums.Role;
+import edu.ncsu.csc.itrust2.utils.DBUtil;
+import edu.ncsu.csc.itrust2.utils.UserDetailsCache;
 
 /**
  * Basic class for a User in the system. This User class is a shared type that
@@ -33,9 +39,28 @@ import edu.ncsu.csc.itrust2.models.enums.Role;
  *
  */
 @Entity
-@Table ( name = "Users" )
+@Table ( name = "Users", indexes = { @Index ( columnList = "role" ) } )
 public class User extends DomainObject<User> implements Serializable {
 
+    /**
+     * Fields the list of users can be filtered and sorted by
+     */
+    public static final QuerySchema<User> QUERY = new QuerySchema<User>( User.class, "username", "username",
+            QuerySchema.STRING, User::getUsername )
+                    .field( "role", "role", QuerySchema.enumOf( Role.class ), User::getRole )
+                    .field( "enabled", "enabled", QuerySchema.INT, User::getEnabled );
+
+    /**
+     * Get one page of the users, filtered and sorted as asked
+     *
+     * @param query
+     *            The filters, sort order and page
+     * @return The page of users
+     */
+    public static Page<User> getPage ( final ListQuery<User> query ) {
+        return getPage( query, new Vector<Criterion>() );
+    }
+
     /**
      * The UID of the user
      */
@@ -55,6 +80,18 @@ public class User extends DomainObject<User> implements Serializable {
         return (List<User>) getAll( User.class );
     }
 
+    /**
+     * Hands every User in the system to the action, one at a time, without
+     * loading them all into memory. See DomainObject.stream.
+     *
+     * @param action
+     *            What to do with each user
+     * @return The number of users
+     */
+    public static long streamUsers ( final Consumer<User> action ) {
+        return stream( User.class, new Vector<Criterion>(), action );
+    }
+
     /**
      * Get the user by the username
      *
@@ -71,6 +108,21 @@ public class User extends DomainObject<User> implements Serializable {
         }
     }
 
+    /**
+     * Get every user whose username is in the collection provided, with a
+     * single query. Usernames that don't match a user are skipped.
+     *
+     * @param names
+     *            the usernames to look up
+     * @return the matching users, in no particular order
+     */
+    public static List<User> getByNames ( final Collection<String> names ) {
+        if ( names.isEmpty() ) {
+            return new ArrayList<User>();
+        }
+        return getWhere( createCriterionList( in( "username", names ) ) );
+    }
+
     /**
      * Get the user by name and role
      *
@@ -173,7 +225,7 @@ public class User extends DomainObject<User> implements Serializable {
         if ( !form.getPassword().equals( form.getPassword2() ) ) {
             throw new IllegalArgumentException( "Passwords do not match!" );
         }
-        final PasswordEncoder pe = new BCryptPasswordEncoder();
+        final PasswordEncoder pe = new BCryptPasswordEncoder( DBUtil.getBCryptStrength() );
         setPassword( pe.encode( form.getPassword() ) );
         setEnabled( null != form.getEnabled() ? 1 : 0 );
         setRole( Role.valueOf( form.getRole() ) );
@@ -376,6 +428,17 @@ public class User extends DomainObject<User> implements Serializable {
             // ignore to allow a second attempt at deleting this object
         }
         super.delete();
+        UserDetailsCache.invalidate( username );
+    }
+
+    /**
+     * Saves the user, and makes the next login see the new password, role and
+     * enabled flag
+     */
+    @Override
+    public void save () {
+        super.save();
+        UserDetailsCache.invalidate( username );
     }
 
     /**
@@ -0,0 +1,19 @@
+/**
+ * The model classes that are saved to the database through Hibernate, and the
+ * DomainObject base class they share.
+ *
+ * Records that are written many at a time, such as the diagnoses,
+ * prescriptions and lab procedures of an office visit, take their IDs from
+ * the `pooledIds` generator defined here. It draws on the same
+ * hibernate_sequence table as every other class, but reserves IDs fifty at a
+ * time, so that inserting a batch of them does not cost a round trip to the
+ * sequence for each one. Since it reserves a block by moving next_val past
+ * it, it can be mixed freely with the one-at-a-time generator.
+ */
+@GenericGenerator ( name = "pooledIds", strategy = "enhanced-sequence", parameters = {
+        @Parameter ( name = "sequence_name", value = "hibernate_sequence" ),
+        @Parameter ( name = "increment_size", value = "50" ), @Parameter ( name = "optimizer", value = "pooled-lo" ) } )
+package edu.ncsu.csc.itrust2.models.persistent;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
@@ -0,0 +1,1184 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.Gson;
+
+import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAttributeConverter;
+import edu.ncsu.csc.itrust2.models.persistent.LogEntry;
+
+/**
+ * Keeps the LogEntries table down to the most recent months of the audit log
+ * by moving whole months older than that out of the database and into
+ * compressed files on local disk. The table then stays the same size however
+ * much history builds up, and so do its indexes and the cost of inserting
+ * into it, while LogEntry's searches read the archived months as well as the
+ * table.
+ *
+ * Each run of the archiver writes, for each month it moves, a segment: a data
+ * file of LogEntries as line-delimited JSON, compressed a block of entries at
+ * a time, and an index file listing where each block starts, the earliest and
+ * latest time in it, and a Bloom filter of the users in it. A search for one
+ * user's entries only decompresses the blocks whose times overlap its range
+ * and whose filter says the user may be in them; a block is read for a user
+ * it does not hold about one time in a hundred. Segments are written once and
+ * never changed; a month that gains entries after being archived just gets
+ * another segment.
+ *
+ * The entries in a segment are deleted from the table, by their IDs, only
+ * after the segment is safely on disk, and searches only see a new segment
+ * once that is done, so an entry is never lost: one committed after the month
+ * was read is left in the table for the next run. If the server stops in
+ * between, the run made when it starts again finishes the deletes.
+ *
+ * Turned on by setting `auditArchiveDir` in db.properties to an absolute path
+ * that every server sharing the database sees as the same directory, such as
+ * a network share, since each server's searches read every segment and any
+ * server may be the one that moves a month. Only one server archives at a
+ * time: a run first takes a lock in the database, named {@link #LOCK}, and a
+ * server that finds it taken skips that run. Once a run has deleted a
+ * segment's entries from the table it counts up the generation in the
+ * AuditArchiveState table; each search checks the generation and, if it has
+ * moved on, picks up the segments other servers have added.
+ *
+ * The number of months kept in the table, the entries per block and the time
+ * between runs can be set in db.properties with `auditArchiveMonths` (0 turns
+ * archiving off, leaving what is already archived searchable),
+ * `auditArchiveBlockSize` and `auditArchiveIntervalMinutes`.
+ */
+public class AuditArchive {
+
+    /**
+     * Number of archived entries deleted from the table by each statement, so
+     * that logging is never held up for long
+     */
+    private static final int                             DELETE_IDS = 1000;
+
+    /**
+     * Name of the database lock held by the server that is archiving
+     */
+    public static final String                           LOCK       = "iTrust2.auditArchive";
+
+    /**
+     * Creates the table holding the generation of the archive
+     */
+    private static final String                          STATE      = "CREATE TABLE IF NOT EXISTS "
+            + "AuditArchiveState (id INT PRIMARY KEY, generation BIGINT NOT NULL)";
+
+    /**
+     * Reads the generation of the archive
+     */
+    private static final String                          GENERATION = "SELECT generation FROM "
+            + "AuditArchiveState WHERE id = 1";
+
+    /**
+     * Counts up the generation of the archive
+     */
+    private static final String                          NEXT       = "INSERT INTO AuditArchiveState "
+            + "(id, generation) VALUES (1, 1) ON DUPLICATE KEY UPDATE generation = generation + 1";
+
+    /**
+     * Checks whether any entries of a segment's month and range of IDs are
+     * left in the table
+     */
+    private static final String                          LEFT       = "SELECT 1 FROM LogEntries "
+            + "WHERE time >= ? AND time < ? AND id >= ? AND id <= ? LIMIT 1";
+
+    /**
+     * Ending of segment data files
+     */
+    private static final String                          DATA       = ".log.gz";
+
+    /**
+     * Ending of segment index files
+     */
+    private static final String                          INDEX      = ".idx";
+
+    /**
+     * Number of months kept in the table, counting the current one
+     */
+    private static final int                             MONTHS;
+
+    /**
+     * Where the segments are kept, or null if archiving is off
+     */
+    private static volatile File                         dir;
+
+    /**
+     * Number of entries compressed together
+     */
+    private static final int                             BLOCK_SIZE;
+
+    /**
+     * Time, in minutes, between runs of the archiver
+     */
+    private static final long                            INTERVAL_MINUTES;
+
+    /**
+     * Converts the month boundaries the same way Hibernate does
+     */
+    private static final ZonedDateTimeAttributeConverter TIME       = new ZonedDateTimeAttributeConverter();
+
+    /**
+     * Serializes entries to and from the segments
+     */
+    private static final Gson                            GSON       = new Gson();
+
+    /**
+     * Segments whose entries are no longer in the table, oldest month first.
+     * Replaced, never changed, when a run adds segments.
+     */
+    private static volatile List<Segment>                segments;
+
+    /**
+     * Generation of the archive that segments was last brought up to date
+     * with, or -1 if it has not been yet
+     */
+    private static volatile long                         seen       = -1;
+
+    /**
+     * Held while segments is brought up to date or replaced
+     */
+    private static final Object                          SEGMENTS   = new Object();
+
+    /**
+     * Whether the AuditArchiveState table is known to exist
+     */
+    private static volatile boolean                      stateReady;
+
+    /**
+     * Runs the archiver in the background, once started
+     */
+    private static ScheduledExecutorService              scheduler;
+
+    /**
+     * Number of blocks decompressed by searches
+     */
+    private static final LongAdder                       blocksRead = new LongAdder();
+
+    /**
+     * Number of blocks in a search's range of time that were skipped because
+     * its user is not in them
+     */
+    private static final LongAdder                       skipped    = new LongAdder();
+
+    static {
+        MONTHS = Integer.parseInt( DBUtil.getSetting( "auditArchiveMonths", "12" ) );
+        final String setting = DBUtil.getSetting( "auditArchiveDir", "" ).trim();
+        final File configured = setting.isEmpty() ? null : new File( setting );
+        if ( null != configured && !configured.isAbsolute() ) {
+            // Each server would resolve it against a directory of its own
+            System.out.println( "auditArchiveDir must be an absolute path, shared by every server; "
+                    + "the audit log archive is off" );
+            dir = null;
+        }
+        else {
+            dir = configured;
+        }
+        BLOCK_SIZE = Integer.parseInt( DBUtil.getSetting( "auditArchiveBlockSize", "1000" ) );
+        INTERVAL_MINUTES = Long.parseLong( DBUtil.getSetting( "auditArchiveIntervalMinutes", "60" ) );
+    }
+
+    /**
+     * Whether there is an archive to search and move entries into
+     *
+     * @return True if `auditArchiveDir` is set
+     */
+    public static boolean isEnabled () {
+        return null != dir;
+    }
+
+    /**
+     * Moves the archive to another directory, as if `auditArchiveDir` were set
+     * to it. The segments already in it are searched from then on.
+     *
+     * @param directory
+     *            The directory, or null to turn archiving off
+     * @throws IllegalArgumentException
+     *             If the directory is not an absolute path
+     */
+    public static synchronized void useDirectory ( final File directory ) {
+        if ( null != directory && !directory.isAbsolute() ) {
+            throw new IllegalArgumentException( "The audit log archive needs an absolute path, not " + directory );
+        }
+        synchronized ( SEGMENTS ) {
+            dir = directory;
+            segments = null;
+            seen = -1;
+        }
+    }
+
+    /**
+     * Starts archiving in the background: once straight away, to pick up
+     * anything left over from before the server started, and then every
+     * `auditArchiveIntervalMinutes`. Does nothing if archiving is turned off.
+     */
+    public static synchronized void start () {
+        if ( null != scheduler || MONTHS <= 0 || !isEnabled() ) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor( r -> {
+            final Thread t = new Thread( r, "iTrust2-audit-archiver" );
+            t.setDaemon( true );
+            return t;
+        } );
+        scheduler.scheduleWithFixedDelay( () -> {
+            try {
+                archive();
+            }
+            catch ( final RuntimeException e ) {
+                // Try again next time
+                e.printStackTrace( System.out );
+            }
+        }, 0, INTERVAL_MINUTES, TimeUnit.MINUTES );
+    }
+
+    /**
+     * Stops archiving, waiting for a run in progress to finish. Called when
+     * the application is shutting down, before the connection pool is closed.
+     */
+    public static void shutdown () {
+        final ScheduledExecutorService toStop;
+        synchronized ( AuditArchive.class ) {
+            toStop = scheduler;
+            scheduler = null;
+        }
+        if ( null != toStop ) {
+            toStop.shutdown();
+            try {
+                toStop.awaitTermination( 1, TimeUnit.MINUTES );
+            }
+            catch ( final InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Moves every month before the last `auditArchiveMonths` out of the table
+     * and into the archive
+     *
+     * @return The number of entries archived, which is 0 if archiving is off
+     *         or another server is archiving
+     */
+    public static long archive () {
+        return MONTHS <= 0 ? 0 : archiveBefore( YearMonth.now().minusMonths( MONTHS - 1 ) );
+    }
+
+    /**
+     * Moves every month before the one given out of the table and into the
+     * archive, unless another server holds the lock
+     *
+     * @param keep
+     *            The oldest month to keep in the table
+     * @return The number of entries archived, which is 0 if archiving is off
+     *         or another server is archiving
+     */
+    public static synchronized long archiveBefore ( final YearMonth keep ) {
+        if ( !isEnabled() ) {
+            return 0;
+        }
+        try ( Connection conn = DBUtil.getConnection() ) {
+            if ( !lock( conn ) ) {
+                // Another server is archiving
+                return 0;
+            }
+            try {
+                return archiveLocked( conn, keep );
+            }
+            finally {
+                // Pooled connections keep their locks when they are closed
+                unlock( conn );
+            }
+        }
+        catch ( final SQLException e ) {
+            throw new IllegalStateException( "Could not take the audit archive lock", e );
+        }
+    }
+
+    /**
+     * Moves every month before the one given out of the table and into the
+     * archive, once this server holds the lock
+     *
+     * @param conn
+     *            The connection holding the lock
+     * @param keep
+     *            The oldest month to keep in the table
+     * @return The number of entries archived
+     * @throws SQLException
+     *             If the generation could not be counted up
+     */
+    private static long archiveLocked ( final Connection conn, final YearMonth keep ) throws SQLException {
+        AuditLogWriter.flush();
+        createState();
+        // Including what other servers have archived, and anything a run
+        // that stopped part way wrote but did not get to delete
+        final List<Segment> all;
+        synchronized ( SEGMENTS ) {
+            refresh();
+            all = new ArrayList<Segment>( segments );
+        }
+        long archived = 0;
+        final ZonedDateTime oldest = LogEntry.getOldestTime();
+        if ( null != oldest ) {
+            for ( YearMonth month = YearMonth.from( oldest ); month.isBefore( keep ); month = month
+                    .plusMonths( 1 ) ) {
+                final Segment segment = archiveMonth( month, all );
+                if ( null != segment ) {
+                    archived += segment.count;
+                    all.add( segment );
+                    all.sort( Comparator.comparing( ( final Segment s ) -> s.month ).thenComparing( s -> s.minId ) );
+                }
+                // The month's entries are out of the table, so every server
+                // has to see its segments from here on
+                final long generation = nextGeneration( conn );
+                synchronized ( SEGMENTS ) {
+                    segments = Collections.unmodifiableList( new ArrayList<Segment>( all ) );
+                    seen = generation;
+                }
+            }
+        }
+        return archived;
+    }
+
+    /**
+     * Finds archived entries, newest first
+     *
+     * @param from
+     *            Earliest time to include, or null for no lower bound
+     * @param to
+     *            Latest time to include, or null for no upper bound
+     * @param user
+     *            The user every entry included is the primary or secondary
+     *            user of, used to skip the blocks without them; or null to
+     *            read every block in range
+     * @param filter
+     *            Which entries to include
+     * @param limit
+     *            Greatest number of entries to find, or 0 for all of them
+     * @return The matching entries, newest first
+     */
+    public static List<LogEntry> find ( final ZonedDateTime from, final ZonedDateTime to, final String user,
+            final Predicate<LogEntry> filter, final int limit ) {
+        final List<LogEntry> found = new ArrayList<LogEntry>();
+        final List<Segment> all = getSegments();
+        // Every entry in a month is newer than every entry in the months
+        // before it, so stop at the first month that fills the limit
+        for ( int i = all.size() - 1; i >= 0; ) {
+            final YearMonth month = all.get( i ).month;
+            final List<LogEntry> inMonth = new ArrayList<LogEntry>();
+            for ( ; i >= 0 && all.get( i ).month.equals( month ); i-- ) {
+                all.get( i ).read( from, to, user, e -> {
+                    if ( filter.test( e ) ) {
+                        inMonth.add( e );
+                    }
+                } );
+            }
+            inMonth.sort( Comparator.comparing( LogEntry::getTime ).thenComparing( LogEntry::getId ).reversed() );
+            found.addAll( inMonth );
+            if ( limit > 0 && found.size() >= limit ) {
+                return new ArrayList<LogEntry>( found.subList( 0, limit ) );
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Counts archived entries
+     *
+     * @param from
+     *            Earliest time to include, or null for no lower bound
+     * @param to
+     *            Latest time to include, or null for no upper bound
+     * @param user
+     *            The user every entry counted is the primary or secondary user
+     *            of, or null to read every block in range
+     * @param filter
+     *            Which entries to count
+     * @return The number of matching entries
+     */
+    public static long count ( final ZonedDateTime from, final ZonedDateTime to, final String user,
+            final Predicate<LogEntry> filter ) {
+        final long[] n = new long[1];
+        for ( final Segment segment : getSegments() ) {
+            segment.read( from, to, user, e -> {
+                if ( filter.test( e ) ) {
+                    n[0]++;
+                }
+            } );
+        }
+        return n[0];
+    }
+
+    /**
+     * Number of blocks searches have decompressed since the server started
+     *
+     * @return The number of blocks read
+     */
+    public static long getBlocksRead () {
+        return blocksRead.sum();
+    }
+
+    /**
+     * Number of blocks searches have skipped since the server started, because
+     * the user searched for is not in them
+     *
+     * @return The number of blocks skipped
+     */
+    public static long getBlocksSkipped () {
+        return skipped.sum();
+    }
+
+    /**
+     * Whether anything has been archived at all
+     *
+     * @return True if there is at least one segment
+     */
+    public static boolean isEmpty () {
+        return getSegments().isEmpty();
+    }
+
+    /**
+     * Deletes the whole archive
+     */
+    public static synchronized void deleteAll () {
+        final File[] files = null == dir ? null : dir.listFiles();
+        if ( null != files ) {
+            for ( final File f : files ) {
+                if ( f.getName().endsWith( DATA ) || f.getName().endsWith( INDEX ) ) {
+                    f.delete();
+                }
+            }
+        }
+        segments = Collections.emptyList();
+    }
+
+    /**
+     * Writes one month's entries that are still in the table to a new
+     * segment, and deletes them from the table once it is on disk
+     *
+     * @param month
+     *            The month to archive
+     * @param existing
+     *            The segments already written
+     * @return The new segment, or null if the month had nothing left in the
+     *         table
+     */
+    private static Segment archiveMonth ( final YearMonth month, final List<Segment> existing ) {
+        final ZonedDateTime start = month.atDay( 1 ).atStartOfDay( ZoneId.systemDefault() );
+        final ZonedDateTime end = month.plusMonths( 1 ).atDay( 1 ).atStartOfDay( ZoneId.systemDefault() );
+
+        // Anything an earlier run archived but didn't get to delete. Rows in
+        // the range of a segment that are not in it were committed after it
+        // was written, and are archived below.
+        for ( final Segment s : existing ) {
+            if ( s.month.equals( month ) && anyLeft( start, end, s ) ) {
+                delete( s );
+            }
+        }
+
+        final Segment segment;
+        try {
+            segment = Segment.write( month, start, end );
+        }
+        catch ( final IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+        if ( null != segment ) {
+            delete( segment );
+        }
+        return segment;
+    }
+
+    /**
+     * Checks whether the table still has any entries from a segment's month
+     * within its range of IDs
+     *
+     * @param start
+     *            Start of the month
+     * @param end
+     *            Start of the next month
+     * @param segment
+     *            The segment
+     * @return True if there are
+     */
+    private static boolean anyLeft ( final ZonedDateTime start, final ZonedDateTime end, final Segment segment ) {
+        try ( Connection conn = DBUtil.getConnection(); PreparedStatement ps = conn.prepareStatement( LEFT ) ) {
+            ps.setTimestamp( 1, TIME.convertToDatabaseColumn( start ) );
+            ps.setTimestamp( 2, TIME.convertToDatabaseColumn( end ) );
+            ps.setLong( 3, segment.minId );
+            ps.setLong( 4, segment.maxId );
+            try ( ResultSet rs = ps.executeQuery() ) {
+                return rs.next();
+            }
+        }
+        catch ( final SQLException e ) {
+            throw new IllegalStateException( "Could not read LogEntries", e );
+        }
+    }
+
+    /**
+     * Deletes the entries in a segment from the table, by their IDs, reading
+     * them back from the segment rather than holding them in memory. Entries
+     * already deleted are skipped.
+     *
+     * @param segment
+     *            The segment
+     */
+    private static void delete ( final Segment segment ) {
+        try ( Connection conn = DBUtil.getConnection() ) {
+            final List<Long> ids = new ArrayList<Long>( DELETE_IDS );
+            final SQLException[] failed = new SQLException[1];
+            segment.read( null, null, null, e -> {
+                ids.add( e.getId() );
+                if ( ids.size() == DELETE_IDS && null == failed[0] ) {
+                    try {
+                        delete( conn, ids );
+                    }
+                    catch ( final SQLException ex ) {
+                        failed[0] = ex;
+                    }
+                    ids.clear();
+                }
+            } );
+            if ( null != failed[0] ) {
+                throw failed[0];
+            }
+            if ( !ids.isEmpty() ) {
+                delete( conn, ids );
+            }
+        }
+        catch ( final SQLException e ) {
+            throw new IllegalStateException( "Could not delete archived LogEntries", e );
+        }
+    }
+
+    /**
+     * Deletes entries from the table by their IDs
+     *
+     * @param conn
+     *            Connection to use
+     * @param ids
+     *            The IDs
+     * @throws SQLException
+     *             If they could not be deleted
+     */
+    private static void delete ( final Connection conn, final List<Long> ids ) throws SQLException {
+        final StringBuilder sql = new StringBuilder( "DELETE FROM LogEntries WHERE id IN (" );
+        for ( int i = 0; i < ids.size(); i++ ) {
+            sql.append( 0 == i ? "?" : ", ?" );
+        }
+        try ( PreparedStatement ps = conn.prepareStatement( sql.append( ')' ).toString() ) ) {
+            for ( int i = 0; i < ids.size(); i++ ) {
+                ps.setLong( i + 1, ids.get( i ) );
+            }
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * The segments searches can see, read from the archive directory the first
+     * time they are needed and again whenever another server has archived
+     * more since
+     *
+     * @return The segments, oldest month first
+     */
+    private static List<Segment> getSegments () {
+        if ( !isEnabled() ) {
+            return Collections.emptyList();
+        }
+        final long generation = generation();
+        final List<Segment> all = segments;
+        if ( null != all && generation == seen ) {
+            return all;
+        }
+        synchronized ( SEGMENTS ) {
+            if ( null == segments || generation != seen ) {
+                refresh();
+                seen = generation;
+            }
+            return segments;
+        }
+    }
+
+    /**
+     * Adds the segments in the archive directory that have not been read yet.
+     * Called holding SEGMENTS.
+     */
+    private static void refresh () {
+        final List<Segment> all = new ArrayList<Segment>( null == segments ? Collections.emptyList() : segments );
+        final Set<String> known = new HashSet<String>();
+        for ( final Segment s : all ) {
+            known.add( s.data.getName() );
+        }
+        final File[] files = null == dir ? null : dir.listFiles( ( d, name ) -> name.endsWith( INDEX ) );
+        if ( null != files ) {
+            for ( final File f : files ) {
+                if ( !known.contains( Segment.dataFor( f ).getName() ) ) {
+                    try {
+                        all.add( Segment.load( f ) );
+                    }
+                    catch ( final IOException | RuntimeException e ) {
+                        e.printStackTrace( System.out );
+                    }
+                }
+            }
+        }
+        all.sort( Comparator.comparing( ( final Segment s ) -> s.month ).thenComparing( s -> s.minId ) );
+        segments = Collections.unmodifiableList( all );
+    }
+
+    /**
+     * Reads the generation of the archive, over the connection of the Session
+     * the thread has open if it has one
+     *
+     * @return The generation, 0 until anything has been archived
+     */
+    private static long generation () {
+        try {
+            createState();
+            return HibernateUtil.withConnection( conn -> {
+                try ( PreparedStatement ps = conn.prepareStatement( GENERATION );
+                        ResultSet rs = ps.executeQuery() ) {
+                    return rs.next() ? rs.getLong( 1 ) : 0L;
+                }
+            } );
+        }
+        catch ( final SQLException | RuntimeException e ) {
+            throw new IllegalStateException( "Could not read the generation of the audit archive", e );
+        }
+    }
+
+    /**
+     * Counts up the generation of the archive, so that every server picks up
+     * the segments added since it last looked
+     *
+     * @param conn
+     *            Connection to use, in auto-commit mode
+     * @return The new generation
+     * @throws SQLException
+     *             If it could not be counted up
+     */
+    private static long nextGeneration ( final Connection conn ) throws SQLException {
+        SchemaChanges.execute( conn, NEXT );
+        try ( PreparedStatement ps = conn.prepareStatement( GENERATION ); ResultSet rs = ps.executeQuery() ) {
+            rs.next();
+            return rs.getLong( 1 );
+        }
+    }
+
+    /**
+     * Creates the AuditArchiveState table, over a connection of its own since
+     * MySQL commits any open transaction on DDL, unless it is known to exist
+     *
+     * @throws SQLException
+     *             If it could not be created
+     */
+    private static void createState () throws SQLException {
+        if ( !stateReady ) {
+            try ( Connection conn = DBUtil.getConnection() ) {
+                SchemaChanges.execute( conn, STATE );
+            }
+            stateReady = true;
+        }
+    }
+
+    /**
+     * Takes the archive lock, without waiting for it
+     *
+     * @param conn
+     *            Connection to hold it on
+     * @return True if it was taken; false if another server holds it
+     * @throws SQLException
+     *             If the lock could not be asked for
+     */
+    private static boolean lock ( final Connection conn ) throws SQLException {
+        try ( PreparedStatement ps = conn.prepareStatement( "SELECT GET_LOCK(?, 0)" ) ) {
+            ps.setString( 1, LOCK );
+            try ( ResultSet rs = ps.executeQuery() ) {
+                return rs.next() && 1 == rs.getInt( 1 );
+            }
+        }
+    }
+
+    /**
+     * Gives up the archive lock
+     *
+     * @param conn
+     *            Connection holding it
+     * @throws SQLException
+     *             If the lock could not be given up
+     */
+    private static void unlock ( final Connection conn ) throws SQLException {
+        try ( PreparedStatement ps = conn.prepareStatement( "SELECT RELEASE_LOCK(?)" ) ) {
+            ps.setString( 1, LOCK );
+            ps.executeQuery().close();
+        }
+    }
+
+    /**
+     * One month's worth of entries moved in a single run, along with the
+     * sparse index of its blocks
+     */
+    private static final class Segment {
+
+        /**
+         * The month the entries were logged in
+         */
+        private final YearMonth   month;
+
+        /**
+         * Smallest ID in the segment
+         */
+        private final long        minId;
+
+        /**
+         * Largest ID in the segment
+         */
+        private final long        maxId;
+
+        /**
+         * Number of entries in the segment
+         */
+        private final long        count;
+
+        /**
+         * The compressed entries
+         */
+        private final File        data;
+
+        /**
+         * Where each block is, in the order written
+         */
+        private final List<Block> blocks;
+
+        /**
+         * Creates a Segment
+         *
+         * @param month
+         *            The month of the entries
+         * @param minId
+         *            Smallest ID
+         * @param maxId
+         *            Largest ID
+         * @param count
+         *            Number of entries
+         * @param data
+         *            The data file
+         * @param blocks
+         *            The blocks in the data file
+         */
+        private Segment ( final YearMonth month, final long minId, final long maxId, final long count,
+                final File data, final List<Block> blocks ) {
+            this.month = month;
+            this.minId = minId;
+            this.maxId = maxId;
+            this.count = count;
+            this.data = data;
+            this.blocks = blocks;
+        }
+
+        /**
+         * Hands each entry in the blocks that overlap a time range, and may
+         * hold a user, to the action. Entries in those blocks that fall
+         * outside the range are skipped, but not those of other users.
+         *
+         * @param from
+         *            Earliest time, or null
+         * @param to
+         *            Latest time, or null
+         * @param user
+         *            The user, or null to read every block in range
+         * @param action
+         *            What to do with each entry
+         */
+        private void read ( final ZonedDateTime from, final ZonedDateTime to, final String user,
+                final Consumer<LogEntry> action ) {
+            final long fromMs = null == from ? Long.MIN_VALUE : from.toInstant().toEpochMilli();
+            final long toMs = null == to ? Long.MAX_VALUE : to.toInstant().toEpochMilli();
+            final List<Block> wanted = new ArrayList<Block>();
+            for ( final Block b : blocks ) {
+                if ( b.maxTime < fromMs || b.minTime > toMs ) {
+                    continue;
+                }
+                if ( null != user && !b.mayHold( user ) ) {
+                    skipped.increment();
+                    continue;
+                }
+                wanted.add( b );
+            }
+            if ( wanted.isEmpty() ) {
+                return;
+            }
+            try ( RandomAccessFile file = new RandomAccessFile( data, "r" ) ) {
+                for ( final Block b : wanted ) {
+                    blocksRead.increment();
+                    final byte[] bytes = new byte[b.length];
+                    file.seek( b.offset );
+                    file.readFully( bytes );
+                    try ( BufferedReader in = new BufferedReader( new InputStreamReader(
+                            new GZIPInputStream( new ByteArrayInputStream( bytes ) ), StandardCharsets.UTF_8 ) ) ) {
+                        String line;
+                        while ( null != ( line = in.readLine() ) ) {
+                            final LogEntry e = GSON.fromJson( line, LogEntry.class );
+                            final long t = e.getTime().toInstant().toEpochMilli();
+                            if ( t >= fromMs && t <= toMs ) {
+                                action.accept( e );
+                            }
+                        }
+                    }
+                }
+            }
+            catch ( final IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+        }
+
+        /**
+         * Writes a month's entries from the table to a new segment. Both files
+         * are written under temporary names and renamed once complete, the
+         * data file first, so that an index file always describes a whole
+         * data file.
+         *
+         * @param month
+         *            The month
+         * @param start
+         *            Start of the month
+         * @param end
+         *            Start of the next month
+         * @return The segment, or null if there was nothing to write
+         * @throws IOException
+         *             If the segment could not be written
+         */
+        private static Segment write ( final YearMonth month, final ZonedDateTime start, final ZonedDateTime end )
+                throws IOException {
+            final File directory = dir;
+            Files.createDirectories( directory.toPath() );
+            final File tmp = File.createTempFile( "LogEntries-" + month + "-", ".tmp", directory );
+            final List<Block> blocks = new ArrayList<Block>();
+            final long[] ids = { Long.MAX_VALUE, 0 };
+            final long n;
+            try ( FileOutputStream out = new FileOutputStream( tmp ) ) {
+                final List<LogEntry> block = new ArrayList<LogEntry>( BLOCK_SIZE );
+                final IOException[] failed = new IOException[1];
+                n = LogEntry.streamBetween( start, end, e -> {
+                    if ( null != failed[0] ) {
+                        return;
+                    }
+                    ids[0] = Math.min( ids[0], e.getId() );
+                    ids[1] = Math.max( ids[1], e.getId() );
+                    block.add( e );
+                    if ( block.size() == BLOCK_SIZE ) {
+                        try {
+                            blocks.add( writeBlock( out, block ) );
+                        }
+                        catch ( final IOException ex ) {
+                            failed[0] = ex;
+                        }
+                        block.clear();
+                    }
+                } );
+                if ( null != failed[0] ) {
+                    throw failed[0];
+                }
+                if ( !block.isEmpty() ) {
+                    blocks.add( writeBlock( out, block ) );
+                }
+                out.getFD().sync();
+            }
+            catch ( final IOException | RuntimeException e ) {
+                tmp.delete();
+                throw e;
+            }
+            if ( 0 == n ) {
+                tmp.delete();
+                return null;
+            }
+
+            final String name = "LogEntries-" + month + "-" + ids[0];
+            final File data = new File( directory, name + DATA );
+            Files.move( tmp.toPath(), data.toPath(), StandardCopyOption.ATOMIC_MOVE );
+
+            final File indexTmp = new File( directory, name + INDEX + ".tmp" );
+            try ( FileOutputStream out = new FileOutputStream( indexTmp );
+                    Writer w = new OutputStreamWriter( out, StandardCharsets.UTF_8 ) ) {
+                w.write( month + " " + ids[0] + " " + ids[1] + " " + n + "\n" );
+                for ( final Block b : blocks ) {
+                    w.write( b.offset + " " + b.length + " " + b.minTime + " " + b.maxTime + " "
+                            + Base64.getEncoder().encodeToString( b.usersBytes() ) + "\n" );
+                }
+                w.flush();
+                out.getFD().sync();
+            }
+            Files.move( indexTmp.toPath(), new File( directory, name + INDEX ).toPath(),
+                    StandardCopyOption.ATOMIC_MOVE );
+            return new Segment( month, ids[0], ids[1], n, data, blocks );
+        }
+
+        /**
+         * Compresses a block of entries onto the end of a data file
+         *
+         * @param out
+         *            The data file
+         * @param entries
+         *            The entries in the block
+         * @return Where the block was written
+         * @throws IOException
+         *             If it could not be written
+         */
+        private static Block writeBlock ( final FileOutputStream out, final List<LogEntry> entries )
+                throws IOException {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            long minTime = Long.MAX_VALUE;
+            long maxTime = Long.MIN_VALUE;
+            final Set<String> users = new HashSet<String>();
+            try ( Writer w = new OutputStreamWriter( new GZIPOutputStream( bytes ), StandardCharsets.UTF_8 ) ) {
+                for ( final LogEntry e : entries ) {
+                    final long t = e.getTime().toInstant().toEpochMilli();
+                    minTime = Math.min( minTime, t );
+                    maxTime = Math.max( maxTime, t );
+                    if ( null != e.getPrimaryUser() ) {
+                        users.add( e.getPrimaryUser() );
+                    }
+                    if ( null != e.getSecondaryUser() ) {
+                        users.add( e.getSecondaryUser() );
+                    }
+                    w.write( GSON.toJson( e ) );
+                    w.write( '\n' );
+                }
+            }
+            final long offset = out.getChannel().position();
+            bytes.writeTo( out );
+            return new Block( offset, bytes.size(), minTime, maxTime, Block.filter( users ) );
+        }
+
+        /**
+         * Reads a segment from its index file
+         *
+         * @param index
+         *            The index file
+         * @return The segment
+         * @throws IOException
+         *             If the index could not be read
+         */
+        private static Segment load ( final File index ) throws IOException {
+            final List<String> lines = Files.readAllLines( index.toPath(), StandardCharsets.UTF_8 );
+            final String[] header = lines.get( 0 ).split( " " );
+            final List<Block> blocks = new ArrayList<Block>( lines.size() - 1 );
+            for ( final String line : lines.subList( 1, lines.size() ) ) {
+                final String[] f = line.split( " " );
+                // Segments written before blocks kept their users have no
+                // filter, and are read for every user
+                blocks.add( new Block( Long.parseLong( f[0] ), Integer.parseInt( f[1] ), Long.parseLong( f[2] ),
+                        Long.parseLong( f[3] ), f.length > 4 ? Block.filter( Base64.getDecoder().decode( f[4] ) )
+                                : null ) );
+            }
+            return new Segment( YearMonth.parse( header[0] ), Long.parseLong( header[1] ),
+                    Long.parseLong( header[2] ), Long.parseLong( header[3] ), dataFor( index ), blocks );
+        }
+
+        /**
+         * Finds the data file an index file describes
+         *
+         * @param index
+         *            The index file
+         * @return The data file beside it
+         */
+        private static File dataFor ( final File index ) {
+            final String name = index.getName();
+            return new File( index.getParentFile(), name.substring( 0, name.length() - INDEX.length() ) + DATA );
+        }
+
+    }
+
+    /**
+     * Where one compressed block sits in a data file, the range of times in
+     * it, and a Bloom filter of the users in it
+     */
+    private static final class Block {
+
+        /**
+         * Bits set in the filter for each user
+         */
+        private static final int HASHES        = 7;
+
+        /**
+         * Bits of filter for each user; with HASHES, about one in a hundred
+         * users not in the block are taken to be
+         */
+        private static final int BITS_PER_USER = 10;
+
+        /**
+         * Position of the block in the file
+         */
+        private final long       offset;
+
+        /**
+         * Compressed length of the block
+         */
+        private final int        length;
+
+        /**
+         * Earliest time in the block, in milliseconds
+         */
+        private final long       minTime;
+
+        /**
+         * Latest time in the block, in milliseconds
+         */
+        private final long       maxTime;
+
+        /**
+         * The filter of the primary and secondary users in the block, or null
+         * if it was written without one
+         */
+        private final long[]     users;
+
+        /**
+         * Creates a Block
+         *
+         * @param offset
+         *            Position in the file
+         * @param length
+         *            Compressed length
+         * @param minTime
+         *            Earliest time
+         * @param maxTime
+         *            Latest time
+         * @param users
+         *            Filter of the users in it, or null for none
+         */
+        private Block ( final long offset, final int length, final long minTime, final long maxTime,
+                final long[] users ) {
+            this.offset = offset;
+            this.length = length;
+            this.minTime = minTime;
+            this.maxTime = maxTime;
+            this.users = users;
+        }
+
+        /**
+         * Whether the block may hold entries of a user. Never false for one it
+         * does hold.
+         *
+         * @param user
+         *            The user
+         * @return False only if the user is not in the block
+         */
+        private boolean mayHold ( final String user ) {
+            if ( null == users ) {
+                return true;
+            }
+            final long bits = 64L * users.length;
+            final int h1 = user.hashCode();
+            final int h2 = secondHash( user );
+            for ( int i = 0; i < HASHES; i++ ) {
+                final long bit = Math.floorMod( h1 + (long) i * h2, bits );
+                if ( 0 == ( users[(int) ( bit >>> 6 )] & 1L << bit ) ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * The filter, as bytes for the index file
+         *
+         * @return The bytes
+         */
+        private byte[] usersBytes () {
+            final ByteBuffer buffer = ByteBuffer.allocate( 8 * users.length );
+            buffer.asLongBuffer().put( users );
+            return buffer.array();
+        }
+
+        /**
+         * Builds the filter of a block's users
+         *
+         * @param names
+         *            The users in the block
+         * @return The filter
+         */
+        private static long[] filter ( final Set<String> names ) {
+            final long[] filter = new long[Math.max( 1, ( names.size() * BITS_PER_USER + 63 ) / 64 )];
+            final long bits = 64L * filter.length;
+            for ( final String name : names ) {
+                final int h1 = name.hashCode();
+                final int h2 = secondHash( name );
+                for ( int i = 0; i < HASHES; i++ ) {
+                    final long bit = Math.floorMod( h1 + (long) i * h2, bits );
+                    filter[(int) ( bit >>> 6 )] |= 1L << bit;
+                }
+            }
+            return filter;
+        }
+
+        /**
+         * Reads a filter written by {@link #usersBytes()}
+         *
+         * @param bytes
+         *            The bytes
+         * @return The filter
+         */
+        private static long[] filter ( final byte[] bytes ) {
+            final long[] filter = new long[bytes.length / 8];
+            ByteBuffer.wrap( bytes ).asLongBuffer().get( filter );
+            return filter;
+        }
+
+        /**
+         * A hash of a name independent of String.hashCode (FNV-1a over its
+         * characters), so that the two can be combined into as many as are
+         * needed. Both are fixed, so filters read the same in every JVM.
+         *
+         * @param name
+         *            The name
+         * @return The hash, always odd so that every step moves
+         */
+        private static int secondHash ( final String name ) {
+            int h = 0x811c9dc5;
+            for ( int i = 0; i < name.length(); i++ ) {
+                h = ( h ^ name.charAt( i ) ) * 0x01000193;
+            }
+            return h | 1;
+        }
+
+    }
+
+}
@@ -0,0 +1,895 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import edu.ncsu.csc.itrust2.models.enums.TransactionType;
+import edu.ncsu.csc.itrust2.models.persistent.LogEntry;
+
+/**
+ * An append-only, tamper-evident copy of the audit log, kept in
+ * memory-mapped segment files alongside the LogEntries table. AuditLogWriter
+ * appends each batch here before writing it to the database, from its one
+ * writer thread, so the files are only ever written sequentially and whoever
+ * logs an event never waits on them.
+ *
+ * Each segment starts with a header and is followed by fixed-layout binary
+ * records. An entry record holds the TransactionType code, the primary and
+ * secondary users as small ids, the time in microseconds since the epoch and
+ * the length of the message, with the message bytes stored right after the
+ * fixed part. The ids are defined by name records earlier in the same
+ * segment, so every segment can be read on its own. Every record ends with
+ * the SHA-256 of the previous record's hash and its own bytes, and each
+ * segment starts from the last hash of the one before, so changing, removing
+ * or reordering anything breaks the chain from that point on. Keep the value
+ * of {@link #getHeadHash()} somewhere else as well, so that rewriting the
+ * whole chain can be caught too. {@link #verify(File)} (or running this
+ * class) checks the chain.
+ *
+ * A segment is sealed once full, or when the application shuts down, and the
+ * next one is started. If the server stops without sealing, the next start
+ * checks the unsealed segment, seals it after its last intact record and
+ * carries on from there.
+ *
+ * The application's searches never read the journal: it only holds what this
+ * server wrote, and a batch it could not append still goes to the database.
+ * It is there to check the database against; {@link #find} reads entries back
+ * out of it for that.
+ *
+ * Turned on by setting `auditJournalDir` in db.properties. The segment size,
+ * in megabytes, is set with `auditJournalSegmentMb`. `auditJournalSync` sets
+ * when the segment is forced to disk: `batch` after every batch written, or
+ * `none` to leave it to the operating system.
+ */
+public class AuditJournal {
+
+    /**
+     * "IT2AUDIT", at the start of every segment
+     */
+    private static final long                 MAGIC          = 0x4954324155444954L;
+
+    /**
+     * Version of the segment layout
+     */
+    private static final int                  VERSION        = 1;
+
+    /**
+     * Size of the segment header. Layout: magic (8), version (4), unused
+     * (4), sequence number (8), starting hash (32), when the journal was
+     * started, in epoch microseconds (8), and, filled in when the segment is
+     * sealed: earliest and latest entry time (8 each), end of the records
+     * (8), number of entries (8), sealed flag (4), unused (4) and last hash
+     * (32).
+     */
+    private static final int                  HEADER         = 160;
+
+    // Where the header fields are, as above
+    private static final int                  H_SEQUENCE     = 16;
+
+    private static final int                  H_START_HASH   = 24;
+
+    private static final int                  H_CREATED      = 56;
+
+    private static final int                  H_MIN          = 64;
+
+    private static final int                  H_MAX          = 72;
+
+    private static final int                  H_END          = 80;
+
+    private static final int                  H_ENTRIES      = 88;
+
+    private static final int                  H_SEALED       = 96;
+
+    private static final int                  H_END_HASH     = 104;
+
+    /**
+     * Record kind that defines the next user id in the segment. Layout: kind
+     * (4), id (4), name length (4), name, hash (32).
+     */
+    private static final int                  NAME           = 1;
+
+    /**
+     * Record kind for a LogEntry. Layout: kind (4), code (4), primary user id
+     * (4), secondary user id or -1 (4), epoch microseconds (8), message
+     * length or -1 (4), message, hash (32).
+     */
+    private static final int                  ENTRY          = 2;
+
+    // Sizes of the fixed parts of the records, and of every hash
+    private static final int                  ENTRY_FIXED    = 28;
+
+    private static final int                  NAME_FIXED     = 12;
+
+    private static final int                  HASH           = 32;
+
+
+    /**
+     * Size of each segment file
+     */
+    private static final int                  SEGMENT_BYTES;
+
+    /**
+     * Whether to force the segment to disk after every batch
+     */
+    private static final boolean              SYNC_BATCH;
+
+    /**
+     * Every segment, oldest first, including the one being written
+     */
+    private static final List<Segment>        SEGMENTS       = new CopyOnWriteArrayList<Segment>();
+
+    /**
+     * Ids of the users named so far in the segment being written
+     */
+    private static final Map<String, Integer> NAMES          = new HashMap<String, Integer>();
+
+    /**
+     * The segment being written, or null until something is appended
+     */
+    private static Segment                    active;
+
+    /**
+     * Hash of the last record written
+     */
+    private static byte[]                     head           = new byte[HASH];
+
+    /**
+     * Whether the existing segments have been found and checked
+     */
+    private static boolean                    opened;
+
+    /**
+     * Where the segments are kept, or null if the journal is off
+     */
+    private static volatile File              dir;
+
+    static {
+        final String setting = DBUtil.getSetting( "auditJournalDir", "" ).trim();
+        dir = setting.isEmpty() ? null : new File( setting );
+        SEGMENT_BYTES = Math.max( 1, Integer.parseInt( DBUtil.getSetting( "auditJournalSegmentMb", "64" ) ) )
+                * 1024 * 1024;
+        SYNC_BATCH = "batch".equals( DBUtil.getSetting( "auditJournalSync", "batch" ) );
+    }
+
+    /**
+     * Whether the journal is turned on
+     *
+     * @return True if `auditJournalDir` is set
+     */
+    public static boolean isEnabled () {
+        return null != dir;
+    }
+
+    /**
+     * Moves the journal to another directory, sealing the segment being
+     * written first. The new directory's journal carries on from whatever
+     * segments are already in it, or starts a new chain if there are none.
+     *
+     * @param directory
+     *            Where to keep the journal, or null to turn it off
+     */
+    public static synchronized void useDirectory ( final File directory ) {
+        close();
+        SEGMENTS.clear();
+        NAMES.clear();
+        head = new byte[HASH];
+        opened = false;
+        dir = directory;
+    }
+
+    /**
+     * Appends a batch of entries to the journal, in order
+     *
+     * @param entries
+     *            The entries to append
+     */
+    public static synchronized void append ( final List<LogEntry> entries ) {
+        if ( !isEnabled() ) {
+            return;
+        }
+        open();
+        try {
+            if ( null == active ) {
+                startSegment();
+            }
+            for ( final LogEntry e : entries ) {
+                final byte[] primary = e.getPrimaryUser().getBytes( StandardCharsets.UTF_8 );
+                final byte[] secondary = null == e.getSecondaryUser() ? null
+                        : e.getSecondaryUser().getBytes( StandardCharsets.UTF_8 );
+                final byte[] message = null == e.getMessage() ? null
+                        : e.getMessage().getBytes( StandardCharsets.UTF_8 );
+
+                // Room for the entry and for naming both users, so that the
+                // names are in the same segment as the entry
+                final int needed = ENTRY_FIXED + ( null == message ? 0 : message.length ) + HASH + NAME_FIXED
+                        + primary.length + HASH + ( null == secondary ? 0 : NAME_FIXED + secondary.length + HASH );
+                if ( HEADER + needed > SEGMENT_BYTES ) {
+                    throw new IllegalArgumentException( "Audit entry too large for a journal segment" );
+                }
+                if ( active.end + needed > SEGMENT_BYTES ) {
+                    sealSegment();
+                    startSegment();
+                }
+
+                final int primaryId = idFor( e.getPrimaryUser(), primary );
+                final int secondaryId = null == secondary ? -1 : idFor( e.getSecondaryUser(), secondary );
+                final long micros = toMicros( e.getTime() );
+                final ByteBuffer rec = ByteBuffer
+                        .allocate( ENTRY_FIXED + ( null == message ? 0 : message.length ) );
+                rec.putInt( ENTRY ).putInt( e.getLogCode().getCode() ).putInt( primaryId ).putInt( secondaryId )
+                        .putLong( micros ).putInt( null == message ? -1 : message.length );
+                if ( null != message ) {
+                    rec.put( message );
+                }
+                writeRecord( rec );
+                active.minMicros = Math.min( active.minMicros, micros );
+                active.maxMicros = Math.max( active.maxMicros, micros );
+                active.entries++;
+            }
+            if ( SYNC_BATCH ) {
+                active.map.force();
+            }
+        }
+        catch ( final IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * Seals the segment being written. Called when the application is
+     * shutting down, after the last entries have been written; anything
+     * appended afterwards goes to a new segment.
+     */
+    public static synchronized void close () {
+        if ( null != active ) {
+            try {
+                sealSegment();
+            }
+            catch ( final IOException e ) {
+                e.printStackTrace( System.out );
+            }
+        }
+    }
+
+    /**
+     * When the journal was started. Every entry logged from then on is in the
+     * journal.
+     *
+     * @return The time, or null if nothing has been journaled yet
+     */
+    public static ZonedDateTime getStart () {
+        if ( !isEnabled() ) {
+            return null;
+        }
+        synchronized ( AuditJournal.class ) {
+            open();
+        }
+        return SEGMENTS.isEmpty() ? null : fromMicros( SEGMENTS.get( 0 ).created );
+    }
+
+    /**
+     * The hash of the last record written, which vouches for everything in
+     * the journal up to that point
+     *
+     * @return The hash, as hex
+     */
+    public static synchronized String getHeadHash () {
+        open();
+        return hex( head );
+    }
+
+    /**
+     * Finds the journaled entries from a range of time, in the order they
+     * were written, to compare with what is in the database. Entries are read
+     * straight from the segments; only segments whose times overlap the range
+     * are read. The entries found have no IDs, as those are only assigned by
+     * the database.
+     *
+     * @param from
+     *            Earliest time to include, or null for no lower bound
+     * @param to
+     *            Latest time to include, or null for no upper bound
+     * @param filter
+     *            Which entries to include
+     * @return The matching entries
+     */
+    public static List<LogEntry> find ( final ZonedDateTime from, final ZonedDateTime to,
+            final Predicate<LogEntry> filter ) {
+        synchronized ( AuditJournal.class ) {
+            open();
+        }
+        final long first = null == from ? Long.MIN_VALUE : toMicros( from );
+        final long last = null == to ? Long.MAX_VALUE : toMicros( to );
+        final List<LogEntry> found = new ArrayList<LogEntry>();
+        for ( final Segment s : SEGMENTS ) {
+            final long end = s.end;
+            if ( 0 == s.entries || s.maxMicros < first || s.minMicros > last ) {
+                continue;
+            }
+            try ( FileChannel ch = FileChannel.open( s.file.toPath(), StandardOpenOption.READ ) ) {
+                final Scan scan = new Scan( null );
+                scan.read( ch.map( FileChannel.MapMode.READ_ONLY, 0, end ), end, ( micros, e ) -> {
+                    if ( micros >= first && micros <= last ) {
+                        final LogEntry entry = e.get();
+                        if ( filter.test( entry ) ) {
+                            found.add( entry );
+                        }
+                    }
+                } );
+            }
+            catch ( final IOException e ) {
+                throw new UncheckedIOException( e );
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Checks every segment in a journal directory: that each is a journal
+     * segment, that they follow on from each other, that every record's hash
+     * matches, and that the header of each sealed segment agrees with its
+     * records.
+     *
+     * @param dir
+     *            The journal directory
+     * @return What is wrong, or an empty list if the journal is intact
+     * @throws IOException
+     *             If a segment cannot be read
+     */
+    public static List<String> verify ( final File dir ) throws IOException {
+        final List<String> problems = new ArrayList<String>();
+        final File[] files = segmentFiles( dir );
+        byte[] previous = new byte[HASH];
+        long sequence = -1;
+        for ( int i = 0; i < files.length; i++ ) {
+            final File f = files[i];
+            try ( FileChannel ch = FileChannel.open( f.toPath(), StandardOpenOption.READ ) ) {
+                final MappedByteBuffer buf = ch.map( FileChannel.MapMode.READ_ONLY, 0, ch.size() );
+                if ( ch.size() < HEADER || MAGIC != buf.getLong( 0 ) || VERSION != buf.getInt( 8 ) ) {
+                    problems.add( f.getName() + ": not a journal segment" );
+                    return problems;
+                }
+                final long seq = buf.getLong( H_SEQUENCE );
+                if ( -1 != sequence && seq != sequence + 1 ) {
+                    problems.add( f.getName() + ": expected segment " + ( sequence + 1 ) + " but found " + seq );
+                }
+                sequence = seq;
+                final byte[] start = bytes( buf, H_START_HASH, HASH );
+                if ( !Arrays.equals( previous, start ) ) {
+                    problems.add( f.getName() + ": does not follow on from the segment before it" );
+                }
+
+                final Scan scan = new Scan( start );
+                scan.read( buf, ch.size(), null );
+                if ( null != scan.error ) {
+                    problems.add( f.getName() + ": " + scan.error + " at offset " + scan.position );
+                }
+                if ( 1 == buf.getInt( H_SEALED ) ) {
+                    if ( buf.getLong( H_END ) != scan.position || buf.getLong( H_ENTRIES ) != scan.entries
+                            || !Arrays.equals( bytes( buf, H_END_HASH, HASH ), scan.hash )
+                            || scan.entries > 0 && ( buf.getLong( H_MIN ) != scan.minMicros
+                                    || buf.getLong( H_MAX ) != scan.maxMicros ) ) {
+                        problems.add( f.getName() + ": header does not match its records" );
+                    }
+                }
+                else if ( i != files.length - 1 ) {
+                    problems.add( f.getName() + ": not sealed, but is not the last segment" );
+                }
+                previous = scan.hash;
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * Checks the journal in the directory given, printing what is wrong with
+     * it and the hash of its last record. Exits with 1 if anything is wrong.
+     *
+     * @param args
+     *            The journal directory
+     * @throws IOException
+     *             If a segment cannot be read
+     */
+    public static void main ( final String[] args ) throws IOException {
+        if ( 1 != args.length ) {
+            System.out.println( "Usage: AuditJournal <journal directory>" );
+            System.exit( 2 );
+        }
+        final List<String> problems = verify( new File( args[0] ) );
+        problems.forEach( System.out::println );
+        final File[] files = segmentFiles( new File( args[0] ) );
+        if ( files.length > 0 ) {
+            try ( FileChannel ch = FileChannel.open( files[files.length - 1].toPath(), StandardOpenOption.READ ) ) {
+                final MappedByteBuffer buf = ch.map( FileChannel.MapMode.READ_ONLY, 0, ch.size() );
+                final Scan scan = new Scan( bytes( buf, H_START_HASH, HASH ) );
+                scan.read( buf, ch.size(), null );
+                System.out.println( "Last hash: " + hex( scan.hash ) );
+            }
+        }
+        System.out.println( problems.isEmpty() ? "Journal intact" : problems.size() + " problem(s) found" );
+        System.exit( problems.isEmpty() ? 0 : 1 );
+    }
+
+    /**
+     * Finds the existing segments the first time the journal is used, and
+     * seals the last one if the server stopped before it could
+     */
+    private static void open () {
+        if ( opened || !isEnabled() ) {
+            return;
+        }
+        try {
+            for ( final File f : segmentFiles( dir ) ) {
+                try ( RandomAccessFile raf = new RandomAccessFile( f, "rw" ) ) {
+                    final MappedByteBuffer buf = raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0,
+                            raf.length() );
+                    final Segment s = new Segment( f, buf.getLong( H_SEQUENCE ), buf.getLong( H_CREATED ) );
+                    if ( 1 != buf.getInt( H_SEALED ) ) {
+                        // Keep everything up to the last intact record
+                        final Scan scan = new Scan( bytes( buf, H_START_HASH, HASH ) );
+                        scan.read( buf, raf.length(), null );
+                        seal( buf, scan.position, scan.entries, scan.minMicros, scan.maxMicros, scan.hash );
+                    }
+                    s.end = buf.getLong( H_END );
+                    s.entries = buf.getLong( H_ENTRIES );
+                    s.minMicros = buf.getLong( H_MIN );
+                    s.maxMicros = buf.getLong( H_MAX );
+                    head = bytes( buf, H_END_HASH, HASH );
+                    SEGMENTS.add( s );
+                }
+            }
+        }
+        catch ( final IOException e ) {
+            throw new UncheckedIOException( e );
+        }
+        opened = true;
+    }
+
+    /**
+     * Creates the next segment and makes it the one being written
+     *
+     * @throws IOException
+     *             If it cannot be created
+     */
+    private static void startSegment () throws IOException {
+        dir.mkdirs();
+        final long sequence = SEGMENTS.isEmpty() ? 0 : SEGMENTS.get( SEGMENTS.size() - 1 ).sequence + 1;
+        final long created = SEGMENTS.isEmpty() ? toMicros( ZonedDateTime.now() ) : SEGMENTS.get( 0 ).created;
+        final File f = new File( dir, String.format( "audit-%010d.seg", sequence ) );
+        final RandomAccessFile raf = new RandomAccessFile( f, "rw" );
+        raf.setLength( SEGMENT_BYTES );
+        final Segment s = new Segment( f, sequence, created );
+        s.raf = raf;
+        s.map = raf.getChannel().map( FileChannel.MapMode.READ_WRITE, 0, SEGMENT_BYTES );
+        s.map.putLong( 0, MAGIC ).putInt( 8, VERSION ).putLong( H_SEQUENCE, sequence ).putLong( H_CREATED,
+                created );
+        for ( int i = 0; i < HASH; i++ ) {
+            s.map.put( H_START_HASH + i, head[i] );
+        }
+        s.map.force();
+        s.end = HEADER;
+        NAMES.clear();
+        active = s;
+        SEGMENTS.add( s );
+    }
+
+    /**
+     * Seals the segment being written
+     *
+     * @throws IOException
+     *             If it cannot be closed
+     */
+    private static void sealSegment () throws IOException {
+        seal( active.map, active.end, active.entries, active.minMicros, active.maxMicros, head );
+        active.raf.close();
+        active.map = null;
+        active.raf = null;
+        active = null;
+    }
+
+    /**
+     * Fills in the header of a segment and marks it sealed
+     *
+     * @param buf
+     *            The segment
+     * @param end
+     *            End of the records
+     * @param entries
+     *            Number of entries
+     * @param min
+     *            Earliest entry time
+     * @param max
+     *            Latest entry time
+     * @param hash
+     *            Hash of the last record
+     */
+    private static void seal ( final MappedByteBuffer buf, final long end, final long entries, final long min,
+            final long max, final byte[] hash ) {
+        buf.putLong( H_MIN, min ).putLong( H_MAX, max ).putLong( H_END, end ).putLong( H_ENTRIES, entries );
+        for ( int i = 0; i < HASH; i++ ) {
+            buf.put( H_END_HASH + i, hash[i] );
+        }
+        buf.putInt( H_SEALED, 1 );
+        buf.force();
+    }
+
+    /**
+     * The id of a user in the segment being written, naming them first if
+     * they have not been named in it yet
+     *
+     * @param name
+     *            The username
+     * @param bytes
+     *            The username as UTF-8
+     * @return The id
+     */
+    private static int idFor ( final String name, final byte[] bytes ) {
+        Integer id = NAMES.get( name );
+        if ( null == id ) {
+            id = NAMES.size();
+            final ByteBuffer rec = ByteBuffer.allocate( NAME_FIXED + bytes.length );
+            rec.putInt( NAME ).putInt( id ).putInt( bytes.length ).put( bytes );
+            writeRecord( rec );
+            NAMES.put( name, id );
+        }
+        return id;
+    }
+
+    /**
+     * Appends a record, followed by its hash, to the segment being written
+     *
+     * @param rec
+     *            The record, without its hash
+     */
+    private static void writeRecord ( final ByteBuffer rec ) {
+        final byte[] bytes = rec.array();
+        final MessageDigest sha = sha256();
+        sha.update( head );
+        sha.update( bytes );
+        head = sha.digest();
+        final ByteBuffer out = active.map.duplicate();
+        out.position( (int) active.end );
+        out.put( bytes ).put( head );
+        // Published to readers only once the whole record is there
+        active.end += bytes.length + HASH;
+    }
+
+    /**
+     * The segment files in a directory, oldest first
+     *
+     * @param dir
+     *            The directory
+     * @return The segment files
+     */
+    private static File[] segmentFiles ( final File dir ) {
+        final File[] files = dir.listFiles( ( d, name ) -> name.startsWith( "audit-" ) && name.endsWith( ".seg" ) );
+        if ( null == files ) {
+            return new File[0];
+        }
+        Arrays.sort( files );
+        return files;
+    }
+
+    /**
+     * Converts a time to microseconds since the epoch
+     *
+     * @param time
+     *            The time
+     * @return Microseconds since the epoch
+     */
+    private static long toMicros ( final ZonedDateTime time ) {
+        final Instant i = time.toInstant();
+        return i.getEpochSecond() * 1000000L + i.getNano() / 1000;
+    }
+
+    /**
+     * Converts microseconds since the epoch to a time
+     *
+     * @param micros
+     *            Microseconds since the epoch
+     * @return The time
+     */
+    private static ZonedDateTime fromMicros ( final long micros ) {
+        return Instant.ofEpochSecond( Math.floorDiv( micros, 1000000L ), Math.floorMod( micros, 1000000L ) * 1000 )
+                .atZone( ZoneId.systemDefault() );
+    }
+
+    /**
+     * Copies bytes out of a buffer
+     *
+     * @param buf
+     *            The buffer
+     * @param at
+     *            Where to start
+     * @param length
+     *            How many bytes
+     * @return The bytes
+     */
+    private static byte[] bytes ( final ByteBuffer buf, final long at, final int length ) {
+        final byte[] b = new byte[length];
+        final ByteBuffer d = buf.duplicate();
+        d.position( (int) at );
+        d.get( b );
+        return b;
+    }
+
+    /**
+     * Writes bytes as hex
+     *
+     * @param b
+     *            The bytes
+     * @return The hex
+     */
+    private static String hex ( final byte[] b ) {
+        final StringBuilder sb = new StringBuilder( 2 * b.length );
+        for ( final byte x : b ) {
+            sb.append( String.format( "%02x", x ) );
+        }
+        return sb.toString();
+    }
+
+    /**
+     * A new SHA-256 digest
+     *
+     * @return The digest
+     */
+    private static MessageDigest sha256 () {
+        try {
+            return MessageDigest.getInstance( "SHA-256" );
+        }
+        catch ( final NoSuchAlgorithmException e ) {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    /**
+     * Something to do with each entry read from a segment, given its time
+     * and a way to build it as a LogEntry only if it is wanted
+     */
+    private interface EntryVisitor {
+        /**
+         * Handles one entry
+         *
+         * @param micros
+         *            Its time, in epoch microseconds
+         * @param entry
+         *            Builds it as a LogEntry
+         */
+        void visit ( long micros, Supplier<LogEntry> entry );
+    }
+
+    /**
+     * Reads through the records of one segment, optionally checking their
+     * hashes as it goes
+     */
+    private static final class Scan {
+
+        /**
+         * Hash of the record before the one being read; null to skip
+         * checking
+         */
+        private byte[]             hash;
+
+        /**
+         * Where the next record starts
+         */
+        private long               position = HEADER;
+
+        /**
+         * Number of entries read
+         */
+        private long               entries;
+
+        /**
+         * Earliest entry time read
+         */
+        private long               minMicros = Long.MAX_VALUE;
+
+        /**
+         * Latest entry time read
+         */
+        private long               maxMicros = Long.MIN_VALUE;
+
+        /**
+         * Why reading stopped before the end, or null
+         */
+        private String             error;
+
+        /**
+         * The users named so far
+         */
+        private final List<String> names    = new ArrayList<String>();
+
+        /**
+         * Creates a Scan
+         *
+         * @param startHash
+         *            The segment's starting hash, to check hashes against,
+         *            or null to not check them
+         */
+        private Scan ( final byte[] startHash ) {
+            this.hash = startHash;
+        }
+
+        /**
+         * Reads records until the end of the segment, a record that is not
+         * all there, or (when checking) one whose hash does not match
+         *
+         * @param buf
+         *            The segment
+         * @param limit
+         *            Where the records end at the latest
+         * @param visitor
+         *            What to do with each entry, or null
+         */
+        private void read ( final ByteBuffer buf, final long limit, final EntryVisitor visitor ) {
+            while ( position + 4 <= limit ) {
+                final int at = (int) position;
+                final int kind = buf.getInt( at );
+                final int length;
+                if ( 0 == kind ) {
+                    return;
+                }
+                else if ( NAME == kind && at + NAME_FIXED <= limit ) {
+                    length = NAME_FIXED + Math.max( 0, buf.getInt( at + 8 ) );
+                }
+                else if ( ENTRY == kind && at + ENTRY_FIXED <= limit ) {
+                    length = ENTRY_FIXED + Math.max( 0, buf.getInt( at + 24 ) );
+                }
+                else {
+                    error = "unreadable record";
+                    return;
+                }
+                if ( at + (long) length + HASH > limit ) {
+                    error = "incomplete record";
+                    return;
+                }
+                if ( null != hash ) {
+                    final MessageDigest sha = sha256();
+                    sha.update( hash );
+                    sha.update( bytes( buf, at, length ) );
+                    final byte[] expected = sha.digest();
+                    if ( !Arrays.equals( expected, bytes( buf, at + length, HASH ) ) ) {
+                        error = "hash does not match";
+                        return;
+                    }
+                    hash = expected;
+                }
+
+                if ( NAME == kind ) {
+                    if ( buf.getInt( at + 4 ) != names.size() ) {
+                        error = "user id out of order";
+                        return;
+                    }
+                    names.add( new String( bytes( buf, at + NAME_FIXED, length - NAME_FIXED ),
+                            StandardCharsets.UTF_8 ) );
+                }
+                else {
+                    final long micros = buf.getLong( at + 16 );
+                    entries++;
+                    minMicros = Math.min( minMicros, micros );
+                    maxMicros = Math.max( maxMicros, micros );
+                    if ( null != visitor ) {
+                        visitor.visit( micros, () -> toEntry( buf, at, length, micros ) );
+                    }
+                }
+                position = at + length + HASH;
+            }
+        }
+
+        /**
+         * Builds the LogEntry for an entry record
+         *
+         * @param buf
+         *            The segment
+         * @param at
+         *            Where the record starts
+         * @param length
+         *            Length of the record, without its hash
+         * @param micros
+         *            Its time
+         * @return The LogEntry
+         */
+        private LogEntry toEntry ( final ByteBuffer buf, final int at, final int length, final long micros ) {
+            final LogEntry e = new LogEntry();
+            e.setLogCode( TransactionType.parse( buf.getInt( at + 4 ) ) );
+            e.setPrimaryUser( names.get( buf.getInt( at + 8 ) ) );
+            final int secondary = buf.getInt( at + 12 );
+            e.setSecondaryUser( -1 == secondary ? null : names.get( secondary ) );
+            e.setMessage( buf.getInt( at + 24 ) < 0 ? null
+                    : new String( bytes( buf, at + ENTRY_FIXED, length - ENTRY_FIXED ), StandardCharsets.UTF_8 ) );
+            e.setTime( fromMicros( micros ) );
+            return e;
+        }
+
+    }
+
+    /**
+     * One segment file, and what is known about its entries
+     */
+    private static final class Segment {
+
+        /**
+         * The segment file
+         */
+        private final File       file;
+
+        /**
+         * Position in the journal
+         */
+        private final long       sequence;
+
+        /**
+         * When the journal was started, in epoch microseconds
+         */
+        private final long       created;
+
+        /**
+         * End of the records written so far; readers read up to here
+         */
+        private volatile long    end;
+
+        /**
+         * Number of entries
+         */
+        private volatile long    entries;
+
+        /**
+         * Earliest entry time
+         */
+        private volatile long    minMicros = Long.MAX_VALUE;
+
+        /**
+         * Latest entry time
+         */
+        private volatile long    maxMicros = Long.MIN_VALUE;
+
+        /**
+         * Open while the segment is being written
+         */
+        private RandomAccessFile raf;
+
+        /**
+         * Mapping written through while the segment is being written
+         */
+        private MappedByteBuffer map;
+
+        /**
+         * Creates a Segment
+         *
+         * @param file
+         *            The file
+         * @param sequence
+         *            Position in the journal
+         * @param created
+         *            When the journal was started
+         */
+        private Segment ( final File file, final long sequence, final long created ) {
+            this.file = file;
+            this.sequence = sequence;
+            this.created = created;
+        }
+
+    }
+
+}
@@ -0,0 +1,521 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+
+import edu.ncsu.csc.itrust2.adapters.ZonedDateTimeAttributeConverter;
+import edu.ncsu.csc.itrust2.models.persistent.LogEntry;
+
+/**
+ * Writes LogEntries to the database in the background so that logging an
+ * event does not cost the request that logged it a database round-trip.
+ * Entries are placed on a bounded in-memory queue and a single writer thread
+ * inserts them with JDBC batches, either once a full batch has built up or
+ * once the flush interval has passed, whichever comes first. Entries are
+ * always written in the order they were logged.
+ *
+ * If the database cannot be reached, the batch is appended to a local spill
+ * file instead, and the spill file is replayed (ahead of anything newer) the
+ * next time a write succeeds. The same happens if writing the batch fails in
+ * any other way, so that a batch taken off the queue is never simply lost. An
+ * entry in the spill file that can never be written, because it cannot be read
+ * back or has no primary user, is printed and left out when the file is
+ * replayed, so that it does not hold up everything after it. If the queue is
+ * full, the caller flushes it itself rather than dropping the entry. If the
+ * AuditJournal is turned on, each batch is appended to it first.
+ *
+ * The queue size, batch size, flush interval and spill file location can be
+ * set in db.properties with `auditQueueSize`, `auditBatchSize`,
+ * `auditFlushMs` and `auditSpillFile`.
+ */
+public class AuditLogWriter {
+
+    /**
+     * Column order must match {@link #bind(PreparedStatement, LogEntry, long, Map)}
+     */
+    private static final String                          INSERT      = "INSERT INTO LogEntries "
+            + "(id, logCode, primaryUserId, secondaryUserId, message, time) VALUES (?, ?, ?, ?, ?, ?)";
+
+    /**
+     * Entries that have been logged but not yet written
+     */
+    private static final BlockingQueue<LogEntry>         QUEUE;
+
+    /**
+     * Largest number of entries written in one JDBC batch
+     */
+    private static final int                             BATCH_SIZE;
+
+    /**
+     * Longest time, in milliseconds, that an entry waits on the queue
+     */
+    private static final long                            FLUSH_MS;
+
+    /**
+     * Where entries go when the database cannot be reached
+     */
+    private static final File                            SPILL_FILE;
+
+    /**
+     * Held while draining and writing, so that batches are written one at a
+     * time and in order
+     */
+    private static final Object                          WRITE_LOCK  = new Object();
+
+    /**
+     * Used to wake the writer thread early once a full batch is waiting
+     */
+    private static final Object                          SIGNAL      = new Object();
+
+    /**
+     * Converts the timestamp the same way Hibernate does
+     */
+    private static final ZonedDateTimeAttributeConverter TIME        = new ZonedDateTimeAttributeConverter();
+
+    /**
+     * Serializes entries to and from the spill file
+     */
+    private static final Gson                            GSON        = new Gson();
+
+    /**
+     * Number of entries written to the database
+     */
+    private static final AtomicLong                      written     = new AtomicLong();
+
+    /**
+     * Number of entries written to the spill file
+     */
+    private static final AtomicLong                      spilled     = new AtomicLong();
+
+    /**
+     * The background writer, started the first time something is logged
+     */
+    private static Thread                                writer;
+
+    /**
+     * Whether entries should still be queued; once shut down, every entry is
+     * written as soon as it is logged
+     */
+    private static volatile boolean                      running     = true;
+
+    static {
+        QUEUE = new ArrayBlockingQueue<LogEntry>( Integer.parseInt( DBUtil.getSetting( "auditQueueSize", "10000" ) ) );
+        BATCH_SIZE = Integer.parseInt( DBUtil.getSetting( "auditBatchSize", "100" ) );
+        FLUSH_MS = Long.parseLong( DBUtil.getSetting( "auditFlushMs", "200" ) );
+        SPILL_FILE = new File( DBUtil.getSetting( "auditSpillFile", "audit-spill.log" ) );
+    }
+
+    /**
+     * Queues a LogEntry to be written. Returns immediately unless the queue is
+     * full, in which case the caller writes out what is waiting first.
+     *
+     * @param entry
+     *            The entry to write
+     */
+    public static void enqueue ( final LogEntry entry ) {
+        enqueueAll( Collections.singletonList( entry ) );
+    }
+
+    /**
+     * Queues several LogEntries to be written, in order, waking the writer at
+     * most once for all of them
+     *
+     * @param entries
+     *            The entries to write
+     */
+    public static void enqueueAll ( final Collection<LogEntry> entries ) {
+        if ( entries.isEmpty() ) {
+            return;
+        }
+        if ( !running ) {
+            synchronized ( WRITE_LOCK ) {
+                write( new ArrayList<LogEntry>( entries ) );
+            }
+            return;
+        }
+        startWriter();
+        for ( final LogEntry entry : entries ) {
+            while ( !QUEUE.offer( entry ) ) {
+                flush();
+            }
+        }
+        if ( QUEUE.size() >= BATCH_SIZE ) {
+            synchronized ( SIGNAL ) {
+                SIGNAL.notify();
+            }
+        }
+    }
+
+    /**
+     * Writes out everything that is currently queued, and waits for it to be
+     * written. Anything reading LogEntries back calls this first, so that it
+     * sees everything logged before the read.
+     */
+    public static void flush () {
+        synchronized ( WRITE_LOCK ) {
+            final List<LogEntry> batch = new ArrayList<LogEntry>( BATCH_SIZE );
+            while ( QUEUE.drainTo( batch, BATCH_SIZE ) > 0 ) {
+                write( batch );
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Stops the writer thread and writes out anything still queued. Entries
+     * logged after this are written immediately. Called when the application
+     * is shutting down, before the connection pool is closed.
+     */
+    public static void shutdown () {
+        final Thread toStop;
+        synchronized ( AuditLogWriter.class ) {
+            running = false;
+            toStop = writer;
+            writer = null;
+        }
+        if ( null != toStop ) {
+            toStop.interrupt();
+            try {
+                toStop.join( FLUSH_MS * 10 );
+            }
+            catch ( final InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush();
+        AuditJournal.close();
+    }
+
+    /**
+     * Number of entries logged but not yet written
+     *
+     * @return The number of queued entries
+     */
+    public static int getPending () {
+        return QUEUE.size();
+    }
+
+    /**
+     * Number of entries written to the database so far
+     *
+     * @return The number of entries written
+     */
+    public static long getWritten () {
+        return written.get();
+    }
+
+    /**
+     * Number of entries that had to be written to the spill file so far
+     *
+     * @return The number of entries spilled
+     */
+    public static long getSpilled () {
+        return spilled.get();
+    }
+
+    /**
+     * Starts the writer thread if it is not already running
+     */
+    private static synchronized void startWriter () {
+        if ( null != writer || !running ) {
+            return;
+        }
+        writer = new Thread( AuditLogWriter::run, "iTrust2-audit-writer" );
+        writer.setDaemon( true );
+        writer.start();
+    }
+
+    /**
+     * Body of the writer thread: flush whenever a full batch is waiting or the
+     * flush interval passes, until shut down.
+     */
+    private static void run () {
+        while ( running ) {
+            try {
+                synchronized ( SIGNAL ) {
+                    if ( QUEUE.size() < BATCH_SIZE ) {
+                        SIGNAL.wait( FLUSH_MS );
+                    }
+                }
+            }
+            catch ( final InterruptedException e ) {
+                return; // shutdown() does the final flush
+            }
+            try {
+                flush();
+            }
+            catch ( final RuntimeException e ) {
+                // Never let one bad batch stop the writer
+                e.printStackTrace( System.out );
+            }
+        }
+    }
+
+    /**
+     * Writes one batch, to the AuditJournal if it is turned on and then to
+     * the database, replaying the spill file first if there is one. If
+     * either cannot be written to the database, for whatever reason, the
+     * batch goes to the spill file instead. Caller must hold WRITE_LOCK.
+     *
+     * @param batch
+     *            Entries to write, in order
+     */
+    private static void write ( final List<LogEntry> batch ) {
+        if ( AuditJournal.isEnabled() ) {
+            try {
+                AuditJournal.append( batch );
+            }
+            catch ( final RuntimeException e ) {
+                // The database still gets the batch
+                e.printStackTrace( System.out );
+            }
+        }
+        if ( SPILL_FILE.exists() && !replaySpill() ) {
+            spill( batch );
+            return;
+        }
+        try {
+            insert( batch );
+        }
+        catch ( final SQLException | RuntimeException e ) {
+            e.printStackTrace( System.out );
+            spill( batch );
+        }
+    }
+
+    /**
+     * Inserts entries in a single transaction, sending them to the database
+     * BATCH_SIZE at a time
+     *
+     * @param batch
+     *            Entries to insert
+     * @throws SQLException
+     *             If the database could not be reached or the insert failed;
+     *             nothing from the batch is kept in that case
+     */
+    private static void insert ( final List<LogEntry> batch ) throws SQLException {
+        // Even if nothing has started Hibernate yet
+        LogCodeMigration.recordBoundary();
+        try ( Connection conn = DBUtil.getConnection() ) {
+            // Committed as they are added, so they can be cached, and kept
+            // even if the batch then fails
+            final Map<String, Integer> users = userIds( conn, batch );
+            conn.setAutoCommit( false );
+            try ( PreparedStatement ps = conn.prepareStatement( INSERT ) ) {
+                long id = reserveIds( conn, batch.size() );
+                int pending = 0;
+                for ( final LogEntry entry : batch ) {
+                    bind( ps, entry, id++, users );
+                    ps.addBatch();
+                    if ( ++pending == BATCH_SIZE ) {
+                        ps.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if ( pending > 0 ) {
+                    ps.executeBatch();
+                }
+                conn.commit();
+            }
+            catch ( final SQLException e ) {
+                conn.rollback();
+                throw e;
+            }
+            finally {
+                conn.setAutoCommit( true );
+            }
+        }
+        written.addAndGet( batch.size() );
+    }
+
+    /**
+     * Reserves a block of IDs for a batch by moving the sequence that
+     * Hibernate hands out LogEntry IDs from past it, the same way the
+     * `pooledIds` generator does. LogEntries.id has no default of its own, so
+     * every row needs one. The reservation is committed straight away, so
+     * that the sequence is not held locked while the batch is inserted; if
+     * the insert then fails, the block is simply never used.
+     *
+     * @param conn
+     *            Connection to use, not in auto-commit mode
+     * @param count
+     *            Number of IDs
+     * @return The first ID of the block
+     * @throws SQLException
+     *             If the sequence could not be read or moved
+     */
+    private static long reserveIds ( final Connection conn, final int count ) throws SQLException {
+        final long first;
+        try ( PreparedStatement select = conn.prepareStatement( "SELECT next_val FROM hibernate_sequence FOR UPDATE" );
+                ResultSet rs = select.executeQuery() ) {
+            if ( !rs.next() ) {
+                throw new SQLException( "hibernate_sequence has no row to reserve IDs from" );
+            }
+            first = rs.getLong( 1 );
+        }
+        try ( PreparedStatement update = conn.prepareStatement( "UPDATE hibernate_sequence SET next_val = ?" ) ) {
+            update.setLong( 1, first + count );
+            update.executeUpdate();
+        }
+        conn.commit();
+        return first;
+    }
+
+    /**
+     * Sets the parameters of the insert statement for a single entry
+     *
+     * @param ps
+     *            The insert statement
+     * @param entry
+     *            The entry to insert
+     * @param id
+     *            The ID reserved for it
+     * @param users
+     *            The numbers of the users in the batch, by name
+     * @throws SQLException
+     *             If a parameter cannot be set, or the entry has no primary
+     *             user
+     */
+    private static void bind ( final PreparedStatement ps, final LogEntry entry, final long id,
+            final Map<String, Integer> users ) throws SQLException {
+        if ( null == entry.getPrimaryUser() ) {
+            throw new SQLException( "Audit entry has no primary user: " + GSON.toJson( entry ) );
+        }
+        ps.setLong( 1, id );
+        // LogEntry.logCode is stored as its code, and the users as their
+        // numbers in the NameDictionary
+        ps.setInt( 2, entry.getLogCode().getCode() );
+        ps.setInt( 3, users.get( entry.getPrimaryUser() ) );
+        if ( null == entry.getSecondaryUser() ) {
+            ps.setNull( 4, Types.INTEGER );
+        }
+        else {
+            ps.setInt( 4, users.get( entry.getSecondaryUser() ) );
+        }
+        if ( null == entry.getMessage() ) {
+            ps.setNull( 5, Types.VARCHAR );
+        }
+        else {
+            ps.setString( 5, entry.getMessage() );
+        }
+        ps.setTimestamp( 6, TIME.convertToDatabaseColumn( entry.getTime() ) );
+    }
+
+    /**
+     * Looks up the numbers the users of a batch are stored as, giving those
+     * without one a number over the batch's own connection
+     *
+     * @param conn
+     *            Connection to use, in auto-commit mode
+     * @param batch
+     *            The entries
+     * @return The number of each user, by name
+     * @throws SQLException
+     *             If a number could not be looked up or given, so that the
+     *             batch is spilled like any other failed insert
+     */
+    private static Map<String, Integer> userIds ( final Connection conn, final List<LogEntry> batch )
+            throws SQLException {
+        final Map<String, Integer> users = new HashMap<String, Integer>();
+        for ( final LogEntry entry : batch ) {
+            for ( final String name : new String[] { entry.getPrimaryUser(), entry.getSecondaryUser() } ) {
+                if ( null != name && !users.containsKey( name ) ) {
+                    try {
+                        users.put( name, NameDictionary.assign( conn, name ) );
+                    }
+                    catch ( final IllegalArgumentException e ) {
+                        throw new SQLException( "Could not give " + name + " a number", e );
+                    }
+                }
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Appends a batch to the spill file, one JSON entry per line
+     *
+     * @param batch
+     *            Entries that could not be written to the database
+     */
+    private static void spill ( final List<LogEntry> batch ) {
+        try ( PrintWriter out = new PrintWriter( new FileWriter( SPILL_FILE, true ) ) ) {
+            for ( final LogEntry entry : batch ) {
+                out.println( GSON.toJson( entry ) );
+            }
+            spilled.addAndGet( batch.size() );
+        }
+        catch ( final IOException e ) {
+            // Nowhere left to put them; at least leave a trace
+            e.printStackTrace( System.out );
+            batch.forEach( entry -> System.out.println( "Unwritten audit entry: " + GSON.toJson( entry ) ) );
+        }
+    }
+
+    /**
+     * Writes everything in the spill file to the database and then removes
+     * it. Lines that cannot be read back, and entries without a primary user,
+     * are printed and left out.
+     *
+     * @return true if the spill file was written out, false if it is still
+     *         waiting
+     */
+    private static boolean replaySpill () {
+        final List<LogEntry> entries = new ArrayList<LogEntry>();
+        try ( BufferedReader in = new BufferedReader( new FileReader( SPILL_FILE ) ) ) {
+            String line;
+            while ( null != ( line = in.readLine() ) ) {
+                if ( line.isEmpty() ) {
+                    continue;
+                }
+                final LogEntry entry;
+                try {
+                    entry = GSON.fromJson( line, LogEntry.class );
+                }
+                catch ( final JsonParseException e ) {
+                    System.out.println( "Unreadable audit entry: " + line );
+                    continue;
+                }
+                if ( null == entry.getPrimaryUser() || null == entry.getLogCode() ) {
+                    System.out.println( "Unwritten audit entry: " + line );
+                    continue;
+                }
+                entries.add( entry );
+            }
+        }
+        catch ( final IOException e ) {
+            e.printStackTrace( System.out );
+            return false;
+        }
+        try {
+            insert( entries );
+        }
+        catch ( final SQLException | RuntimeException e ) {
+            e.printStackTrace( System.out );
+            return false;
+        }
+        return SPILL_FILE.delete();
+    }
+
+}
@@ -9,7 +9,8 @@ import java.util.Properties;
 
 import javax.sql.DataSource;
 
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 
 /**
  * A bit of helper logic for interfacing with the DB manually rather than just
@@ -22,9 +23,38 @@ import org.springframework.jdbc.datasource.DriverManagerDataSource;
  */
 public class DBUtil {
 
-    static private String url      = null;
-    static private String username = null;
-    static private String password = null;
+    static private String           url      = null;
+    static private String           username = null;
+    static private String           password = null;
+
+    /**
+     * Everything in db.properties, including the optional pool and audit log
+     * settings
+     */
+    static private Properties       pool     = new Properties();
+
+    /**
+     * The single pool shared by Spring Security and Hibernate. Created lazily
+     * the first time either asks for it.
+     */
+    static private HikariDataSource dataSource;
+
+    /**
+     * The pool as it is handed out: wrapped in a MeteredDataSource, unless
+     * `jdbcMetrics` is turned off in db.properties
+     */
+    static private DataSource       handedOut;
+
+    /**
+     * The pool kept for streaming query results through a cursor; see
+     * {@link #streamingDataSource()}
+     */
+    static private HikariDataSource streamingDataSource;
+
+    /**
+     * The streaming pool as it is handed out
+     */
+    static private DataSource       streamingHandedOut;
 
     static {
         InputStream input = null;
@@ -38,6 +68,7 @@ public class DBUtil {
             url = properties.getProperty( "url" );
             username = properties.getProperty( "username" );
             password = properties.getProperty( "password" );
+            pool = properties;
 
         }
         catch ( final Exception e ) {
@@ -66,15 +97,86 @@ public class DBUtil {
      * in production and this should not be emulated, but it makes it easier to
      * share among teammates and Jenkins.
      *
+     * This is a bounded connection pool, and the same pool is returned every
+     * time so that Spring Security and Hibernate share it. Its size, how long a
+     * caller will wait for a connection, and how long a connection may be held
+     * before it is reported as a possible leak can be set in db.properties
+     * with `poolMinIdle`, `poolMaxSize`, `poolConnectionTimeoutMs` and
+     * `poolLeakDetectionMs`.
+     *
+     * Each connection keeps up to `jdbcStatementCacheSize` of its prepared
+     * statements for reuse.
+     *
+     * Unless `jdbcMetrics` is set to false in db.properties, the pool is
+     * wrapped so that the time taken by each statement and the rows read from
+     * it are counted against the UnitOfWork of the thread that ran it.
+     *
+     * @return data source
+     */
+    static synchronized public DataSource dataSource () {
+        if ( null == dataSource ) {
+            final HikariConfig config = config( "iTrust2" );
+            config.setMinimumIdle( Integer.parseInt( pool.getProperty( "poolMinIdle", "5" ) ) );
+            config.setMaximumPoolSize( Integer.parseInt( pool.getProperty( "poolMaxSize", "20" ) ) );
+            dataSource = new HikariDataSource( config );
+            handedOut = Boolean.parseBoolean( pool.getProperty( "jdbcMetrics", "true" ) )
+                    ? MeteredDataSource.wrap( dataSource ) : dataSource;
+        }
+        return handedOut;
+    }
+
+    /**
+     * A second, small pool used only by DomainObject.stream, whose
+     * connections read the rows of a query that asks for a fetch size
+     * through a server-side cursor, a batch at a time, instead of all at
+     * once. Cursors need every statement on a connection to be prepared on
+     * the server first, which costs an extra round trip, so the main pool
+     * does not use them. It holds at most `streamPoolMaxSize` connections
+     * (from db.properties) and keeps none idle.
+     *
      * @return data source
      */
-    static public DataSource dataSource () {
-        final DriverManagerDataSource driverManagerDataSource = new DriverManagerDataSource();
-        driverManagerDataSource.setDriverClassName( "com.mysql.jdbc.Driver" );
-        driverManagerDataSource.setUrl( url );
-        driverManagerDataSource.setUsername( username );
-        driverManagerDataSource.setPassword( password );
-        return driverManagerDataSource;
+    static synchronized public DataSource streamingDataSource () {
+        if ( null == streamingDataSource ) {
+            final HikariConfig config = config( "iTrust2-stream" );
+            config.setMinimumIdle( 0 );
+            config.setMaximumPoolSize( Integer.parseInt( pool.getProperty( "streamPoolMaxSize", "2" ) ) );
+            config.addDataSourceProperty( "useCursorFetch", "true" );
+            streamingDataSource = new HikariDataSource( config );
+            streamingHandedOut = Boolean.parseBoolean( pool.getProperty( "jdbcMetrics", "true" ) )
+                    ? MeteredDataSource.wrap( streamingDataSource ) : streamingDataSource;
+        }
+        return streamingHandedOut;
+    }
+
+    /**
+     * The settings both pools share
+     *
+     * @param name
+     *            Name of the pool, as reported over JMX
+     * @return settings for the pool, without its size
+     */
+    static private HikariConfig config ( final String name ) {
+        final HikariConfig config = new HikariConfig();
+        config.setPoolName( name );
+        config.setDriverClassName( "com.mysql.jdbc.Driver" );
+        config.setJdbcUrl( url );
+        config.setUsername( username );
+        config.setPassword( password );
+        config.setConnectionTimeout( Long.parseLong( pool.getProperty( "poolConnectionTimeoutMs", "5000" ) ) );
+        config.setLeakDetectionThreshold( Long.parseLong( pool.getProperty( "poolLeakDetectionMs", "30000" ) ) );
+        // Keeps each connection's prepared statements, by SQL, so that the
+        // prepare is paid once per connection rather than every time the
+        // same statement is run
+        config.addDataSourceProperty( "cachePrepStmts", "true" );
+        config.addDataSourceProperty( "prepStmtCacheSize", pool.getProperty( "jdbcStatementCacheSize", "250" ) );
+        config.addDataSourceProperty( "prepStmtCacheSqlLimit", "2048" );
+        // Sends a JDBC batch of INSERTs as multi-row statements rather than
+        // one round trip per row
+        config.addDataSourceProperty( "rewriteBatchedStatements", "true" );
+        // Exposes the active/idle/waiting gauges over JMX as well
+        config.setRegisterMbeans( true );
+        return config;
     }
 
     /**
@@ -91,6 +193,110 @@ public class DBUtil {
         return conn;
     }
 
+    /**
+     * Provides a connection from the streaming pool, whose queries read
+     * their rows through a server-side cursor when given a fetch size. MAKE
+     * SURE TO CLOSE THE CONNECTION WHEN YOU ARE DONE WITH IT.
+     *
+     * @return database connection
+     * @throws SQLException
+     *             If no connection could be had in time
+     */
+    static public Connection getStreamingConnection () throws SQLException {
+        return DBUtil.streamingDataSource().getConnection();
+    }
+
+    /**
+     * Number of pooled connections currently checked out
+     *
+     * @return active connections, or 0 if the pool has not been created
+     */
+    static public int getActiveConnections () {
+        return null == dataSource ? 0 : dataSource.getHikariPoolMXBean().getActiveConnections();
+    }
+
+    /**
+     * Number of pooled connections currently sitting idle
+     *
+     * @return idle connections, or 0 if the pool has not been created
+     */
+    static public int getIdleConnections () {
+        return null == dataSource ? 0 : dataSource.getHikariPoolMXBean().getIdleConnections();
+    }
+
+    /**
+     * Number of threads currently waiting for a pooled connection
+     *
+     * @return waiting threads, or 0 if the pool has not been created
+     */
+    static public int getThreadsAwaitingConnection () {
+        return null == dataSource ? 0 : dataSource.getHikariPoolMXBean().getThreadsAwaitingConnection();
+    }
+
+    /**
+     * Closes every connection in both pools. Call this only once the
+     * application is shutting down.
+     */
+    static synchronized public void shutdown () {
+        if ( null != dataSource ) {
+            dataSource.close();
+            dataSource = null;
+            handedOut = null;
+        }
+        if ( null != streamingDataSource ) {
+            streamingDataSource.close();
+            streamingDataSource = null;
+            streamingHandedOut = null;
+        }
+    }
+
+    /**
+     * Get an optional setting from db.properties
+     *
+     * @param key
+     *            Name of the setting
+     * @param defaultValue
+     *            Value to use if the setting is not present
+     * @return the setting
+     */
+    static public String getSetting ( final String key, final String defaultValue ) {
+        return pool.getProperty( key, defaultValue );
+    }
+
+    /**
+     * Get the BCrypt cost (log2 of the number of rounds) that new password
+     * hashes are made with, from `bcryptStrength` in db.properties. Existing
+     * hashes keep working whatever it is set to, since each hash records its
+     * own cost.
+     *
+     * @return the BCrypt strength, 10 by default
+     */
+    static public int getBCryptStrength () {
+        return Integer.parseInt( getSetting( "bcryptStrength", "10" ) );
+    }
+
+    /**
+     * Get the number of rows read from the database at a time when a query
+     * result is streamed through a cursor rather than loaded in full, from
+     * `streamFetchSize` in db.properties
+     *
+     * @return the fetch size, 500 by default
+     */
+    static public int getStreamFetchSize () {
+        return Integer.parseInt( getSetting( "streamFetchSize", "500" ) );
+    }
+
+    /**
+     * Get the time, in milliseconds, past which a request is logged as slow
+     * along with the statements it ran, from `slowRequestMs` in
+     * db.properties
+     *
+     * @return the threshold, 1000 by default
+     */
+    static public long getSlowRequestMs () {
+        return Long.parseLong( getSetting( "slowRequestMs", "1000" ) );
+    }
+
     /**
      * Get the url found in db.properties
      *
@@ -6,14 +6,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.util.Properties;
 
-import javax.mail.Authenticator;
-import javax.mail.Message;
 import javax.mail.MessagingException;
-import javax.mail.PasswordAuthentication;
-import javax.mail.Session;
-import javax.mail.Transport;
+import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeMessage;
 
 import edu.ncsu.csc.itrust2.models.enums.Role;
 import edu.ncsu.csc.itrust2.models.persistent.Patient;
@@ -21,13 +16,19 @@ import edu.ncsu.csc.itrust2.models.persistent.Personnel;
 import edu.ncsu.csc.itrust2.models.persistent.User;
 
 /**
- * Class for sending email. Used for the Password Reset emails.
+ * Class for sending email. Used for the Password Reset emails, lockout
+ * notices and appointment updates.
  *
  * @author Kai Presler-Marshall
  *
  */
 public class EmailUtil {
 
+    /**
+     * Contents of `email.properties`, read on first use
+     */
+    private static volatile Properties emailProperties;
+
     /**
      * Static function to retrieve the email from a givent user
      *
@@ -57,7 +58,63 @@ public class EmailUtil {
         return null == email || email.equals( "" ) || email.equals( " " ) ? null : email;
     }
 
-    private static Properties getEmailProperties () {
+    /**
+     * Returns the contents of `email.properties`. The file is read the first
+     * time this is called and kept from then on.
+     *
+     * @return The email settings
+     * @throws IllegalStateException
+     *             If there is no `email.properties` to read
+     */
+    static Properties getEmailProperties () {
+        final Properties properties = findEmailProperties();
+        if ( null == properties ) {
+            throw new IllegalStateException( "Cannot read email.properties" );
+        }
+        return properties;
+    }
+
+    /**
+     * Returns the contents of `email.properties`, reading the file if it has
+     * not been read yet
+     *
+     * @return The email settings, or null if there is no file to read
+     */
+    private static Properties findEmailProperties () {
+        Properties properties = emailProperties;
+        if ( null == properties ) {
+            synchronized ( EmailUtil.class ) {
+                properties = emailProperties;
+                if ( null == properties ) {
+                    properties = readEmailProperties();
+                    emailProperties = properties;
+                }
+            }
+        }
+        return properties;
+    }
+
+    /**
+     * Get a setting from `email.properties`
+     *
+     * @param key
+     *            Name of the setting
+     * @param defaultValue
+     *            Value to use if the setting (or the whole file) is not present
+     * @return the setting
+     */
+    static String getSetting ( final String key, final String defaultValue ) {
+        final Properties properties = findEmailProperties();
+        return null == properties ? defaultValue : properties.getProperty( key, defaultValue );
+    }
+
+    /**
+     * Reads `email.properties`, from the source tree if it is there and from
+     * the classpath otherwise
+     *
+     * @return The settings read, or null if the file was not found
+     */
+    private static Properties readEmailProperties () {
         InputStream input = null;
         final Properties properties = new Properties();
 
@@ -83,9 +140,17 @@ public class EmailUtil {
             catch ( final IOException e ) {
                 e.printStackTrace();
             }
+            finally {
+                try {
+                    input.close();
+                }
+                catch ( final IOException e ) {
+                    // Already read what we need
+                }
+            }
         }
         else {
-            throw new NullPointerException( "Cannot read input file" );
+            return null;
         }
         return properties;
     }
@@ -104,7 +169,8 @@ public class EmailUtil {
 
     /**
      * Send an email from the email account in the system's `email.properties`
-     * file
+     * file. The email is only queued here; NotificationQueue sends it in the
+     * background, so this returns without waiting on the mail server.
      *
      * @param addr
      *            Address to send to
@@ -113,55 +179,14 @@ public class EmailUtil {
      * @param body
      *            Body of the message to send
      * @throws MessagingException
-     *             Results from JavaX Mail functionality
+     *             If the address is not a valid email address
      */
     public static void sendEmail ( final String addr, final String subject, final String body )
             throws MessagingException {
-
-        final Properties properties = getEmailProperties();
-
-        final String to = addr;
-        final String from;
-        final String username;
-        final String password;
-        final String host;
-
-        from = properties.getProperty( "from" );
-        username = properties.getProperty( "username" );
-        password = properties.getProperty( "password" );
-        host = properties.getProperty( "host" );
-
-        /*
-         * Source for java mail code:
-         * https://www.tutorialspoint.com/javamail_api/
-         * javamail_api_gmail_smtp_server.htm
-         */
-
-        final Properties props = new Properties();
-        props.put( "mail.smtp.auth", "true" );
-        props.put( "mail.smtp.starttls.enable", "true" );
-        props.put( "mail.smtp.host", host );
-        props.put( "mail.smtp.port", "587" );
-
-        final Session session = Session.getInstance( props, new Authenticator() {
-            @Override
-            protected PasswordAuthentication getPasswordAuthentication () {
-                return new PasswordAuthentication( username, password );
-            }
-        } );
-
-        try {
-            final Message message = new MimeMessage( session );
-            message.setFrom( new InternetAddress( from ) );
-            message.setRecipients( Message.RecipientType.TO, InternetAddress.parse( to ) );
-            message.setSubject( subject );
-            message.setText( body );
-            Transport.send( message );
-        }
-        catch ( final MessagingException e ) {
-            e.printStackTrace();
-            throw e;
+        if ( InternetAddress.parse( addr ).length == 0 ) {
+            throw new AddressException( "No address to send to", addr );
         }
+        NotificationQueue.enqueue( addr, subject, body );
     }
 
 }
@@ -0,0 +1,275 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A small thread-safe in-memory cache where every entry expires a fixed time
+ * after it was stored. Used to keep answers that are asked for on every
+ * request, but change rarely, from costing a database round-trip each time.
+ * Whoever changes the underlying data is responsible for calling
+ * {@link #invalidate(Object)} so that the cache never serves a stale answer
+ * for longer than it has to.
+ *
+ * A value loaded through {@link #get(Object, Function)} is only stored if
+ * nothing was invalidated while it was being loaded, so that a load which
+ * read the source before a change cannot put the old value back after the
+ * change has dropped it. This is judged by a single generation count for the
+ * whole cache, which is simple and errs towards not caching.
+ *
+ * The cache holds at most a fixed number of entries. When it is full, expired
+ * entries are dropped first and then arbitrary ones, which is good enough for
+ * the small, hot key sets it is used for.
+ *
+ * @param <K>
+ *            Type of the keys
+ * @param <V>
+ *            Type of the values
+ */
+public class ExpiringCache <K, V> {
+
+    /**
+     * The entries themselves
+     */
+    private final Map<K, Entry<V>> entries    = new ConcurrentHashMap<K, Entry<V>>();
+
+    /**
+     * How long an entry lives, in milliseconds
+     */
+    private final long             ttl;
+
+    /**
+     * Maximum number of entries held
+     */
+    private final int              maxSize;
+
+    /**
+     * Number of lookups answered from the cache
+     */
+    private final AtomicLong       hits       = new AtomicLong();
+
+    /**
+     * Number of lookups that were not in the cache (or had expired)
+     */
+    private final AtomicLong       misses     = new AtomicLong();
+
+    /**
+     * Bumped by every invalidation, so that a load that overlapped one is not
+     * stored
+     */
+    private final AtomicLong       generation = new AtomicLong();
+
+    /**
+     * Creates a cache
+     *
+     * @param ttl
+     *            How long, in milliseconds, an entry is kept before it must be
+     *            loaded again
+     * @param maxSize
+     *            The maximum number of entries to keep
+     */
+    public ExpiringCache ( final long ttl, final int maxSize ) {
+        if ( ttl <= 0 || maxSize <= 0 ) {
+            throw new IllegalArgumentException( "TTL and size must both be positive" );
+        }
+        this.ttl = ttl;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Retrieves the value for a key, or null if it is not cached or has
+     * expired.
+     *
+     * @param key
+     *            The key to look up
+     * @return The cached value, or null
+     */
+    public V get ( final K key ) {
+        final Entry<V> entry = entries.get( key );
+        if ( null == entry || entry.isExpired( System.currentTimeMillis() ) ) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Retrieves the value for a key, loading and caching it if it is not
+     * present. A null result from the loader is returned but not cached.
+     *
+     * @param key
+     *            The key to look up
+     * @param loader
+     *            Computes the value on a miss
+     * @return The cached or freshly-loaded value
+     */
+    public V get ( final K key, final Function< ? super K, ? extends V> loader ) {
+        final V cached = get( key );
+        if ( null != cached ) {
+            return cached;
+        }
+        final long before = generation();
+        final V loaded = loader.apply( key );
+        if ( null != loaded ) {
+            putIfUnchanged( key, loaded, before );
+        }
+        return loaded;
+    }
+
+    /**
+     * The current generation of the cache. Read it before loading a value
+     * from the source, and store the value with
+     * {@link #putIfUnchanged(Object, Object, long)}.
+     *
+     * @return The generation
+     */
+    public long generation () {
+        return generation.get();
+    }
+
+    /**
+     * Stores a value for a key, unless anything has been invalidated since
+     * the given generation, in which case the value may already be stale
+     *
+     * @param key
+     *            The key
+     * @param value
+     *            The value; must not be null
+     * @param before
+     *            The {@link #generation()} read before the value was loaded
+     * @return Whether the value was stored
+     */
+    public boolean putIfUnchanged ( final K key, final V value, final long before ) {
+        if ( generation.get() != before ) {
+            return false;
+        }
+        put( key, value );
+        // An invalidation may have slipped in between the check and the put
+        if ( generation.get() != before ) {
+            entries.remove( key );
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stores a value for a key, replacing anything already there
+     *
+     * @param key
+     *            The key
+     * @param value
+     *            The value; must not be null
+     */
+    public void put ( final K key, final V value ) {
+        if ( entries.size() >= maxSize && !entries.containsKey( key ) ) {
+            makeRoom();
+        }
+        entries.put( key, new Entry<V>( value, System.currentTimeMillis() + ttl ) );
+    }
+
+    /**
+     * Removes a single key, so that the next lookup goes back to the source
+     *
+     * @param key
+     *            The key to remove
+     */
+    public void invalidate ( final K key ) {
+        if ( null != key ) {
+            generation.incrementAndGet();
+            entries.remove( key );
+        }
+    }
+
+    /**
+     * Removes everything from the cache
+     */
+    public void clear () {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * Number of entries currently held, including any that have expired but
+     * not yet been dropped
+     *
+     * @return The number of entries
+     */
+    public int size () {
+        return entries.size();
+    }
+
+    /**
+     * Number of lookups answered from the cache so far
+     *
+     * @return The hit count
+     */
+    public long getHits () {
+        return hits.get();
+    }
+
+    /**
+     * Number of lookups that had to go to the source so far
+     *
+     * @return The miss count
+     */
+    public long getMisses () {
+        return misses.get();
+    }
+
+    /**
+     * Drops expired entries, and then arbitrary ones if the cache is still
+     * full.
+     */
+    private void makeRoom () {
+        final long now = System.currentTimeMillis();
+        entries.values().removeIf( e -> e.isExpired( now ) );
+        final Iterator<K> it = entries.keySet().iterator();
+        while ( entries.size() >= maxSize && it.hasNext() ) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * A value and when it stops being valid
+     *
+     * @param <V>
+     *            Type of the value
+     */
+    private static class Entry <V> {
+        /** The cached value */
+        private final V    value;
+
+        /** Time, in epoch milliseconds, at which this entry expires */
+        private final long expiresAt;
+
+        /**
+         * Creates an entry
+         *
+         * @param value
+         *            The value
+         * @param expiresAt
+         *            When it expires
+         */
+        private Entry ( final V value, final long expiresAt ) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        /**
+         * Whether this entry has expired
+         *
+         * @param now
+         *            The current time in epoch milliseconds
+         * @return true if expired
+         */
+        private boolean isExpired ( final long now ) {
+            return now >= expiresAt;
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.mail.MessagingException;
+
+import edu.ncsu.csc.itrust2.models.persistent.OutboundEmail;
+
+/**
+ * Stand-in for SmtpMailTransport that appends each email to a local file
+ * instead of sending it. Used when `email.properties` sets `transport` to
+ * `file`, which is handy for local development and for test environments
+ * that have no mail server.
+ */
+public class FileMailTransport implements MailTransport {
+
+    /**
+     * Where the emails are written
+     */
+    private final File file;
+
+    /**
+     * Creates a transport that writes to the file given
+     *
+     * @param file
+     *            File to append emails to
+     */
+    public FileMailTransport ( final File file ) {
+        this.file = file;
+    }
+
+    @Override
+    public synchronized Map<OutboundEmail, MessagingException> send ( final List<OutboundEmail> batch )
+            throws MessagingException {
+        try ( PrintWriter out = new PrintWriter( new FileWriter( file, true ) ) ) {
+            for ( final OutboundEmail email : batch ) {
+                out.println( "Date: " + ZonedDateTime.now() );
+                out.println( "To: " + email.getAddress() );
+                out.println( "Subject: " + email.getSubject() );
+                out.println();
+                out.println( email.getBody() );
+                out.println();
+            }
+        }
+        catch ( final IOException e ) {
+            throw new MessagingException( "Could not write to " + file, e );
+        }
+        return Collections.emptyMap();
+    }
+
+}
@@ -1,9 +1,18 @@
 package edu.ncsu.csc.itrust2.utils;
 
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
+import org.hibernate.cfg.AvailableSettings;
 import org.hibernate.cfg.Configuration;
+import org.hibernate.jdbc.ReturningWork;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.hibernate.stat.Statistics;
 
 /**
  * A utility class for setting up the Hibernate SessionFactory
@@ -13,10 +22,16 @@ import org.hibernate.cfg.Configuration;
  */
 public class HibernateUtil {
 
+    /**
+     * Sessions opened on each thread, newest last; some may have been closed
+     * since
+     */
+    private static final ThreadLocal<Deque<Session>> OPENED         = ThreadLocal.withInitial( ArrayDeque::new );
+
     /**
      * SeesionFactory used
      */
-    private static SessionFactory sessionFactory = buildSessionFactory();
+    private static SessionFactory                    sessionFactory = buildSessionFactory();
 
     /**
      * Creates a SessionFactory
@@ -25,13 +40,32 @@ public class HibernateUtil {
      */
     private static SessionFactory buildSessionFactory () {
         try {
+            // Before hbm2ddl creates LogEntries, or anything logs to it
+            LogCodeMigration.recordBoundary();
+
+            // Only if asked to: rows written before usernames and IP
+            // addresses were stored as keys are copied before anything can
+            // write to their tables. The old columns are kept either way.
+            if ( Boolean.parseBoolean( DBUtil.getSetting( "nameMigrationOnStartup", "false" ) ) ) {
+                NameMigration.migrate();
+            }
+
             // Create the SessionFactory from hibernate.cfg.xml
             final Configuration c = new Configuration();
             c.configure();
 
-            c.setProperty( "hibernate.connection.url", DBUtil.getUrl() );
-            c.setProperty( "hibernate.connection.username", DBUtil.getUsername() );
-            c.setProperty( "hibernate.connection.password", DBUtil.getPassword() );
+            // Borrow connections from the same pool that Spring uses
+            c.getProperties().put( AvailableSettings.DATASOURCE, DBUtil.dataSource() );
+            c.getProperties().put( AvailableSettings.STATEMENT_INSPECTOR, new CountingStatementInspector() );
+            // Sends the inserts and updates of each flush as JDBC batches,
+            // grouped by table, rather than one statement at a time
+            c.getProperties().put( AvailableSettings.STATEMENT_BATCH_SIZE,
+                    DBUtil.getSetting( "jdbcBatchSize", "50" ) );
+            c.getProperties().put( AvailableSettings.ORDER_INSERTS, "true" );
+            c.getProperties().put( AvailableSettings.ORDER_UPDATES, "true" );
+            // Application-wide counts for the metrics endpoint
+            c.getProperties().put( AvailableSettings.GENERATE_STATISTICS,
+                    DBUtil.getSetting( "hibernateStatistics", "true" ) );
 
             return c.buildSessionFactory();
             // return new Configuration().configure().buildSessionFactory();
@@ -41,6 +75,10 @@ public class HibernateUtil {
             System.err.println( "Initial SessionFactory creation failed." + ex );
             throw new ExceptionInInitializerError( ex );
         }
+        catch ( final SQLException ex ) {
+            System.err.println( "Preparing existing tables for this version failed." + ex );
+            throw new ExceptionInInitializerError( ex );
+        }
     }
 
     /**
@@ -60,7 +98,85 @@ public class HibernateUtil {
      *             If a session cannot be opened
      */
     public static Session openSession () throws HibernateException {
-        return getSessionFactory().openSession();
+        return opened( getSessionFactory().openSession() );
+    }
+
+    /**
+     * Retrieve a Session that works over the connection given rather than one
+     * borrowed from the pool. Closing the Session does not close the
+     * connection; the caller must do that once the Session is closed.
+     *
+     * @param conn
+     *            The connection for the Session to use
+     * @return The Session retrieved from the SessionFactory
+     * @throws HibernateException
+     *             If a session cannot be opened
+     */
+    public static Session openSession ( final Connection conn ) throws HibernateException {
+        return opened( getSessionFactory().withOptions().connection( conn ).openSession() );
+    }
+
+    /**
+     * Counts a Session just opened against the UnitOfWork, and records it as
+     * the thread's Session in use
+     *
+     * @param session
+     *            The Session
+     * @return The Session
+     */
+    private static Session opened ( final Session session ) {
+        UnitOfWork.sessionOpened();
+        final Deque<Session> opened = OPENED.get();
+        opened.removeIf( s -> !s.isOpen() );
+        opened.addLast( session );
+        return session;
+    }
+
+    /**
+     * The Session most recently opened on this thread that is still open, so
+     * that a lookup Hibernate makes in the middle of one of its queries or
+     * flushes (through an AttributeConverter, say) can use its connection
+     * rather than borrow a second one from the pool
+     *
+     * @return The Session, or null if the thread has none open
+     */
+    public static Session sessionInUse () {
+        final Deque<Session> opened = OPENED.get();
+        while ( !opened.isEmpty() && !opened.peekLast().isOpen() ) {
+            opened.removeLast();
+        }
+        return opened.peekLast();
+    }
+
+    /**
+     * Runs a short piece of JDBC work over the connection of the Session the
+     * thread has open, if it has one, or else over a connection of its own
+     *
+     * @param work
+     *            The work, which must not commit, roll back or run DDL
+     * @return What the work returns
+     * @throws SQLException
+     *             If the work failed without a Session
+     */
+    static <T> T withConnection ( final ReturningWork<T> work ) throws SQLException {
+        final Session session = sessionInUse();
+        if ( null != session ) {
+            return session.doReturningWork( work );
+        }
+        try ( Connection conn = DBUtil.getConnection() ) {
+            return work.execute( conn );
+        }
+    }
+
+    /**
+     * Retrieves Hibernate's counts of the work done by every Session since
+     * the application started. They are only kept if `hibernateStatistics` is
+     * on in db.properties; see {@link Statistics#isStatisticsEnabled()}.
+     *
+     * @return The statistics
+     */
+    public static Statistics getStatistics () {
+        return getSessionFactory().getStatistics();
     }
 
     /**
@@ -72,4 +188,19 @@ public class HibernateUtil {
             sessionFactory.close();
         }
     }
+
+    /**
+     * Counts each SQL statement Hibernate prepares against the current thread
+     * so that UnitOfWork can report per-request statement counts. Does not
+     * alter the SQL.
+     */
+    private static class CountingStatementInspector implements StatementInspector {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public String inspect ( final String sql ) {
+            UnitOfWork.statementExecuted();
+            return sql;
+        }
+    }
 }
@@ -0,0 +1,88 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Writes a JSON array to a stream one element at a time, so that a long list
+ * can be sent without first building it (or its JSON) in memory. Elements are
+ * serialized exactly as they would be if the whole list were handed to Gson,
+ * so the result is the same JSON the non-streaming endpoints send.
+ */
+public class JsonArrayWriter implements Closeable {
+
+    /**
+     * Serializes each element
+     */
+    private static final Gson GSON = new Gson();
+
+    /**
+     * Where the array is written
+     */
+    private final JsonWriter  writer;
+
+    /**
+     * Number of elements written so far
+     */
+    private long              count;
+
+    /**
+     * Starts a JSON array on the stream
+     *
+     * @param out
+     *            Where to write the array; it is closed along with this
+     *            writer
+     * @throws IOException
+     *             If the stream cannot be written to
+     */
+    public JsonArrayWriter ( final OutputStream out ) throws IOException {
+        writer = new JsonWriter( new OutputStreamWriter( out, StandardCharsets.UTF_8 ) );
+        writer.beginArray();
+    }
+
+    /**
+     * Writes the next element of the array. Declared without a checked
+     * exception so that it can be used as the action for
+     * DomainObject.stream; a failure to write (such as the client going
+     * away) is thrown as an UncheckedIOException, which stops the stream.
+     *
+     * @param element
+     *            The element to write
+     */
+    public void write ( final Object element ) {
+        try {
+            GSON.toJson( element, element.getClass(), writer );
+            count++;
+        }
+        catch ( final JsonIOException e ) {
+            throw new UncheckedIOException( new IOException( e ) );
+        }
+    }
+
+    /**
+     * Number of elements written so far
+     *
+     * @return The number of elements
+     */
+    public long getCount () {
+        return count;
+    }
+
+    /**
+     * Ends the array and closes the stream
+     */
+    @Override
+    public void close () throws IOException {
+        writer.endArray();
+        writer.close();
+    }
+
+}
@@ -0,0 +1,164 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import edu.ncsu.csc.itrust2.models.enums.TransactionType;
+
+/**
+ * Re-codes the log entries written while LogEntry.logCode was stored as the
+ * ordinal of its TransactionType, so that they hold its code like the entries
+ * written since. Ordinals and codes overlap (codes 1 to 7 are ordinals too), so
+ * a row cannot tell which of the two it holds; instead, the highest ID in
+ * LogEntries is recorded in the LogCodeMigration table before this version
+ * writes its first log entry, and only the rows up to it are re-coded.
+ * {@link #recordBoundary()} does this when HibernateUtil starts, before the
+ * schema is updated, and AuditLogWriter makes sure it has been done before it
+ * inserts anything. A database created by this version records that there is
+ * nothing to re-code.
+ *
+ * Rows are re-coded `logCodeMigrationBatchRows` (from db.properties) IDs at a
+ * time, each batch in a transaction of its own together with how far the
+ * migration has got, so a run that fails part way carries on where it stopped
+ * when run again, and a run once it has finished changes nothing. It is run
+ * from the command line through {@link #main(String[])}, and the application
+ * may be running meanwhile.
+ *
+ * The order of the TransactionType constants has not changed since the
+ * entries were written by ordinal, so their ordinals still name the same
+ * events; constants must only ever be added at the end while there are
+ * databases left to re-code.
+ */
+public class LogCodeMigration {
+
+    /**
+     * Number of rows, by ID, re-coded in each transaction
+     */
+    private static final int        BATCH_ROWS = Integer
+            .parseInt( DBUtil.getSetting( "logCodeMigrationBatchRows", "50000" ) );
+
+    /**
+     * Whether this server has made sure the boundary is recorded
+     */
+    private static volatile boolean recorded;
+
+    /**
+     * Re-codes the log entries written by ordinal
+     *
+     * @param args
+     *            Not used
+     * @throws SQLException
+     *             If the database could not be reached or a step failed
+     */
+    public static void main ( final String[] args ) throws SQLException {
+        System.out.println( "Re-coded " + migrate() + " log entries" );
+        DBUtil.shutdown();
+    }
+
+    /**
+     * Re-codes the log entries written by ordinal that have not been re-coded
+     * yet
+     *
+     * @return The number of log entries re-coded by this run
+     * @throws SQLException
+     *             If the database could not be reached or a step failed. The
+     *             batches committed before the failure stay re-coded, and
+     *             running this again carries on with the rest.
+     */
+    public static synchronized long migrate () throws SQLException {
+        recordBoundary();
+        long rows = 0;
+        try ( Connection conn = DBUtil.getConnection() ) {
+            conn.setAutoCommit( false );
+            try ( PreparedStatement state = conn
+                    .prepareStatement( "SELECT boundary, done FROM LogCodeMigration WHERE id = 1 FOR UPDATE" );
+                    PreparedStatement recode = conn.prepareStatement(
+                            "UPDATE LogEntries SET logCode = " + recode() + " WHERE id > ? AND id <= ?" );
+                    PreparedStatement progress = conn
+                            .prepareStatement( "UPDATE LogCodeMigration SET done = ? WHERE id = 1" ) ) {
+                while ( true ) {
+                    // Locked until the batch is committed, so that a second
+                    // run cannot re-code the same rows again
+                    final long boundary;
+                    final long done;
+                    try ( ResultSet rs = state.executeQuery() ) {
+                        rs.next();
+                        boundary = rs.getLong( 1 );
+                        done = rs.getLong( 2 );
+                    }
+                    if ( done >= boundary ) {
+                        conn.commit();
+                        break;
+                    }
+                    final long next = Math.min( done + BATCH_ROWS, boundary );
+                    recode.setLong( 1, done );
+                    recode.setLong( 2, next );
+                    rows += recode.executeUpdate();
+                    progress.setLong( 1, next );
+                    progress.executeUpdate();
+                    conn.commit();
+                }
+            }
+            catch ( final SQLException | RuntimeException e ) {
+                conn.rollback();
+                throw e;
+            }
+            finally {
+                conn.setAutoCommit( true );
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Records where the log entries written by ordinal end, unless that has
+     * been recorded already. Must be called before this version writes any
+     * log entries.
+     *
+     * @throws SQLException
+     *             If the database could not be reached or the boundary could
+     *             not be recorded
+     */
+    public static void recordBoundary () throws SQLException {
+        if ( recorded ) {
+            return;
+        }
+        synchronized ( LogCodeMigration.class ) {
+            if ( recorded ) {
+                return;
+            }
+            try ( Connection conn = DBUtil.getConnection() ) {
+                SchemaChanges.execute( conn, "CREATE TABLE IF NOT EXISTS LogCodeMigration (id INT PRIMARY KEY, "
+                        + "boundary BIGINT NOT NULL, done BIGINT NOT NULL)" );
+                // Only the first call of all records where the old rows end
+                if ( SchemaChanges.hasColumn( conn, "LogEntries", "logCode" ) ) {
+                    SchemaChanges.execute( conn, "INSERT IGNORE INTO LogCodeMigration (id, boundary, done) "
+                            + "SELECT 1, COALESCE(MAX(id), 0), COALESCE(MIN(id), 1) - 1 FROM LogEntries" );
+                }
+                else {
+                    // No log entries yet, so none were written by ordinal
+                    SchemaChanges.execute( conn,
+                            "INSERT IGNORE INTO LogCodeMigration (id, boundary, done) VALUES (1, 0, 0)" );
+                }
+            }
+            recorded = true;
+        }
+    }
+
+    /**
+     * Builds the expression that turns the ordinal of each TransactionType
+     * into its code. An ordinal no constant has is left as it is.
+     *
+     * @return The SQL expression
+     */
+    private static String recode () {
+        final StringBuilder sql = new StringBuilder( "CASE logCode" );
+        for ( final TransactionType type : TransactionType.values() ) {
+            sql.append( " WHEN " ).append( type.ordinal() ).append( " THEN " ).append( type.getCode() );
+        }
+        return sql.append( " ELSE logCode END" ).toString();
+    }
+
+}
@@ -21,7 +21,8 @@ public class LoggerUtil {
     /**
      * Most complete logger utility. Usually won't need all of this information,
      * but if you do, it has it all. The time of the event is added
-     * automatically and is assumed to be the current time.
+     * automatically and is assumed to be the current time. The entry is
+     * written to the database in the background by AuditLogWriter.
      *
      * @param code
      *            The TransactionType of the event that occurred
@@ -31,11 +32,48 @@ public class LoggerUtil {
      *            An (optional) secondary user involved in the event.
      * @param message
      *            An (optional) message for further details.
+     * @throws IllegalArgumentException
+     *             If the code or the primary user is missing; nothing is
+     *             logged
      */
     static public void log ( final TransactionType code, final String primaryUser, final String secondaryUser,
             final String message ) {
         final LogEntry le = new LogEntry( code, primaryUser, secondaryUser, message );
-        le.save();
+        checkEntry( le );
+        AuditLogWriter.enqueue( le );
+    }
+
+    /**
+     * Logs several events at once, such as everything that changed in one
+     * save. The entries are queued for AuditLogWriter together.
+     *
+     * @param entries
+     *            The events, already built
+     * @throws IllegalArgumentException
+     *             If any entry is missing its code or primary user; none of
+     *             them are logged
+     */
+    static public void log ( final List<LogEntry> entries ) {
+        entries.forEach( LoggerUtil::checkEntry );
+        AuditLogWriter.enqueueAll( entries );
+    }
+
+    /**
+     * Checks that an entry can be written before it is queued, since once it
+     * is queued nothing can tell the caller that it was not
+     *
+     * @param entry
+     *            The entry to check
+     * @throws IllegalArgumentException
+     *             If the code or the primary user is missing
+     */
+    static private void checkEntry ( final LogEntry entry ) {
+        if ( null == entry.getLogCode() ) {
+            throw new IllegalArgumentException( "A logged event needs a TransactionType" );
+        }
+        if ( null == entry.getPrimaryUser() ) {
+            throw new IllegalArgumentException( "A logged event needs a primary user: " + entry.getLogCode() );
+        }
     }
 
     /**
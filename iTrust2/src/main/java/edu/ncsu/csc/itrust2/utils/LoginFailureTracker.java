@@ -0,0 +1,140 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps track of recent failed logins, by IP and by username, in memory. The
+ * FailureHandler asks it whether a failure should lock out (or ban) the IP or
+ * user, so a burst of failed logins costs no database writes until one of
+ * them actually results in a LoginLockout or LoginBan. Successful logins clear
+ * the failures for the IP and user.
+ *
+ * An IP may fail five times and a user twice within the window; the next
+ * failure trips the limit. Failures older than the window no longer count. The
+ * window can be set in db.properties with `loginFailureWindowSeconds`.
+ *
+ * Failures are only counted on this server, and are forgotten on restart. The
+ * lockouts and bans that result from them are kept in the database as before.
+ */
+public class LoginFailureTracker {
+
+    /**
+     * Number of failures an IP may have before it is locked out
+     */
+    public static final int                           IP_LIMIT   = 5;
+
+    /**
+     * Number of failures a user may have before they are locked out
+     */
+    public static final int                           USER_LIMIT = 2;
+
+    /**
+     * Failures by IP address
+     */
+    private static final SlidingWindowCounter<String> IP;
+
+    /**
+     * Failures by username
+     */
+    private static final SlidingWindowCounter<String> USER;
+
+    static {
+        final long windowMs = Long.parseLong( DBUtil.getSetting( "loginFailureWindowSeconds", "3600" ) ) * 1000;
+        IP = new SlidingWindowCounter<String>( IP_LIMIT, windowMs, 60, 100000 );
+        USER = new SlidingWindowCounter<String>( USER_LIMIT, windowMs, 60, 100000 );
+    }
+
+    /**
+     * Records a failed login from the IP
+     *
+     * @param addr
+     *            The IP the login came from
+     * @return true if the IP should now be locked out; its failures start over
+     *         from zero
+     */
+    public static boolean failIP ( final String addr ) {
+        return IP.record( addr );
+    }
+
+    /**
+     * Records a failed login for the user
+     *
+     * @param username
+     *            The user that failed to log in
+     * @return true if the user should now be locked out; their failures start
+     *         over from zero
+     */
+    public static boolean failUser ( final String username ) {
+        return USER.record( username );
+    }
+
+    /**
+     * Returns the number of recent failed logins from the IP
+     *
+     * @param addr
+     *            The IP to check
+     * @return The number of failures
+     */
+    public static int getIPFailures ( final String addr ) {
+        return IP.count( addr );
+    }
+
+    /**
+     * Returns the number of recent failed logins for the user
+     *
+     * @param username
+     *            The user to check
+     * @return The number of failures
+     */
+    public static int getUserFailures ( final String username ) {
+        return USER.count( username );
+    }
+
+    /**
+     * Forgets the failures from the IP
+     *
+     * @param addr
+     *            The IP to clear
+     */
+    public static void clearIP ( final String addr ) {
+        IP.clear( addr );
+    }
+
+    /**
+     * Forgets the failures for the user
+     *
+     * @param username
+     *            The user to clear
+     */
+    public static void clearUser ( final String username ) {
+        USER.clear( username );
+    }
+
+    /**
+     * Forgets every failure. Used when the database is regenerated.
+     */
+    public static void clearAll () {
+        IP.clearAll();
+        USER.clearAll();
+    }
+
+    /**
+     * Current state of the tracker, as named counters: the number of failures
+     * recorded, the number of lockouts they have led to, and the number of IPs
+     * and users currently being tracked.
+     *
+     * @return The metrics, by name
+     */
+    public static Map<String, Long> getMetrics () {
+        final Map<String, Long> metrics = new LinkedHashMap<String, Long>();
+        metrics.put( "login.failures.ip", IP.getRecorded() );
+        metrics.put( "login.failures.user", USER.getRecorded() );
+        metrics.put( "login.lockouts.ip", IP.getTripped() );
+        metrics.put( "login.lockouts.user", USER.getTripped() );
+        metrics.put( "login.tracked.ip", (long) IP.size() );
+        metrics.put( "login.tracked.user", (long) USER.size() );
+        return metrics;
+    }
+
+}
@@ -0,0 +1,32 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.mail.MessagingException;
+
+import edu.ncsu.csc.itrust2.models.persistent.OutboundEmail;
+
+/**
+ * Delivers queued emails on behalf of NotificationQueue. The queue hands over
+ * emails a batch at a time, so an implementation can deliver a whole burst
+ * over a single connection. SmtpMailTransport is used by default;
+ * FileMailTransport, or anything else, can be swapped in with
+ * {@link NotificationQueue#setTransport(MailTransport)}.
+ */
+public interface MailTransport {
+
+    /**
+     * Sends a batch of emails
+     *
+     * @param batch
+     *            The emails to send, oldest first
+     * @return The emails from the batch that could not be sent, each with the
+     *         reason why; empty if all of them were sent
+     * @throws MessagingException
+     *             If none of the batch could be sent, for instance because
+     *             the mail server could not be reached
+     */
+    Map<OutboundEmail, MessagingException> send ( List<OutboundEmail> batch ) throws MessagingException;
+
+}
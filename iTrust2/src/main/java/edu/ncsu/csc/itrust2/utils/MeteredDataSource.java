@@ -0,0 +1,254 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+
+import javax.sql.DataSource;
+
+import edu.ncsu.csc.itrust2.utils.UnitOfWork.QueryStats;
+
+/**
+ * Wraps the connection pool so that every statement run through it is timed,
+ * and every row read from its results is counted, against the UnitOfWork
+ * counters of the thread that ran it. Each connection, statement and result
+ * set handed out is a thin proxy in front of the pool's own, which it passes
+ * every call through to.
+ *
+ * The time recorded for a statement is the time its execute call took; rows
+ * are counted as the caller reads them, so reading them is not part of it.
+ */
+final class MeteredDataSource {
+
+    /**
+     * Recorded against statements whose SQL was not seen, such as a batch of
+     * plain Statements
+     */
+    private static final String UNKNOWN = "(unknown)";
+
+    /**
+     * Not instantiable
+     */
+    private MeteredDataSource () {
+    }
+
+    /**
+     * Wraps a DataSource
+     *
+     * @param dataSource
+     *            The pool to meter
+     * @return The metered DataSource
+     */
+    static DataSource wrap ( final DataSource dataSource ) {
+        return proxy( DataSource.class, new Handler( dataSource ) {
+            @Override
+            Object handle ( final Object proxy, final Method method, final Object[] args ) throws Throwable {
+                final Object result = call( method, args );
+                return result instanceof Connection ? proxy( Connection.class, new ConnectionHandler( result ) )
+                        : result;
+            }
+        } );
+    }
+
+    /**
+     * Creates a proxy
+     *
+     * @param type
+     *            The interface it implements
+     * @param handler
+     *            What it passes calls to
+     * @return The proxy
+     */
+    private static <T> T proxy ( final Class<T> type, final InvocationHandler handler ) {
+        final Object proxy = Proxy.newProxyInstance( MeteredDataSource.class.getClassLoader(),
+                new Class< ? >[] { type }, handler );
+        return type.cast( proxy );
+    }
+
+    /**
+     * Passes calls through to the object behind a proxy. Proxies are compared
+     * by identity, not by what is behind them.
+     */
+    private abstract static class Handler implements InvocationHandler {
+        /** The object behind the proxy */
+        private final Object target;
+
+        /**
+         * Creates the handler
+         *
+         * @param target
+         *            The object behind the proxy
+         */
+        Handler ( final Object target ) {
+            this.target = target;
+        }
+
+        @Override
+        public Object invoke ( final Object proxy, final Method method, final Object[] args ) throws Throwable {
+            switch ( method.getName() ) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode( proxy );
+                default:
+                    return handle( proxy, method, args );
+            }
+        }
+
+        /**
+         * Handles a call to the proxy
+         *
+         * @param proxy
+         *            The proxy
+         * @param method
+         *            The method called
+         * @param args
+         *            Its arguments
+         * @return The result
+         * @throws Throwable
+         *             Whatever the object behind the proxy threw
+         */
+        abstract Object handle ( Object proxy, Method method, Object[] args ) throws Throwable;
+
+        /**
+         * Passes a call through to the object behind the proxy
+         *
+         * @param method
+         *            The method called
+         * @param args
+         *            Its arguments
+         * @return The result
+         * @throws Throwable
+         *             Whatever the object behind the proxy threw
+         */
+        Object call ( final Method method, final Object[] args ) throws Throwable {
+            try {
+                return method.invoke( target, args );
+            }
+            catch ( final InvocationTargetException e ) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Wraps the statements a connection creates
+     */
+    private static class ConnectionHandler extends Handler {
+        /**
+         * Creates the handler
+         *
+         * @param connection
+         *            The pooled connection
+         */
+        ConnectionHandler ( final Object connection ) {
+            super( connection );
+        }
+
+        @Override
+        Object handle ( final Object proxy, final Method method, final Object[] args ) throws Throwable {
+            final Object result = call( method, args );
+            if ( !( result instanceof Statement ) ) {
+                return result;
+            }
+            // prepareStatement and prepareCall are given their SQL up front;
+            // createStatement is given it on each execute
+            final String sql = null != args && args.length > 0 && args[0] instanceof String ? (String) args[0]
+                    : null;
+            return proxy( method.getReturnType(), new StatementHandler( result, sql ) );
+        }
+    }
+
+    /**
+     * Times each execute call, and wraps the results
+     */
+    private static class StatementHandler extends Handler {
+        /** SQL the statement was prepared with, if any */
+        private final String sql;
+
+        /** Totals for what was last executed */
+        private QueryStats   last;
+
+        /**
+         * Creates the handler
+         *
+         * @param statement
+         *            The statement
+         * @param sql
+         *            SQL it was prepared with, or null
+         */
+        StatementHandler ( final Object statement, final String sql ) {
+            super( statement );
+            this.sql = sql;
+        }
+
+        @Override
+        Object handle ( final Object proxy, final Method method, final Object[] args ) throws Throwable {
+            final String name = method.getName();
+            if ( name.startsWith( "execute" ) ) {
+                String text = null != args && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql;
+                if ( null == text ) {
+                    text = UNKNOWN;
+                }
+                final long start = System.nanoTime();
+                final Object result;
+                try {
+                    result = call( method, args );
+                }
+                finally {
+                    last = UnitOfWork.queryExecuted( text, System.nanoTime() - start );
+                }
+                return result instanceof ResultSet ? wrap( (ResultSet) result ) : result;
+            }
+            final Object result = call( method, args );
+            return "getResultSet".equals( name ) && null != result ? wrap( (ResultSet) result ) : result;
+        }
+
+        /**
+         * Wraps a result of the statement
+         *
+         * @param rs
+         *            The result
+         * @return The wrapped result
+         */
+        private ResultSet wrap ( final ResultSet rs ) {
+            final QueryStats stats = null != last ? last : UnitOfWork.queryExecuted( UNKNOWN, 0 );
+            return proxy( ResultSet.class, new ResultSetHandler( rs, stats ) );
+        }
+    }
+
+    /**
+     * Counts the rows read from a result
+     */
+    private static class ResultSetHandler extends Handler {
+        /** Totals for the statement the result came from */
+        private final QueryStats stats;
+
+        /**
+         * Creates the handler
+         *
+         * @param rs
+         *            The result
+         * @param stats
+         *            Totals for the statement it came from
+         */
+        ResultSetHandler ( final Object rs, final QueryStats stats ) {
+            super( rs );
+            this.stats = stats;
+        }
+
+        @Override
+        Object handle ( final Object proxy, final Method method, final Object[] args ) throws Throwable {
+            final Object result = call( method, args );
+            if ( Boolean.TRUE.equals( result ) && "next".equals( method.getName() ) ) {
+                UnitOfWork.rowFetched( stats );
+            }
+            return result;
+        }
+    }
+
+}
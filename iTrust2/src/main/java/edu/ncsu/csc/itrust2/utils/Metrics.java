@@ -0,0 +1,301 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.hibernate.stat.Statistics;
+
+/**
+ * Per-endpoint request metrics, and the text the metrics endpoint serves.
+ *
+ * The RequestMetricsFilter records every request here against the endpoint
+ * that handled it: the request mapping pattern rather than the path, so that
+ * /patients/{username} is one endpoint no matter how many patients there are.
+ * Each endpoint keeps a latency histogram, a count of responses by status, and
+ * the number of sessions opened, SQL statements executed and rows fetched by
+ * its requests, so that an endpoint whose statements or rows per request grow
+ * with the data stands out.
+ *
+ * {@link #scrape()} renders these together with the counters the rest of the
+ * application already keeps (the connection pool, Hibernate's statistics, the
+ * caches, the audit log and the email queue) in the Prometheus text format.
+ * All of it is counted on this server only, since it started.
+ */
+public class Metrics {
+
+    /**
+     * Upper bounds of the latency histogram buckets, in seconds
+     */
+    private static final double[]                        BUCKETS   = { 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1,
+            2.5, 5, 10 };
+
+    /**
+     * Prefix of every metric name
+     */
+    private static final String                          PREFIX    = "itrust2_";
+
+    /**
+     * Recorded against requests that matched no request mapping
+     */
+    public static final String                           UNMATCHED = "unmatched";
+
+    /**
+     * Metrics for each endpoint, by method and pattern
+     */
+    private static final ConcurrentMap<String, Endpoint> ENDPOINTS = new ConcurrentHashMap<String, Endpoint>();
+
+    /**
+     * Records a request that has been handled
+     *
+     * @param endpoint
+     *            The method and request mapping pattern that handled it, such
+     *            as "GET /api/v1/patients/{username}"
+     * @param status
+     *            The status it was answered with
+     * @param nanos
+     *            How long it took
+     * @param sessions
+     *            Hibernate Sessions it opened
+     * @param statements
+     *            SQL statements it executed
+     * @param rows
+     *            Rows it fetched
+     */
+    public static void recordRequest ( final String endpoint, final int status, final long nanos,
+            final long sessions, final long statements, final long rows ) {
+        ENDPOINTS.computeIfAbsent( endpoint, e -> new Endpoint() ).record( status, nanos, sessions, statements,
+                rows );
+    }
+
+    /**
+     * Forgets every request recorded so far
+     */
+    public static void clear () {
+        ENDPOINTS.clear();
+    }
+
+    /**
+     * Renders every metric in the Prometheus text exposition format
+     *
+     * @return The metrics
+     */
+    public static String scrape () {
+        final StringBuilder out = new StringBuilder( 8192 );
+        writeRequests( out );
+
+        type( out, "db_pool_connections", "gauge", "Pooled database connections, by state" );
+        sample( out, "db_pool_connections", "state", "active", DBUtil.getActiveConnections() );
+        sample( out, "db_pool_connections", "state", "idle", DBUtil.getIdleConnections() );
+        sample( out, "db_pool_connections", "state", "waiting", DBUtil.getThreadsAwaitingConnection() );
+
+        final Statistics stats = HibernateUtil.getStatistics();
+        if ( stats.isStatisticsEnabled() ) {
+            counter( out, "hibernate_sessions_opened_total", "Hibernate Sessions opened",
+                    stats.getSessionOpenCount() );
+            counter( out, "hibernate_transactions_total", "Hibernate transactions completed",
+                    stats.getTransactionCount() );
+            counter( out, "hibernate_statements_prepared_total", "JDBC statements prepared by Hibernate",
+                    stats.getPrepareStatementCount() );
+            counter( out, "hibernate_queries_total", "HQL and Criteria queries executed",
+                    stats.getQueryExecutionCount() );
+            gauge( out, "hibernate_query_max_seconds", "Longest HQL or Criteria query",
+                    stats.getQueryExecutionMaxTime() / 1000.0 );
+            counter( out, "hibernate_entities_loaded_total", "Entities loaded", stats.getEntityLoadCount() );
+            counter( out, "hibernate_entities_fetched_total", "Entities fetched by a separate select",
+                    stats.getEntityFetchCount() );
+            counter( out, "hibernate_collections_loaded_total", "Collections loaded",
+                    stats.getCollectionLoadCount() );
+            counter( out, "hibernate_collections_fetched_total", "Collections fetched by a separate select",
+                    stats.getCollectionFetchCount() );
+            counter( out, "hibernate_flushes_total", "Session flushes", stats.getFlushCount() );
+        }
+
+        type( out, "user_details_cache_total", "counter", "Login lookups, by whether they were cached" );
+        sample( out, "user_details_cache_total", "result", "hit", UserDetailsCache.getHits() );
+        sample( out, "user_details_cache_total", "result", "miss", UserDetailsCache.getMisses() );
+        type( out, "reference_cache_total", "counter", "Reference data reads, by whether they were cached" );
+        sample( out, "reference_cache_total", "result", "hit", ReferenceDataCache.getHits() );
+        sample( out, "reference_cache_total", "result", "miss", ReferenceDataCache.getMisses() );
+
+        gauge( out, "audit_log_pending", "Log entries waiting to be written", AuditLogWriter.getPending() );
+        counter( out, "audit_log_written_total", "Log entries written", AuditLogWriter.getWritten() );
+        counter( out, "audit_log_spilled_total", "Log entries written to the spill file",
+                AuditLogWriter.getSpilled() );
+        type( out, "audit_archive_blocks_total", "counter",
+                "Archived blocks searched, by whether their user filter let them be skipped" );
+        sample( out, "audit_archive_blocks_total", "result", "read", AuditArchive.getBlocksRead() );
+        sample( out, "audit_archive_blocks_total", "result", "skipped", AuditArchive.getBlocksSkipped() );
+
+        counter( out, "emails_sent_total", "Emails sent", NotificationQueue.getSent() );
+        counter( out, "emails_failed_total", "Emails given up on", NotificationQueue.getFailed() );
+
+        for ( final Map.Entry<String, Long> e : LoginFailureTracker.getMetrics().entrySet() ) {
+            final String name = e.getKey().replace( '.', '_' );
+            type( out, name, "untyped", e.getKey() );
+            sample( out, name, null, null, e.getValue() );
+        }
+        return out.toString();
+    }
+
+    /**
+     * Renders the per-endpoint metrics, in endpoint order
+     *
+     * @param out
+     *            Where to write them
+     */
+    private static void writeRequests ( final StringBuilder out ) {
+        final Map<String, Endpoint> endpoints = new TreeMap<String, Endpoint>( ENDPOINTS );
+
+        type( out, "http_request_duration_seconds", "histogram", "Time taken to handle requests, by endpoint" );
+        for ( final Map.Entry<String, Endpoint> e : endpoints.entrySet() ) {
+            final String label = "endpoint=\"" + escape( e.getKey() ) + "\"";
+            final Endpoint endpoint = e.getValue();
+            long cumulative = 0;
+            for ( int i = 0; i <= BUCKETS.length; i++ ) {
+                cumulative += endpoint.buckets[i].sum();
+                final String le = i < BUCKETS.length ? Double.toString( BUCKETS[i] ) : "+Inf";
+                out.append( PREFIX ).append( "http_request_duration_seconds_bucket{" ).append( label )
+                        .append( ",le=\"" ).append( le ).append( "\"} " ).append( cumulative ).append( '\n' );
+            }
+            out.append( PREFIX ).append( "http_request_duration_seconds_sum{" ).append( label ).append( "} " )
+                    .append( endpoint.nanos.sum() / 1e9 ).append( '\n' );
+            out.append( PREFIX ).append( "http_request_duration_seconds_count{" ).append( label ).append( "} " )
+                    .append( cumulative ).append( '\n' );
+        }
+
+        type( out, "http_responses_total", "counter", "Responses sent, by endpoint and status" );
+        for ( final Map.Entry<String, Endpoint> e : endpoints.entrySet() ) {
+            final String label = "endpoint=\"" + escape( e.getKey() ) + "\"";
+            for ( final Map.Entry<Integer, LongAdder> status : new TreeMap<Integer, LongAdder>(
+                    e.getValue().statuses ).entrySet() ) {
+                out.append( PREFIX ).append( "http_responses_total{" ).append( label ).append( ",status=\"" )
+                        .append( status.getKey() ).append( "\"} " ).append( status.getValue().sum() ).append( '\n' );
+            }
+        }
+
+        type( out, "http_request_sessions_total", "counter", "Hibernate Sessions opened by requests, by endpoint" );
+        for ( final Map.Entry<String, Endpoint> e : endpoints.entrySet() ) {
+            sample( out, "http_request_sessions_total", "endpoint", e.getKey(), e.getValue().sessions.sum() );
+        }
+        type( out, "http_request_statements_total", "counter", "SQL statements executed by requests, by endpoint" );
+        for ( final Map.Entry<String, Endpoint> e : endpoints.entrySet() ) {
+            sample( out, "http_request_statements_total", "endpoint", e.getKey(), e.getValue().statements.sum() );
+        }
+        type( out, "http_request_statements_max", "gauge",
+                "Most SQL statements executed by a single request, by endpoint" );
+        for ( final Map.Entry<String, Endpoint> e : endpoints.entrySet() ) {
+            sample( out, "http_request_statements_max", "endpoint", e.getKey(), e.getValue().maxStatements.get() );
+        }
+        type( out, "http_request_rows_total", "counter", "Rows fetched by requests, by endpoint" );
+        for ( final Map.Entry<String, Endpoint> e : endpoints.entrySet() ) {
+            sample( out, "http_request_rows_total", "endpoint", e.getKey(), e.getValue().rows.sum() );
+        }
+    }
+
+    /**
+     * Writes the HELP and TYPE lines for a metric
+     */
+    private static void type ( final StringBuilder out, final String name, final String type, final String help ) {
+        out.append( "# HELP " ).append( PREFIX ).append( name ).append( ' ' ).append( help ).append( '\n' );
+        out.append( "# TYPE " ).append( PREFIX ).append( name ).append( ' ' ).append( type ).append( '\n' );
+    }
+
+    /**
+     * Writes one sample, with at most one label
+     */
+    private static void sample ( final StringBuilder out, final String name, final String label, final String value,
+            final Number sample ) {
+        out.append( PREFIX ).append( name );
+        if ( null != label ) {
+            out.append( '{' ).append( label ).append( "=\"" ).append( escape( value ) ).append( "\"}" );
+        }
+        out.append( ' ' ).append( sample ).append( '\n' );
+    }
+
+    /**
+     * Writes a counter with no labels
+     */
+    private static void counter ( final StringBuilder out, final String name, final String help, final long value ) {
+        type( out, name, "counter", help );
+        sample( out, name, null, null, value );
+    }
+
+    /**
+     * Writes a gauge with no labels
+     */
+    private static void gauge ( final StringBuilder out, final String name, final String help, final Number value ) {
+        type( out, name, "gauge", help );
+        sample( out, name, null, null, value );
+    }
+
+    /**
+     * Escapes a label value
+     *
+     * @param value
+     *            The value
+     * @return The value with backslashes, quotes and newlines escaped
+     */
+    private static String escape ( final String value ) {
+        return value.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ).replace( "\n", "\\n" );
+    }
+
+    /**
+     * Metrics for a single endpoint. Every counter may be updated by many
+     * request threads at once.
+     */
+    private static class Endpoint {
+        /** Requests by latency bucket; the last is for those over every bound */
+        private final LongAdder[]                       buckets       = new LongAdder[BUCKETS.length + 1];
+
+        /** Total time taken */
+        private final LongAdder                         nanos         = new LongAdder();
+
+        /** Responses by status */
+        private final ConcurrentMap<Integer, LongAdder> statuses      = new ConcurrentHashMap<Integer, LongAdder>();
+
+        /** Sessions opened */
+        private final LongAdder                         sessions      = new LongAdder();
+
+        /** Statements executed */
+        private final LongAdder                         statements    = new LongAdder();
+
+        /** Most statements executed by a single request */
+        private final LongAccumulator                   maxStatements = new LongAccumulator( Math::max, 0 );
+
+        /** Rows fetched */
+        private final LongAdder                         rows          = new LongAdder();
+
+        /**
+         * Creates the buckets
+         */
+        Endpoint () {
+            for ( int i = 0; i < buckets.length; i++ ) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        /**
+         * Records a request
+         */
+        void record ( final int status, final long nanos, final long sessions, final long statements,
+                final long rows ) {
+            final double seconds = nanos / 1e9;
+            int bucket = 0;
+            while ( bucket < BUCKETS.length && seconds > BUCKETS[bucket] ) {
+                bucket++;
+            }
+            buckets[bucket].increment();
+            this.nanos.add( nanos );
+            statuses.computeIfAbsent( status, s -> new LongAdder() ).increment();
+            this.sessions.add( sessions );
+            this.statements.add( statements );
+            maxStatements.accumulate( statements );
+            this.rows.add( rows );
+        }
+    }
+
+}
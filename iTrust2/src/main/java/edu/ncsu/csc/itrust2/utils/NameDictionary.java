@@ -0,0 +1,307 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hibernate.HibernateException;
+
+/**
+ * Gives each username a small number, kept in the InternedNames table, so
+ * that tables with a row for every event (the audit log in particular) can
+ * store the number instead of repeating the username. A name is only given
+ * its number when a row naming it is written ({@link #assign(String...)}), and
+ * keeps it for good. Looking a name up ({@link #idFor(String)}), as every
+ * query on one of those columns does, never adds it; a name without a number
+ * is looked up as {@link #NONE}, which matches no row. The table therefore
+ * only holds names that are actually stored somewhere, however many different
+ * names are searched for.
+ *
+ * Both directions are cached in memory. Names and numbers never change once
+ * paired, so nothing ever needs invalidating; the caches are only emptied if
+ * they grow past `nameCacheSize` entries (from db.properties), which keeps
+ * memory bounded if something logs a great many one-off names. A number given
+ * inside a unit of work is only cached once the unit commits, since until
+ * then it can still be rolled back.
+ *
+ * Lookups made while the thread has a Hibernate Session open, as they are
+ * when Hibernate converts a query parameter or a row in the middle of a query
+ * or flush, go over that Session's connection rather than borrowing a second
+ * one from the pool.
+ */
+public class NameDictionary {
+
+    /**
+     * The number a name without one is looked up as. No name has it, so a
+     * search for such a name finds nothing.
+     */
+    public static final int                                NONE        = -1;
+
+    /**
+     * Largest number of names kept in each cache
+     */
+    private static final int                               MAX_CACHED  = Integer
+            .parseInt( DBUtil.getSetting( "nameCacheSize", "100000" ) );
+
+    /**
+     * Longest name that can be stored, in bytes of UTF-8
+     */
+    public static final int                                MAX_LENGTH  = 255;
+
+    /**
+     * Numbers by name
+     */
+    private static final Map<String, Integer>              IDS         = new ConcurrentHashMap<String, Integer>();
+
+    /**
+     * Names by number
+     */
+    private static final Map<Integer, String>              NAMES       = new ConcurrentHashMap<Integer, String>();
+
+    /**
+     * Numbers given by the unit of work on each thread that has not committed
+     * yet, by name
+     */
+    private static final ThreadLocal<Map<String, Integer>> PENDING     = ThreadLocal.withInitial( HashMap::new );
+
+    /**
+     * Finds the number for a name
+     */
+    private static final String                            SELECT_ID   = "SELECT id FROM InternedNames "
+            + "WHERE name = ?";
+
+    /**
+     * Finds the name for a number
+     */
+    private static final String                            SELECT_NAME = "SELECT name FROM InternedNames "
+            + "WHERE id = ?";
+
+    /**
+     * Adds a name, unless it is already there. Takes an exclusive lock on a
+     * name that is there, unlike INSERT IGNORE, so two writers adding the
+     * same name cannot deadlock.
+     */
+    private static final String                            INSERT      = "INSERT INTO InternedNames (name) "
+            + "VALUES (?) ON DUPLICATE KEY UPDATE name = name";
+
+    /**
+     * Returns the number for a name, for searching on. Never gives the name a
+     * number.
+     *
+     * @param name
+     *            The name
+     * @return Its number, {@link #NONE} if it has none, or null if the name
+     *         is null
+     * @throws IllegalStateException
+     *             If the name is not cached and the database could not be
+     *             reached
+     */
+    public static Integer idFor ( final String name ) {
+        if ( null == name ) {
+            return null;
+        }
+        final Integer pending = PENDING.get().get( name );
+        if ( null != pending ) {
+            return pending;
+        }
+        final Integer cached = IDS.get( name );
+        if ( null != cached ) {
+            return cached;
+        }
+        if ( name.getBytes( StandardCharsets.UTF_8 ).length > MAX_LENGTH ) {
+            return NONE;
+        }
+        try {
+            final Integer id = HibernateUtil.withConnection( conn -> find( conn, name ) );
+            if ( null == id ) {
+                return NONE;
+            }
+            remember( id, name );
+            return id;
+        }
+        catch ( final SQLException | HibernateException e ) {
+            throw new IllegalStateException( "Could not look up the number for " + name, e );
+        }
+    }
+
+    /**
+     * Gives each name a number if it does not have one yet, ahead of writing
+     * a row that stores them. Inside a unit of work the names are added in
+     * its transaction, over its connection, and are only cached once it
+     * commits; otherwise they are added and committed straight away.
+     *
+     * @param names
+     *            The names; nulls are skipped
+     * @throws IllegalArgumentException
+     *             If a name is longer than {@link #MAX_LENGTH} bytes
+     * @throws IllegalStateException
+     *             If the database could not be reached
+     */
+    public static void assign ( final String... names ) {
+        for ( final String name : names ) {
+            if ( null == name || IDS.containsKey( name ) || PENDING.get().containsKey( name ) ) {
+                continue;
+            }
+            try {
+                if ( UnitOfWork.isActive() ) {
+                    final Integer id = UnitOfWork.currentSession().doReturningWork( conn -> assign( conn, name ) );
+                    PENDING.get().put( name, id );
+                    UnitOfWork.afterCommit( () -> remember( id, name ) );
+                    UnitOfWork.afterCompletion( () -> PENDING.get().remove( name ) );
+                }
+                else {
+                    try ( Connection conn = DBUtil.getConnection() ) {
+                        assign( conn, name );
+                    }
+                }
+            }
+            catch ( final SQLException | HibernateException e ) {
+                throw new IllegalStateException( "Could not give " + name + " a number", e );
+            }
+        }
+    }
+
+    /**
+     * Returns the number for a name, giving it one over the caller's
+     * connection if it does not have one yet. The pairing is only cached if
+     * the connection is in auto-commit mode, as otherwise it is not known
+     * whether it will be committed.
+     *
+     * @param conn
+     *            Connection to use
+     * @param name
+     *            The name
+     * @return Its number
+     * @throws IllegalArgumentException
+     *             If the name is longer than {@link #MAX_LENGTH} bytes
+     * @throws SQLException
+     *             If the name could not be looked up or added
+     */
+    public static int assign ( final Connection conn, final String name ) throws SQLException {
+        final Integer cached = IDS.get( name );
+        if ( null != cached ) {
+            return cached;
+        }
+        // The column would quietly store a shortened name instead
+        if ( name.getBytes( StandardCharsets.UTF_8 ).length > MAX_LENGTH ) {
+            throw new IllegalArgumentException( "Names may be at most " + MAX_LENGTH + " bytes long" );
+        }
+        Integer id = find( conn, name );
+        if ( null == id ) {
+            try ( PreparedStatement ps = conn.prepareStatement( INSERT ) ) {
+                ps.setString( 1, name );
+                ps.executeUpdate();
+            }
+            id = find( conn, name );
+            if ( null == id ) {
+                throw new SQLException( "Could not add " + name + " to InternedNames" );
+            }
+        }
+        if ( conn.getAutoCommit() ) {
+            remember( id, name );
+        }
+        return id;
+    }
+
+    /**
+     * Returns the name that a number stands for
+     *
+     * @param id
+     *            The number
+     * @return The name, or null if the number is null or stands for nothing
+     * @throws IllegalStateException
+     *             If the number is not cached and the database could not be
+     *             reached
+     */
+    public static String nameFor ( final Integer id ) {
+        if ( null == id ) {
+            return null;
+        }
+        final String cached = NAMES.get( id );
+        if ( null != cached ) {
+            return cached;
+        }
+        for ( final Map.Entry<String, Integer> pending : PENDING.get().entrySet() ) {
+            if ( id.equals( pending.getValue() ) ) {
+                return pending.getKey();
+            }
+        }
+        try {
+            final String name = HibernateUtil.withConnection( conn -> {
+                try ( PreparedStatement ps = conn.prepareStatement( SELECT_NAME ) ) {
+                    ps.setInt( 1, id );
+                    try ( ResultSet rs = ps.executeQuery() ) {
+                        return rs.next() ? rs.getString( 1 ) : null;
+                    }
+                }
+            } );
+            if ( null != name ) {
+                remember( id, name );
+            }
+            return name;
+        }
+        catch ( final SQLException | HibernateException e ) {
+            throw new IllegalStateException( "Could not look up the name for " + id, e );
+        }
+    }
+
+    /**
+     * Returns the number of names held in memory
+     *
+     * @return The number of names cached
+     */
+    public static int cached () {
+        return IDS.size();
+    }
+
+    /**
+     * Forgets every cached name, so that each is read from the database again
+     * the next time it is asked about
+     */
+    public static void clear () {
+        IDS.clear();
+        NAMES.clear();
+    }
+
+    /**
+     * Looks up the number for a name in the database
+     *
+     * @param conn
+     *            Connection to use
+     * @param name
+     *            The name
+     * @return Its number, or null if it has none yet
+     * @throws SQLException
+     *             If the query failed
+     */
+    private static Integer find ( final Connection conn, final String name ) throws SQLException {
+        try ( PreparedStatement ps = conn.prepareStatement( SELECT_ID ) ) {
+            ps.setString( 1, name );
+            try ( ResultSet rs = ps.executeQuery() ) {
+                return rs.next() ? rs.getInt( 1 ) : null;
+            }
+        }
+    }
+
+    /**
+     * Caches a pairing both ways
+     *
+     * @param id
+     *            The number
+     * @param name
+     *            The name
+     */
+    private static void remember ( final Integer id, final String name ) {
+        if ( IDS.size() >= MAX_CACHED ) {
+            clear();
+        }
+        IDS.put( name, id );
+        NAMES.put( id, name );
+    }
+
+}
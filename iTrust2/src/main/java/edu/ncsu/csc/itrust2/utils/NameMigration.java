@@ -0,0 +1,242 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import edu.ncsu.csc.itrust2.models.persistent.InternedName;
+
+/**
+ * Moves rows written before usernames and IP addresses were stored as keys
+ * over to the columns that hold them now. The usernames in LogEntries and
+ * FoodDiaryEntry become their numbers in the NameDictionary, and the IP
+ * addresses of login attempts, lockouts and bans become their bytes. Until
+ * they are moved the rows already there are not found by user or address,
+ * and the old columns, which do not allow nulls, stop new rows being saved.
+ *
+ * {@link #migrate()} copies each old column into the new one and lets the old
+ * column hold nulls, but keeps it and what is in it. Once the copy has been
+ * checked, {@link #dropOldColumns()} drops them; it compares every row with
+ * its copy first and refuses if any differ. Both are safe to run more than
+ * once, and are run from the command line through {@link #main(String[])},
+ * with the application stopped. HibernateUtil also runs {@link #migrate()}
+ * each time the application starts if `nameMigrationOnStartup` is set to true
+ * in db.properties, which is only sensible for a small database. Rows are
+ * updated `nameMigrationBatchRows` (from db.properties) IDs at a time, each
+ * batch in a transaction of its own, so that a large table is never locked
+ * all at once.
+ */
+public class NameMigration {
+
+    /**
+     * Number of rows, by ID, updated by each statement
+     */
+    private static final int        BATCH_ROWS      = Integer
+            .parseInt( DBUtil.getSetting( "nameMigrationBatchRows", "50000" ) );
+
+    /**
+     * Username columns: the table, the old column and the new one
+     */
+    private static final String[][] USER_COLUMNS    = { { "LogEntries", "primaryUser", "primaryUserId" },
+            { "LogEntries", "secondaryUser", "secondaryUserId" }, { "FoodDiaryEntry", "patient", "patientId" } };
+
+    /**
+     * IP address columns: the table, the old column and the new one
+     */
+    private static final String[][] ADDRESS_COLUMNS = { { "LoginAttempts", "ip", "ipAddress" },
+            { "LoginLockouts", "ip", "ipAddress" }, { "LoginBans", "ip", "ipAddress" } };
+
+    /**
+     * Copies every column that has not been dropped yet, and drops the old
+     * columns as well if given `--drop`
+     *
+     * @param args
+     *            `--drop` to drop the old columns once the copy checks out
+     * @throws SQLException
+     *             If the database could not be reached or a step failed
+     */
+    public static void main ( final String[] args ) throws SQLException {
+        System.out.println( "Copied " + migrate() + " rows" );
+        if ( args.length > 0 && "--drop".equals( args[0] ) ) {
+            dropOldColumns();
+            System.out.println( "Dropped the old columns" );
+        }
+        DBUtil.shutdown();
+    }
+
+    /**
+     * Copies every old column that is still there into its new one, and lets
+     * the old columns hold nulls so that rows can be saved without them
+     *
+     * @return The number of rows copied, counting a row once for each column
+     * @throws SQLException
+     *             If the database could not be reached or a step failed. The
+     *             columns copied before the failure stay copied, and running
+     *             this again carries on with the rest.
+     */
+    public static synchronized long migrate () throws SQLException {
+        long rows = 0;
+        try ( Connection conn = DBUtil.getConnection() ) {
+            for ( final String[] column : USER_COLUMNS ) {
+                if ( SchemaChanges.hasColumn( conn, column[0], column[1] ) ) {
+                    rows += copyUsers( conn, column[0], column[1], column[2] );
+                }
+            }
+            for ( final String[] column : ADDRESS_COLUMNS ) {
+                if ( SchemaChanges.hasColumn( conn, column[0], column[1] ) ) {
+                    rows += copyAddresses( conn, column[0], column[1], column[2] );
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Drops each old column whose rows all have a matching copy in the new
+     * one, along with any index on it
+     *
+     * @throws SQLException
+     *             If the database could not be reached, a step failed, or a
+     *             row has no copy or one that differs from it. Nothing is
+     *             dropped for that column or the ones after it.
+     */
+    public static synchronized void dropOldColumns () throws SQLException {
+        try ( Connection conn = DBUtil.getConnection() ) {
+            for ( final String[] column : USER_COLUMNS ) {
+                if ( SchemaChanges.hasColumn( conn, column[0], column[1] ) ) {
+                    drop( conn, column, "SELECT COUNT(*) FROM " + column[0] + " t LEFT JOIN InternedNames n "
+                            + "ON n.id = t." + column[2] + " WHERE t." + column[1] + " IS NOT NULL "
+                            + "AND NOT (n.name <=> t." + column[1] + ")" );
+                }
+            }
+            for ( final String[] column : ADDRESS_COLUMNS ) {
+                if ( SchemaChanges.hasColumn( conn, column[0], column[1] ) ) {
+                    drop( conn, column, "SELECT COUNT(*) FROM " + column[0] + " WHERE " + column[1]
+                            + " IS NOT NULL AND NOT (" + column[2] + " <=> " + addressBytes( column[1] ) + ")" );
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies a column of usernames into a column of their numbers
+     *
+     * @param conn
+     *            Connection to use
+     * @param table
+     *            The table
+     * @param from
+     *            Column holding the usernames
+     * @param to
+     *            Column to hold their numbers
+     * @return The number of rows copied
+     * @throws SQLException
+     *             If a step failed
+     */
+    private static long copyUsers ( final Connection conn, final String table, final String from, final String to )
+            throws SQLException {
+        // The same table and key Hibernate would create
+        SchemaChanges.execute( conn, "CREATE TABLE IF NOT EXISTS InternedNames (id INT NOT NULL AUTO_INCREMENT, "
+                + "name VARBINARY(255) NOT NULL, PRIMARY KEY (id), UNIQUE KEY " + InternedName.NAME_KEY
+                + " (name))" );
+        addColumn( conn, table, to, "INT" );
+        SchemaChanges.execute( conn, "INSERT IGNORE INTO InternedNames (name) SELECT DISTINCT " + from + " FROM "
+                + table + " WHERE " + from + " IS NOT NULL" );
+        final long rows = SchemaChanges.inBatches( conn, table, "UPDATE " + table + " t JOIN InternedNames n "
+                + "ON n.name = t." + from + " SET t." + to + " = n.id WHERE t.id >= ? AND t.id < ?", BATCH_ROWS );
+        SchemaChanges.allowNulls( conn, table, from );
+        return rows;
+    }
+
+    /**
+     * Copies a column of IP address text into a column of their bytes, in
+     * the form IpAddressAttributeConverter stores them
+     *
+     * @param conn
+     *            Connection to use
+     * @param table
+     *            The table
+     * @param from
+     *            Column holding the addresses as text
+     * @param to
+     *            Column to hold their bytes
+     * @return The number of rows copied
+     * @throws SQLException
+     *             If a step failed
+     */
+    private static long copyAddresses ( final Connection conn, final String table, final String from,
+            final String to ) throws SQLException {
+        addColumn( conn, table, to, "VARBINARY(16)" );
+        final long rows = SchemaChanges.inBatches( conn, table, "UPDATE " + table + " SET " + to + " = "
+                + addressBytes( from ) + " WHERE id >= ? AND id < ?", BATCH_ROWS );
+        SchemaChanges.allowNulls( conn, table, from );
+        return rows;
+    }
+
+    /**
+     * Builds the expression that turns a column of IP address text into the
+     * bytes IpAddressAttributeConverter.toBytes gives for it: any zone is
+     * left out, an IPv4 address is 4 bytes and an IPv6 address 16, except an
+     * IPv6-mapped IPv4 address, which INET6_ATON gives as 16 bytes but which
+     * is stored as the 4 of the IPv4 address
+     *
+     * @param column
+     *            The column holding the addresses as text
+     * @return The SQL expression
+     */
+    private static String addressBytes ( final String column ) {
+        final String bytes = "INET6_ATON(SUBSTRING_INDEX(" + column + ", '%', 1))";
+        return "CASE WHEN LENGTH(" + bytes + ") = 16 AND LEFT(" + bytes + ", 12) = UNHEX('00000000000000000000FFFF') "
+                + "THEN SUBSTRING(" + bytes + ", 13) ELSE " + bytes + " END";
+    }
+
+    /**
+     * Drops an old column, unless the check finds rows whose copy is missing
+     * or differs
+     *
+     * @param conn
+     *            Connection to use
+     * @param column
+     *            The table, the old column and the new one
+     * @param unmatched
+     *            Query counting the rows without a matching copy
+     * @throws SQLException
+     *             If the check or the drop failed, or a row did not match
+     */
+    private static void drop ( final Connection conn, final String[] column, final String unmatched )
+            throws SQLException {
+        try ( Statement s = conn.createStatement(); ResultSet rs = s.executeQuery( unmatched ) ) {
+            rs.next();
+            final long differ = rs.getLong( 1 );
+            if ( differ > 0 ) {
+                throw new SQLException( differ + " rows of " + column[0] + "." + column[1] + " differ from "
+                        + column[2] + "; run migrate() and check them before dropping" );
+            }
+        }
+        SchemaChanges.dropColumns( conn, column[0], column[1] );
+    }
+
+    /**
+     * Adds a nullable column, unless the table has it already (as it will if
+     * Hibernate has started since the application was upgraded)
+     *
+     * @param conn
+     *            Connection to use
+     * @param table
+     *            The table
+     * @param column
+     *            The column
+     * @param type
+     *            Its SQL type
+     * @throws SQLException
+     *             If the column could not be added
+     */
+    private static void addColumn ( final Connection conn, final String table, final String column,
+            final String type ) throws SQLException {
+        if ( !SchemaChanges.hasColumn( conn, table, column ) ) {
+            SchemaChanges.execute( conn, "ALTER TABLE " + table + " ADD COLUMN " + column + " " + type );
+        }
+    }
+
+}
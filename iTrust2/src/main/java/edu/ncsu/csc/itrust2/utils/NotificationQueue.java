@@ -0,0 +1,373 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.mail.MessagingException;
+
+import edu.ncsu.csc.itrust2.models.persistent.OutboundEmail;
+
+/**
+ * Sends email in the background so that a slow mail server never holds up the
+ * request that wanted to send it. Requests only save an OutboundEmail; a
+ * dispatcher thread picks up emails that are due and hands them, a batch at a
+ * time, to a small pool of workers that deliver them through the
+ * MailTransport. Since the queue lives in the database, emails that were still
+ * waiting when the server stopped are sent once it starts again.
+ *
+ * Emails are claimed in the database before they are handed out (see
+ * OutboundEmail.claim), so that several servers sharing the database never
+ * send the same email twice. An email claimed by a server that stopped before
+ * sending it is picked up again once the claim runs out.
+ *
+ * An email that cannot be sent is tried again later, waiting twice as long
+ * after each failed attempt, and is marked as failed once it has used up its
+ * attempts.
+ *
+ * The number of workers, batch size, poll interval, number of attempts,
+ * initial retry delay and length of a claim can be set in email.properties
+ * with `queueWorkers`, `queueBatchSize`, `queuePollMs`, `queueMaxAttempts`,
+ * `queueBackoffMs` and `queueClaimMs`.
+ * Setting `transport` to `file` writes emails to `mailFile` rather than
+ * sending them.
+ */
+public class NotificationQueue {
+
+    /**
+     * Number of threads delivering email
+     */
+    private static final int             WORKERS;
+
+    /**
+     * Largest number of emails delivered over one connection
+     */
+    private static final int             BATCH_SIZE;
+
+    /**
+     * Longest time, in milliseconds, between looking for due emails
+     */
+    private static final long            POLL_MS;
+
+    /**
+     * Number of times an email is tried before giving up on it
+     */
+    private static final int             MAX_ATTEMPTS;
+
+    /**
+     * Time, in milliseconds, to wait before the first retry
+     */
+    private static final long            BACKOFF_MS;
+
+    /**
+     * Longest time, in milliseconds, to wait between retries
+     */
+    private static final long            MAX_BACKOFF_MS = 60 * 60 * 1000;
+
+    /**
+     * Time, in milliseconds, that other senders leave a claimed email alone
+     */
+    private static final long            CLAIM_MS;
+
+    /**
+     * Name this server claims emails under, followed by a count of its claims
+     * so that each claim is told apart
+     */
+    private static final String          CLAIMANT       = UUID.randomUUID().toString();
+
+    /**
+     * Number of claims made
+     */
+    private static final AtomicLong      claims         = new AtomicLong();
+
+    /**
+     * Used to wake the dispatcher early when an email is queued
+     */
+    private static final Object          SIGNAL         = new Object();
+
+    /**
+     * Number of emails sent
+     */
+    private static final AtomicLong      sent           = new AtomicLong();
+
+    /**
+     * Number of emails given up on
+     */
+    private static final AtomicLong      failed         = new AtomicLong();
+
+    /**
+     * Delivers the email; built from email.properties on first use unless one
+     * has been set
+     */
+    private static volatile MailTransport transport;
+
+    /**
+     * Looks for due emails, started the first time something is queued
+     */
+    private static Thread                dispatcher;
+
+    /**
+     * Pool that delivers the batches
+     */
+    private static ExecutorService       workers;
+
+    /**
+     * Whether the dispatcher should keep running
+     */
+    private static volatile boolean      running        = true;
+
+    static {
+        WORKERS = Integer.parseInt( EmailUtil.getSetting( "queueWorkers", "2" ) );
+        BATCH_SIZE = Integer.parseInt( EmailUtil.getSetting( "queueBatchSize", "20" ) );
+        POLL_MS = Long.parseLong( EmailUtil.getSetting( "queuePollMs", "1000" ) );
+        MAX_ATTEMPTS = Integer.parseInt( EmailUtil.getSetting( "queueMaxAttempts", "8" ) );
+        BACKOFF_MS = Long.parseLong( EmailUtil.getSetting( "queueBackoffMs", "5000" ) );
+        CLAIM_MS = Long.parseLong( EmailUtil.getSetting( "queueClaimMs", "600000" ) );
+    }
+
+    /**
+     * Queues an email to be sent. Returns as soon as it has been saved.
+     *
+     * @param address
+     *            Address to send to
+     * @param subject
+     *            Subject of the email
+     * @param body
+     *            Body of the message
+     */
+    public static void enqueue ( final String address, final String subject, final String body ) {
+        new OutboundEmail( address, subject, body ).save();
+        start();
+        synchronized ( SIGNAL ) {
+            SIGNAL.notify();
+        }
+    }
+
+    /**
+     * Starts the dispatcher and workers if they are not already running.
+     * Called when the application starts, so that anything left over from
+     * before a restart is sent.
+     */
+    public static synchronized void start () {
+        if ( null != dispatcher || !running ) {
+            return;
+        }
+        final AtomicInteger count = new AtomicInteger();
+        workers = Executors.newFixedThreadPool( WORKERS, r -> {
+            final Thread t = new Thread( r, "iTrust2-mail-worker-" + count.incrementAndGet() );
+            t.setDaemon( true );
+            return t;
+        } );
+        dispatcher = new Thread( NotificationQueue::run, "iTrust2-mail-dispatcher" );
+        dispatcher.setDaemon( true );
+        dispatcher.start();
+    }
+
+    /**
+     * Sends everything that is due, on the calling thread, and waits for it to
+     * be sent or rescheduled. Emails that a worker, here or on another
+     * server, is already sending are left to it.
+     */
+    public static void flush () {
+        List<OutboundEmail> batch;
+        while ( !( batch = claim( BATCH_SIZE ) ).isEmpty() ) {
+            deliver( batch );
+        }
+    }
+
+    /**
+     * Stops the dispatcher and waits for the workers to finish what they are
+     * sending. Anything still queued stays in the database for the next time
+     * the application starts. Called when the application is shutting down,
+     * before the connection pool is closed.
+     */
+    public static void shutdown () {
+        final Thread toStop;
+        final ExecutorService pool;
+        synchronized ( NotificationQueue.class ) {
+            running = false;
+            toStop = dispatcher;
+            pool = workers;
+            dispatcher = null;
+            workers = null;
+        }
+        if ( null != toStop ) {
+            toStop.interrupt();
+            pool.shutdown();
+            try {
+                pool.awaitTermination( POLL_MS * 10, TimeUnit.MILLISECONDS );
+            }
+            catch ( final InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Replaces the transport that emails are delivered through. Used by the
+     * tests to swap in a stand-in for the mail server.
+     *
+     * @param mailTransport
+     *            The transport to use from now on
+     */
+    public static void setTransport ( final MailTransport mailTransport ) {
+        transport = mailTransport;
+    }
+
+    /**
+     * Number of emails sent so far
+     *
+     * @return The number of emails sent
+     */
+    public static long getSent () {
+        return sent.get();
+    }
+
+    /**
+     * Number of emails given up on so far
+     *
+     * @return The number of emails that failed
+     */
+    public static long getFailed () {
+        return failed.get();
+    }
+
+    /**
+     * Returns the transport, building it from email.properties if none has
+     * been set
+     *
+     * @return The transport to deliver through
+     */
+    private static MailTransport transport () {
+        if ( null == transport ) {
+            synchronized ( NotificationQueue.class ) {
+                if ( null == transport ) {
+                    transport = "file".equals( EmailUtil.getSetting( "transport", "smtp" ) )
+                            ? new FileMailTransport( new File( EmailUtil.getSetting( "mailFile", "outbound-mail.log" ) ) )
+                            : new SmtpMailTransport( EmailUtil.getEmailProperties() );
+                }
+            }
+        }
+        return transport;
+    }
+
+    /**
+     * Body of the dispatcher thread: hand out whatever is due whenever an
+     * email is queued or the poll interval passes, until shut down.
+     */
+    private static void run () {
+        while ( running ) {
+            try {
+                synchronized ( SIGNAL ) {
+                    SIGNAL.wait( POLL_MS );
+                }
+            }
+            catch ( final InterruptedException e ) {
+                return;
+            }
+            try {
+                dispatch();
+            }
+            catch ( final RuntimeException e ) {
+                // Never let one bad poll stop the dispatcher
+                e.printStackTrace( System.out );
+            }
+        }
+    }
+
+    /**
+     * Claims the due emails, up to one batch per worker, and hands them to the
+     * workers
+     */
+    private static void dispatch () {
+        final ExecutorService pool = workers;
+        if ( null == pool ) {
+            return;
+        }
+        final List<OutboundEmail> due = claim( BATCH_SIZE * WORKERS );
+        for ( int i = 0; i < due.size(); i += BATCH_SIZE ) {
+            final List<OutboundEmail> batch = due.subList( i, Math.min( i + BATCH_SIZE, due.size() ) );
+            pool.execute( () -> deliver( batch ) );
+        }
+    }
+
+    /**
+     * Claims due emails that nobody else is sending
+     *
+     * @param max
+     *            Largest number of emails to claim
+     * @return The emails claimed, oldest first
+     */
+    private static List<OutboundEmail> claim ( final int max ) {
+        return OutboundEmail.claim( CLAIMANT + "#" + claims.incrementAndGet(), max, CLAIM_MS );
+    }
+
+    /**
+     * Sends one batch, then removes the emails that were sent and reschedules
+     * the ones that were not
+     *
+     * @param batch
+     *            Claimed emails to send
+     */
+    private static void deliver ( final List<OutboundEmail> batch ) {
+        Map<OutboundEmail, MessagingException> failures;
+        Exception all = null;
+        try {
+            failures = transport().send( batch );
+        }
+        catch ( final MessagingException | RuntimeException e ) {
+            all = e;
+            failures = Collections.emptyMap();
+        }
+        for ( final OutboundEmail email : batch ) {
+            final Exception error = null != all ? all : failures.get( email );
+            try {
+                if ( null == error ) {
+                    email.delete();
+                    sent.incrementAndGet();
+                }
+                else {
+                    reschedule( email, error );
+                }
+            }
+            catch ( final RuntimeException e ) {
+                // Most likely the row is already gone; if the claim was left
+                // in place it runs out and the email is tried again
+                e.printStackTrace( System.out );
+            }
+        }
+    }
+
+    /**
+     * Records a failed attempt, and either sets the time of the next one or
+     * gives up. Either way the claim on the email is released.
+     *
+     * @param email
+     *            The email that could not be sent
+     * @param error
+     *            Why it could not be sent
+     */
+    private static void reschedule ( final OutboundEmail email, final Exception error ) {
+        email.setAttempts( email.getAttempts() + 1 );
+        email.setLastError( error.toString() );
+        if ( email.getAttempts() >= MAX_ATTEMPTS ) {
+            email.setFailed( true );
+            failed.incrementAndGet();
+        }
+        else {
+            final long delay = Math.min( BACKOFF_MS << Math.min( email.getAttempts() - 1, 30 ), MAX_BACKOFF_MS );
+            email.setNextAttempt( System.currentTimeMillis() + delay );
+        }
+        email.setClaimedBy( null );
+        email.setClaimedUntil( 0 );
+        email.save();
+    }
+
+}
@@ -0,0 +1,149 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Moves office visits written while each kind of visit kept every field in a
+ * table of its own over to the OfficeVisits table that holds the shared
+ * fields now. hbm2ddl update creates OfficeVisits but leaves the old shared
+ * columns, which do not allow nulls, in GeneralCheckups, GeneralOphthalmology
+ * and OphthalmologySurgery; until they are moved the visits already there are
+ * not found, and no new visit can be saved.
+ *
+ * {@link #migrate()} copies the shared fields of each visit into OfficeVisits
+ * under the same ID and lets the old columns hold nulls, but keeps them and
+ * what is in them. Once the copy has been checked, {@link #dropOldColumns()}
+ * drops them; it compares every visit with its copy first and refuses if any
+ * differ. Both are safe to run more than once, and are run from the command
+ * line through {@link #main(String[])}, with the application stopped. Rows
+ * are copied `officeVisitMigrationBatchRows` (from db.properties) IDs at a
+ * time, each batch in a transaction of its own.
+ *
+ * Hibernate cannot add the foreign keys from the visit tables to OfficeVisits
+ * while there are visits that have not been copied; it adds them the next
+ * time the application starts.
+ */
+public class OfficeVisitMigration {
+
+    /**
+     * Number of rows, by ID, copied by each statement
+     */
+    private static final int      BATCH_ROWS = Integer
+            .parseInt( DBUtil.getSetting( "officeVisitMigrationBatchRows", "50000" ) );
+
+    /**
+     * Tables of the kinds of visit, which used to hold the shared fields too
+     */
+    private static final String[] TABLES     = { "GeneralCheckups", "GeneralOphthalmology", "OphthalmologySurgery" };
+
+    /**
+     * Columns of the shared fields, other than the ID
+     */
+    private static final String[] COLUMNS    = { "patient_id", "hcp_id", "basichealthmetrics_id", "date", "type",
+            "hospital_id", "notes", "appointment_id" };
+
+    /**
+     * Copies every visit that has not been copied yet, and drops the old
+     * columns as well if given `--drop`
+     *
+     * @param args
+     *            `--drop` to drop the old columns once the copy checks out
+     * @throws SQLException
+     *             If the database could not be reached or a step failed
+     */
+    public static void main ( final String[] args ) throws SQLException {
+        // Lets hbm2ddl create OfficeVisits if the application has not yet
+        HibernateUtil.openSession().close();
+        System.out.println( "Copied " + migrate() + " visits" );
+        if ( args.length > 0 && "--drop".equals( args[0] ) ) {
+            dropOldColumns();
+            System.out.println( "Dropped the old columns" );
+        }
+        HibernateUtil.shutdown();
+        DBUtil.shutdown();
+    }
+
+    /**
+     * Copies the shared fields of every visit that has not been copied yet
+     * into OfficeVisits, and lets the old columns hold nulls so that visits
+     * can be saved without them
+     *
+     * @return The number of visits copied
+     * @throws SQLException
+     *             If the database could not be reached or a step failed. The
+     *             tables copied before the failure stay copied, and running
+     *             this again carries on with the rest.
+     */
+    public static synchronized long migrate () throws SQLException {
+        long rows = 0;
+        try ( Connection conn = DBUtil.getConnection() ) {
+            if ( !SchemaChanges.hasColumn( conn, "OfficeVisits", "id" ) ) {
+                throw new SQLException( "OfficeVisits does not exist yet; start Hibernate against this database" );
+            }
+            final String columns = String.join( ", ", COLUMNS );
+            for ( final String table : TABLES ) {
+                if ( SchemaChanges.hasColumn( conn, table, "patient_id" ) ) {
+                    // A visit copied by an earlier run is left as it is
+                    rows += SchemaChanges.inBatches( conn, table, "INSERT IGNORE INTO OfficeVisits (id, " + columns
+                            + ") SELECT id, " + columns + " FROM " + table + " WHERE id >= ? AND id < ?",
+                            BATCH_ROWS );
+                    SchemaChanges.allowNulls( conn, table, COLUMNS );
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Drops the old shared columns from each visit table whose visits all
+     * have a matching copy in OfficeVisits
+     *
+     * @throws SQLException
+     *             If the database could not be reached, a step failed, or a
+     *             visit has no copy or one that differs from it. Nothing is
+     *             dropped from that table or the ones after it.
+     */
+    public static synchronized void dropOldColumns () throws SQLException {
+        try ( Connection conn = DBUtil.getConnection() ) {
+            for ( final String table : TABLES ) {
+                if ( SchemaChanges.hasColumn( conn, table, "patient_id" ) ) {
+                    final long differ = unmatched( conn, table );
+                    if ( differ > 0 ) {
+                        throw new SQLException( differ + " visits in " + table
+                                + " differ from OfficeVisits; run migrate() and check them before dropping" );
+                    }
+                    SchemaChanges.dropColumns( conn, table, COLUMNS );
+                }
+            }
+        }
+    }
+
+    /**
+     * Counts the visits in a table that have no copy in OfficeVisits, or one
+     * that differs in any shared field
+     *
+     * @param conn
+     *            Connection to use
+     * @param table
+     *            The visit table, still with its old columns
+     * @return The number of visits without a matching copy
+     * @throws SQLException
+     *             If the query failed
+     */
+    private static long unmatched ( final Connection conn, final String table ) throws SQLException {
+        final StringBuilder sql = new StringBuilder( "SELECT COUNT(*) FROM " + table + " t LEFT JOIN OfficeVisits v "
+                + "ON v.id = t.id" );
+        for ( final String column : COLUMNS ) {
+            sql.append( " AND v." ).append( column ).append( " <=> t." ).append( column );
+        }
+        sql.append( " WHERE v.id IS NULL" );
+        try ( Statement s = conn.createStatement(); ResultSet rs = s.executeQuery( sql.toString() ) ) {
+            rs.next();
+            return rs.getLong( 1 );
+        }
+    }
+
+}
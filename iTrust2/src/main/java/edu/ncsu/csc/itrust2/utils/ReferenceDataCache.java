@@ -0,0 +1,203 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
+
+/**
+ * Read-through cache for reference data: the catalogs (ICD codes, LOINC
+ * codes, drugs, hospitals) that are read on nearly every form but only change
+ * when an admin edits them. The full list for a class is loaded once and kept
+ * until it expires or until anything of that class is saved or deleted, at
+ * which point DomainObject drops it.
+ *
+ * Also keeps the time each class last changed, which the list endpoints use
+ * for their ETag and Last-Modified headers so that browsers can revalidate a
+ * catalog without downloading it again.
+ *
+ * How long a list is kept, and the largest list that will be kept at all, can
+ * be set in db.properties with `referenceCacheTtlSeconds` and
+ * `referenceCacheMaxRows`.
+ */
+public class ReferenceDataCache {
+
+    /**
+     * The cached lists, by class
+     */
+    private static final ExpiringCache<Class< ? >, List< ? >> LISTS;
+
+    /**
+     * Lists longer than this are not cached
+     */
+    private static final int                                  MAX_ROWS;
+
+    /**
+     * When each class last changed, in epoch milliseconds
+     */
+    private static final Map<Class< ? >, Long>                LAST_MODIFIED   = new ConcurrentHashMap<Class< ? >, Long>();
+
+    /**
+     * How many times each class has changed since the application started;
+     * part of the ETag, since two changes may fall in the same second
+     */
+    private static final Map<Class< ? >, Long>                VERSIONS        = new ConcurrentHashMap<Class< ? >, Long>();
+
+    /**
+     * Actions to run when every record of a class is deleted at once
+     */
+    private static final Map<Class< ? >, List<Runnable>>      CLEAR_LISTENERS = new ConcurrentHashMap<Class< ? >, List<Runnable>>();
+
+    /**
+     * Nothing is known to have changed before the application started
+     */
+    private static final long                                 STARTED         = System.currentTimeMillis() / 1000 * 1000;
+
+    static {
+        LISTS = new ExpiringCache<Class< ? >, List< ? >>(
+                1000 * Long.parseLong( DBUtil.getSetting( "referenceCacheTtlSeconds", "3600" ) ), 64 );
+        MAX_ROWS = Integer.parseInt( DBUtil.getSetting( "referenceCacheMaxRows", "200000" ) );
+    }
+
+    /**
+     * Retrieves every record of a class, from the cache if possible. The list
+     * returned is the caller's own copy, but the records in it are shared and
+     * must not be modified.
+     *
+     * @param cls
+     *            The class to retrieve
+     * @param loader
+     *            Loads every record of the class from the database
+     * @param <T>
+     *            The type of record
+     * @return All of the records
+     */
+    @SuppressWarnings ( "unchecked" )
+    public static <T> List<T> getAll ( final Class<T> cls, final Supplier<List<T>> loader ) {
+        final List<T> cached = (List<T>) LISTS.get( cls );
+        if ( null != cached ) {
+            return new ArrayList<T>( cached );
+        }
+        // A list read before a change to the class must not be kept after it
+        final long before = LISTS.generation();
+        final List<T> loaded = loader.get();
+        if ( loaded.size() <= MAX_ROWS ) {
+            LISTS.putIfUnchanged( cls, Collections.unmodifiableList( new ArrayList<T>( loaded ) ), before );
+        }
+        return loaded;
+    }
+
+    /**
+     * Forgets the cached list for a class, because something of that class
+     * has been saved or deleted. If a unit of work is active, the change is
+     * only recorded (moving on the ETag and Last-Modified time) once it has
+     * committed, and the list is dropped again first, so that a list another
+     * thread read before the commit is neither kept nor served as the new
+     * one. Until then the old ETag and the old rows go together.
+     *
+     * @param cls
+     *            The class that changed
+     */
+    public static void invalidate ( final Class< ? > cls ) {
+        LISTS.invalidate( cls );
+        UnitOfWork.afterCommit( () -> changed( cls ) );
+        if ( UnitOfWork.isActive() ) {
+            // Also if it is rolled back, as a list may have been read in
+            // the meantime over its session
+            UnitOfWork.afterCompletion( () -> LISTS.invalidate( cls ) );
+        }
+    }
+
+    /**
+     * Records that a change to a class has been committed
+     *
+     * @param cls
+     *            The class that changed
+     */
+    private static void changed ( final Class< ? > cls ) {
+        // Dropped before the ETag moves on, so that a request that sees the
+        // new ETag cannot be handed a list read before the commit
+        LISTS.invalidate( cls );
+        LAST_MODIFIED.put( cls, System.currentTimeMillis() / 1000 * 1000 );
+        VERSIONS.merge( cls, 1L, Long::sum );
+    }
+
+    /**
+     * Registers an action to run whenever every record of a class is deleted
+     * at once (see DomainObject.deleteAll). Used by anything that keeps its
+     * own copy of a catalog up to date one record at a time.
+     *
+     * @param cls
+     *            The class to watch
+     * @param action
+     *            What to do when it is emptied
+     */
+    public static void addClearListener ( final Class< ? > cls, final Runnable action ) {
+        CLEAR_LISTENERS.computeIfAbsent( cls, c -> new CopyOnWriteArrayList<Runnable>() ).add( action );
+    }
+
+    /**
+     * Records that every record of a class has been deleted
+     *
+     * @param cls
+     *            The class that was emptied
+     */
+    public static void cleared ( final Class< ? > cls ) {
+        invalidate( cls );
+        CLEAR_LISTENERS.getOrDefault( cls, Collections.emptyList() ).forEach( Runnable::run );
+    }
+
+    /**
+     * Forgets everything that is cached
+     */
+    public static void clear () {
+        LISTS.clear();
+    }
+
+    /**
+     * When records of the class last changed. HTTP dates only have whole
+     * seconds, so neither does this.
+     *
+     * @param cls
+     *            The class to check
+     * @return Time of the last change, in epoch milliseconds
+     */
+    public static long getLastModified ( final Class< ? > cls ) {
+        return LAST_MODIFIED.getOrDefault( cls, STARTED );
+    }
+
+    /**
+     * An ETag for the current list of a class, which changes whenever any of
+     * its records do
+     *
+     * @param cls
+     *            The class to check
+     * @return The ETag, quoted as HTTP requires
+     */
+    public static String getETag ( final Class< ? > cls ) {
+        return "\"" + cls.getSimpleName() + "-" + Long.toHexString( getLastModified( cls ) ) + "-"
+                + VERSIONS.getOrDefault( cls, 0L ) + "\"";
+    }
+
+    /**
+     * Number of lookups answered from the cache so far
+     *
+     * @return The hit count
+     */
+    public static long getHits () {
+        return LISTS.getHits();
+    }
+
+    /**
+     * Number of lookups that had to go to the database so far
+     *
+     * @return The miss count
+     */
+    public static long getMisses () {
+        return LISTS.getMisses();
+    }
+
+}
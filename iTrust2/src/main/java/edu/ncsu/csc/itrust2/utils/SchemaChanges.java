@@ -0,0 +1,225 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Steps shared by the migrations that move existing rows over when the
+ * mapping of a table changes in a way hbm2ddl update cannot follow. Each step
+ * checks the schema first where it can, so that a migration built from them
+ * can be run again after it has finished, or after it failed part way.
+ */
+final class SchemaChanges {
+
+    /**
+     * Not instantiable
+     */
+    private SchemaChanges () {
+    }
+
+    /**
+     * Checks whether a table has a column
+     *
+     * @param conn
+     *            Connection to use
+     * @param table
+     *            The table
+     * @param column
+     *            The column
+     * @return True if the table exists and has the column
+     * @throws SQLException
+     *             If the schema could not be read
+     */
+    static boolean hasColumn ( final Connection conn, final String table, final String column )
+            throws SQLException {
+        try ( ResultSet rs = conn.getMetaData().getColumns( conn.getCatalog(), null, table, column ) ) {
+            while ( rs.next() ) {
+                // The name given is a pattern, so check it is not a longer one
+                if ( column.equalsIgnoreCase( rs.getString( "COLUMN_NAME" ) ) ) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Returns the full SQL type of a column that does not allow nulls, as it
+     * has to be repeated to allow them
+     *
+     * @param conn
+     *            Connection to use
+     * @param table
+     *            The table
+     * @param column
+     *            The column
+     * @return Its type, such as `varchar(100)`, or null if the column allows
+     *         nulls or does not exist
+     * @throws SQLException
+     *             If the schema could not be read
+     */
+    static String notNullType ( final Connection conn, final String table, final String column )
+            throws SQLException {
+        try ( PreparedStatement ps = conn.prepareStatement( "SELECT COLUMN_TYPE FROM information_schema.COLUMNS "
+                + "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND COLUMN_NAME = ? AND IS_NULLABLE = 'NO'" ) ) {
+            ps.setString( 1, table );
+            ps.setString( 2, column );
+            try ( ResultSet rs = ps.executeQuery() ) {
+                return rs.next() ? rs.getString( 1 ) : null;
+            }
+        }
+    }
+
+    /**
+     * Runs an update over a table a number of IDs at a time, each batch
+     * committed on its own so that a large table is never locked all at once
+     *
+     * @param conn
+     *            Connection to use
+     * @param table
+     *            The table, which must have a numeric `id`
+     * @param sql
+     *            The update, taking the first ID of the batch and the first
+     *            ID after it as its parameters
+     * @param batchRows
+     *            Number of IDs each batch covers
+     * @return The number of rows updated
+     * @throws SQLException
+     *             If a batch failed
+     */
+    static long inBatches ( final Connection conn, final String table, final String sql, final int batchRows )
+            throws SQLException {
+        final long first;
+        final long last;
+        try ( Statement s = conn.createStatement();
+                ResultSet rs = s.executeQuery( "SELECT MIN(id), MAX(id) FROM " + table ) ) {
+            rs.next();
+            first = rs.getLong( 1 );
+            if ( rs.wasNull() ) {
+                return 0;
+            }
+            last = rs.getLong( 2 );
+        }
+        long rows = 0;
+        try ( PreparedStatement ps = conn.prepareStatement( sql ) ) {
+            for ( long start = first; start <= last; start += batchRows ) {
+                ps.setLong( 1, start );
+                ps.setLong( 2, start + batchRows );
+                rows += ps.executeUpdate();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Drops columns along with every foreign key and index that includes any
+     * of them. Left in place, an index over several columns would lose just
+     * these and linger, duplicating another; a foreign key stops the column
+     * being dropped at all. Columns the table does not have are skipped.
+     *
+     * @param conn
+     *            Connection to use
+     * @param table
+     *            The table
+     * @param columns
+     *            The columns
+     * @throws SQLException
+     *             If the columns could not be dropped
+     */
+    static void dropColumns ( final Connection conn, final String table, final String... columns )
+            throws SQLException {
+        final Set<String> dropped = new LinkedHashSet<String>();
+        for ( final String column : columns ) {
+            if ( hasColumn( conn, table, column ) ) {
+                dropped.add( column.toLowerCase() );
+            }
+        }
+        if ( dropped.isEmpty() ) {
+            return;
+        }
+        final Set<String> keys = new LinkedHashSet<String>();
+        try ( ResultSet rs = conn.getMetaData().getImportedKeys( conn.getCatalog(), null, table ) ) {
+            while ( rs.next() ) {
+                if ( dropped.contains( rs.getString( "FKCOLUMN_NAME" ).toLowerCase() ) ) {
+                    keys.add( rs.getString( "FK_NAME" ) );
+                }
+            }
+        }
+        // MySQL will not drop a foreign key and the index behind it together
+        for ( final String key : keys ) {
+            execute( conn, "ALTER TABLE " + table + " DROP FOREIGN KEY `" + key + "`" );
+        }
+        final Set<String> indexes = new LinkedHashSet<String>();
+        try ( ResultSet rs = conn.getMetaData().getIndexInfo( conn.getCatalog(), null, table, false, false ) ) {
+            while ( rs.next() ) {
+                final String column = rs.getString( "COLUMN_NAME" );
+                if ( null != column && dropped.contains( column.toLowerCase() )
+                        && !"PRIMARY".equals( rs.getString( "INDEX_NAME" ) ) ) {
+                    indexes.add( rs.getString( "INDEX_NAME" ) );
+                }
+            }
+        }
+        final StringBuilder sql = new StringBuilder( "ALTER TABLE " + table );
+        for ( final String index : indexes ) {
+            sql.append( " DROP INDEX `" ).append( index ).append( "`," );
+        }
+        for ( final String column : dropped ) {
+            sql.append( " DROP COLUMN " ).append( column ).append( ',' );
+        }
+        sql.setLength( sql.length() - 1 );
+        execute( conn, sql.toString() );
+    }
+
+    /**
+     * Lets columns hold nulls, so that rows written without them can still be
+     * added. Columns that already allow nulls, or that the table does not
+     * have, are skipped.
+     *
+     * @param conn
+     *            Connection to use
+     * @param table
+     *            The table
+     * @param columns
+     *            The columns
+     * @throws SQLException
+     *             If a column could not be changed
+     */
+    static void allowNulls ( final Connection conn, final String table, final String... columns )
+            throws SQLException {
+        final StringBuilder sql = new StringBuilder( "ALTER TABLE " + table );
+        boolean any = false;
+        for ( final String column : columns ) {
+            final String type = notNullType( conn, table, column );
+            if ( null != type ) {
+                sql.append( any ? ", " : " " ).append( "MODIFY COLUMN " ).append( column ).append( ' ' )
+                        .append( type ).append( " NULL" );
+                any = true;
+            }
+        }
+        if ( any ) {
+            execute( conn, sql.toString() );
+        }
+    }
+
+    /**
+     * Runs a single statement
+     *
+     * @param conn
+     *            Connection to use
+     * @param sql
+     *            The statement
+     * @throws SQLException
+     *             If it failed
+     */
+    static void execute ( final Connection conn, final String sql ) throws SQLException {
+        try ( Statement s = conn.createStatement() ) {
+            s.execute( sql );
+        }
+    }
+
+}
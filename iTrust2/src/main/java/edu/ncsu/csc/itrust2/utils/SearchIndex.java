@@ -0,0 +1,572 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * In-memory typeahead index over a catalog of coded records, such as ICD-10
+ * or LOINC codes. A query matches a record if it is a prefix of the record's
+ * code, or if every word in the query is a prefix of some word in the
+ * record's description. Code matches come first, and each group is ordered
+ * by code.
+ *
+ * The index is built from the database the first time it is searched (or
+ * when {@link #build()} is called at startup) and is then kept up to date one
+ * record at a time with {@link #put(Object)} and {@link #remove(Long)}, so
+ * that editing a single code does not mean re-reading the whole catalog.
+ * Changes made while the index is being loaded are kept and applied on top
+ * of what was loaded, since the load may have read the catalog before them.
+ *
+ * @param <T>
+ *            Type of record indexed
+ */
+public class SearchIndex <T> {
+
+    /**
+     * Sorts after every character that can appear in a key, so that
+     * `subMap( prefix, prefix + END )` is everything starting with prefix
+     */
+    private static final char                END        = '\uffff';
+
+    /**
+     * Separates the code from the ID in the code index, so that records that
+     * share a code are kept apart
+     */
+    private static final char                SEP        = '\u0000';
+
+    /**
+     * Finds the ID of a record
+     */
+    private final Function<T, Long>          idOf;
+
+    /**
+     * Finds the code of a record
+     */
+    private final Function<T, String>        codeOf;
+
+    /**
+     * Finds the descriptive text of a record
+     */
+    private final Function<T, String>        textOf;
+
+    /**
+     * Loads every record, to build the index
+     */
+    private final Supplier<List<T>>          loader;
+
+    /**
+     * Guards everything below
+     */
+    private final ReadWriteLock              lock       = new ReentrantReadWriteLock();
+
+    /**
+     * Indexed records by ID
+     */
+    private final Map<Long, Entry<T>>        byId       = new HashMap<Long, Entry<T>>();
+
+    /**
+     * IDs by sort key (the normalised code, followed by SEP and the ID)
+     */
+    private final NavigableMap<String, Long> byCode     = new TreeMap<String, Long>();
+
+    /**
+     * IDs of the records whose description contains each word
+     */
+    private final TreeMap<String, Set<Long>> byWord     = new TreeMap<String, Set<Long>>();
+
+    /**
+     * Whether the index has been loaded
+     */
+    private boolean                          built      = false;
+
+    /**
+     * Counts every put, remove and clear, so that a build can tell which of
+     * them came after it started loading
+     */
+    private long                             generation = 0;
+
+    /**
+     * Generation of the most recent clear
+     */
+    private long                             cleared    = 0;
+
+    /**
+     * Number of builds loading the catalog right now
+     */
+    private int                              loading    = 0;
+
+    /**
+     * Puts and removes made while a build was loading, oldest first, so that
+     * it can apply them to what it loaded
+     */
+    private final List<Change<T>>            changes    = new ArrayList<Change<T>>();
+
+    /**
+     * Creates an index. Nothing is loaded until it is first used.
+     *
+     * @param idOf
+     *            Finds the ID of a record
+     * @param codeOf
+     *            Finds the code of a record
+     * @param textOf
+     *            Finds the descriptive text of a record
+     * @param loader
+     *            Loads every record, to build the index
+     */
+    public SearchIndex ( final Function<T, Long> idOf, final Function<T, String> codeOf,
+            final Function<T, String> textOf, final Supplier<List<T>> loader ) {
+        this.idOf = idOf;
+        this.codeOf = codeOf;
+        this.textOf = textOf;
+        this.loader = loader;
+    }
+
+    /**
+     * Finds the records matching a query
+     *
+     * @param query
+     *            Code prefix, or words to look for in the description
+     * @param limit
+     *            Largest number of records to return
+     * @return The matching records, best matches first
+     */
+    public List<T> search ( final String query, final int limit ) {
+        final String q = normalise( query );
+        final List<T> results = new ArrayList<T>();
+        if ( q.isEmpty() || limit <= 0 ) {
+            return results;
+        }
+        ensureBuilt();
+
+        lock.readLock().lock();
+        try {
+            final Set<Long> found = new LinkedHashSet<Long>();
+            for ( final Long id : byCode.subMap( q, q + END ).values() ) {
+                if ( found.size() >= limit ) {
+                    break;
+                }
+                found.add( id );
+            }
+            if ( found.size() < limit ) {
+                found.addAll( wordMatches( q, limit - found.size(), found ) );
+            }
+            for ( final Long id : found ) {
+                results.add( byId.get( id ).record );
+            }
+            return results;
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a record, or replaces the indexed copy of one that has changed
+     *
+     * @param record
+     *            The record to index
+     */
+    public void put ( final T record ) {
+        lock.writeLock().lock();
+        try {
+            final Long id = idOf.apply( record );
+            changed( id, record );
+            if ( !built ) {
+                return; // it will be picked up when the index is built
+            }
+            unindex( id );
+            index( record );
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a record from the index
+     *
+     * @param id
+     *            ID of the record to remove
+     */
+    public void remove ( final Long id ) {
+        lock.writeLock().lock();
+        try {
+            changed( id, null );
+            unindex( id );
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Throws away everything indexed, so that the index is loaded again the
+     * next time it is searched. Used when the whole catalog is replaced.
+     */
+    public void clear () {
+        lock.writeLock().lock();
+        try {
+            byId.clear();
+            byCode.clear();
+            byWord.clear();
+            built = false;
+            cleared = ++generation;
+            // Only a build that started before now could use them, and it
+            // will not finish
+            changes.clear();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Loads every record into the index, replacing anything already there.
+     * The catalog is read without holding the lock, so records put or removed
+     * while it is read are indexed again afterwards, in the order they came
+     * in. If the index is cleared while the catalog is read, what was read
+     * is thrown away and the next search loads it again.
+     */
+    public void build () {
+        final long start;
+        lock.writeLock().lock();
+        try {
+            start = generation;
+            loading++;
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            final List<T> records = loader.get();
+            lock.writeLock().lock();
+            try {
+                if ( cleared > start ) {
+                    return; // may be the catalog from before it was replaced
+                }
+                byId.clear();
+                byCode.clear();
+                byWord.clear();
+                records.forEach( this::index );
+                for ( final Change<T> change : changes ) {
+                    if ( change.generation > start ) {
+                        unindex( change.id );
+                        if ( null != change.record ) {
+                            index( change.record );
+                        }
+                    }
+                }
+                built = true;
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+        }
+        finally {
+            lock.writeLock().lock();
+            try {
+                if ( --loading == 0 ) {
+                    changes.clear();
+                }
+            }
+            finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Number of records in the index
+     *
+     * @return The number of records
+     */
+    public int size () {
+        lock.readLock().lock();
+        try {
+            return byId.size();
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Builds the index if it hasn't been yet
+     */
+    private void ensureBuilt () {
+        lock.readLock().lock();
+        try {
+            if ( built ) {
+                return;
+            }
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+        build();
+    }
+
+    /**
+     * Finds the records with a word starting with each word of the query, in
+     * code order. Rather than intersecting every word's matches, this walks
+     * the matches of whichever query word has the fewest, checks each against
+     * the rest of the query, and keeps only the first few in code order.
+     * Caller must hold the lock.
+     *
+     * @param q
+     *            The normalised query
+     * @param limit
+     *            Largest number of records to return
+     * @param skip
+     *            Records that have already been found
+     * @return IDs of the matching records, in code order
+     */
+    private List<Long> wordMatches ( final String q, final int limit, final Set<Long> skip ) {
+        final String[] query = words( q ).toArray( new String[0] );
+        if ( query.length == 0 ) {
+            return Collections.emptyList();
+        }
+
+        // Find the query word with the fewest candidate records
+        Collection<Set<Long>> rarest = null;
+        int fewest = Integer.MAX_VALUE;
+        for ( final String word : query ) {
+            final Collection<Set<Long>> candidates = byWord.subMap( word, word + END ).values();
+            int count = 0;
+            for ( final Set<Long> ids : candidates ) {
+                count += ids.size();
+            }
+            if ( count < fewest ) {
+                fewest = count;
+                rarest = candidates;
+            }
+        }
+
+        // Keep the `limit` matches that sort first, largest on top. A record
+        // can be reached through several words, so remember what was kept.
+        final PriorityQueue<Entry<T>> best = new PriorityQueue<Entry<T>>( limit + 1,
+                Comparator.comparing( ( final Entry<T> e ) -> e.sortKey ).reversed() );
+        final Set<Long> kept = new HashSet<Long>();
+        for ( final Set<Long> ids : rarest ) {
+            for ( final Long id : ids ) {
+                final Entry<T> entry = byId.get( id );
+                if ( best.size() >= limit && entry.sortKey.compareTo( best.peek().sortKey ) >= 0 ) {
+                    continue; // could not make the cut
+                }
+                if ( skip.contains( id ) || kept.contains( id ) || !entry.matchesAll( query ) ) {
+                    continue;
+                }
+                kept.add( id );
+                best.add( entry );
+                if ( best.size() > limit ) {
+                    kept.remove( best.poll().id );
+                }
+            }
+        }
+
+        final List<Entry<T>> sorted = new ArrayList<Entry<T>>( best );
+        sorted.sort( Comparator.comparing( ( final Entry<T> e ) -> e.sortKey ) );
+        final List<Long> matches = new ArrayList<Long>( sorted.size() );
+        sorted.forEach( e -> matches.add( e.id ) );
+        return matches;
+    }
+
+    /**
+     * Counts a put or remove, and keeps it for any build that is loading.
+     * Caller must hold the write lock.
+     *
+     * @param id
+     *            ID of the record
+     * @param record
+     *            The record put, or null if it was removed
+     */
+    private void changed ( final Long id, final T record ) {
+        generation++;
+        if ( loading > 0 ) {
+            changes.add( new Change<T>( generation, id, record ) );
+        }
+    }
+
+    /**
+     * Adds a record to every map. Caller must hold the write lock.
+     *
+     * @param record
+     *            The record to add
+     */
+    private void index ( final T record ) {
+        final Long id = idOf.apply( record );
+        final Entry<T> entry = new Entry<T>( id, record, normalise( codeOf.apply( record ) ) + SEP + id,
+                words( normalise( textOf.apply( record ) ) ).toArray( new String[0] ) );
+        byId.put( id, entry );
+        byCode.put( entry.sortKey, id );
+        for ( final String word : entry.words ) {
+            byWord.computeIfAbsent( word, w -> new HashSet<Long>() ).add( id );
+        }
+    }
+
+    /**
+     * Removes a record from every map, if it is there. Caller must hold the
+     * write lock.
+     *
+     * @param id
+     *            ID of the record to remove
+     */
+    private void unindex ( final Long id ) {
+        final Entry<T> old = byId.remove( id );
+        if ( null == old ) {
+            return;
+        }
+        byCode.remove( old.sortKey );
+        for ( final String word : old.words ) {
+            final Set<Long> ids = byWord.get( word );
+            if ( null != ids ) {
+                ids.remove( id );
+                if ( ids.isEmpty() ) {
+                    byWord.remove( word );
+                }
+            }
+        }
+    }
+
+    /**
+     * Lower-cases and trims a string, treating null as empty
+     *
+     * @param s
+     *            The string
+     * @return The normalised string
+     */
+    private static String normalise ( final String s ) {
+        return null == s ? "" : s.trim().toLowerCase( Locale.ROOT );
+    }
+
+    /**
+     * Splits normalised text into its distinct words
+     *
+     * @param s
+     *            Normalised text
+     * @return The words
+     */
+    private static Set<String> words ( final String s ) {
+        final Set<String> words = new LinkedHashSet<String>();
+        for ( final String word : s.split( "[^\\p{Alnum}]+" ) ) {
+            if ( !word.isEmpty() ) {
+                words.add( word );
+            }
+        }
+        return words;
+    }
+
+    /**
+     * A record along with what it was indexed under, so that it can be
+     * removed again after it has changed
+     *
+     * @param <T>
+     *            Type of record
+     */
+    private static class Entry <T> {
+        /** ID of the record */
+        private final Long     id;
+
+        /** The record itself */
+        private final T        record;
+
+        /** The normalised code, followed by SEP and the ID */
+        private final String   sortKey;
+
+        /** The distinct normalised words of the description */
+        private final String[] words;
+
+        /**
+         * Creates an entry
+         *
+         * @param id
+         *            ID of the record
+         * @param record
+         *            The record
+         * @param sortKey
+         *            Key to sort it by
+         * @param words
+         *            Words of its description
+         */
+        private Entry ( final Long id, final T record, final String sortKey, final String[] words ) {
+            this.id = id;
+            this.record = record;
+            this.sortKey = sortKey;
+            this.words = words;
+        }
+
+        /**
+         * Whether every query word is the start of some word of this record
+         *
+         * @param query
+         *            Words of the query
+         * @return true if all of them match
+         */
+        private boolean matchesAll ( final String[] query ) {
+            for ( final String q : query ) {
+                boolean matched = false;
+                for ( final String word : words ) {
+                    if ( word.startsWith( q ) ) {
+                        matched = true;
+                        break;
+                    }
+                }
+                if ( !matched ) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A put or remove made while the catalog was being loaded
+     *
+     * @param <T>
+     *            Type of record
+     */
+    private static class Change <T> {
+        /** Generation the change was made in */
+        private final long generation;
+
+        /** ID of the record */
+        private final Long id;
+
+        /** The record put, or null if it was removed */
+        private final T    record;
+
+        /**
+         * Creates a change
+         *
+         * @param generation
+         *            Generation the change was made in
+         * @param id
+         *            ID of the record
+         * @param record
+         *            The record put, or null if it was removed
+         */
+        private Change ( final long generation, final Long id, final T record ) {
+            this.generation = generation;
+            this.id = id;
+            this.record = record;
+        }
+    }
+
+}
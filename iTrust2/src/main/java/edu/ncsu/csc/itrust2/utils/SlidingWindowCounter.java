@@ -0,0 +1,357 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A thread-safe in-memory counter of recent events per key, used to decide
+ * when a key has gone over a limit. Events are counted over a sliding window
+ * split into a fixed number of buckets, so an event stops counting somewhere
+ * between (window - one bucket) and window after it happened.
+ *
+ * Each key's counts are an immutable snapshot that is swapped in with a
+ * compare-and-set on a ConcurrentHashMap, so recording an event never takes a
+ * lock of its own and contention is spread over the map's bins. Deciding that
+ * the limit has been reached and starting the key over happen in the same
+ * swap, so when many threads record events for one key at once, every
+ * (limit + 1)th event trips the limit exactly once.
+ *
+ * Keys are also queued in the order they were first seen. Whenever a new key
+ * is added, the oldest keys are looked at from the front of the queue: those
+ * with nothing left in the window are dropped, and so are the oldest live ones
+ * while the counter holds more than a fixed number of keys. Each key is looked
+ * at once rather than the whole map being scanned, so adding a key costs the
+ * same however many are held, and the limit on keys holds even when every key
+ * is still live. Only one thread trims at a time; others that find it busy
+ * leave the trimming to it.
+ *
+ * @param <K>
+ *            Type of the keys
+ */
+public class SlidingWindowCounter <K> {
+
+    /**
+     * Counts for each key that has had events recently
+     */
+    private final Map<K, Window>   windows  = new ConcurrentHashMap<K, Window>();
+
+    /**
+     * Keys in the order they were added, oldest first. May also hold keys
+     * that have since been dropped, which are skipped when they are reached.
+     */
+    private final Queue<Queued<K>> order    = new ConcurrentLinkedQueue<Queued<K>>();
+
+    /**
+     * Number of entries in the queue, which is slow to count
+     */
+    private final AtomicInteger    queued   = new AtomicInteger();
+
+    /**
+     * Held by the thread trimming the queue
+     */
+    private final ReentrantLock    trimming = new ReentrantLock();
+
+    /**
+     * Source of the serial number that tells apart the windows a key has had
+     */
+    private final AtomicLong       serials  = new AtomicLong();
+
+    /**
+     * Number of events a key may have in the window before the limit is
+     * tripped
+     */
+    private final int              limit;
+
+    /**
+     * Length of one bucket, in milliseconds
+     */
+    private final long             bucketMs;
+
+    /**
+     * Number of buckets in the window
+     */
+    private final int              buckets;
+
+    /**
+     * Number of keys held before the oldest are dropped, live or not
+     */
+    private final int              maxKeys;
+
+    /**
+     * Number of events recorded
+     */
+    private final AtomicLong       recorded = new AtomicLong();
+
+    /**
+     * Number of times the limit was tripped
+     */
+    private final AtomicLong       tripped  = new AtomicLong();
+
+    /**
+     * Creates a counter
+     *
+     * @param limit
+     *            Number of events a key may have in the window; the next one
+     *            trips the limit
+     * @param windowMs
+     *            Length of the window, in milliseconds
+     * @param buckets
+     *            Number of buckets the window is split into
+     * @param maxKeys
+     *            Largest number of keys held; past it the oldest are dropped
+     */
+    public SlidingWindowCounter ( final int limit, final long windowMs, final int buckets, final int maxKeys ) {
+        this.limit = limit;
+        this.buckets = buckets;
+        this.bucketMs = Math.max( 1, windowMs / buckets );
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Records an event for the key. If the key already had as many events in
+     * the window as the limit allows, the limit is tripped and the key starts
+     * over from zero.
+     *
+     * @param key
+     *            The key the event is for
+     * @return true if this event tripped the limit
+     */
+    public boolean record ( final K key ) {
+        recorded.incrementAndGet();
+        final long bucket = System.currentTimeMillis() / bucketMs;
+        while ( true ) {
+            final Window current = windows.get( key );
+            final int count = null == current ? 0 : current.count( bucket, buckets );
+            if ( count >= limit ) {
+                // Keeps its place in the queue
+                if ( windows.replace( key, current, current.reset() ) ) {
+                    tripped.incrementAndGet();
+                    return true;
+                }
+            }
+            else if ( null == current ) {
+                final Window created = new Window( buckets, serials.incrementAndGet() ).add( bucket, buckets );
+                if ( null == windows.putIfAbsent( key, created ) ) {
+                    order.add( new Queued<K>( key, created.serial ) );
+                    queued.incrementAndGet();
+                    trim( bucket );
+                    return false;
+                }
+            }
+            else if ( windows.replace( key, current, current.add( bucket, buckets ) ) ) {
+                return false;
+            }
+            // Someone else changed the key first; try again
+        }
+    }
+
+    /**
+     * Returns the number of events recorded for the key within the window
+     *
+     * @param key
+     *            The key to check
+     * @return The number of recent events
+     */
+    public int count ( final K key ) {
+        final Window current = windows.get( key );
+        return null == current ? 0 : current.count( System.currentTimeMillis() / bucketMs, buckets );
+    }
+
+    /**
+     * Forgets the events recorded for the key
+     *
+     * @param key
+     *            The key to clear
+     */
+    public void clear ( final K key ) {
+        if ( null != key ) {
+            windows.remove( key );
+        }
+    }
+
+    /**
+     * Forgets every key
+     */
+    public void clearAll () {
+        trimming.lock();
+        try {
+            windows.clear();
+            order.clear();
+            queued.set( 0 );
+        }
+        finally {
+            trimming.unlock();
+        }
+    }
+
+    /**
+     * Number of keys currently tracked
+     *
+     * @return The number of keys
+     */
+    public int size () {
+        return windows.size();
+    }
+
+    /**
+     * Number of events recorded since the counter was created
+     *
+     * @return The number of events
+     */
+    public long getRecorded () {
+        return recorded.get();
+    }
+
+    /**
+     * Number of times the limit has been tripped since the counter was created
+     *
+     * @return The number of trips
+     */
+    public long getTripped () {
+        return tripped.get();
+    }
+
+    /**
+     * Works through the oldest keys: drops those already dropped from the
+     * map, those with nothing left in the window, and live ones while there
+     * are too many keys. Stops at the first live key once there are few
+     * enough, unless the queue is mostly keys that were cleared or tripped
+     * after it, in which case that key goes to the back so the ones behind it
+     * can be reached. Does nothing if another thread is already trimming.
+     *
+     * @param bucket
+     *            The current bucket
+     */
+    private void trim ( final long bucket ) {
+        if ( !trimming.tryLock() ) {
+            return;
+        }
+        try {
+            Queued<K> oldest;
+            while ( null != ( oldest = order.peek() ) ) {
+                final Window current = windows.get( oldest.key );
+                if ( null != current && current.serial == oldest.serial ) {
+                    final boolean full = windows.size() > maxKeys;
+                    if ( full || current.count( bucket, buckets ) == 0 ) {
+                        if ( !windows.remove( oldest.key, current ) ) {
+                            // Recorded against in the meantime; look again
+                            continue;
+                        }
+                    }
+                    else if ( queued.get() > 2 * windows.size() + buckets ) {
+                        order.add( order.poll() );
+                        continue;
+                    }
+                    else {
+                        return;
+                    }
+                }
+                order.poll();
+                queued.decrementAndGet();
+            }
+        }
+        finally {
+            trimming.unlock();
+        }
+    }
+
+    /**
+     * A key in the queue, along with the serial number of the window it had
+     * when it was queued; once the key has a different window (or none) the
+     * entry is out of date
+     *
+     * @param <K>
+     *            Type of the key
+     */
+    private static final class Queued <K> {
+
+        /**
+         * The key
+         */
+        private final K    key;
+
+        /**
+         * Serial number of its window when it was queued
+         */
+        private final long serial;
+
+        Queued ( final K key, final long serial ) {
+            this.key = key;
+            this.serial = serial;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the counts for one key. Bucket i of the ring holds
+     * the count for the absolute bucket number in ids[i]. The serial number
+     * is kept by every snapshot taken from the first one made for the key.
+     */
+    private static final class Window {
+
+        /**
+         * Set when the key is added, and passed on to each new snapshot
+         */
+        private final long   serial;
+
+        /**
+         * Absolute bucket number held in each slot
+         */
+        private final long[] ids;
+
+        /**
+         * Count for each slot
+         */
+        private final int[]  counts;
+
+        Window ( final int buckets, final long serial ) {
+            this( serial, new long[buckets], new int[buckets] );
+        }
+
+        private Window ( final long serial, final long[] ids, final int[] counts ) {
+            this.serial = serial;
+            this.ids = ids;
+            this.counts = counts;
+        }
+
+        /**
+         * Total of the buckets still in the window
+         */
+        int count ( final long bucket, final int buckets ) {
+            int total = 0;
+            for ( int i = 0; i < buckets; i++ ) {
+                if ( ids[i] > bucket - buckets && ids[i] <= bucket ) {
+                    total += counts[i];
+                }
+            }
+            return total;
+        }
+
+        /**
+         * Copy of this window with one more event in the bucket given
+         */
+        Window add ( final long bucket, final int buckets ) {
+            final long[] newIds = ids.clone();
+            final int[] newCounts = counts.clone();
+            final int slot = (int) ( bucket % buckets );
+            if ( newIds[slot] != bucket ) {
+                newIds[slot] = bucket;
+                newCounts[slot] = 0;
+            }
+            newCounts[slot]++;
+            return new Window( serial, newIds, newCounts );
+        }
+
+        /**
+         * Empty window for the same key
+         */
+        Window reset () {
+            return new Window( ids.length, serial );
+        }
+    }
+
+}
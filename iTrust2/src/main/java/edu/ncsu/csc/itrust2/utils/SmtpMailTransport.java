@@ -0,0 +1,100 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.mail.Authenticator;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.PasswordAuthentication;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import edu.ncsu.csc.itrust2.models.persistent.OutboundEmail;
+
+/**
+ * Sends email through the SMTP server in `email.properties`. The mail Session
+ * is built once, and each batch is sent over a single connection to the
+ * server rather than connecting once per email.
+ */
+public class SmtpMailTransport implements MailTransport {
+
+    /**
+     * Shared by every batch
+     */
+    private final Session session;
+
+    /**
+     * Address the emails are sent from
+     */
+    private final String  from;
+
+    /**
+     * Creates a transport for the SMTP server described by the properties
+     *
+     * @param properties
+     *            The contents of `email.properties`
+     */
+    public SmtpMailTransport ( final Properties properties ) {
+        final String username = properties.getProperty( "username" );
+        final String password = properties.getProperty( "password" );
+        from = properties.getProperty( "from" );
+
+        /*
+         * Source for java mail code:
+         * https://www.tutorialspoint.com/javamail_api/
+         * javamail_api_gmail_smtp_server.htm
+         */
+
+        final Properties props = new Properties();
+        props.put( "mail.smtp.auth", "true" );
+        props.put( "mail.smtp.starttls.enable", "true" );
+        props.put( "mail.smtp.host", properties.getProperty( "host" ) );
+        props.put( "mail.smtp.port", properties.getProperty( "port", "587" ) );
+
+        session = Session.getInstance( props, new Authenticator() {
+            @Override
+            protected PasswordAuthentication getPasswordAuthentication () {
+                return new PasswordAuthentication( username, password );
+            }
+        } );
+    }
+
+    @Override
+    public Map<OutboundEmail, MessagingException> send ( final List<OutboundEmail> batch )
+            throws MessagingException {
+        final Map<OutboundEmail, MessagingException> failures = new HashMap<OutboundEmail, MessagingException>();
+        final Transport transport = session.getTransport( "smtp" );
+        transport.connect();
+        try {
+            for ( final OutboundEmail email : batch ) {
+                try {
+                    final Message message = new MimeMessage( session );
+                    message.setFrom( new InternetAddress( from ) );
+                    message.setRecipients( Message.RecipientType.TO, InternetAddress.parse( email.getAddress() ) );
+                    message.setSubject( email.getSubject() );
+                    message.setText( email.getBody() );
+                    message.saveChanges();
+                    transport.sendMessage( message, message.getAllRecipients() );
+                }
+                catch ( final MessagingException e ) {
+                    if ( !transport.isConnected() ) {
+                        // Lost the server; nothing more from this batch
+                        // will get through
+                        throw e;
+                    }
+                    failures.put( email, e );
+                }
+            }
+        }
+        finally {
+            transport.close();
+        }
+        return failures;
+    }
+
+}
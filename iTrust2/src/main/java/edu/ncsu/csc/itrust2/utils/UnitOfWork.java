@@ -0,0 +1,441 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+
+/**
+ * A thread-bound unit of work. While a unit of work is active on the current
+ * thread, all of the static helpers on DomainObject (save, delete, getWhere,
+ * getAll, getById) join a single Hibernate Session and a single transaction
+ * rather than opening and committing their own. This lets a single HTTP request
+ * (see UnitOfWorkFilter) or any other explicit scope perform all of its
+ * database work in one round of session setup and one commit.
+ *
+ * Scopes may be nested; only the outermost call to {@link #end()} commits.
+ * Entities loaded inside a unit of work are read-only by default and the
+ * session is never flushed implicitly, so (just like with the per-call
+ * sessions) changes only reach the database through an explicit save() or
+ * delete().
+ *
+ * Also keeps per-thread counters of the number of sessions opened, SQL
+ * statements executed and rows fetched since the last outermost
+ * {@link #begin()}, along with the time spent on each distinct statement,
+ * which is useful for catching N+1 query patterns in tests and in the request
+ * metrics.
+ */
+public class UnitOfWork {
+
+    /**
+     * Number of distinct statements kept apart in {@link #getQueries()}
+     */
+    public static final int                    MAX_QUERIES   = 100;
+
+    /**
+     * Key that statements past the first {@link #MAX_QUERIES} are added
+     * together under
+     */
+    public static final String                 OTHER_QUERIES = "(other)";
+
+    /**
+     * The scope (if any) bound to the current thread
+     */
+    private static final ThreadLocal<Scope>    SCOPE         = new ThreadLocal<Scope>();
+
+    /**
+     * Counters for the current thread. Reset by the outermost begin().
+     */
+    private static final ThreadLocal<Counters> COUNTERS      = new ThreadLocal<Counters>() {
+        @Override
+        protected Counters initialValue () {
+            return new Counters();
+        }
+    };
+
+    /**
+     * Begins a unit of work on the current thread, or joins the one that is
+     * already active.
+     */
+    public static void begin () {
+        final Scope scope = SCOPE.get();
+        if ( null != scope ) {
+            scope.depth++;
+            return;
+        }
+        COUNTERS.get().reset();
+        SCOPE.set( new Scope() );
+    }
+
+    /**
+     * Ends the current scope. If this is the outermost scope, the transaction
+     * is committed (or rolled back, if {@link #setRollbackOnly()} was called)
+     * and the Session is closed.
+     */
+    public static void end () {
+        final Scope scope = SCOPE.get();
+        if ( null == scope ) {
+            throw new IllegalStateException( "No unit of work is active" );
+        }
+        if ( --scope.depth > 0 ) {
+            return;
+        }
+        SCOPE.remove();
+        try {
+            if ( scope.rollbackOnly ) {
+                scope.rollback();
+            }
+            else {
+                scope.commit();
+                scope.afterCommit.forEach( Runnable::run );
+            }
+        }
+        finally {
+            scope.afterCompletion.forEach( Runnable::run );
+        }
+    }
+
+    /**
+     * Marks the current unit of work so that it will be rolled back rather than
+     * committed when the outermost scope ends.
+     */
+    public static void setRollbackOnly () {
+        final Scope scope = SCOPE.get();
+        if ( null != scope ) {
+            scope.rollbackOnly = true;
+        }
+    }
+
+    /**
+     * Registers something to run once the current unit of work has been
+     * committed or rolled back, such as dropping cached copies of data it
+     * changed. Runs immediately if no unit of work is active.
+     *
+     * @param action
+     *            The action to run
+     */
+    public static void afterCompletion ( final Runnable action ) {
+        final Scope scope = SCOPE.get();
+        if ( null == scope ) {
+            action.run();
+        }
+        else {
+            scope.afterCompletion.add( action );
+        }
+    }
+
+    /**
+     * Registers something to run only once the current unit of work has been
+     * committed, such as recording that the changes it made happened. Does
+     * not run if the unit of work is rolled back or fails to commit. Runs
+     * immediately if no unit of work is active.
+     *
+     * @param action
+     *            The action to run
+     */
+    public static void afterCommit ( final Runnable action ) {
+        final Scope scope = SCOPE.get();
+        if ( null == scope ) {
+            action.run();
+        }
+        else {
+            scope.afterCommit.add( action );
+        }
+    }
+
+    /**
+     * Returns whether a unit of work is active on the current thread
+     *
+     * @return true if a unit of work is active
+     */
+    public static boolean isActive () {
+        return null != SCOPE.get();
+    }
+
+    /**
+     * Retrieves the Session for the unit of work on the current thread,
+     * opening it (and beginning its transaction) on first use.
+     *
+     * @return The Session for this unit of work
+     */
+    public static Session currentSession () {
+        final Scope scope = SCOPE.get();
+        if ( null == scope ) {
+            throw new IllegalStateException( "No unit of work is active" );
+        }
+        if ( null == scope.session ) {
+            final Session session = HibernateUtil.openSession();
+            session.setFlushMode( FlushMode.MANUAL );
+            session.setDefaultReadOnly( true );
+            session.beginTransaction();
+            scope.session = session;
+        }
+        return scope.session;
+    }
+
+    /**
+     * Marks the current unit of work as failed after a write threw. The whole
+     * unit becomes rollback-only, so neither the writes made before the
+     * failure nor any made after it are committed. Its Session is rolled back
+     * and closed straight away, since a Session that has thrown an exception
+     * cannot be safely used again; anything read later in the unit gets a
+     * fresh Session, which is rolled back too when the unit ends.
+     */
+    public static void failed () {
+        final Scope scope = SCOPE.get();
+        if ( null != scope ) {
+            scope.rollbackOnly = true;
+            scope.rollback();
+            scope.session = null;
+        }
+    }
+
+    /**
+     * Returns whether the current unit of work will be rolled back rather
+     * than committed, because {@link #setRollbackOnly()} was called or a
+     * write in it failed
+     *
+     * @return true if the unit will be rolled back
+     */
+    public static boolean isRollbackOnly () {
+        final Scope scope = SCOPE.get();
+        return null != scope && scope.rollbackOnly;
+    }
+
+    /**
+     * Number of Sessions opened on this thread since the last unit of work
+     * began
+     *
+     * @return The number of Sessions opened
+     */
+    public static long getSessionsOpened () {
+        return COUNTERS.get().sessions;
+    }
+
+    /**
+     * Number of SQL statements prepared on this thread since the last unit of
+     * work began
+     *
+     * @return The number of statements executed
+     */
+    public static long getStatementsExecuted () {
+        return COUNTERS.get().statements;
+    }
+
+    /**
+     * Number of rows read from result sets on this thread since the last unit
+     * of work began. Only counted when the connection pool is metered (see
+     * DBUtil.dataSource()).
+     *
+     * @return The number of rows fetched
+     */
+    public static long getRowsFetched () {
+        return COUNTERS.get().rows;
+    }
+
+    /**
+     * Time spent executing SQL statements on this thread since the last unit
+     * of work began, in nanoseconds. Only counted when the connection pool is
+     * metered.
+     *
+     * @return The time spent in the database
+     */
+    public static long getQueryNanos () {
+        return COUNTERS.get().queryNanos;
+    }
+
+    /**
+     * The statements executed on this thread since the last unit of work
+     * began, by SQL, in the order they were first executed. Only the first
+     * {@link #MAX_QUERIES} distinct statements are kept apart; the rest are
+     * added together under {@link #OTHER_QUERIES}.
+     *
+     * @return The time taken and rows fetched by each statement
+     */
+    public static Map<String, QueryStats> getQueries () {
+        return Collections.unmodifiableMap( COUNTERS.get().queries );
+    }
+
+    /**
+     * Records that a Session was opened on the current thread. Called by
+     * HibernateUtil.
+     */
+    static void sessionOpened () {
+        COUNTERS.get().sessions++;
+    }
+
+    /**
+     * Records that a SQL statement was prepared on the current thread. Called
+     * by HibernateUtil's StatementInspector.
+     */
+    static void statementExecuted () {
+        COUNTERS.get().statements++;
+    }
+
+    /**
+     * Records that a SQL statement finished executing on the current thread.
+     * Called by MeteredDataSource.
+     *
+     * @param sql
+     *            The statement
+     * @param nanos
+     *            How long it took
+     * @return The totals for the statement, to count the rows it returns
+     *         against
+     */
+    static QueryStats queryExecuted ( final String sql, final long nanos ) {
+        final Counters counters = COUNTERS.get();
+        counters.queryNanos += nanos;
+        QueryStats stats = counters.queries.get( sql );
+        if ( null == stats ) {
+            final String key = counters.queries.size() < MAX_QUERIES ? sql : OTHER_QUERIES;
+            stats = counters.queries.computeIfAbsent( key, k -> new QueryStats() );
+        }
+        stats.executions++;
+        stats.nanos += nanos;
+        return stats;
+    }
+
+    /**
+     * Records that a row was read from the result of a statement on the
+     * current thread. Called by MeteredDataSource.
+     *
+     * @param stats
+     *            The totals for the statement the row came from
+     */
+    static void rowFetched ( final QueryStats stats ) {
+        COUNTERS.get().rows++;
+        stats.rows++;
+    }
+
+    /**
+     * Totals for one distinct SQL statement within a unit of work
+     */
+    public static final class QueryStats {
+        /** Times executed */
+        private long executions;
+
+        /** Time spent executing it, in nanoseconds */
+        private long nanos;
+
+        /** Rows read from its results */
+        private long rows;
+
+        /**
+         * Number of times the statement was executed
+         *
+         * @return The number of executions
+         */
+        public long getExecutions () {
+            return executions;
+        }
+
+        /**
+         * Total time spent executing the statement, in nanoseconds
+         *
+         * @return The time taken
+         */
+        public long getNanos () {
+            return nanos;
+        }
+
+        /**
+         * Total rows read from the statement's results
+         *
+         * @return The number of rows
+         */
+        public long getRows () {
+            return rows;
+        }
+    }
+
+    /**
+     * State for a single (possibly nested) unit of work
+     */
+    private static class Scope {
+        /** Number of begin() calls not yet matched by an end() */
+        private int                  depth           = 1;
+
+        /** The Session, opened lazily */
+        private Session              session;
+
+        /** Whether to roll back rather than commit at the end */
+        private boolean              rollbackOnly    = false;
+
+        /** Actions to run once the transaction is over */
+        private final List<Runnable> afterCompletion = new ArrayList<Runnable>();
+
+        /** Actions to run once the transaction has been committed */
+        private final List<Runnable> afterCommit     = new ArrayList<Runnable>();
+
+        /**
+         * Commits and closes the Session, if one was opened
+         */
+        private void commit () {
+            if ( null == session ) {
+                return;
+            }
+            try {
+                session.getTransaction().commit();
+            }
+            finally {
+                session.close();
+            }
+        }
+
+        /**
+         * Rolls back and closes the Session, if one was opened
+         */
+        private void rollback () {
+            if ( null == session ) {
+                return;
+            }
+            try {
+                session.getTransaction().rollback();
+            }
+            catch ( final Exception e ) {
+                e.printStackTrace( System.out );
+                // Continue
+            }
+            finally {
+                session.close();
+            }
+        }
+    }
+
+    /**
+     * Per-thread counters of database activity
+     */
+    private static class Counters {
+        /** Sessions opened */
+        private long                          sessions;
+
+        /** Statements prepared */
+        private long                          statements;
+
+        /** Rows fetched */
+        private long                          rows;
+
+        /** Time spent executing statements */
+        private long                          queryNanos;
+
+        /** Totals for each distinct statement */
+        private final Map<String, QueryStats> queries = new LinkedHashMap<String, QueryStats>();
+
+        /**
+         * Zeroes the counters
+         */
+        private void reset () {
+            sessions = 0;
+            statements = 0;
+            rows = 0;
+            queryNanos = 0;
+            queries.clear();
+        }
+    }
+
+}
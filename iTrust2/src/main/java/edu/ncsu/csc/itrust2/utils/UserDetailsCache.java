@@ -0,0 +1,200 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Keeps what the login process needs to know about each user (password hash,
+ * role, whether they are enabled, banned, or when they were last locked out)
+ * so that logging in does not have to go to the database every time. Whoever
+ * changes one of those things calls {@link #invalidate(String)}: User does on
+ * every save and delete, and LoginBan and LoginLockout do whenever a ban or
+ * lockout for a user is saved or deleted. Inside a unit of work the change is
+ * not visible to other connections until it commits, so the user is dropped
+ * again once it has finished; otherwise a login in between could cache the
+ * old state for the rest of its lifetime.
+ *
+ * Entries live for `authCacheSeconds` (default five minutes) and at most
+ * `authCacheMaxUsers` (default 10000) are kept; both can be set in
+ * db.properties.
+ */
+public class UserDetailsCache {
+
+    /**
+     * Login state, by username
+     */
+    private static final ExpiringCache<String, State> STATES;
+
+    /**
+     * Bumped on every invalidation, so that a load that raced with one is not
+     * cached
+     */
+    private static final AtomicLong                   GENERATION = new AtomicLong();
+
+    static {
+        STATES = new ExpiringCache<String, State>(
+                Long.parseLong( DBUtil.getSetting( "authCacheSeconds", "300" ) ) * 1000,
+                Integer.parseInt( DBUtil.getSetting( "authCacheMaxUsers", "10000" ) ) );
+    }
+
+    /**
+     * Returns the login state for the user, loading it if it is not cached
+     *
+     * @param username
+     *            The user to look up
+     * @param loader
+     *            Loads the state from the database; returns null if there is
+     *            no such user
+     * @return The state, or null if there is no such user
+     */
+    public static State get ( final String username, final Function<String, State> loader ) {
+        final State cached = STATES.get( username );
+        if ( null != cached ) {
+            return cached;
+        }
+        final long generation = GENERATION.get();
+        final State loaded = loader.apply( username );
+        if ( null != loaded && GENERATION.get() == generation ) {
+            STATES.put( username, loaded );
+        }
+        return loaded;
+    }
+
+    /**
+     * Forgets the cached state for a user, so the next login loads it again.
+     * If a unit of work is active, the user is forgotten again once it has
+     * committed or rolled back.
+     *
+     * @param username
+     *            The user that changed
+     */
+    public static void invalidate ( final String username ) {
+        forget( username );
+        if ( UnitOfWork.isActive() ) {
+            UnitOfWork.afterCompletion( () -> forget( username ) );
+        }
+    }
+
+    /**
+     * Forgets every cached user
+     */
+    public static void clear () {
+        GENERATION.incrementAndGet();
+        STATES.clear();
+    }
+
+    /**
+     * Drops the cached state for a user, and stops any load already under way
+     * from being cached
+     *
+     * @param username
+     *            The user that changed
+     */
+    private static void forget ( final String username ) {
+        GENERATION.incrementAndGet();
+        STATES.invalidate( username );
+    }
+
+    /**
+     * Number of logins answered from the cache
+     *
+     * @return The number of hits
+     */
+    public static long getHits () {
+        return STATES.getHits();
+    }
+
+    /**
+     * Number of logins that had to go to the database
+     *
+     * @return The number of misses
+     */
+    public static long getMisses () {
+        return STATES.getMisses();
+    }
+
+    /**
+     * What the login process needs to know about one user
+     */
+    public static final class State {
+
+        private final String  username;
+
+        private final String  password;
+
+        private final String  role;
+
+        private final boolean enabled;
+
+        private final boolean banned;
+
+        private final long    lastLockout;
+
+        /**
+         * Creates the state for a user
+         *
+         * @param username
+         *            The username
+         * @param password
+         *            The password hash
+         * @param role
+         *            The name of the user's role
+         * @param enabled
+         *            Whether the account is enabled
+         * @param banned
+         *            Whether the user is banned
+         * @param lastLockout
+         *            Epoch millisecond of the user's most recent lockout, or 0
+         *            if they have none
+         */
+        public State ( final String username, final String password, final String role, final boolean enabled,
+                final boolean banned, final long lastLockout ) {
+            this.username = username;
+            this.password = password;
+            this.role = role;
+            this.enabled = enabled;
+            this.banned = banned;
+            this.lastLockout = lastLockout;
+        }
+
+        /**
+         * Returns the username
+         *
+         * @return the username
+         */
+        public String getUsername () {
+            return username;
+        }
+
+        /**
+         * Returns the password hash
+         *
+         * @return the password hash
+         */
+        public String getPassword () {
+            return password;
+        }
+
+        /**
+         * Returns the name of the user's role
+         *
+         * @return the name of the user's role
+         */
+        public String getRole () {
+            return role;
+        }
+
+        /**
+         * Whether the user may log in right now: the account is enabled, not
+         * banned, and not within a lockout
+         *
+         * @param lockoutMs
+         *            How long a lockout lasts, in milliseconds
+         * @return true if the user may log in
+         */
+        public boolean canLogIn ( final long lockoutMs ) {
+            return enabled && !banned && System.currentTimeMillis() - lastLockout >= lockoutMs;
+        }
+    }
+
+}
@@ -1,6 +1,7 @@
 package edu.ncsu.csc.itrust2.apitest;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
@@ -9,6 +10,8 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.io.UnsupportedEncodingException;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.hamcrest.Matchers;
 import org.junit.Before;
@@ -26,6 +29,9 @@ import org.springframework.web.context.WebApplicationContext;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
 
 import edu.ncsu.csc.itrust2.config.RootConfiguration;
 import edu.ncsu.csc.itrust2.forms.admin.DrugForm;
@@ -136,4 +142,42 @@ public class APIDrugTest {
                 .andExpect( content().string( drug2.getId().toString() ) );
     }
 
+    /**
+     * Streaming the list of drugs gives the same drugs as fetching it whole
+     *
+     * @throws Exception
+     */
+    @Test
+    @WithMockUser ( username = "admin", roles = { "USER", "ADMIN" } )
+    public void testStreamDrugs () throws Exception {
+        final DrugForm form = new DrugForm();
+        form.setCode( "0000-0000-09" );
+        form.setName( "STREAMED" );
+        form.setDescription( "Streamed drug" );
+        final Drug drug = new GsonBuilder().create()
+                .fromJson( mvc
+                        .perform( post( "/api/v1/drugs" ).contentType( MediaType.APPLICATION_JSON )
+                                .content( TestUtils.asJsonString( form ) ) )
+                        .andExpect( status().isOk() ).andReturn().getResponse().getContentAsString(), Drug.class );
+
+        final String whole = mvc.perform( get( "/api/v1/drugs" ) ).andExpect( status().isOk() ).andReturn()
+                .getResponse().getContentAsString();
+        final String streamed = mvc.perform( get( "/api/v1/drugs" ).param( "stream", "true" ) )
+                .andExpect( status().isOk() )
+                .andExpect( content().contentTypeCompatibleWith( MediaType.APPLICATION_JSON ) ).andReturn()
+                .getResponse().getContentAsString();
+
+        final JsonArray wholeList = new JsonParser().parse( whole ).getAsJsonArray();
+        final JsonArray streamedList = new JsonParser().parse( streamed ).getAsJsonArray();
+        assertEquals( wholeList.size(), streamedList.size() );
+        final Set<JsonElement> wholeSet = new HashSet<JsonElement>();
+        wholeList.forEach( wholeSet::add );
+        final Set<JsonElement> streamedSet = new HashSet<JsonElement>();
+        streamedList.forEach( streamedSet::add );
+        assertEquals( wholeSet, streamedSet );
+        assertTrue( streamed.contains( form.getCode() ) );
+
+        mvc.perform( delete( "/api/v1/drugs/" + drug.getId() ) ).andExpect( status().isOk() );
+    }
+
 }
@@ -1,11 +1,15 @@
 package edu.ncsu.csc.itrust2.apitest;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import java.text.ParseException;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.junit.Before;
@@ -22,13 +26,22 @@ import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
 import edu.ncsu.csc.itrust2.config.RootConfiguration;
+import edu.ncsu.csc.itrust2.config.UnitOfWorkFilter;
+import edu.ncsu.csc.itrust2.forms.hcp.GeneralCheckupForm;
 import edu.ncsu.csc.itrust2.forms.personnel.EmergencyRecordForm;
+import edu.ncsu.csc.itrust2.models.enums.AppointmentType;
+import edu.ncsu.csc.itrust2.models.enums.HouseholdSmokingStatus;
+import edu.ncsu.csc.itrust2.models.enums.PatientSmokingStatus;
 import edu.ncsu.csc.itrust2.models.persistent.Diagnosis;
+import edu.ncsu.csc.itrust2.models.persistent.Drug;
+import edu.ncsu.csc.itrust2.models.persistent.GeneralCheckup;
+import edu.ncsu.csc.itrust2.models.persistent.ICDCode;
 import edu.ncsu.csc.itrust2.models.persistent.Patient;
 import edu.ncsu.csc.itrust2.models.persistent.Prescription;
 import edu.ncsu.csc.itrust2.models.persistent.User;
 import edu.ncsu.csc.itrust2.mvc.config.WebMvcConfiguration;
 import edu.ncsu.csc.itrust2.utils.HibernateDataGenerator;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
 
 /**
  * Test for the API functionality for interacting with the EmergencyRecordForm
@@ -41,6 +54,18 @@ import edu.ncsu.csc.itrust2.utils.HibernateDataGenerator;
 @WebAppConfiguration
 public class APIEmergencyRecordFormTest {
 
+    /**
+     * Number of visits given to the patient in the latency test
+     */
+    private static final int      VISITS        = 250;
+
+    /**
+     * Time allowed for the emergency record of a patient with VISITS visits.
+     * Well above what a single-digit number of queries takes, and well below
+     * what one round of queries per visit takes.
+     */
+    private static final long     BUDGET_MS     = 2000;
+
     private MockMvc               mvc;
     private final String          FailureString = "{\"status\":\"failed\",\"message\":\"Could not find a patient entry for onionman2\"}";
 
@@ -141,4 +166,86 @@ public class APIEmergencyRecordFormTest {
         assertEquals( form2.getGender(), "NA" );
         assertEquals( form2.getBloodType(), "NA" );
     }
+
+    /**
+     * The emergency record for a patient with hundreds of visits is built with
+     * the same number of statements as for a patient with one, and within the
+     * latency budget.
+     *
+     * @throws Exception
+     */
+    @Test
+    @WithMockUser ( username = "er", roles = { "USER", "ER" } )
+    public void testEmergencyRecordLatency () throws Exception {
+        final MockMvc counted = MockMvcBuilders.webAppContextSetup( context ).addFilters( new UnitOfWorkFilter() )
+                .build();
+
+        counted.perform( get( "/api/v1/emergencyrecord/onionman" ) ).andExpect( status().isOk() );
+        final long oneVisit = UnitOfWork.getStatementsExecuted();
+
+        final List<ICDCode> codes = ICDCode.getAll();
+        final Drug drug = Drug.getByCode( "1111-2222-33" );
+        UnitOfWork.begin();
+        try {
+            for ( int i = 0; i < VISITS; i++ ) {
+                saveVisit( ZonedDateTime.now().minusDays( i ), codes.get( i % codes.size() ) );
+
+                final Prescription p = new Prescription();
+                p.setDosage( 1 );
+                p.setDrug( drug );
+                p.setRenewals( 0 );
+                p.setStartDate( LocalDate.now().minusDays( i + 30 ) );
+                p.setEndDate( LocalDate.now().minusDays( i ) );
+                p.setPatient( User.getByName( "onionman" ) );
+                p.save();
+            }
+        }
+        finally {
+            UnitOfWork.end();
+        }
+
+        final long start = System.currentTimeMillis();
+        counted.perform( get( "/api/v1/emergencyrecord/onionman" ) ).andExpect( status().isOk() );
+        final long elapsed = System.currentTimeMillis() - start;
+
+        assertEquals( oneVisit, UnitOfWork.getStatementsExecuted() );
+        assertTrue( "Emergency record took " + elapsed + "ms", elapsed <= BUDGET_MS );
+    }
+
+    /**
+     * Saves a general checkup for onionman with a single diagnosis
+     *
+     * @param date
+     *            When the visit took place
+     * @param code
+     *            The code to diagnose
+     * @throws ParseException
+     * @throws NumberFormatException
+     */
+    private void saveVisit ( final ZonedDateTime date, final ICDCode code ) throws NumberFormatException, ParseException {
+        final GeneralCheckupForm form = new GeneralCheckupForm();
+        form.setDate( date.toString() );
+        form.setHcp( "hcp" );
+        form.setPatient( "onionman" );
+        form.setNotes( "Another visit for Siegward" );
+        form.setType( AppointmentType.GENERAL_CHECKUP.toString() );
+        form.setHospital( "General Hospital" );
+        form.setHdl( 1 );
+        form.setHeight( 1f );
+        form.setWeight( 1f );
+        form.setLdl( 1 );
+        form.setTri( 100 );
+        form.setDiastolic( 1 );
+        form.setSystolic( 1 );
+        form.setHouseSmokingStatus( HouseholdSmokingStatus.NONSMOKING );
+        form.setPatientSmokingStatus( PatientSmokingStatus.NEVER );
+
+        final List<Diagnosis> diagnoses = new ArrayList<Diagnosis>();
+        final Diagnosis d = new Diagnosis();
+        d.setCode( code );
+        d.setNote( "Visit on " + date.toLocalDate() );
+        diagnoses.add( d );
+        form.setDiagnoses( diagnoses );
+        new GeneralCheckup( form ).save();
+    }
 }
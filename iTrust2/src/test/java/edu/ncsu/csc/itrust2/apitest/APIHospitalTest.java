@@ -1,10 +1,14 @@
 package edu.ncsu.csc.itrust2.apitest;
 
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertNotNull;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import org.junit.Before;
@@ -93,4 +97,32 @@ public class APIHospitalTest {
 
     }
 
+    /**
+     * Tests that the hospital list can be revalidated with its ETag, and that
+     * the ETag changes once a hospital is added
+     *
+     * @throws Exception
+     */
+    @Test
+    @WithMockUser ( username = "admin", roles = { "ADMIN" } )
+    public void testHospitalListETag () throws Exception {
+        final String etag = mvc.perform( get( "/api/v1/hospitals" ) ).andExpect( status().isOk() )
+                .andExpect( header().string( "Last-Modified", notNullValue() ) ).andReturn().getResponse()
+                .getHeader( "ETag" );
+        assertNotNull( etag );
+
+        mvc.perform( get( "/api/v1/hospitals" ).header( "If-None-Match", etag ) )
+                .andExpect( status().isNotModified() );
+
+        final Hospital hospital = new Hospital( "iTrust ETag Hospital " + System.currentTimeMillis(),
+                "3 iTrust Test Street", "27607", "NC" );
+        mvc.perform( post( "/api/v1/hospitals" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( hospital ) ) ).andExpect( status().isOk() );
+
+        mvc.perform( get( "/api/v1/hospitals" ).header( "If-None-Match", etag ) ).andExpect( status().isOk() )
+                .andExpect( content().string( containsString( hospital.getName() ) ) );
+
+        hospital.delete();
+    }
+
 }
@@ -1,5 +1,6 @@
 package edu.ncsu.csc.itrust2.apitest;
 
+import static org.junit.Assert.assertEquals;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
@@ -23,6 +24,7 @@ import org.springframework.web.context.WebApplicationContext;
 
 import edu.ncsu.csc.itrust2.config.RootConfiguration;
 import edu.ncsu.csc.itrust2.controllers.api.comm.LogEntryRequestBody;
+import edu.ncsu.csc.itrust2.controllers.api.comm.LogEntryTableRow;
 import edu.ncsu.csc.itrust2.models.enums.Role;
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
 import edu.ncsu.csc.itrust2.models.persistent.LogEntry;
@@ -99,4 +101,64 @@ public class APILogEntryTest {
                 .contentType( MediaType.APPLICATION_JSON ) ).andExpect( status().isOk() );
     }
 
+    /**
+     * Makes sure that asking for the next page with the cursor from the last
+     * entry on the previous page gives the same page as asking by page number
+     */
+    @WithMockUser ( username = "logpagetest", roles = { "USER", "ADMIN" } )
+    @Test
+    public void testLogKeysetPaging () throws Exception {
+        final User user = new User( "logpagetest", "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
+                Role.ROLE_ADMIN, 1 );
+        user.save();
+
+        final ZonedDateTime now = ZonedDateTime.now();
+        for ( int i = 0; i < 25; ++i ) {
+            final LogEntry le = new LogEntry();
+            le.setLogCode( TransactionType.LOGIN_SUCCESS );
+            le.setPrimaryUser( "logpagetest" );
+            le.setTime( now.minusMinutes( i ) );
+            le.save();
+        }
+
+        final LogEntryRequestBody temp = new LogEntryRequestBody();
+        temp.setStartDate( "" );
+        temp.setEndDate( "" );
+        temp.setPageLength( 10 );
+
+        // Page 2 by offset, before page 1 logs that the log was viewed
+        temp.setPage( 2 );
+        final LogEntryTableRow[] byOffset = getPage( temp );
+
+        temp.setPage( 1 );
+        final LogEntryTableRow[] first = getPage( temp );
+        assertEquals( 10, first.length );
+
+        temp.setPage( 2 );
+        temp.setBeforeTime( first[first.length - 1].getDateTime() );
+        temp.setBeforeId( first[first.length - 1].getId() );
+        final LogEntryTableRow[] byCursor = getPage( temp );
+
+        assertEquals( byOffset.length, byCursor.length );
+        for ( int i = 0; i < byOffset.length; i++ ) {
+            assertEquals( byOffset[i].getId(), byCursor[i].getId() );
+        }
+    }
+
+    /**
+     * Requests one page of the current user's log
+     *
+     * @param body
+     *            The request
+     * @return The rows on the page
+     * @throws Exception
+     */
+    private LogEntryTableRow[] getPage ( final LogEntryRequestBody body ) throws Exception {
+        final String content = mvc
+                .perform( post( "/api/v1/logentries/range" ).content( gson.toJson( body ) )
+                        .contentType( MediaType.APPLICATION_JSON ) )
+                .andExpect( status().isOk() ).andReturn().getResponse().getContentAsString();
+        return gson.fromJson( content, LogEntryTableRow[].class );
+    }
+
 }
@@ -0,0 +1,113 @@
+package edu.ncsu.csc.itrust2.apitest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import edu.ncsu.csc.itrust2.config.RequestMetricsFilter;
+import edu.ncsu.csc.itrust2.config.RootConfiguration;
+import edu.ncsu.csc.itrust2.config.UnitOfWorkFilter;
+import edu.ncsu.csc.itrust2.mvc.config.WebMvcConfiguration;
+import edu.ncsu.csc.itrust2.utils.HibernateDataGenerator;
+import edu.ncsu.csc.itrust2.utils.Metrics;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork.QueryStats;
+
+/**
+ * Tests that requests are recorded against the endpoint that handled them,
+ * and that only admins can read the metrics
+ */
+@RunWith ( SpringJUnit4ClassRunner.class )
+@ContextConfiguration ( classes = { RootConfiguration.class, WebMvcConfiguration.class } )
+@WebAppConfiguration
+public class APIMetricsTest {
+
+    private MockMvc               mvc;
+
+    @Autowired
+    private WebApplicationContext context;
+
+    /**
+     * Sets up test
+     */
+    @Before
+    public void setup () {
+        HibernateDataGenerator.generateUsers();
+        mvc = MockMvcBuilders.webAppContextSetup( context )
+                .addFilters( new RequestMetricsFilter(), new UnitOfWorkFilter() ).build();
+        Metrics.clear();
+    }
+
+    /**
+     * Requests are counted against their mapping pattern, along with the rows
+     * they read, and the result is served in the Prometheus text format
+     *
+     * @throws Exception
+     */
+    @Test
+    @WithMockUser ( username = "admin", roles = { "USER", "ADMIN" } )
+    public void testRequestMetrics () throws Exception {
+        mvc.perform( get( "/api/v1/users/patient" ) ).andExpect( status().isOk() );
+        assertTrue( UnitOfWork.getRowsFetched() > 0 );
+        long executions = 0;
+        for ( final QueryStats q : UnitOfWork.getQueries().values() ) {
+            executions += q.getExecutions();
+        }
+        assertTrue( executions > 0 );
+
+        mvc.perform( get( "/api/v1/users/admin" ) ).andExpect( status().isOk() );
+        mvc.perform( get( "/api/v1/users/nobody" ) ).andExpect( status().isNotFound() );
+
+        final String metrics = mvc.perform( get( "/api/v1/metrics" ) ).andExpect( status().isOk() ).andReturn()
+                .getResponse().getContentAsString();
+        final String endpoint = "endpoint=\"GET /api/v1/users/{id}\"";
+        assertTrue( metrics, metrics.contains( "itrust2_http_request_duration_seconds_count{" + endpoint + "} 3\n" ) );
+        assertTrue( metrics,
+                metrics.contains( "itrust2_http_request_duration_seconds_bucket{" + endpoint + ",le=\"+Inf\"} 3\n" ) );
+        assertTrue( metrics, metrics.contains( "itrust2_http_responses_total{" + endpoint + ",status=\"200\"} 2\n" ) );
+        assertTrue( metrics, metrics.contains( "itrust2_http_responses_total{" + endpoint + ",status=\"404\"} 1\n" ) );
+        assertTrue( metrics, metrics.contains( "itrust2_http_request_sessions_total{" + endpoint + "} 3\n" ) );
+        assertTrue( metrics, metrics.contains( "# TYPE itrust2_db_pool_connections gauge\n" ) );
+        assertTrue( metrics, metrics.contains( "# TYPE itrust2_audit_log_written_total counter\n" ) );
+
+        for ( final String line : metrics.split( "\n" ) ) {
+            if ( line.startsWith( "itrust2_http_request_rows_total{" + endpoint ) ) {
+                assertTrue( line, Long.parseLong( line.substring( line.lastIndexOf( ' ' ) + 1 ) ) >= 2 );
+                return;
+            }
+        }
+        fail( "No rows recorded for " + endpoint );
+    }
+
+    /**
+     * Users other than admins cannot read the metrics
+     *
+     * @throws Exception
+     */
+    @Test
+    @WithMockUser ( username = "patient", roles = { "USER", "PATIENT" } )
+    public void testPatientForbidden () throws Exception {
+        try {
+            mvc.perform( get( "/api/v1/metrics" ) ).andExpect( status().isForbidden() );
+        }
+        catch ( final Exception e ) {
+            // Access denied before a status is set
+            assertEquals( "Access is denied", e.getCause().getMessage() );
+        }
+    }
+
+}
@@ -0,0 +1,191 @@
+package edu.ncsu.csc.itrust2.apitest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.text.ParseException;
+
+import com.google.gson.Gson;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.security.test.context.support.WithMockUser;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+import edu.ncsu.csc.itrust2.config.RootConfiguration;
+import edu.ncsu.csc.itrust2.config.UnitOfWorkFilter;
+import edu.ncsu.csc.itrust2.controllers.api.comm.LogEntryRequestBody;
+import edu.ncsu.csc.itrust2.models.enums.State;
+import edu.ncsu.csc.itrust2.models.enums.TransactionType;
+import edu.ncsu.csc.itrust2.models.persistent.Hospital;
+import edu.ncsu.csc.itrust2.models.persistent.LogEntry;
+import edu.ncsu.csc.itrust2.mvc.config.WebMvcConfiguration;
+import edu.ncsu.csc.itrust2.utils.HibernateDataGenerator;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
+
+/**
+ * Makes sure that the heaviest API endpoints do all of their database work in a
+ * single Session, and that the number of SQL statements they issue stays under
+ * a fixed budget.
+ */
+@RunWith ( SpringJUnit4ClassRunner.class )
+@ContextConfiguration ( classes = { RootConfiguration.class, WebMvcConfiguration.class } )
+@WebAppConfiguration
+public class APIUnitOfWorkTest {
+
+    /**
+     * Upper bound on statements for a single request against the test data.
+     * Generous on purpose; it is here to catch queries that scale with the
+     * size of the data rather than to pin an exact count.
+     */
+    private static final long     MAX_STATEMENTS = 60;
+
+    private MockMvc               mvc;
+
+    private final Gson            gson           = new Gson();
+
+    @Autowired
+    private WebApplicationContext context;
+
+    /**
+     * Sets up test
+     *
+     * @throws ParseException
+     * @throws NumberFormatException
+     */
+    @Before
+    public void setup () throws NumberFormatException, ParseException {
+        HibernateDataGenerator.refreshDB();
+        HibernateDataGenerator.generateTestEHR();
+        mvc = MockMvcBuilders.webAppContextSetup( context ).addFilters( new UnitOfWorkFilter() ).build();
+    }
+
+    /**
+     * The emergency record pulls the patient, diagnoses, and prescriptions.
+     *
+     * @throws Exception
+     */
+    @Test
+    @WithMockUser ( username = "hcp", roles = { "USER", "HCP" } )
+    public void testEmergencyRecord () throws Exception {
+        mvc.perform( get( "/api/v1/emergencyrecord/onionman" ) ).andExpect( status().isOk() );
+        assertSingleSession();
+    }
+
+    /**
+     * Office visits of every type are read together.
+     *
+     * @throws Exception
+     */
+    @Test
+    @WithMockUser ( username = "hcp", roles = { "USER", "HCP" } )
+    public void testOfficeVisits () throws Exception {
+        mvc.perform( get( "/api/v1/officevisits" ) ).andExpect( status().isOk() );
+        assertSingleSession();
+    }
+
+    /**
+     * The access log both reads log entries and writes one.
+     *
+     * @throws Exception
+     */
+    @Test
+    @WithMockUser ( username = "onionman", roles = { "USER", "PATIENT" } )
+    public void testLogEntries () throws Exception {
+        final LogEntryRequestBody body = new LogEntryRequestBody();
+        body.setStartDate( "" );
+        body.setEndDate( "" );
+        body.setPage( 1 );
+        body.setPageLength( 10 );
+
+        mvc.perform( post( "/api/v1/logentries/range" ).content( gson.toJson( body ) )
+                .contentType( MediaType.APPLICATION_JSON ) ).andExpect( status().isOk() );
+        assertSingleSession();
+    }
+
+    /**
+     * Resolving the roles of the other users on a patient's log takes one
+     * query for the whole page, so a longer page must not take more
+     * statements than a shorter one.
+     *
+     * @throws Exception
+     */
+    @Test
+    @WithMockUser ( username = "onionman", roles = { "USER", "PATIENT" } )
+    public void testLogEntryPageLength () throws Exception {
+        final String[] others = { "hcp", "admin", "er", "patient", "labtech" };
+        for ( int i = 0; i < 40; i++ ) {
+            final LogEntry le = new LogEntry( TransactionType.LOGIN_SUCCESS, "onionman", others[i % others.length],
+                    null );
+            le.save();
+        }
+
+        final LogEntryRequestBody body = new LogEntryRequestBody();
+        body.setStartDate( "" );
+        body.setEndDate( "" );
+        body.setPage( 2 );
+
+        body.setPageLength( 5 );
+        mvc.perform( post( "/api/v1/logentries/range" ).content( gson.toJson( body ) )
+                .contentType( MediaType.APPLICATION_JSON ) ).andExpect( status().isOk() );
+        final long shortPage = UnitOfWork.getStatementsExecuted();
+
+        body.setPageLength( 20 );
+        mvc.perform( post( "/api/v1/logentries/range" ).content( gson.toJson( body ) )
+                .contentType( MediaType.APPLICATION_JSON ) ).andExpect( status().isOk() );
+        assertSingleSession();
+        assertEquals( shortPage, UnitOfWork.getStatementsExecuted() );
+    }
+
+    /**
+     * A write that fails makes the whole unit of work roll back: neither what
+     * was saved before it nor what is saved after it is committed
+     */
+    @Test
+    public void testFailedWriteRollsBackUnit () {
+        final String before = "uowBefore" + System.currentTimeMillis();
+        final String after = "uowAfter" + System.currentTimeMillis();
+        UnitOfWork.begin();
+        try {
+            new Hospital( before, "1 Main St", "27606", State.NC.toString() ).save();
+            try {
+                // Hospitals are keyed on their name, so this cannot be saved
+                new Hospital().save();
+                fail( "A Hospital with no name was saved" );
+            }
+            catch ( final RuntimeException e ) {
+                assertTrue( UnitOfWork.isRollbackOnly() );
+            }
+            new Hospital( after, "2 Main St", "27606", State.NC.toString() ).save();
+        }
+        finally {
+            UnitOfWork.end();
+        }
+        assertNull( Hospital.getByName( before ) );
+        assertNull( Hospital.getByName( after ) );
+    }
+
+    /**
+     * Checks the counters that the UnitOfWorkFilter left behind for the
+     * request that was just made
+     */
+    private void assertSingleSession () {
+        assertEquals( 1, UnitOfWork.getSessionsOpened() );
+        assertTrue( "Too many statements: " + UnitOfWork.getStatementsExecuted(),
+                UnitOfWork.getStatementsExecuted() <= MAX_STATEMENTS );
+    }
+
+}
@@ -0,0 +1,218 @@
+package edu.ncsu.csc.itrust2.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.YearMonth;
+import java.time.ZonedDateTime;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ncsu.csc.itrust2.models.enums.TransactionType;
+import edu.ncsu.csc.itrust2.models.persistent.LogEntry;
+import edu.ncsu.csc.itrust2.utils.AuditArchive;
+import edu.ncsu.csc.itrust2.utils.AuditLogWriter;
+import edu.ncsu.csc.itrust2.utils.DBUtil;
+import edu.ncsu.csc.itrust2.utils.LoggerUtil;
+
+/**
+ * Unit tests for the AuditArchive, and for LogEntry's searches reading from it
+ */
+public class AuditArchiveTest {
+
+    private File dir;
+
+    /**
+     * Archives to an empty directory of its own
+     *
+     * @throws IOException
+     */
+    @Before
+    public void setup () throws IOException {
+        dir = Files.createTempDirectory( "archive" ).toFile();
+        AuditArchive.useDirectory( dir );
+    }
+
+    /**
+     * Turns the archive back off
+     */
+    @After
+    public void tearDown () {
+        AuditArchive.deleteAll();
+        AuditArchive.useDirectory( null );
+        dir.delete();
+    }
+
+    /**
+     * Old entries leave the table once archived, but are still found and
+     * counted by the log searches, in order and alongside newer entries
+     */
+    @Test
+    public void testArchivedEntriesStillFound () {
+        final String user = "archiveUser" + System.currentTimeMillis();
+        final ZonedDateTime old = ZonedDateTime.now().minusMonths( 14 );
+        log( TransactionType.LOGIN_SUCCESS, user, old, "first" );
+        log( TransactionType.VIEW_USER, user, old.plusMinutes( 1 ), "second" );
+        log( TransactionType.LOGOUT, user, old.plusDays( 1 ), "third" );
+        LoggerUtil.log( TransactionType.LOGIN_SUCCESS, user, "recent" );
+        assertEquals( 4, LogEntry.getAllForUser( user ).size() );
+
+        assertTrue( AuditArchive.archiveBefore( YearMonth.now().minusMonths( 12 ) ) >= 3 );
+        // Nothing is left to archive
+        assertEquals( 0, AuditArchive.archiveBefore( YearMonth.now().minusMonths( 12 ) ) );
+
+        // Only the recent entry is left in the table
+        assertEquals( 1, LogEntry.getAllForUser( user ).size() );
+
+        assertEquals( 4, LogEntry.countForUser( user, false, null, null ) );
+        // VIEW_USER isn't shown to patients
+        assertEquals( 3, LogEntry.countForUser( user, true, null, null ) );
+        assertEquals( 2, LogEntry.countForUser( user, false, old.minusDays( 1 ), old.plusHours( 1 ) ) );
+
+        // Newest first, across the table and the archive
+        final List<LogEntry> page = LogEntry.getPageForUser( user, false, null, null, null, null, 0, 3 );
+        assertEquals( 3, page.size() );
+        assertEquals( "recent", page.get( 0 ).getMessage() );
+        assertEquals( "third", page.get( 1 ).getMessage() );
+        assertEquals( "second", page.get( 2 ).getMessage() );
+
+        // And the next page by keyset
+        final LogEntry last = page.get( 2 );
+        final List<LogEntry> next = LogEntry.getPageForUser( user, false, null, null, last.getTime(), last.getId(),
+                0, 3 );
+        assertEquals( 1, next.size() );
+        assertEquals( "first", next.get( 0 ).getMessage() );
+        assertEquals( TransactionType.LOGIN_SUCCESS, next.get( 0 ).getLogCode() );
+    }
+
+    /**
+     * An entry from an archived month that is written after the month was
+     * archived is left in the table until the next run, and then archived
+     * without disturbing what was archived before
+     */
+    @Test
+    public void testLateEntryArchivedNextRun () {
+        final String user = "lateUser" + System.currentTimeMillis();
+        final ZonedDateTime old = ZonedDateTime.now().minusMonths( 15 );
+        log( TransactionType.LOGIN_SUCCESS, user, old, "on time" );
+        AuditArchive.archiveBefore( YearMonth.now().minusMonths( 12 ) );
+        assertEquals( 0, LogEntry.getAllForUser( user ).size() );
+
+        log( TransactionType.LOGOUT, user, old.plusMinutes( 1 ), "late" );
+        assertEquals( 1, LogEntry.getAllForUser( user ).size() );
+        assertEquals( 2, LogEntry.countForUser( user, false, null, null ) );
+
+        assertTrue( AuditArchive.archiveBefore( YearMonth.now().minusMonths( 12 ) ) >= 1 );
+        assertEquals( 0, LogEntry.getAllForUser( user ).size() );
+        final List<LogEntry> all = LogEntry.getPageForUser( user, false, null, null, null, null, 0, 10 );
+        assertEquals( 2, all.size() );
+        assertEquals( "late", all.get( 0 ).getMessage() );
+        assertEquals( "on time", all.get( 1 ).getMessage() );
+    }
+
+    /**
+     * Searches for a user skip the archived blocks that user is not in
+     */
+    @Test
+    public void testBlocksWithoutUserSkipped () {
+        final String user = "filterUser" + System.currentTimeMillis();
+        log( TransactionType.LOGIN_SUCCESS, user, ZonedDateTime.now().minusMonths( 16 ), "archived" );
+        AuditArchive.archiveBefore( YearMonth.now().minusMonths( 12 ) );
+        assertEquals( 1, LogEntry.countForUser( user, false, null, null ) );
+
+        // A block is only read for a user it does not hold about one time in
+        // a hundred, so with ten users some of the blocks must be skipped
+        final long skipped = AuditArchive.getBlocksSkipped();
+        for ( int i = 0; i < 10; i++ ) {
+            assertEquals( 0, LogEntry.countForUser( "absentUser" + i + System.nanoTime(), false, null, null ) );
+        }
+        assertTrue( AuditArchive.getBlocksSkipped() > skipped );
+    }
+
+    /**
+     * A server that finds another holding the archive lock leaves the table
+     * alone, and archives on its next run once the lock is free
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void testSkippedWhileLocked () throws SQLException {
+        final String user = "lockedUser" + System.currentTimeMillis();
+        log( TransactionType.LOGIN_SUCCESS, user, ZonedDateTime.now().minusMonths( 14 ), "locked" );
+        AuditLogWriter.flush();
+
+        try ( Connection other = DBUtil.getConnection() ) {
+            try ( PreparedStatement ps = other.prepareStatement( "SELECT GET_LOCK(?, 0)" ) ) {
+                ps.setString( 1, AuditArchive.LOCK );
+                try ( ResultSet rs = ps.executeQuery() ) {
+                    rs.next();
+                    assertEquals( 1, rs.getInt( 1 ) );
+                }
+            }
+            try {
+                assertEquals( 0, AuditArchive.archiveBefore( YearMonth.now().minusMonths( 12 ) ) );
+                assertEquals( 1, LogEntry.getAllForUser( user ).size() );
+            }
+            finally {
+                try ( PreparedStatement ps = other.prepareStatement( "SELECT RELEASE_LOCK(?)" ) ) {
+                    ps.setString( 1, AuditArchive.LOCK );
+                    ps.executeQuery().close();
+                }
+            }
+        }
+
+        assertTrue( AuditArchive.archiveBefore( YearMonth.now().minusMonths( 12 ) ) >= 1 );
+        assertEquals( 0, LogEntry.getAllForUser( user ).size() );
+        assertEquals( 1, LogEntry.countForUser( user, false, null, null ) );
+    }
+
+    /**
+     * The archive is off without a directory, and a relative one, which each
+     * server would resolve to a different place, is refused
+     */
+    @Test
+    public void testNeedsAbsoluteDirectory () {
+        AuditArchive.useDirectory( null );
+        assertEquals( 0, AuditArchive.archiveBefore( YearMonth.now() ) );
+        assertTrue( AuditArchive.isEmpty() );
+        try {
+            AuditArchive.useDirectory( new File( "audit-archive" ) );
+            fail( "A relative directory was accepted" );
+        }
+        catch ( final IllegalArgumentException e ) {
+            // expected
+        }
+        AuditArchive.useDirectory( dir );
+    }
+
+    /**
+     * Logs an entry with a time in the past
+     *
+     * @param code
+     *            The type of event
+     * @param user
+     *            The primary user
+     * @param time
+     *            When it happened
+     * @param message
+     *            The message
+     */
+    private void log ( final TransactionType code, final String user, final ZonedDateTime time,
+            final String message ) {
+        final LogEntry entry = new LogEntry( code, user, null, message );
+        entry.setTime( time );
+        AuditLogWriter.enqueue( entry );
+    }
+
+}
@@ -0,0 +1,127 @@
+package edu.ncsu.csc.itrust2.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ncsu.csc.itrust2.models.enums.TransactionType;
+import edu.ncsu.csc.itrust2.models.persistent.LogEntry;
+import edu.ncsu.csc.itrust2.utils.AuditJournal;
+import edu.ncsu.csc.itrust2.utils.AuditLogWriter;
+import edu.ncsu.csc.itrust2.utils.LoggerUtil;
+
+/**
+ * Unit tests for the AuditJournal
+ */
+public class AuditJournalTest {
+
+    private File dir;
+
+    /**
+     * Journals to an empty directory of its own
+     *
+     * @throws IOException
+     */
+    @Before
+    public void setup () throws IOException {
+        AuditLogWriter.flush();
+        dir = Files.createTempDirectory( "journal" ).toFile();
+        AuditJournal.useDirectory( dir );
+    }
+
+    /**
+     * Turns the journal back off
+     */
+    @After
+    public void tearDown () {
+        AuditLogWriter.flush();
+        AuditJournal.useDirectory( null );
+        for ( final File f : dir.listFiles() ) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * Entries logged are read back from the journal as they were logged, the
+     * journal verifies as intact, and the log searches still read them from
+     * the database, with their IDs
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testEntriesReadBack () throws IOException {
+        assertNull( AuditJournal.getStart() );
+        final String user = "journalUser" + System.currentTimeMillis();
+        final String me = LoggerUtil.currentUser();
+        LoggerUtil.log( TransactionType.LOGIN_SUCCESS, me, user, "journal-1" );
+        LoggerUtil.log( TransactionType.VIEW_USER, me, user, null );
+        LoggerUtil.log( TransactionType.LOGOUT, user, me, "journal-3" );
+        AuditLogWriter.flush();
+
+        final ZonedDateTime start = AuditJournal.getStart();
+        assertNotNull( start );
+        final List<LogEntry> entries = AuditJournal.find( start, ZonedDateTime.now().plusMinutes( 1 ),
+                e -> user.equals( e.getPrimaryUser() ) || user.equals( e.getSecondaryUser() ) );
+        assertEquals( 3, entries.size() );
+        assertEquals( TransactionType.LOGIN_SUCCESS, entries.get( 0 ).getLogCode() );
+        assertEquals( me, entries.get( 0 ).getPrimaryUser() );
+        assertEquals( "journal-1", entries.get( 0 ).getMessage() );
+        assertNull( entries.get( 1 ).getMessage() );
+        assertEquals( user, entries.get( 2 ).getPrimaryUser() );
+        assertEquals( me, entries.get( 2 ).getSecondaryUser() );
+
+        assertTrue( AuditJournal.verify( dir ).isEmpty() );
+        assertEquals( 64, AuditJournal.getHeadHash().length() );
+
+        final List<LogEntry> found = LogEntry.getByDateRange( start, ZonedDateTime.now().plusMinutes( 1 ) ).stream()
+                .filter( e -> user.equals( e.getPrimaryUser() ) || user.equals( e.getSecondaryUser() ) )
+                .collect( Collectors.toList() );
+        assertEquals( 3, found.size() );
+        for ( final LogEntry e : found ) {
+            assertNotNull( e.getId() );
+        }
+    }
+
+    /**
+     * Changing a single byte of a sealed journal is caught
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testTamperingDetected () throws IOException {
+        LoggerUtil.log( TransactionType.LOGIN_SUCCESS, "journalTamper", "journal-tamper" );
+        LoggerUtil.log( TransactionType.LOGOUT, "journalTamper", "journal-after" );
+        AuditLogWriter.flush();
+        AuditJournal.useDirectory( dir );
+        assertTrue( AuditJournal.verify( dir ).isEmpty() );
+
+        final File segment = dir.listFiles()[0];
+        try ( RandomAccessFile raf = new RandomAccessFile( segment, "rw" ) ) {
+            // Both entries are near the start of the segment
+            final byte[] bytes = new byte[4096];
+            raf.readFully( bytes );
+            final int at = new String( bytes, StandardCharsets.ISO_8859_1 ).indexOf( "journal-tamper" );
+            assertTrue( at > 0 );
+            raf.seek( at );
+            raf.write( 'J' );
+        }
+        assertFalse( AuditJournal.verify( dir ).isEmpty() );
+    }
+
+}
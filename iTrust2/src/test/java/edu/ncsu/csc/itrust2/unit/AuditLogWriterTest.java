@@ -0,0 +1,128 @@
+package edu.ncsu.csc.itrust2.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.ncsu.csc.itrust2.models.enums.TransactionType;
+import edu.ncsu.csc.itrust2.models.persistent.LogEntry;
+import edu.ncsu.csc.itrust2.utils.AuditLogWriter;
+import edu.ncsu.csc.itrust2.utils.DBUtil;
+import edu.ncsu.csc.itrust2.utils.LoggerUtil;
+
+/**
+ * Unit tests for the background AuditLogWriter
+ */
+public class AuditLogWriterTest {
+
+    /**
+     * Logs more entries than fit in a single batch, and makes sure that every
+     * one of them is written, in the order it was logged
+     */
+    @Test
+    public void testAllEntriesWrittenInOrder () {
+        final String user = "auditWriterUser" + System.currentTimeMillis();
+        final int count = 250;
+        final long writtenBefore = AuditLogWriter.getWritten();
+
+        for ( int i = 0; i < count; i++ ) {
+            LoggerUtil.log( TransactionType.LOGIN_SUCCESS, user, Integer.toString( i ) );
+        }
+
+        final List<LogEntry> entries = LoggerUtil.getAllForUser( user );
+        assertEquals( 0, AuditLogWriter.getPending() );
+        assertEquals( count, entries.size() );
+        assertTrue( AuditLogWriter.getWritten() - writtenBefore >= count );
+
+        entries.sort( ( x1, x2 ) -> x1.getId().compareTo( x2.getId() ) );
+        for ( int i = 0; i < count; i++ ) {
+            assertEquals( Integer.toString( i ), entries.get( i ).getMessage() );
+        }
+    }
+
+    /**
+     * An event without a primary user is turned away when it is logged,
+     * rather than queued and then lost by the writer
+     */
+    @Test
+    public void testMissingPrimaryUserRejected () {
+        final String user = "auditNullUser" + System.currentTimeMillis();
+        try {
+            LoggerUtil.log( TransactionType.LOGIN_SUCCESS, (String) null, user, "no primary user" );
+            fail( "Logged an event without a primary user" );
+        }
+        catch ( final IllegalArgumentException e ) {
+            // expected
+        }
+
+        // A batch with one bad entry is turned away as a whole
+        final List<LogEntry> batch = new ArrayList<LogEntry>();
+        batch.add( new LogEntry( TransactionType.LOGIN_SUCCESS, user, null, "good" ) );
+        batch.add( new LogEntry( TransactionType.LOGOUT, null, user, "bad" ) );
+        try {
+            LoggerUtil.log( batch );
+            fail( "Logged a batch with an event without a primary user" );
+        }
+        catch ( final IllegalArgumentException e ) {
+            // expected
+        }
+
+        final long spilledBefore = AuditLogWriter.getSpilled();
+        LoggerUtil.log( TransactionType.LOGIN_SUCCESS, user, "after" );
+        final List<LogEntry> entries = LoggerUtil.getAllForUser( user );
+        assertEquals( 1, entries.size() );
+        assertEquals( "after", entries.get( 0 ).getMessage() );
+        assertEquals( spilledBefore, AuditLogWriter.getSpilled() );
+    }
+
+    /**
+     * The batch insert really reaches the LogEntries table, each row with an
+     * ID of its own, rather than failing over to the spill file
+     *
+     * @throws SQLException
+     */
+    @Test
+    public void testRowsInDatabase () throws SQLException {
+        final String user = "auditRowsUser" + System.currentTimeMillis();
+        final long spilledBefore = AuditLogWriter.getSpilled();
+        for ( int i = 0; i < 5; i++ ) {
+            LoggerUtil.log( TransactionType.LOGIN_SUCCESS, user, "row-" + i );
+        }
+        AuditLogWriter.flush();
+        assertEquals( spilledBefore, AuditLogWriter.getSpilled() );
+
+        final List<Long> ids = new ArrayList<Long>();
+        final List<String> messages = new ArrayList<String>();
+        try ( Connection conn = DBUtil.getConnection();
+                PreparedStatement ps = conn.prepareStatement( "SELECT l.id, l.message FROM LogEntries l "
+                        + "JOIN InternedNames n ON n.id = l.primaryUserId WHERE n.name = ? ORDER BY l.id" ) ) {
+            ps.setString( 1, user );
+            try ( ResultSet rs = ps.executeQuery() ) {
+                while ( rs.next() ) {
+                    ids.add( rs.getLong( 1 ) );
+                    messages.add( rs.getString( 2 ) );
+                }
+            }
+        }
+        assertEquals( 5, ids.size() );
+        assertEquals( 5, new HashSet<Long>( ids ).size() );
+        for ( int i = 0; i < 5; i++ ) {
+            assertEquals( "row-" + i, messages.get( i ) );
+        }
+        // Saving through Hibernate afterwards does not collide with them
+        final LogEntry saved = new LogEntry( TransactionType.LOGOUT, user, null, "saved" );
+        saved.save();
+        assertTrue( saved.getId() > ids.get( 4 ) );
+    }
+
+}
@@ -3,7 +3,9 @@ package edu.ncsu.csc.itrust2.unit;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
+import java.time.LocalDate;
 import java.time.ZonedDateTime;
 
 import org.junit.Test;
@@ -13,6 +15,7 @@ import edu.ncsu.csc.itrust2.models.enums.TransactionType;
 import edu.ncsu.csc.itrust2.models.persistent.DomainObject;
 import edu.ncsu.csc.itrust2.models.persistent.Hospital;
 import edu.ncsu.csc.itrust2.models.persistent.LogEntry;
+import edu.ncsu.csc.itrust2.models.persistent.Prescription;
 import edu.ncsu.csc.itrust2.models.persistent.User;
 
 public class DomainObjectTest {
@@ -86,6 +89,33 @@ public class DomainObjectTest {
         assertEquals( h2.getName(), ( (Hospital) Hospital.getById( Hospital.class, h.getId() ) ).getName() );
     }
 
+    @Test
+    public void testCopyWithoutId () {
+        final Prescription p = new Prescription();
+        p.setId( 42L );
+        p.setDosage( 100 );
+        p.setRenewals( 3 );
+        p.setStartDate( LocalDate.of( 2018, 1, 31 ) );
+
+        final Prescription p2 = new Prescription();
+        p2.copyFrom( p, false );
+        assertNull( p2.getId() );
+        assertEquals( 100, p2.getDosage() );
+        assertEquals( 3, p2.getRenewals() );
+        assertEquals( p.getStartDate(), p2.getStartDate() );
+
+        p2.copyFrom( p, true );
+        assertEquals( Long.valueOf( 42L ), p2.getId() );
+
+        try {
+            p2.copyFrom( new Hospital(), true );
+            fail( "Copied between different types" );
+        }
+        catch ( final IllegalArgumentException e ) {
+            // expected
+        }
+    }
+
     @Test
     public void testGetBy () {
         assertNull( DomainObject.getBy( User.class, "a", "b" ) );
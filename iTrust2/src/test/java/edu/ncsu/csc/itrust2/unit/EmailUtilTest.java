@@ -1,13 +1,27 @@
 package edu.ncsu.csc.itrust2.unit;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.mail.MessagingException;
 
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
+import edu.ncsu.csc.itrust2.models.persistent.OutboundEmail;
 import edu.ncsu.csc.itrust2.utils.EmailUtil;
+import edu.ncsu.csc.itrust2.utils.MailTransport;
+import edu.ncsu.csc.itrust2.utils.NotificationQueue;
 
 /**
  * Test the EmailUtil class
@@ -18,6 +32,29 @@ import edu.ncsu.csc.itrust2.utils.EmailUtil;
  */
 public class EmailUtilTest {
 
+    /**
+     * Stands in for the mail server
+     */
+    private final MemoryTransport transport = new MemoryTransport();
+
+    /**
+     * Starts each test with an empty queue and the stand-in transport
+     */
+    @Before
+    public void setup () {
+        OutboundEmail.deleteAll();
+        NotificationQueue.setTransport( transport );
+    }
+
+    /**
+     * Clears out anything the test left behind
+     */
+    @After
+    public void tearDown () {
+        transport.down = false;
+        OutboundEmail.deleteAll();
+    }
+
     @Test
     public void testEmail () {
         final String email = "kli11@ncsu.edu";
@@ -31,6 +68,198 @@ public class EmailUtilTest {
         EmailUtil.sendEmail( EmailUtil.getSystemEmail(), "iTrust2: Password Changed", a );
 
         assertNotNull( a );
+        awaitQueue();
+        assertEquals( 1, transport.sent.size() );
+        assertEquals( EmailUtil.getSystemEmail(), transport.sent.get( 0 ).getAddress() );
+        assertEquals( a, transport.sent.get( 0 ).getBody() );
+    }
+
+    /**
+     * Sending only queues the email; a slow mail server does not hold up the
+     * caller
+     *
+     * @throws MessagingException
+     */
+    @Test
+    public void testSendDoesNotWait () throws MessagingException {
+        transport.delayMs = 2000;
+        final long start = System.currentTimeMillis();
+        EmailUtil.sendEmail( EmailUtil.getSystemEmail(), "iTrust2: Appointment Status Updated", "Slow" );
+        assertTrue( System.currentTimeMillis() - start < transport.delayMs );
+        transport.delayMs = 0;
+        awaitQueue();
+        assertEquals( 1, transport.sent.size() );
+    }
+
+    /**
+     * An email that cannot be sent stays queued, is retried after a delay,
+     * and is marked as failed once it runs out of attempts
+     *
+     * @throws MessagingException
+     */
+    @Test
+    public void testRetry () throws MessagingException {
+        transport.down = true;
+        EmailUtil.sendEmail( EmailUtil.getSystemEmail(), "iTrust2 Password Reset", "Try again" );
+        NotificationQueue.flush();
+
+        final long failedBefore = NotificationQueue.getFailed();
+        OutboundEmail email = awaitAttempt( 1 );
+        assertTrue( email.getNextAttempt() > System.currentTimeMillis() );
+        assertNotNull( email.getLastError() );
+
+        // Nothing is due yet, so nothing is tried
+        NotificationQueue.flush();
+        assertEquals( 1, OutboundEmail.getById( email.getId() ).getAttempts() );
+
+        // Skip the waits until it is given up on
+        int attempts = 1;
+        while ( !email.isFailed() ) {
+            email.setNextAttempt( 0 );
+            email.save();
+            NotificationQueue.flush();
+            email = awaitAttempt( ++attempts );
+        }
+        assertEquals( 1, OutboundEmail.getFailed().size() );
+        assertEquals( failedBefore + 1, NotificationQueue.getFailed() );
+        assertEquals( 0, OutboundEmail.countPending() );
+        assertTrue( transport.sent.isEmpty() );
+    }
+
+    /**
+     * Emails that are due together go out together, not one connection each
+     */
+    @Test
+    public void testBurst () {
+        for ( int i = 0; i < 50; i++ ) {
+            new OutboundEmail( EmailUtil.getSystemEmail(), "iTrust2: Burst", "Email " + i ).save();
+        }
+        awaitQueue();
+        assertEquals( 50, transport.sent.size() );
+        assertTrue( "Sent " + transport.batches + " batches", transport.batches.get() < 50 );
+    }
+
+    /**
+     * An email claimed by one sender is not handed to another until the claim
+     * runs out, as if the two were on different servers
+     */
+    @Test
+    public void testClaimsExclusive () {
+        final OutboundEmail email = new OutboundEmail( EmailUtil.getSystemEmail(), "iTrust2: Claimed", "Once" );
+        email.setClaimedBy( "elsewhere" );
+        email.setClaimedUntil( System.currentTimeMillis() + 60000 );
+        email.save();
+        NotificationQueue.flush();
+        assertTrue( transport.sent.isEmpty() );
+        assertEquals( "elsewhere", OutboundEmail.getById( email.getId() ).getClaimedBy() );
+
+        final String first = "first" + System.currentTimeMillis();
+        final String second = "second" + System.currentTimeMillis();
+        assertTrue( OutboundEmail.claim( second, 10, 60000 ).isEmpty() );
+
+        // The other sender stopped without sending it. The background
+        // dispatcher may get to it first, but only one of them can.
+        email.setClaimedUntil( System.currentTimeMillis() - 1 );
+        email.save();
+        final List<OutboundEmail> claimed = OutboundEmail.claim( first, 10, 60000 );
+        assertTrue( OutboundEmail.claim( second, 10, 60000 ).isEmpty() );
+        if ( claimed.isEmpty() ) {
+            awaitQueue();
+            assertEquals( 1, transport.sent.size() );
+        }
+        else {
+            assertEquals( email.getId(), claimed.get( 0 ).getId() );
+            assertEquals( first, OutboundEmail.getById( email.getId() ).getClaimedBy() );
+            assertTrue( transport.sent.isEmpty() );
+        }
+    }
+
+    /**
+     * An address that cannot be parsed is turned away rather than queued
+     */
+    @Test
+    public void testBadAddress () {
+        try {
+            EmailUtil.sendEmail( "not an@@address", "iTrust2", "Nope" );
+            fail( "Bad address was queued" );
+        }
+        catch ( final MessagingException e ) {
+            assertEquals( 0, OutboundEmail.countPending() );
+        }
+    }
+
+    /**
+     * Waits for the queue to be emptied, sending what is due from this thread
+     * as well
+     */
+    private void awaitQueue () {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while ( OutboundEmail.countPending() > 0 ) {
+            assertTrue( "Queue was not emptied", System.currentTimeMillis() < deadline );
+            NotificationQueue.flush();
+            sleep();
+        }
+    }
+
+    /**
+     * Waits for the only queued email to have been tried the number of times
+     * given
+     *
+     * @param attempts
+     *            Number of attempts to wait for
+     * @return The email
+     */
+    private OutboundEmail awaitAttempt ( final int attempts ) {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while ( true ) {
+            final List<OutboundEmail> all = OutboundEmail.getAll();
+            final OutboundEmail email = all.isEmpty() ? null : all.get( 0 );
+            if ( null != email && email.getAttempts() >= attempts ) {
+                return email;
+            }
+            assertTrue( "Email was not tried", System.currentTimeMillis() < deadline );
+            sleep();
+        }
+    }
+
+    private void sleep () {
+        try {
+            Thread.sleep( 50 );
+        }
+        catch ( final InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Keeps the emails it is given instead of sending them
+     */
+    private static class MemoryTransport implements MailTransport {
+
+        final List<OutboundEmail> sent    = new Vector<OutboundEmail>();
+
+        volatile boolean          down    = false;
+
+        volatile long             delayMs = 0;
+
+        final AtomicInteger       batches = new AtomicInteger();
+
+        @Override
+        public Map<OutboundEmail, MessagingException> send ( final List<OutboundEmail> batch )
+                throws MessagingException {
+            if ( down ) {
+                throw new MessagingException( "Mail server is down" );
+            }
+            try {
+                Thread.sleep( delayMs );
+            }
+            catch ( final InterruptedException e ) {
+                Thread.currentThread().interrupt();
+            }
+            batches.incrementAndGet();
+            sent.addAll( batch );
+            return Collections.emptyMap();
+        }
     }
 
 }
@@ -0,0 +1,50 @@
+package edu.ncsu.csc.itrust2.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import edu.ncsu.csc.itrust2.utils.ExpiringCache;
+
+/**
+ * Unit tests for the ExpiringCache
+ */
+public class ExpiringCacheTest {
+
+    /**
+     * A value loaded while the key was being invalidated is returned but not
+     * kept, so the next lookup loads it again
+     */
+    @Test
+    public void testLoadOverlappingInvalidationNotStored () {
+        final ExpiringCache<String, String> cache = new ExpiringCache<String, String>( 60 * 1000, 10 );
+        assertEquals( "stale", cache.get( "key", k -> {
+            // The source changes while the old value is being read
+            cache.invalidate( k );
+            return "stale";
+        } ) );
+        assertNull( cache.get( "key" ) );
+
+        assertEquals( "fresh", cache.get( "key", k -> "fresh" ) );
+        assertEquals( "fresh", cache.get( "key" ) );
+    }
+
+    /**
+     * putIfUnchanged only stores a value when nothing has been invalidated
+     * since the generation it was given
+     */
+    @Test
+    public void testPutIfUnchanged () {
+        final ExpiringCache<String, String> cache = new ExpiringCache<String, String>( 60 * 1000, 10 );
+        final long before = cache.generation();
+        cache.clear();
+        assertFalse( cache.putIfUnchanged( "key", "old", before ) );
+        assertNull( cache.get( "key" ) );
+        assertTrue( cache.putIfUnchanged( "key", "new", cache.generation() ) );
+        assertEquals( "new", cache.get( "key" ) );
+    }
+
+}
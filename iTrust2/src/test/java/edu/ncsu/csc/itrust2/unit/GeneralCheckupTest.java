@@ -1,13 +1,19 @@
 package edu.ncsu.csc.itrust2.unit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
 import java.text.ParseException;
 import java.time.LocalDate;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.Vector;
 
 import org.junit.Test;
@@ -168,6 +174,183 @@ public class GeneralCheckupTest {
         visit.delete();
     }
 
+    /**
+     * Saving a visit again, after some of its prescriptions and lab procedures
+     * were taken off it and others kept or changed, deletes the rows of the
+     * ones taken off and leaves those kept under the IDs they had
+     */
+    @Test
+    public void testSaveAgain () {
+        final User patient = User.getByName( "AliceThirteen" );
+        final User hcp = User.getByName( "hcp" );
+        final Hospital hosp = new Hospital( "Dr. Jenkins' Insane Asylum", "123 Main St", "12345", "NC" );
+        hosp.save();
+
+        final BasicHealthMetrics bhm = new BasicHealthMetrics();
+        bhm.setDiastolic( 100 );
+        bhm.setHcp( hcp );
+        bhm.setPatient( patient );
+        bhm.setHdl( 75 );
+        bhm.setHeight( 75f );
+        bhm.setHouseSmokingStatus( HouseholdSmokingStatus.NONSMOKING );
+        bhm.save();
+
+        final GeneralCheckup visit = new GeneralCheckup();
+        visit.setBasicHealthMetrics( bhm );
+        visit.setType( AppointmentType.GENERAL_CHECKUP );
+        visit.setHospital( hosp );
+        visit.setPatient( patient );
+        visit.setHcp( hcp );
+        visit.setDate( ZonedDateTime.now() );
+
+        Drug drug = Drug.getByCode( "1234-4321-90" );
+        if ( null == drug ) {
+            drug = new Drug();
+            drug.setCode( "1234-4321-90" );
+            drug.setDescription( "Kept and dropped" );
+            drug.setName( "Resavium" );
+            drug.save();
+        }
+        final List<Prescription> prescriptions = new ArrayList<Prescription>();
+        for ( int i = 1; i <= 3; i++ ) {
+            final Prescription pres = new Prescription();
+            pres.setDosage( i );
+            pres.setDrug( drug );
+            pres.setPatient( patient );
+            pres.setStartDate( LocalDate.now() );
+            pres.setEndDate( LocalDate.now().plusDays( 10 ) );
+            pres.setRenewals( 0 );
+            prescriptions.add( pres );
+        }
+        visit.setPrescriptions( prescriptions );
+
+        final User tech = User.getByRole( Role.ROLE_LABTECH ).get( 0 );
+        final List<LabProcedure> procs = new ArrayList<LabProcedure>();
+        for ( int i = 1; i <= 3; i++ ) {
+            final LabProcedure proc = new LabProcedure();
+            proc.setLoinc( LOINC.getAll().get( 0 ) );
+            proc.setPriority( Priority.HIGH );
+            proc.setStatus( LabStatus.ASSIGNED );
+            proc.setPatient( patient );
+            proc.setAssignedTech( tech );
+            proc.setComments( "Procedure " + i );
+            procs.add( proc );
+        }
+        visit.setLabProcedures( procs );
+        visit.save();
+
+        assertEquals( 3, Prescription.getForVisit( visit.getId() ).size() );
+        assertEquals( 3, LabProcedure.getByVisit( visit.getId() ).size() );
+
+        // Drop the first of each, keep the second as it is, change the third
+        final Prescription droppedPrescription = prescriptions.get( 0 );
+        final LabProcedure droppedProc = procs.get( 0 );
+        prescriptions.get( 2 ).setDosage( 30 );
+        procs.get( 2 ).setComments( "Changed" );
+        visit.setPrescriptions( new ArrayList<Prescription>( prescriptions.subList( 1, 3 ) ) );
+        visit.setLabProcedures( new ArrayList<LabProcedure>( procs.subList( 1, 3 ) ) );
+        visit.save();
+
+        final List<Prescription> savedPrescriptions = Prescription.getForVisit( visit.getId() );
+        assertEquals( ids( prescriptions.get( 1 ).getId(), prescriptions.get( 2 ).getId() ),
+                ids( savedPrescriptions.stream().map( Prescription::getId ).toArray( Long[]::new ) ) );
+        assertFalse( Prescription.getPrescriptions().stream()
+                .anyMatch( p -> p.getId().equals( droppedPrescription.getId() ) ) );
+        assertEquals( 30, Prescription.getById( prescriptions.get( 2 ).getId() ).getDosage() );
+
+        final List<LabProcedure> savedProcs = LabProcedure.getByVisit( visit.getId() );
+        assertEquals( ids( procs.get( 1 ).getId(), procs.get( 2 ).getId() ),
+                ids( savedProcs.stream().map( LabProcedure::getId ).toArray( Long[]::new ) ) );
+        assertNull( LabProcedure.getById( droppedProc.getId() ) );
+        assertNotNull( LabProcedure.getById( procs.get( 1 ).getId() ) );
+        assertEquals( "Changed", LabProcedure.getById( procs.get( 2 ).getId() ).getComments() );
+
+        // Taking everything off leaves nothing behind
+        visit.setPrescriptions( Collections.emptyList() );
+        visit.setLabProcedures( Collections.emptyList() );
+        visit.save();
+        assertEquals( 0, Prescription.getForVisit( visit.getId() ).size() );
+        assertEquals( 0, LabProcedure.getByVisit( visit.getId() ).size() );
+
+        visit.delete();
+    }
+
+    /**
+     * Saving a visit whose lab procedures were left out, as an edit that does
+     * not send them does, keeps the ones saved before along with the work lab
+     * techs have done on them
+     */
+    @Test
+    public void testSaveWithoutLabProcedures () {
+        final User patient = User.getByName( "AliceThirteen" );
+        final User hcp = User.getByName( "hcp" );
+        final Hospital hosp = new Hospital( "Dr. Jenkins' Insane Asylum", "123 Main St", "12345", "NC" );
+        hosp.save();
+
+        final BasicHealthMetrics bhm = new BasicHealthMetrics();
+        bhm.setDiastolic( 100 );
+        bhm.setHcp( hcp );
+        bhm.setPatient( patient );
+        bhm.setHdl( 75 );
+        bhm.setHeight( 75f );
+        bhm.setHouseSmokingStatus( HouseholdSmokingStatus.NONSMOKING );
+        bhm.save();
+
+        final GeneralCheckup visit = new GeneralCheckup();
+        visit.setBasicHealthMetrics( bhm );
+        visit.setType( AppointmentType.GENERAL_CHECKUP );
+        visit.setHospital( hosp );
+        visit.setPatient( patient );
+        visit.setHcp( hcp );
+        visit.setDate( ZonedDateTime.now() );
+        visit.setPrescriptions( Collections.emptyList() );
+
+        final User tech = User.getByRole( Role.ROLE_LABTECH ).get( 0 );
+        final List<LabProcedure> procs = new ArrayList<LabProcedure>();
+        for ( int i = 1; i <= 2; i++ ) {
+            final LabProcedure proc = new LabProcedure();
+            proc.setLoinc( LOINC.getAll().get( 0 ) );
+            proc.setPriority( Priority.HIGH );
+            proc.setStatus( LabStatus.ASSIGNED );
+            proc.setPatient( patient );
+            proc.setAssignedTech( tech );
+            proc.setComments( "Procedure " + i );
+            procs.add( proc );
+        }
+        visit.setLabProcedures( procs );
+        visit.save();
+
+        // A lab tech starts on one of them
+        final LabProcedure started = LabProcedure.getById( procs.get( 0 ).getId() );
+        started.setStatus( LabStatus.IN_PROGRESS );
+        started.setComments( "Sample taken" );
+        started.save();
+
+        visit.setLabProcedures( null );
+        visit.setNotes( "Edited without the lab procedures" );
+        visit.save();
+
+        final List<LabProcedure> savedProcs = LabProcedure.getByVisit( visit.getId() );
+        assertEquals( ids( procs.get( 0 ).getId(), procs.get( 1 ).getId() ),
+                ids( savedProcs.stream().map( LabProcedure::getId ).toArray( Long[]::new ) ) );
+        assertEquals( LabStatus.IN_PROGRESS, LabProcedure.getById( started.getId() ).getStatus() );
+        assertEquals( "Sample taken", LabProcedure.getById( started.getId() ).getComments() );
+
+        visit.setLabProcedures( LabProcedure.getByVisit( visit.getId() ) );
+        visit.delete();
+    }
+
+    /**
+     * Collects IDs so that they can be compared without regard to order
+     *
+     * @param ids
+     *            The IDs
+     * @return The IDs, sorted
+     */
+    private static Set<Long> ids ( final Long... ids ) {
+        return new TreeSet<Long>( Arrays.asList( ids ) );
+    }
+
     @Test
     public void testGeneralCheckupForm () throws NumberFormatException, ParseException {
         final GeneralCheckupForm visit = new GeneralCheckupForm();
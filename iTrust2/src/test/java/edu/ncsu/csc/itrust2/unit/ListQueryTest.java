@@ -0,0 +1,145 @@
+package edu.ncsu.csc.itrust2.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ncsu.csc.itrust2.models.enums.Role;
+import edu.ncsu.csc.itrust2.models.persistent.ListQuery;
+import edu.ncsu.csc.itrust2.models.persistent.Page;
+import edu.ncsu.csc.itrust2.models.persistent.User;
+
+/**
+ * Tests reading filtered, sorted pages of DomainObjects through ListQuery
+ */
+public class ListQueryTest {
+
+    private static final String PREFIX = "listQuery";
+
+    private static final int    USERS  = 7;
+
+    /**
+     * Makes USERS users whose names share a prefix; the even ones are HCPs and
+     * the odd ones patients
+     */
+    @Before
+    public void setUp () {
+        for ( int i = 0; i < USERS; i++ ) {
+            User u = User.getByName( PREFIX + i );
+            if ( null == u ) {
+                u = new User( PREFIX + i, "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.",
+                        Role.ROLE_HCP, 1 );
+            }
+            u.setRole( i % 2 == 0 ? Role.ROLE_HCP : Role.ROLE_PATIENT );
+            u.save();
+        }
+    }
+
+    /**
+     * Walking the pages by cursor visits every matching user once, in order
+     */
+    @Test
+    public void testKeysetPaging () {
+        final Map<String, String> params = new HashMap<String, String>();
+        params.put( "username.starts", PREFIX );
+        params.put( "limit", "3" );
+        params.put( "count", "true" );
+
+        final List<String> seen = new ArrayList<String>();
+        Page<User> page = User.getPage( ListQuery.parse( User.QUERY, params ) );
+        assertEquals( Long.valueOf( USERS ), page.getTotal() );
+        while ( true ) {
+            assertTrue( page.getItems().size() <= 3 );
+            for ( final User u : page.getItems() ) {
+                seen.add( u.getUsername() );
+            }
+            if ( null == page.getNext() ) {
+                break;
+            }
+            params.put( "after", page.getNext() );
+            page = User.getPage( ListQuery.parse( User.QUERY, params ) );
+        }
+
+        assertEquals( USERS, seen.size() );
+        for ( int i = 0; i < USERS; i++ ) {
+            assertEquals( PREFIX + i, seen.get( i ) );
+        }
+    }
+
+    /**
+     * Sorting on a field with repeated values is broken by the key, and
+     * filters on enums and offsets are applied in the database
+     */
+    @Test
+    public void testSortAndFilter () {
+        final Map<String, String> params = new HashMap<String, String>();
+        params.put( "username.starts", PREFIX );
+        params.put( "sort", "role,desc" );
+        params.put( "limit", "10" );
+        List<User> users = User.getPage( ListQuery.parse( User.QUERY, params ) ).getItems();
+        assertEquals( USERS, users.size() );
+        // ROLE_PATIENT sorts after ROLE_HCP, so comes first descending
+        assertEquals( PREFIX + "1", users.get( 0 ).getUsername() );
+        assertEquals( PREFIX + "6", users.get( USERS - 1 ).getUsername() );
+
+        params.remove( "sort" );
+        params.put( "role", "ROLE_PATIENT" );
+        params.put( "offset", "1" );
+        final Page<User> page = User.getPage( ListQuery.parse( User.QUERY, params ) );
+        users = page.getItems();
+        assertEquals( 2, users.size() );
+        assertEquals( PREFIX + "3", users.get( 0 ).getUsername() );
+        assertNull( page.getNext() );
+        assertNull( page.getTotal() );
+
+        params.put( "limit", "1" );
+        assertNotNull( User.getPage( ListQuery.parse( User.QUERY, params ) ).getNext() );
+    }
+
+    /**
+     * Parameters that do not make sense are rejected rather than ignored
+     */
+    @Test
+    public void testInvalid () {
+        final String[][] bad = { { "password", "x" }, { "role", "ROLE_NOBODY" }, { "enabled.gt", "yes" },
+                { "limit", "0" }, { "limit", "100000" }, { "offset", "-1" }, { "sort", "password" },
+                { "after", "not a cursor" } };
+        for ( final String[] param : bad ) {
+            final Map<String, String> params = new HashMap<String, String>();
+            params.put( param[0], param[1] );
+            try {
+                ListQuery.parse( User.QUERY, params );
+                fail( "Accepted " + param[0] + "=" + param[1] );
+            }
+            catch ( final IllegalArgumentException e ) {
+                // expected
+            }
+        }
+
+        final Map<String, String> params = new HashMap<String, String>();
+        params.put( "username.starts", PREFIX );
+        params.put( "limit", "1" );
+        final String cursor = User.getPage( ListQuery.parse( User.QUERY, params ) ).getNext();
+        assertNotNull( cursor );
+        params.put( "after", cursor );
+        params.put( "offset", "3" );
+        try {
+            ListQuery.parse( User.QUERY, params );
+            fail( "Accepted both offset and after" );
+        }
+        catch ( final IllegalArgumentException e ) {
+            // expected
+        }
+    }
+
+}
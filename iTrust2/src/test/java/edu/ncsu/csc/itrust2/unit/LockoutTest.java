@@ -12,6 +12,7 @@ import java.time.ZonedDateTime;
 import org.junit.Test;
 
 import edu.ncsu.csc.itrust2.models.enums.Role;
+import edu.ncsu.csc.itrust2.models.persistent.DomainObject;
 import edu.ncsu.csc.itrust2.models.persistent.LoginAttempt;
 import edu.ncsu.csc.itrust2.models.persistent.LoginBan;
 import edu.ncsu.csc.itrust2.models.persistent.LoginLockout;
@@ -140,4 +141,20 @@ public class LockoutTest {
 
         assertNull( ban.getUser() );
     }
+
+    /**
+     * Deleting every ban at once also forgets the cached answers
+     */
+    @Test
+    public void testBanCacheClearedByDeleteAll () {
+        final String ip = "112.112.112.112";
+        final LoginBan ban = new LoginBan();
+        ban.setIp( ip );
+        ban.setTime( ZonedDateTime.now() );
+        ban.save();
+        assertTrue( LoginBan.isIPBanned( ip ) );
+
+        DomainObject.deleteAll( LoginBan.class );
+        assertFalse( LoginBan.isIPBanned( ip ) );
+    }
 }
@@ -2,9 +2,13 @@ package edu.ncsu.csc.itrust2.unit;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
 
 import org.junit.Test;
 
+import edu.ncsu.csc.itrust2.adapters.TransactionTypeAttributeConverter;
 import edu.ncsu.csc.itrust2.models.enums.TransactionType;
 import edu.ncsu.csc.itrust2.models.persistent.LogEntry;
 import edu.ncsu.csc.itrust2.models.persistent.User;
@@ -65,4 +69,32 @@ public class LogTest {
         assertEquals( null, sameUserEntry.getSecondaryUser() );
 
     }
+
+    /**
+     * Log codes are stored as the TransactionType's own code, which maps back
+     * to the same TransactionType, and a patient's view of their log only
+     * includes the events they may see
+     */
+    @Test
+    public void testLogCodes () {
+        final TransactionTypeAttributeConverter converter = new TransactionTypeAttributeConverter();
+        for ( final TransactionType type : TransactionType.values() ) {
+            assertEquals( Integer.valueOf( type.getCode() ), converter.convertToDatabaseColumn( type ) );
+            assertEquals( type, converter.convertToEntityAttribute( type.getCode() ) );
+        }
+        assertNull( TransactionType.parse( -1 ) );
+
+        final int before = LogEntry.getAllForUser( "codePatient" ).size();
+        final long visibleBefore = LogEntry.countForUser( "codePatient", true, null, null );
+        LoggerUtil.log( TransactionType.OPH_SURG_REQ_DENIED, "codePatient", "codeHcp", "visible" );
+        LoggerUtil.log( TransactionType.VIEW_USER, "codePatient", "codeHcp", "not visible" );
+        assertEquals( 2, LogEntry.getAllForUser( "codePatient" ).size() - before );
+
+        final List<LogEntry> visible = LogEntry.getPageForUser( "codePatient", true, null, null, null, null, 0, 10 );
+        assertEquals( TransactionType.OPH_SURG_REQ_DENIED, visible.get( 0 ).getLogCode() );
+        for ( final LogEntry e : visible ) {
+            assertEquals( true, e.getLogCode().isPatientViewable() );
+        }
+        assertEquals( visibleBefore + 1, LogEntry.countForUser( "codePatient", true, null, null ) );
+    }
 }
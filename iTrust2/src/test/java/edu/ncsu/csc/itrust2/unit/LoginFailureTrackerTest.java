@@ -0,0 +1,197 @@
+package edu.ncsu.csc.itrust2.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import edu.ncsu.csc.itrust2.utils.LoginFailureTracker;
+import edu.ncsu.csc.itrust2.utils.SlidingWindowCounter;
+
+/**
+ * Unit tests for the in-memory failed login counters
+ */
+public class LoginFailureTrackerTest {
+
+    /**
+     * Number of threads failing at once in the stress tests
+     */
+    private static final int THREADS = 16;
+
+    /**
+     * Number of failures each thread records in the stress tests
+     */
+    private static final int PER_THREAD = 500;
+
+    /**
+     * The limits trip on the failure after the last one allowed, and the count
+     * starts over from there
+     */
+    @Test
+    public void testLimits () {
+        final String ip = "10.0.0." + System.nanoTime() % 250;
+        LoginFailureTracker.clearIP( ip );
+        for ( int i = 0; i < LoginFailureTracker.IP_LIMIT; i++ ) {
+            assertFalse( LoginFailureTracker.failIP( ip ) );
+        }
+        assertEquals( LoginFailureTracker.IP_LIMIT, LoginFailureTracker.getIPFailures( ip ) );
+        assertTrue( LoginFailureTracker.failIP( ip ) );
+        assertEquals( 0, LoginFailureTracker.getIPFailures( ip ) );
+
+        final String user = "trackerUser" + System.nanoTime();
+        assertFalse( LoginFailureTracker.failUser( user ) );
+        assertFalse( LoginFailureTracker.failUser( user ) );
+        LoginFailureTracker.clearUser( user );
+        assertEquals( 0, LoginFailureTracker.getUserFailures( user ) );
+        assertFalse( LoginFailureTracker.failUser( user ) );
+        assertFalse( LoginFailureTracker.failUser( user ) );
+        assertTrue( LoginFailureTracker.failUser( user ) );
+
+        assertTrue( LoginFailureTracker.getMetrics().get( "login.lockouts.user" ) >= 1 );
+    }
+
+    /**
+     * Failures older than the window stop counting
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testWindowSlides () throws InterruptedException {
+        final SlidingWindowCounter<String> counter = new SlidingWindowCounter<String>( 3, 200, 4, 10 );
+        counter.record( "a" );
+        counter.record( "a" );
+        assertEquals( 2, counter.count( "a" ) );
+        Thread.sleep( 300 );
+        assertEquals( 0, counter.count( "a" ) );
+        assertFalse( counter.record( "a" ) );
+        assertEquals( 1, counter.count( "a" ) );
+    }
+
+    /**
+     * Keys with nothing left in the window are dropped once there are too
+     * many
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testSweep () throws InterruptedException {
+        final SlidingWindowCounter<Integer> counter = new SlidingWindowCounter<Integer>( 3, 100, 4, 10 );
+        for ( int i = 0; i < 10; i++ ) {
+            counter.record( i );
+        }
+        Thread.sleep( 200 );
+        counter.record( 100 );
+        assertEquals( 1, counter.size() );
+    }
+
+    /**
+     * The limit on keys holds even when every key is still in the window; the
+     * oldest keys are the ones dropped
+     */
+    @Test
+    public void testKeyLimitHeld () {
+        final SlidingWindowCounter<Integer> counter = new SlidingWindowCounter<Integer>( 3, 60 * 60 * 1000, 4, 10 );
+        for ( int i = 0; i < 25; i++ ) {
+            counter.record( i );
+            // Leaves an out-of-date entry in the queue behind
+            counter.clear( i - 1 );
+            counter.record( i - 1 );
+        }
+        assertEquals( 10, counter.size() );
+        assertEquals( 0, counter.count( 0 ) );
+        assertEquals( 1, counter.count( 24 ) );
+    }
+
+    /**
+     * Thousands of failures from one IP at once: every sixth one trips the
+     * limit, exactly once, and none are lost
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testParallelFailuresOneKey () throws Exception {
+        final SlidingWindowCounter<String> counter = new SlidingWindowCounter<String>( LoginFailureTracker.IP_LIMIT,
+                60 * 60 * 1000, 60, 1000 );
+        final int trips = runInParallel( i -> counter.record( "192.168.1.1" ) );
+
+        final int total = THREADS * PER_THREAD;
+        assertEquals( total / ( LoginFailureTracker.IP_LIMIT + 1 ), trips );
+        assertEquals( total % ( LoginFailureTracker.IP_LIMIT + 1 ), counter.count( "192.168.1.1" ) );
+        assertEquals( total, counter.getRecorded() );
+        assertEquals( trips, counter.getTripped() );
+    }
+
+    /**
+     * Thousands of failures spread over many IPs at once
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testParallelFailuresManyKeys () throws Exception {
+        final SlidingWindowCounter<String> counter = new SlidingWindowCounter<String>( LoginFailureTracker.IP_LIMIT,
+                60 * 60 * 1000, 60, 100000 );
+        final int keys = 100;
+        final int trips = runInParallel( i -> counter.record( "10.1.0." + i % keys ) );
+
+        final int perKey = THREADS * PER_THREAD / keys;
+        assertEquals( keys * ( perKey / ( LoginFailureTracker.IP_LIMIT + 1 ) ), trips );
+        for ( int k = 0; k < keys; k++ ) {
+            assertEquals( perKey % ( LoginFailureTracker.IP_LIMIT + 1 ), counter.count( "10.1.0." + k ) );
+        }
+    }
+
+    /**
+     * Records failures from THREADS threads at once, all started together
+     *
+     * @param failure
+     *            Records the i'th failure of a thread, returning whether it
+     *            tripped the limit
+     * @return The number of failures that tripped the limit
+     * @throws Exception
+     */
+    private int runInParallel ( final Failure failure ) throws Exception {
+        final ExecutorService pool = Executors.newFixedThreadPool( THREADS );
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        try {
+            for ( int t = 0; t < THREADS; t++ ) {
+                results.add( pool.submit( (Callable<Integer>) () -> {
+                    start.await();
+                    int tripped = 0;
+                    for ( int i = 0; i < PER_THREAD; i++ ) {
+                        if ( failure.fail( i ) ) {
+                            tripped++;
+                        }
+                    }
+                    return tripped;
+                } ) );
+            }
+            start.countDown();
+            int trips = 0;
+            for ( final Future<Integer> result : results ) {
+                trips += result.get();
+            }
+            return trips;
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * One failed login in a stress test
+     */
+    private interface Failure {
+        boolean fail ( int i );
+    }
+
+}
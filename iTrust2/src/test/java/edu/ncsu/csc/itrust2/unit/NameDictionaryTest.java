@@ -0,0 +1,132 @@
+package edu.ncsu.csc.itrust2.unit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.ncsu.csc.itrust2.adapters.IpAddressAttributeConverter;
+import edu.ncsu.csc.itrust2.models.enums.TransactionType;
+import edu.ncsu.csc.itrust2.models.persistent.LogEntry;
+import edu.ncsu.csc.itrust2.utils.LoggerUtil;
+import edu.ncsu.csc.itrust2.utils.NameDictionary;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
+
+/**
+ * Unit tests for the NameDictionary and the compact forms usernames and IP
+ * addresses are stored in
+ */
+public class NameDictionaryTest {
+
+    /**
+     * A name keeps its number, whether it comes from the cache or the
+     * database, and names differing only in case get numbers of their own
+     */
+    @Test
+    public void testNumbersStable () {
+        final String name = "dictUser" + System.currentTimeMillis();
+        NameDictionary.assign( name );
+        final Integer id = NameDictionary.idFor( name );
+        assertNotEquals( NameDictionary.NONE, (int) id );
+        assertEquals( name, NameDictionary.nameFor( id ) );
+        NameDictionary.assign( name );
+        assertEquals( id, NameDictionary.idFor( name ) );
+
+        NameDictionary.clear();
+        assertEquals( id, NameDictionary.idFor( name ) );
+        NameDictionary.clear();
+        assertEquals( name, NameDictionary.nameFor( id ) );
+
+        NameDictionary.assign( name.toUpperCase() );
+        assertNotEquals( id, NameDictionary.idFor( name.toUpperCase() ) );
+        assertNull( NameDictionary.idFor( null ) );
+        assertNull( NameDictionary.nameFor( null ) );
+    }
+
+    /**
+     * Looking a name up, or searching the log for it, never gives it a number
+     */
+    @Test
+    public void testLookupsDoNotAdd () {
+        final String name = "dictNobody" + System.currentTimeMillis();
+        assertEquals( NameDictionary.NONE, (int) NameDictionary.idFor( name ) );
+        assertTrue( LogEntry.getAllForUser( name ).isEmpty() );
+        assertEquals( 0, LogEntry.countForUser( name, false, null, null ) );
+        NameDictionary.clear();
+        assertEquals( NameDictionary.NONE, (int) NameDictionary.idFor( name ) );
+    }
+
+    /**
+     * A number given inside a unit of work that is rolled back is not kept,
+     * in the database or the cache
+     */
+    @Test
+    public void testRolledBackNumberForgotten () {
+        final String name = "dictRollback" + System.currentTimeMillis();
+        UnitOfWork.begin();
+        try {
+            NameDictionary.assign( name );
+            assertNotEquals( NameDictionary.NONE, (int) NameDictionary.idFor( name ) );
+            UnitOfWork.setRollbackOnly();
+        }
+        finally {
+            UnitOfWork.end();
+        }
+        assertEquals( NameDictionary.NONE, (int) NameDictionary.idFor( name ) );
+    }
+
+    /**
+     * Log entries still read back with their usernames
+     */
+    @Test
+    public void testLogEntriesKeepUsers () {
+        final String user = "dictLog" + System.currentTimeMillis();
+        LoggerUtil.log( TransactionType.LOGIN_SUCCESS, user, "admin", "dictionary" );
+        NameDictionary.clear();
+
+        final List<LogEntry> entries = LogEntry.getAllForUser( user );
+        assertEquals( 1, entries.size() );
+        assertEquals( user, entries.get( 0 ).getPrimaryUser() );
+        assertEquals( "admin", entries.get( 0 ).getSecondaryUser() );
+    }
+
+    /**
+     * IPv4 addresses are stored as 4 bytes, even written as IPv6-mapped, and
+     * IPv6 addresses as 16, and read back as the server reports them; names
+     * are refused rather than looked up
+     */
+    @Test
+    public void testAddresses () {
+        final byte[] v4 = IpAddressAttributeConverter.toBytes( "111.111.111.111" );
+        assertArrayEquals( new byte[] { 111, 111, 111, 111 }, v4 );
+        assertEquals( "111.111.111.111", IpAddressAttributeConverter.toText( v4 ) );
+
+        final byte[] v6 = IpAddressAttributeConverter.toBytes( "0:0:0:0:0:0:0:1" );
+        assertEquals( 16, v6.length );
+        assertEquals( "0:0:0:0:0:0:0:1", IpAddressAttributeConverter.toText( v6 ) );
+        assertArrayEquals( v6, IpAddressAttributeConverter.toBytes( "::1" ) );
+
+        // The IPv6-mapped form of an IPv4 address is stored as the address
+        assertArrayEquals( new byte[] { 1, 2, 3, 4 }, IpAddressAttributeConverter.toBytes( "::ffff:1.2.3.4" ) );
+        assertArrayEquals( new byte[] { 1, 2, 3, 4 }, IpAddressAttributeConverter.toBytes( "::FFFF:102:304" ) );
+
+        assertNull( IpAddressAttributeConverter.toBytes( null ) );
+        assertNull( IpAddressAttributeConverter.toText( null ) );
+        for ( final String bad : new String[] { "localhost", "example.com", "1.2.3", "12:34:zz" } ) {
+            try {
+                IpAddressAttributeConverter.toBytes( bad );
+                fail( bad + " was accepted" );
+            }
+            catch ( final IllegalArgumentException e ) {
+                // expected
+            }
+        }
+    }
+
+}
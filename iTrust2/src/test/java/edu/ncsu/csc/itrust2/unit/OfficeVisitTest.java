@@ -0,0 +1,134 @@
+package edu.ncsu.csc.itrust2.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.text.ParseException;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ncsu.csc.itrust2.models.enums.AppointmentType;
+import edu.ncsu.csc.itrust2.models.enums.EyeSurgeryType;
+import edu.ncsu.csc.itrust2.models.enums.HouseholdSmokingStatus;
+import edu.ncsu.csc.itrust2.models.enums.PatientSmokingStatus;
+import edu.ncsu.csc.itrust2.models.persistent.BasicHealthMetrics;
+import edu.ncsu.csc.itrust2.models.persistent.GeneralCheckup;
+import edu.ncsu.csc.itrust2.models.persistent.GeneralOphthalmology;
+import edu.ncsu.csc.itrust2.models.persistent.Hospital;
+import edu.ncsu.csc.itrust2.models.persistent.OfficeVisit;
+import edu.ncsu.csc.itrust2.models.persistent.OphthalmologySurgery;
+import edu.ncsu.csc.itrust2.models.persistent.User;
+import edu.ncsu.csc.itrust2.utils.HibernateDataGenerator;
+
+/**
+ * Tests that office visits of every type are read back together, in date
+ * order, and can be paged.
+ */
+public class OfficeVisitTest {
+
+    /**
+     * Visit date to start from
+     */
+    private static final ZonedDateTime START = ZonedDateTime.parse( "2048-04-20T16:20:00.000-04:00" );
+
+    /**
+     * Hospital the visits take place at
+     */
+    private Hospital                   hospital;
+
+    /**
+     * Starts from a fresh database with one visit of each type for
+     * AliceThirteen, saved out of date order
+     *
+     * @throws ParseException
+     * @throws NumberFormatException
+     */
+    @Before
+    public void setup () throws NumberFormatException, ParseException {
+        HibernateDataGenerator.refreshDB();
+        hospital = new Hospital( "Visit Test Hospital", "123 Main St", "12345", "NC" );
+        hospital.save();
+
+        final OphthalmologySurgery surgery = new OphthalmologySurgery();
+        surgery.setSurgeryType( EyeSurgeryType.CATARACT );
+        save( surgery, AppointmentType.OPHTHALMOLOGY_SURGERY, "robortOPH", 2 );
+
+        save( new GeneralCheckup(), AppointmentType.GENERAL_CHECKUP, "bobbyOD", 0 );
+
+        final GeneralOphthalmology eyes = new GeneralOphthalmology();
+        eyes.setDiagnosis( Arrays.asList( "Glaucoma" ) );
+        save( eyes, AppointmentType.GENERAL_OPHTHALMOLOGY, "bobbyOD", 1 );
+    }
+
+    /**
+     * Every type of visit comes back from the one query, oldest first, as its
+     * own class
+     */
+    @Test
+    public void testPolymorphicRead () {
+        final List<OfficeVisit> visits = OfficeVisit.getForPatient( "AliceThirteen" );
+        assertEquals( 3, visits.size() );
+        assertTrue( visits.get( 0 ) instanceof GeneralCheckup );
+        assertTrue( visits.get( 1 ) instanceof GeneralOphthalmology );
+        assertTrue( visits.get( 2 ) instanceof OphthalmologySurgery );
+        assertEquals( EyeSurgeryType.CATARACT, ( (OphthalmologySurgery) visits.get( 2 ) ).getSurgeryType() );
+
+        assertEquals( visits, OfficeVisit.getOfficeVisits() );
+        assertEquals( 2, OfficeVisit.getForHCP( "bobbyOD" ).size() );
+        assertEquals( visits.get( 2 ), OfficeVisit.getById( visits.get( 2 ).getId() ) );
+        assertEquals( visits.get( 0 ).getId(), GeneralCheckup.getById( visits.get( 0 ).getId() ).getId() );
+    }
+
+    /**
+     * Pages are applied by the database, in date order
+     */
+    @Test
+    public void testPaging () {
+        final List<OfficeVisit> all = OfficeVisit.getForPatient( "AliceThirteen" );
+
+        assertEquals( all.subList( 0, 2 ), OfficeVisit.getForPatient( "AliceThirteen", 0, 2 ) );
+        assertEquals( all.subList( 2, 3 ), OfficeVisit.getForPatient( "AliceThirteen", 2, 2 ) );
+        assertEquals( all.subList( 1, 2 ), OfficeVisit.getForHCP( "bobbyOD", 1, 1 ) );
+
+        final List<OfficeVisit> eyes = OfficeVisit.getForTypes(
+                EnumSet.of( AppointmentType.GENERAL_OPHTHALMOLOGY, AppointmentType.OPHTHALMOLOGY_SURGERY ), 0, 0 );
+        assertEquals( all.subList( 1, 3 ), eyes );
+    }
+
+    /**
+     * Fills in and saves a visit for AliceThirteen
+     *
+     * @param visit
+     *            The visit to save
+     * @param type
+     *            Its type
+     * @param hcp
+     *            Name of the HCP
+     * @param days
+     *            Days after START that it takes place
+     */
+    private void save ( final OfficeVisit visit, final AppointmentType type, final String hcp, final int days ) {
+        final BasicHealthMetrics bhm = new BasicHealthMetrics();
+        bhm.setHcp( User.getByName( hcp ) );
+        bhm.setPatient( User.getByName( "AliceThirteen" ) );
+        bhm.setHeight( 75f );
+        bhm.setWeight( 130f );
+        bhm.setHouseSmokingStatus( HouseholdSmokingStatus.NONSMOKING );
+        bhm.setPatientSmokingStatus( PatientSmokingStatus.NEVER );
+        bhm.save();
+
+        visit.setBasicHealthMetrics( bhm );
+        visit.setType( type );
+        visit.setHospital( hospital );
+        visit.setPatient( User.getByName( "AliceThirteen" ) );
+        visit.setHcp( User.getByName( hcp ) );
+        visit.setDate( START.plusDays( days ) );
+        visit.save();
+    }
+
+}
@@ -0,0 +1,315 @@
+package edu.ncsu.csc.itrust2.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ncsu.csc.itrust2.forms.hcp.GeneralCheckupForm;
+import edu.ncsu.csc.itrust2.models.enums.AppointmentType;
+import edu.ncsu.csc.itrust2.models.enums.HouseholdSmokingStatus;
+import edu.ncsu.csc.itrust2.models.enums.PatientSmokingStatus;
+import edu.ncsu.csc.itrust2.models.persistent.Diagnosis;
+import edu.ncsu.csc.itrust2.models.persistent.DomainObject;
+import edu.ncsu.csc.itrust2.models.persistent.Drug;
+import edu.ncsu.csc.itrust2.models.persistent.GeneralCheckup;
+import edu.ncsu.csc.itrust2.models.persistent.ICDCode;
+import edu.ncsu.csc.itrust2.models.persistent.OfficeVisit;
+import edu.ncsu.csc.itrust2.models.persistent.Patient;
+import edu.ncsu.csc.itrust2.models.persistent.PatientSummary;
+import edu.ncsu.csc.itrust2.models.persistent.Prescription;
+import edu.ncsu.csc.itrust2.models.persistent.User;
+import edu.ncsu.csc.itrust2.utils.HibernateDataGenerator;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
+
+/**
+ * Tests that a PatientSummary follows the visits, diagnoses, prescriptions and
+ * demographics it is made from as they are saved and deleted, and matches a
+ * summary rebuilt from scratch
+ */
+public class PatientSummaryTest {
+
+    private static final String PATIENT = "onionman";
+
+    /**
+     * Sets up test
+     *
+     * @throws ParseException
+     * @throws NumberFormatException
+     */
+    @Before
+    public void setup () throws NumberFormatException, ParseException {
+        HibernateDataGenerator.refreshDB();
+        HibernateDataGenerator.generateTestEHR();
+    }
+
+    /**
+     * The summary is read with a single statement, and holds the patient's
+     * demographics and the vitals of their latest visit
+     */
+    @Test
+    public void testRead () {
+        // Built as the test data was saved
+        UnitOfWork.begin();
+        final PatientSummary summary;
+        try {
+            summary = PatientSummary.getForPatient( PATIENT );
+        }
+        finally {
+            UnitOfWork.end();
+        }
+        assertEquals( 1, UnitOfWork.getStatementsExecuted() );
+
+        final Patient patient = Patient.getByName( PATIENT );
+        assertEquals( patient.getFirstName(), summary.getFirstName() );
+        assertEquals( patient.getBloodType(), summary.getBloodType() );
+        assertEquals( Integer.valueOf( 30 ), summary.getAge( LocalDate.now() ) );
+        // The test data has a visit in 2048
+        assertEquals( 2048, summary.getVitalsDate().getYear() );
+        assertEquals( ids( Diagnosis.getForPatient( User.getByName( PATIENT ) ) ),
+                ids( summary.getRecentDiagnoses( LocalDate.now() ) ) );
+        assertEquals( ids( Prescription.getForPatient( PATIENT ) ),
+                ids( summary.getRecentPrescriptions( LocalDate.now() ) ) );
+
+        assertNull( PatientSummary.getForPatient( "nobody" ) );
+    }
+
+    /**
+     * Saving and deleting visits and their diagnoses updates the diagnoses and
+     * vitals in the summary
+     *
+     * @throws ParseException
+     * @throws NumberFormatException
+     */
+    @Test
+    public void testVisits () throws NumberFormatException, ParseException {
+        final ICDCode code = ICDCode.getAll().get( 0 );
+        final GeneralCheckup recent = saveVisit( ZonedDateTime.now().minusDays( 10 ), code, 150f );
+        saveVisit( ZonedDateTime.now().minusDays( PatientSummary.DIAGNOSIS_DAYS + 40 ), code, 160f );
+
+        PatientSummary summary = PatientSummary.getForPatient( PATIENT );
+        List<Diagnosis> diagnoses = summary.getRecentDiagnoses( LocalDate.now() );
+        assertEquals( 3, diagnoses.size() );
+        // In order of visit date, so the visit ten days ago comes first
+        assertEquals( recent.getId(), diagnoses.get( 0 ).getVisit().getId() );
+        assertEquals( 2048, summary.getVitalsDate().getYear() );
+
+        // Once the 2048 visit is gone the vitals are from ten days ago
+        for ( final OfficeVisit visit : OfficeVisit.getForPatient( PATIENT ) ) {
+            if ( visit.getDate().getYear() == 2048 ) {
+                visit.delete();
+            }
+        }
+        summary = PatientSummary.getForPatient( PATIENT );
+        diagnoses = summary.getRecentDiagnoses( LocalDate.now() );
+        assertEquals( 1, diagnoses.size() );
+        assertEquals( recent.getId(), diagnoses.get( 0 ).getVisit().getId() );
+        assertEquals( recent.getDate().toInstant(), summary.getVitalsDate().toInstant() );
+        assertEquals( 150f, summary.getVitals().getWeight(), 0.01f );
+
+        assertSameAsRebuilt( summary );
+    }
+
+    /**
+     * Saving and deleting prescriptions and demographics updates the summary
+     */
+    @Test
+    public void testPrescriptionsAndDemographics () {
+        final Drug drug = Drug.getByCode( "1111-2222-33" );
+        final Prescription old = savePrescription( drug, PatientSummary.PRESCRIPTION_DAYS + 10 );
+        final Prescription ended = savePrescription( drug, PatientSummary.PRESCRIPTION_DAYS - 10 );
+
+        List<Long> ids = ids( PatientSummary.getForPatient( PATIENT ).getRecentPrescriptions( LocalDate.now() ) );
+        assertEquals( 3, ids.size() );
+        assertEquals( ended.getId(), ids.get( 2 ) );
+
+        // Moved into the window
+        old.setEndDate( LocalDate.now() );
+        old.save();
+        ended.delete();
+        ids = ids( PatientSummary.getForPatient( PATIENT ).getRecentPrescriptions( LocalDate.now() ) );
+        assertEquals( 3, ids.size() );
+        assertEquals( old.getId(), ids.get( 2 ) );
+
+        final Patient patient = Patient.getByName( PATIENT );
+        patient.setFirstName( "Siegmeyer" );
+        patient.save();
+        final PatientSummary summary = PatientSummary.getForPatient( PATIENT );
+        assertEquals( "Siegmeyer", summary.getFirstName() );
+
+        assertSameAsRebuilt( summary );
+    }
+
+    /**
+     * Summaries deleted in bulk are built again when asked for, and by
+     * rebuildAll
+     */
+    @Test
+    public void testRebuild () {
+        final PatientSummary before = PatientSummary.getForPatient( PATIENT );
+        PatientSummary.deleteAll();
+        assertSameAsRebuilt( before );
+
+        PatientSummary.deleteAll();
+        assertEquals( Patient.getPatients().size(), PatientSummary.rebuildAll() );
+        assertSameAsRebuilt( before );
+
+        // Bulk deletes of what summaries are made from drop the summaries
+        DomainObject.deleteAll( Prescription.class );
+        assertEquals( 0,
+                PatientSummary.getForPatient( PATIENT ).getRecentPrescriptions( LocalDate.now() ).size() );
+    }
+
+    /**
+     * Prescriptions saved at the same time by different requests all end up
+     * in the summary, and summaries being built at the same time do not
+     * collide
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentChanges () throws Exception {
+        final Drug drug = Drug.getByCode( "1111-2222-33" );
+        final int threads = 8;
+        final ExecutorService pool = Executors.newFixedThreadPool( threads );
+        final List<Future<Prescription>> saved = new ArrayList<Future<Prescription>>();
+        try {
+            final CountDownLatch start = new CountDownLatch( 1 );
+            for ( int i = 0; i < threads; i++ ) {
+                saved.add( pool.submit( (Callable<Prescription>) () -> {
+                    start.await();
+                    return savePrescription( drug, -10 );
+                } ) );
+            }
+            start.countDown();
+            for ( final Future<Prescription> p : saved ) {
+                p.get();
+            }
+            final List<Long> expected = ids( Prescription.getForPatient( PATIENT ) );
+            assertEquals( expected,
+                    ids( PatientSummary.getForPatient( PATIENT ).getRecentPrescriptions( LocalDate.now() ) ) );
+
+            PatientSummary.deleteAll();
+            final CountDownLatch again = new CountDownLatch( 1 );
+            final List<Future<PatientSummary>> built = new ArrayList<Future<PatientSummary>>();
+            for ( int i = 0; i < threads; i++ ) {
+                built.add( pool.submit( (Callable<PatientSummary>) () -> {
+                    again.await();
+                    return PatientSummary.getForPatient( PATIENT );
+                } ) );
+            }
+            again.countDown();
+            for ( final Future<PatientSummary> summary : built ) {
+                assertEquals( expected, ids( summary.get().getRecentPrescriptions( LocalDate.now() ) ) );
+            }
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Checks a summary against one rebuilt from the patient's records
+     *
+     * @param summary
+     *            The summary to check
+     */
+    private void assertSameAsRebuilt ( final PatientSummary summary ) {
+        final PatientSummary rebuilt = PatientSummary.rebuild( PATIENT );
+        final LocalDate today = LocalDate.now();
+        assertEquals( rebuilt.getFirstName(), summary.getFirstName() );
+        assertEquals( rebuilt.getVitalsDate().toInstant(), summary.getVitalsDate().toInstant() );
+        assertEquals( ids( rebuilt.getRecentDiagnoses( today ) ), ids( summary.getRecentDiagnoses( today ) ) );
+        assertEquals( ids( rebuilt.getRecentPrescriptions( today ) ),
+                ids( summary.getRecentPrescriptions( today ) ) );
+    }
+
+    /**
+     * The IDs of some diagnoses or prescriptions, in order
+     *
+     * @param objects
+     *            The diagnoses or prescriptions
+     * @return Their IDs
+     */
+    private List<Long> ids ( final List< ? extends DomainObject> objects ) {
+        return objects.stream().map( o -> (Long) o.getId() ).collect( Collectors.toList() );
+    }
+
+    /**
+     * Saves a prescription for the patient
+     *
+     * @param drug
+     *            The drug prescribed
+     * @param endedDaysAgo
+     *            How long ago it ended
+     * @return The prescription
+     */
+    private Prescription savePrescription ( final Drug drug, final int endedDaysAgo ) {
+        final Prescription p = new Prescription();
+        p.setDosage( 1 );
+        p.setDrug( drug );
+        p.setRenewals( 0 );
+        p.setStartDate( LocalDate.now().minusDays( endedDaysAgo + 30 ) );
+        p.setEndDate( LocalDate.now().minusDays( endedDaysAgo ) );
+        p.setPatient( User.getByName( PATIENT ) );
+        p.save();
+        return p;
+    }
+
+    /**
+     * Saves a general checkup for the patient with a single diagnosis
+     *
+     * @param date
+     *            When the visit took place
+     * @param code
+     *            The code to diagnose
+     * @param weight
+     *            The weight recorded
+     * @return The visit
+     * @throws ParseException
+     * @throws NumberFormatException
+     */
+    private GeneralCheckup saveVisit ( final ZonedDateTime date, final ICDCode code, final float weight )
+            throws NumberFormatException, ParseException {
+        final GeneralCheckupForm form = new GeneralCheckupForm();
+        form.setDate( date.toString() );
+        form.setHcp( "hcp" );
+        form.setPatient( PATIENT );
+        form.setNotes( "Visit for the summary" );
+        form.setType( AppointmentType.GENERAL_CHECKUP.toString() );
+        form.setHospital( "General Hospital" );
+        form.setHdl( 1 );
+        form.setHeight( 1f );
+        form.setWeight( weight );
+        form.setLdl( 1 );
+        form.setTri( 100 );
+        form.setDiastolic( 1 );
+        form.setSystolic( 1 );
+        form.setHouseSmokingStatus( HouseholdSmokingStatus.NONSMOKING );
+        form.setPatientSmokingStatus( PatientSmokingStatus.NEVER );
+
+        final List<Diagnosis> diagnoses = new ArrayList<Diagnosis>();
+        final Diagnosis d = new Diagnosis();
+        d.setCode( code );
+        d.setNote( "Visit on " + date.toLocalDate() );
+        diagnoses.add( d );
+        form.setDiagnoses( diagnoses );
+        final GeneralCheckup visit = new GeneralCheckup( form );
+        visit.save();
+        return visit;
+    }
+
+}
@@ -0,0 +1,95 @@
+package edu.ncsu.csc.itrust2.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+import edu.ncsu.csc.itrust2.models.persistent.Hospital;
+import edu.ncsu.csc.itrust2.utils.ReferenceDataCache;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
+
+/**
+ * Unit tests for the ReferenceDataCache
+ */
+public class ReferenceDataCacheTest {
+
+    /**
+     * A list read by another request while a save is not yet committed keeps
+     * the old ETag, and is not served under the new one once it is
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReadDuringUncommittedSave () throws Exception {
+        final String name = "Cache Test " + System.currentTimeMillis();
+        final ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            Hospital.getHospitals();
+            final String before = ReferenceDataCache.getETag( Hospital.class );
+
+            UnitOfWork.begin();
+            try {
+                new Hospital( name, "1 Cache Way", "27606", "NC" ).save();
+
+                // Another request reads the list, and caches it, before the
+                // save commits
+                assertFalse( other.submit( (Callable<Boolean>) () -> hasHospital( name ) ).get() );
+                assertEquals( before, other.submit( () -> ReferenceDataCache.getETag( Hospital.class ) ).get() );
+            }
+            finally {
+                UnitOfWork.end();
+            }
+
+            assertNotEquals( before, other.submit( () -> ReferenceDataCache.getETag( Hospital.class ) ).get() );
+            assertTrue( other.submit( (Callable<Boolean>) () -> hasHospital( name ) ).get() );
+        }
+        finally {
+            other.shutdown();
+            final Hospital saved = Hospital.getByName( name );
+            if ( null != saved ) {
+                saved.delete();
+            }
+        }
+    }
+
+    /**
+     * Rolling a save back leaves the ETag as it was
+     */
+    @Test
+    public void testRolledBackSaveKeepsETag () {
+        final String name = "Cache Rollback " + System.currentTimeMillis();
+        Hospital.getHospitals();
+        final String before = ReferenceDataCache.getETag( Hospital.class );
+
+        UnitOfWork.begin();
+        try {
+            new Hospital( name, "2 Cache Way", "27606", "NC" ).save();
+            UnitOfWork.setRollbackOnly();
+        }
+        finally {
+            UnitOfWork.end();
+        }
+
+        assertEquals( before, ReferenceDataCache.getETag( Hospital.class ) );
+        assertFalse( hasHospital( name ) );
+    }
+
+    /**
+     * Whether the list of hospitals includes one
+     *
+     * @param name
+     *            The name of the hospital
+     * @return True if it is in the list
+     */
+    private static boolean hasHospital ( final String name ) {
+        return Hospital.getHospitals().stream().anyMatch( h -> name.equals( h.getName() ) );
+    }
+
+}
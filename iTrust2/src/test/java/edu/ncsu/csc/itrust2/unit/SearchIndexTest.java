@@ -0,0 +1,272 @@
+package edu.ncsu.csc.itrust2.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ncsu.csc.itrust2.forms.admin.ICDCodeForm;
+import edu.ncsu.csc.itrust2.models.persistent.ICDCode;
+import edu.ncsu.csc.itrust2.utils.SearchIndex;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
+
+/**
+ * Unit tests for the in-memory typeahead SearchIndex. Runs entirely in memory,
+ * except for the test of how saved codes reach the index.
+ */
+public class SearchIndexTest {
+
+    /**
+     * Records the index is built from
+     */
+    private List<ICDCode>        codes;
+
+    /**
+     * Index under test
+     */
+    private SearchIndex<ICDCode> index;
+
+    /**
+     * Builds a small catalog to search
+     */
+    @Before
+    public void setup () {
+        codes = new ArrayList<ICDCode>();
+        codes.add( code( 1L, "J45.20", "Mild intermittent asthma, uncomplicated" ) );
+        codes.add( code( 2L, "J45.21", "Mild intermittent asthma with acute exacerbation" ) );
+        codes.add( code( 3L, "J06.9", "Acute upper respiratory infection, unspecified" ) );
+        codes.add( code( 4L, "E11.9", "Type 2 diabetes mellitus without complications" ) );
+        codes.add( code( 5L, "A00.0", "Cholera due to Vibrio cholerae" ) );
+        index = new SearchIndex<ICDCode>( ICDCode::getId, ICDCode::getCode, ICDCode::getDescription, () -> codes );
+    }
+
+    /**
+     * Codes are matched by prefix, ignoring case
+     */
+    @Test
+    public void testCodePrefix () {
+        assertEquals( codesOf( "J45.20", "J45.21" ), codesOf( index.search( "j45", 10 ) ) );
+        assertEquals( codesOf( "J06.9", "J45.20", "J45.21" ), codesOf( index.search( "J", 10 ) ) );
+        assertEquals( codesOf( "J06.9" ), codesOf( index.search( "J", 1 ) ) );
+        assertTrue( index.search( "Z", 10 ).isEmpty() );
+        assertTrue( index.search( "  ", 10 ).isEmpty() );
+    }
+
+    /**
+     * Every word of the query must start some word of the description
+     */
+    @Test
+    public void testDescriptionWords () {
+        assertEquals( codesOf( "J45.20", "J45.21" ), codesOf( index.search( "asth", 10 ) ) );
+        assertEquals( codesOf( "J45.21" ), codesOf( index.search( "asthma acute", 10 ) ) );
+        assertEquals( codesOf( "J06.9", "J45.21" ), codesOf( index.search( "acu", 10 ) ) );
+        assertTrue( index.search( "asthma cholera", 10 ).isEmpty() );
+    }
+
+    /**
+     * Code matches are listed ahead of description matches
+     */
+    @Test
+    public void testCodesFirst () {
+        codes.add( code( 6L, "A01.0", "Typhoid fever" ) );
+        codes.add( code( 7L, "Z99.0", "Dependence on aspirator" ) );
+        index.build();
+        assertEquals( codesOf( "A00.0", "A01.0" ), codesOf( index.search( "a0", 10 ) ) );
+        assertEquals( codesOf( "A00.0", "A01.0", "J06.9", "J45.20", "J45.21", "Z99.0" ),
+                codesOf( index.search( "a", 10 ) ) );
+        assertEquals( codesOf( "E11.9" ), codesOf( index.search( "type", 10 ) ) );
+    }
+
+    /**
+     * Changes to single records are picked up without rebuilding
+     */
+    @Test
+    public void testIncrementalUpdates () {
+        assertEquals( 1, index.search( "cholera", 10 ).size() );
+        assertEquals( codes.size(), index.size() );
+
+        index.put( code( 5L, "A00.1", "Cholera due to Vibrio cholerae 01, biovar eltor" ) );
+        assertEquals( codesOf( "A00.1" ), codesOf( index.search( "eltor", 10 ) ) );
+        assertTrue( index.search( "A00.0", 10 ).isEmpty() );
+
+        index.put( code( 8L, "K35.80", "Unspecified acute appendicitis" ) );
+        assertEquals( codesOf( "K35.80" ), codesOf( index.search( "append", 10 ) ) );
+
+        index.remove( 3L );
+        assertTrue( index.search( "respiratory", 10 ).isEmpty() );
+        assertEquals( codes.size(), index.size() );
+
+        index.clear();
+        codes.clear();
+        assertTrue( index.search( "J", 10 ).isEmpty() );
+    }
+
+    /**
+     * Codes saved and deleted while the catalog is being loaded are not lost
+     * when the load, which read the catalog before them, is indexed
+     */
+    @Test
+    public void testChangesDuringBuild () {
+        final AtomicReference<SearchIndex<ICDCode>> building = new AtomicReference<SearchIndex<ICDCode>>();
+        building.set( new SearchIndex<ICDCode>( ICDCode::getId, ICDCode::getCode, ICDCode::getDescription, () -> {
+            final List<ICDCode> read = new ArrayList<ICDCode>( codes );
+            // Committed after the catalog was read, before it is indexed
+            building.get().put( code( 5L, "A00.1", "Cholera due to Vibrio cholerae 01, biovar eltor" ) );
+            building.get().put( code( 8L, "K35.80", "Unspecified acute appendicitis" ) );
+            building.get().remove( 3L );
+            return read;
+        } ) );
+        building.get().build();
+
+        assertEquals( codesOf( "A00.1" ), codesOf( building.get().search( "cholera", 10 ) ) );
+        assertEquals( codesOf( "K35.80" ), codesOf( building.get().search( "append", 10 ) ) );
+        assertTrue( building.get().search( "respiratory", 10 ).isEmpty() );
+        assertEquals( 5, building.get().size() );
+    }
+
+    /**
+     * A load that was under way when the catalog was replaced is not indexed
+     */
+    @Test
+    public void testClearDuringBuild () {
+        final AtomicReference<SearchIndex<ICDCode>> building = new AtomicReference<SearchIndex<ICDCode>>();
+        final AtomicInteger loads = new AtomicInteger();
+        building.set( new SearchIndex<ICDCode>( ICDCode::getId, ICDCode::getCode, ICDCode::getDescription, () -> {
+            final List<ICDCode> read = new ArrayList<ICDCode>( codes );
+            if ( loads.getAndIncrement() == 0 ) {
+                building.get().clear();
+            }
+            return read;
+        } ) );
+        building.get().build();
+        assertEquals( 0, building.get().size() );
+
+        // Loaded again by the next search
+        assertEquals( codesOf( "J45.20", "J45.21" ), codesOf( building.get().search( "j45", 10 ) ) );
+        assertEquals( 2, loads.get() );
+    }
+
+    /**
+     * A code saved in a unit of work that rolls back is never searchable, and
+     * one that commits is searchable only once it has
+     */
+    @Test
+    public void testIndexedOnCommit () {
+        final String description = "Search index commit test " + System.currentTimeMillis();
+        ICDCode.search( "A", 1 );
+
+        UnitOfWork.begin();
+        try {
+            dbCode( "Z98.761", description ).save();
+            UnitOfWork.setRollbackOnly();
+        }
+        finally {
+            UnitOfWork.end();
+        }
+        assertTrue( ICDCode.search( description, 10 ).isEmpty() );
+
+        final ICDCode saved = dbCode( "Z98.762", description );
+        UnitOfWork.begin();
+        try {
+            saved.save();
+            assertTrue( ICDCode.search( description, 10 ).isEmpty() );
+        }
+        finally {
+            UnitOfWork.end();
+        }
+        assertEquals( codesOf( "Z98.762" ), codesOf( ICDCode.search( description, 10 ) ) );
+
+        saved.delete();
+        assertTrue( ICDCode.search( description, 10 ).isEmpty() );
+    }
+
+    /**
+     * A catalog the size of ICD-10 answers lookups quickly
+     */
+    @Test
+    public void testLargeCatalog () {
+        codes.clear();
+        for ( long i = 0; i < 70000; i++ ) {
+            codes.add( code( i, String.format( "%c%02d.%d", (char) ( 'A' + i % 26 ), i / 26 % 100, i / 2600 ),
+                    "Condition number " + i + " of the catalog" ) );
+        }
+        index.build();
+
+        final long start = System.nanoTime();
+        for ( int i = 0; i < 1000; i++ ) {
+            assertEquals( 20, index.search( "condition " + ( i % 9 + 1 ), 20 ).size() );
+            assertEquals( 20, index.search( "B1", 20 ).size() );
+        }
+        final long perLookupMicros = ( System.nanoTime() - start ) / 2000 / 1000;
+        assertTrue( "Lookups took " + perLookupMicros + "us", perLookupMicros < 5000 );
+    }
+
+    /**
+     * Creates an ICDCode without any validation
+     *
+     * @param id
+     *            ID of the code
+     * @param code
+     *            The code
+     * @param description
+     *            The description
+     * @return The code
+     */
+    private static ICDCode code ( final Long id, final String code, final String description ) {
+        final ICDCode c = new ICDCode();
+        c.setId( id );
+        c.setCode( code );
+        c.setDescription( description );
+        return c;
+    }
+
+    /**
+     * Creates an ICDCode to save, through the form so that it is validated
+     *
+     * @param code
+     *            The code
+     * @param description
+     *            The description
+     * @return The code
+     */
+    private static ICDCode dbCode ( final String code, final String description ) {
+        final ICDCodeForm form = new ICDCodeForm();
+        form.setCode( code );
+        form.setDescription( description );
+        return new ICDCode( form );
+    }
+
+    /**
+     * The codes of a list of ICDCodes, in order
+     *
+     * @param found
+     *            The ICDCodes
+     * @return Their codes
+     */
+    private static List<String> codesOf ( final List<ICDCode> found ) {
+        return found.stream().map( ICDCode::getCode ).collect( Collectors.toList() );
+    }
+
+    /**
+     * A list of codes, for comparing against search results
+     *
+     * @param expected
+     *            The codes
+     * @return The codes as a List
+     */
+    private static List<String> codesOf ( final String... expected ) {
+        final List<String> list = new ArrayList<String>();
+        for ( final String e : expected ) {
+            list.add( e );
+        }
+        return list;
+    }
+
+}
@@ -0,0 +1,151 @@
+package edu.ncsu.csc.itrust2.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.ncsu.csc.itrust2.models.persistent.ICDCode;
+import edu.ncsu.csc.itrust2.utils.DBUtil;
+import edu.ncsu.csc.itrust2.utils.JsonArrayWriter;
+
+/**
+ * Tests that streaming a large table to JSON takes the same amount of memory
+ * however many rows it has
+ */
+public class StreamTest {
+
+    /**
+     * Number of codes to stream
+     */
+    private static final int  ROWS       = 100000;
+
+    /**
+     * First ID given to the test codes; far above anything Hibernate hands out
+     */
+    private static final long FIRST_ID   = 9000000000L;
+
+    /**
+     * Most the heap may grow between early in the stream and the end of it
+     */
+    private static final long MAX_GROWTH = 16L * 1024 * 1024;
+
+    /**
+     * Fills the ICDCodes table with ROWS codes, straight through JDBC so that
+     * setting up does not take longer than the test
+     *
+     * @throws SQLException
+     */
+    @Before
+    public void setUp () throws SQLException {
+        deleteCodes();
+        try ( Connection conn = DBUtil.getConnection();
+                PreparedStatement ps = conn
+                        .prepareStatement( "INSERT INTO ICDCodes (id, code, description) VALUES (?, ?, ?)" ) ) {
+            conn.setAutoCommit( false );
+            for ( int i = 0; i < ROWS; i++ ) {
+                ps.setLong( 1, FIRST_ID + i );
+                ps.setString( 2, String.format( "Z%02d.%d", i % 100, i ) );
+                ps.setString( 3, "Streaming test code number " + i );
+                ps.addBatch();
+                if ( i % 1000 == 999 ) {
+                    ps.executeBatch();
+                }
+            }
+            ps.executeBatch();
+            conn.commit();
+        }
+    }
+
+    /**
+     * Removes the test codes
+     *
+     * @throws SQLException
+     */
+    @After
+    public void tearDown () throws SQLException {
+        deleteCodes();
+    }
+
+    /**
+     * Streams every code to JSON, checking the heap a tenth of the way in and
+     * again at the end. Were the rows (or the JSON) building up in memory, the
+     * heap would grow by the size of the other nine tenths.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testConstantHeap () throws IOException {
+        final long[] heap = new long[2];
+        final CountingStream out = new CountingStream();
+        final JsonArrayWriter writer = new JsonArrayWriter( out );
+        final long total = ICDCode.streamAll( code -> {
+            writer.write( code );
+            if ( code.getId() == FIRST_ID + ROWS / 10 ) {
+                heap[0] = usedHeap();
+            }
+            else if ( code.getId() == FIRST_ID + ROWS - 1 ) {
+                heap[1] = usedHeap();
+            }
+        } );
+        writer.close();
+
+        assertTrue( total >= ROWS );
+        assertEquals( total, writer.getCount() );
+        assertTrue( out.bytes > ROWS * 40L );
+        assertTrue( "Heap grew by " + ( heap[1] - heap[0] ) + " bytes while streaming",
+                heap[1] - heap[0] < MAX_GROWTH );
+    }
+
+    /**
+     * Heap in use after a garbage collection
+     *
+     * @return Bytes of heap in use
+     */
+    private static long usedHeap () {
+        final Runtime rt = Runtime.getRuntime();
+        for ( int i = 0; i < 3; i++ ) {
+            System.gc();
+        }
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    /**
+     * Deletes the test codes
+     *
+     * @throws SQLException
+     */
+    private static void deleteCodes () throws SQLException {
+        try ( Connection conn = DBUtil.getConnection();
+                PreparedStatement ps = conn.prepareStatement( "DELETE FROM ICDCodes WHERE id >= ?" ) ) {
+            ps.setLong( 1, FIRST_ID );
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Throws away what is written to it, counting the bytes
+     */
+    private static class CountingStream extends OutputStream {
+        private long bytes;
+
+        @Override
+        public void write ( final int b ) {
+            bytes++;
+        }
+
+        @Override
+        public void write ( final byte[] b, final int off, final int len ) {
+            bytes += len;
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package edu.ncsu.csc.itrust2.unit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.time.ZonedDateTime;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import edu.ncsu.csc.itrust2.config.CachedUserDetailsService;
+import edu.ncsu.csc.itrust2.models.enums.Role;
+import edu.ncsu.csc.itrust2.models.persistent.LoginBan;
+import edu.ncsu.csc.itrust2.models.persistent.LoginLockout;
+import edu.ncsu.csc.itrust2.models.persistent.User;
+import edu.ncsu.csc.itrust2.utils.DBUtil;
+import edu.ncsu.csc.itrust2.utils.UnitOfWork;
+import edu.ncsu.csc.itrust2.utils.UserDetailsCache;
+
+/**
+ * Unit tests for the cached user lookups used when logging in
+ */
+public class UserDetailsCacheTest {
+
+    private static final String      USERNAME = "authCacheUser";
+
+    private final UserDetailsService service  = new CachedUserDetailsService( DBUtil.dataSource() );
+
+    private User                     user;
+
+    /**
+     * Starts each test from an enabled user with no bans or lockouts
+     */
+    @Before
+    public void setUp () {
+        user = User.getByName( USERNAME );
+        if ( null == user ) {
+            user = new User( USERNAME, "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.", Role.ROLE_HCP,
+                    1 );
+        }
+        user.setEnabled( 1 );
+        user.setRole( Role.ROLE_HCP );
+        user.save();
+        LoginBan.clearUser( user );
+        LoginLockout.clearUser( user );
+        UserDetailsCache.clear();
+    }
+
+    /**
+     * The second lookup for a user is answered from the cache
+     */
+    @Test
+    public void testCached () {
+        final long misses = UserDetailsCache.getMisses();
+        final long hits = UserDetailsCache.getHits();
+
+        final UserDetails first = service.loadUserByUsername( USERNAME );
+        assertTrue( first.isEnabled() );
+        assertEquals( Role.ROLE_HCP.toString(), first.getAuthorities().iterator().next().getAuthority() );
+        assertEquals( misses + 1, UserDetailsCache.getMisses() );
+
+        final UserDetails second = service.loadUserByUsername( USERNAME );
+        assertEquals( first.getPassword(), second.getPassword() );
+        assertEquals( misses + 1, UserDetailsCache.getMisses() );
+        assertEquals( hits + 1, UserDetailsCache.getHits() );
+    }
+
+    /**
+     * Changing the user's role, banning them, or locking them out is seen on
+     * the next login
+     */
+    @Test
+    public void testInvalidation () {
+        service.loadUserByUsername( USERNAME );
+
+        user.setRole( Role.ROLE_ADMIN );
+        user.save();
+        assertEquals( Role.ROLE_ADMIN.toString(),
+                service.loadUserByUsername( USERNAME ).getAuthorities().iterator().next().getAuthority() );
+
+        final LoginBan ban = new LoginBan();
+        ban.setUser( user );
+        ban.setTime( ZonedDateTime.now() );
+        ban.save();
+        assertFalse( service.loadUserByUsername( USERNAME ).isEnabled() );
+        LoginBan.clearUser( user );
+        assertTrue( service.loadUserByUsername( USERNAME ).isEnabled() );
+
+        final LoginLockout lockout = new LoginLockout();
+        lockout.setUser( user );
+        lockout.setTime( ZonedDateTime.now() );
+        lockout.save();
+        assertFalse( service.loadUserByUsername( USERNAME ).isEnabled() );
+        LoginLockout.clearUser( user );
+        assertTrue( service.loadUserByUsername( USERNAME ).isEnabled() );
+
+        user.setEnabled( 0 );
+        user.save();
+        assertFalse( service.loadUserByUsername( USERNAME ).isEnabled() );
+    }
+
+    /**
+     * A login that reads the user while a change to it is still uncommitted
+     * does not leave the old state cached once the change commits
+     *
+     * @throws InterruptedException
+     */
+    @Test
+    public void testLoginDuringUncommittedChange () throws InterruptedException {
+        UnitOfWork.begin();
+        try {
+            user.setRole( Role.ROLE_ADMIN );
+            user.save();
+            // Another request logs in before this one has committed
+            final Thread login = new Thread( () -> service.loadUserByUsername( USERNAME ) );
+            login.start();
+            login.join();
+        }
+        finally {
+            UnitOfWork.end();
+        }
+        assertEquals( Role.ROLE_ADMIN.toString(),
+                service.loadUserByUsername( USERNAME ).getAuthorities().iterator().next().getAuthority() );
+    }
+
+    /**
+     * Unknown users are not found, and not cached
+     */
+    @Test
+    public void testUnknownUser () {
+        try {
+            service.loadUserByUsername( "noSuchAuthCacheUser" );
+            fail( "Expected the user not to be found" );
+        }
+        catch ( final UsernameNotFoundException e ) {
+            // expected
+        }
+    }
+
+}
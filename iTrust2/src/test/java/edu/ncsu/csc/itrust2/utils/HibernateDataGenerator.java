@@ -70,6 +70,9 @@ public class HibernateDataGenerator {
         // how to actually generate the schemaexport taken from here:
         // http://www.javarticles.com/2015/06/generating-database-schema-using-hibernate.html
 
+        // Don't let entries logged by a previous test land in the new tables
+        AuditLogWriter.flush();
+
         final StandardServiceRegistryBuilder ssrb = new StandardServiceRegistryBuilder();
         ssrb.configure( "/hibernate.cfg.xml" );
         ssrb.applySetting( "hibernate.connection.url", DBUtil.getUrl() );
@@ -80,6 +83,10 @@ public class HibernateDataGenerator {
         export.drop( true, true );
         export.create( true, true );
 
+        // Failed and cached logins from the old data no longer apply
+        LoginFailureTracker.clearAll();
+        UserDetailsCache.clear();
+
         generateUsers();
         generateTestFaculties();
     }
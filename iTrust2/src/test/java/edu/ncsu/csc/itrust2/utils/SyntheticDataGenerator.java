@@ -0,0 +1,826 @@
+package edu.ncsu.csc.itrust2.utils;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.text.ParseException;
+import java.time.LocalDate;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.ncsu.csc.itrust2.models.enums.AppointmentType;
+import edu.ncsu.csc.itrust2.models.enums.BloodType;
+import edu.ncsu.csc.itrust2.models.enums.Ethnicity;
+import edu.ncsu.csc.itrust2.models.enums.Gender;
+import edu.ncsu.csc.itrust2.models.enums.HouseholdSmokingStatus;
+import edu.ncsu.csc.itrust2.models.enums.LabStatus;
+import edu.ncsu.csc.itrust2.models.enums.MealType;
+import edu.ncsu.csc.itrust2.models.enums.PatientSmokingStatus;
+import edu.ncsu.csc.itrust2.models.enums.Priority;
+import edu.ncsu.csc.itrust2.models.enums.Role;
+import edu.ncsu.csc.itrust2.models.enums.State;
+import edu.ncsu.csc.itrust2.models.enums.TransactionType;
+
+/**
+ * Generates large, realistic data sets for load testing and benchmarks, where
+ * HibernateDataGenerator makes the handful of fixed records the tests rely on.
+ * Given a number of patients and HCPs it makes, for each patient, a number of
+ * general checkups (most patients have few, a few have many), each with its
+ * health metrics and some diagnoses, prescriptions and lab procedures, plus
+ * food diary entries; and then any number of log entries spread across all of
+ * the users over the last few years.
+ *
+ * Rows are written straight through JDBC in batches, by several threads at
+ * once, so that millions of rows take minutes rather than hours. Everything is
+ * drawn from a fixed seed: the patients are split into chunks, each with its
+ * own random number generator seeded from the seed and the chunk's number,
+ * and each chunk's IDs are reserved from Hibernate's sequence before any work
+ * starts. The same settings therefore give the same data (down to the IDs)
+ * however many threads are used.
+ *
+ * Run from the command line with settings as name=value pairs, for instance
+ * `patients=100000 logEntries=20000000 threads=8`; see the setters for what
+ * can be set. Unless `refresh=false` is given, the database is first rebuilt
+ * with HibernateDataGenerator.refreshDB, so the generated data sits alongside
+ * the usual test data.
+ *
+ * No PatientSummaries are written for the generated patients; each is built
+ * the first time it is read, or all at once by PatientSummary.rebuildAll.
+ */
+public class SyntheticDataGenerator {
+
+    /** Password of every generated user; the hash of "123456" */
+    private static final String   PASSWORD     = "$2a$10$EblZqNptyYvcLm/VwDCVAuBjzZOI7khzdyGPBr08PpIi0na624b8.";
+
+    /** Patients generated by each task */
+    private static final int      CHUNK        = 500;
+
+    /** Log entries generated by each task */
+    private static final int      LOG_CHUNK    = 100000;
+
+    /** Hospitals the visits are spread across */
+    private static final int      HOSPITALS    = 5;
+
+    /** Drugs to prescribe from */
+    private static final int      DRUGS        = 100;
+
+    /** ICD codes to diagnose from */
+    private static final int      ICD_CODES    = 500;
+
+    /** LOINC codes to order lab procedures from */
+    private static final int      LOINC_CODES  = 100;
+
+    private static final String[] FIRST_NAMES  = { "Alice", "Bob", "Carol", "Dave", "Erin", "Frank", "Grace",
+            "Heidi", "Ivan", "Judy", "Mallory", "Niaj", "Olivia", "Peggy", "Rupert", "Sybil", "Trent", "Victor",
+            "Walter", "Yolanda" };
+
+    private static final String[] LAST_NAMES   = { "Smith", "Johnson", "Williams", "Brown", "Jones", "Garcia",
+            "Miller", "Davis", "Rodriguez", "Martinez", "Hernandez", "Lopez", "Wilson", "Anderson", "Thomas",
+            "Taylor", "Moore", "Jackson", "Martin", "Lee" };
+
+    private static final String[] CITIES       = { "Raleigh", "Durham", "Cary", "Chapel Hill", "Apex", "Wake Forest" };
+
+    private static final String[] FOODS        = { "Oatmeal", "Eggs", "Salad", "Sandwich", "Pasta", "Rice and beans",
+            "Chicken", "Apple", "Yogurt", "Pizza" };
+
+    private int     patients              = 1000;
+
+    private int     hcps                  = 20;
+
+    private int     labtechs              = 5;
+
+    private double  visitsPerPatient      = 5;
+
+    private double  diagnosesPerVisit     = 1;
+
+    private double  prescriptionsPerVisit = 0.5;
+
+    private double  labProceduresPerVisit = 0.3;
+
+    private int     foodEntriesPerPatient = 10;
+
+    private long    logEntries            = 100000;
+
+    private int     years                 = 5;
+
+    private long    seed                  = 326;
+
+    private int     threads               = Math.min( 8, Runtime.getRuntime().availableProcessors() );
+
+    private int     batchSize             = 1000;
+
+    private boolean refresh               = true;
+
+    /**
+     * Generates a data set from the command line
+     *
+     * @param args
+     *            Settings, as name=value
+     * @throws Exception
+     *             If the data cannot be generated
+     */
+    public static void main ( final String[] args ) throws Exception {
+        final SyntheticDataGenerator gen = new SyntheticDataGenerator();
+        for ( final String arg : args ) {
+            final int eq = arg.indexOf( '=' );
+            if ( eq < 0 ) {
+                throw new IllegalArgumentException( "Expected name=value, got " + arg );
+            }
+            final String value = arg.substring( eq + 1 );
+            switch ( arg.substring( 0, eq ) ) {
+                case "patients":
+                    gen.patients( Integer.parseInt( value ) );
+                    break;
+                case "hcps":
+                    gen.hcps( Integer.parseInt( value ) );
+                    break;
+                case "labtechs":
+                    gen.labtechs( Integer.parseInt( value ) );
+                    break;
+                case "visitsPerPatient":
+                    gen.visitsPerPatient( Double.parseDouble( value ) );
+                    break;
+                case "diagnosesPerVisit":
+                    gen.diagnosesPerVisit( Double.parseDouble( value ) );
+                    break;
+                case "prescriptionsPerVisit":
+                    gen.prescriptionsPerVisit( Double.parseDouble( value ) );
+                    break;
+                case "labProceduresPerVisit":
+                    gen.labProceduresPerVisit( Double.parseDouble( value ) );
+                    break;
+                case "foodEntriesPerPatient":
+                    gen.foodEntriesPerPatient( Integer.parseInt( value ) );
+                    break;
+                case "logEntries":
+                    gen.logEntries( Long.parseLong( value ) );
+                    break;
+                case "years":
+                    gen.years( Integer.parseInt( value ) );
+                    break;
+                case "seed":
+                    gen.seed( Long.parseLong( value ) );
+                    break;
+                case "threads":
+                    gen.threads( Integer.parseInt( value ) );
+                    break;
+                case "batchSize":
+                    gen.batchSize( Integer.parseInt( value ) );
+                    break;
+                case "refresh":
+                    gen.refresh( Boolean.parseBoolean( value ) );
+                    break;
+                default:
+                    throw new IllegalArgumentException( "Unknown setting " + arg );
+            }
+        }
+        final long start = System.currentTimeMillis();
+        gen.generate();
+        System.out.println( "Generated in " + ( System.currentTimeMillis() - start ) / 1000 + "s" );
+        System.exit( 0 );
+    }
+
+    /**
+     * Username of the i'th generated patient
+     *
+     * @param i
+     *            Which patient, from 0
+     * @return The username
+     */
+    public static String patientName ( final int i ) {
+        return "synPatient" + i;
+    }
+
+    /**
+     * Username of the i'th generated HCP
+     *
+     * @param i
+     *            Which HCP, from 0
+     * @return The username
+     */
+    public static String hcpName ( final int i ) {
+        return "synHcp" + i;
+    }
+
+    /**
+     * Username of the i'th generated lab tech
+     *
+     * @param i
+     *            Which lab tech, from 0
+     * @return The username
+     */
+    public static String labtechName ( final int i ) {
+        return "synLabtech" + i;
+    }
+
+    /**
+     * The number a generated user is stored as, giving them one the first time
+     *
+     * @param name
+     *            The username, or null
+     * @return Its number in the NameDictionary, or null
+     */
+    private static Integer nameId ( final String name ) {
+        NameDictionary.assign( name );
+        return NameDictionary.idFor( name );
+    }
+
+    /**
+     * Sets the number of patients
+     *
+     * @param patients
+     *            Number of patients
+     * @return This generator
+     */
+    public SyntheticDataGenerator patients ( final int patients ) {
+        this.patients = patients;
+        return this;
+    }
+
+    /**
+     * Sets the number of HCPs the visits are spread across
+     *
+     * @param hcps
+     *            Number of HCPs; at least one
+     * @return This generator
+     */
+    public SyntheticDataGenerator hcps ( final int hcps ) {
+        this.hcps = Math.max( 1, hcps );
+        return this;
+    }
+
+    /**
+     * Sets the number of lab techs the lab procedures are assigned to
+     *
+     * @param labtechs
+     *            Number of lab techs; at least one
+     * @return This generator
+     */
+    public SyntheticDataGenerator labtechs ( final int labtechs ) {
+        this.labtechs = Math.max( 1, labtechs );
+        return this;
+    }
+
+    /**
+     * Sets the average number of general checkups per patient. Visits follow
+     * a geometric distribution, so most patients have a few and some have
+     * many; everyone has at least one unless the average is under one.
+     *
+     * @param visits
+     *            Average visits per patient
+     * @return This generator
+     */
+    public SyntheticDataGenerator visitsPerPatient ( final double visits ) {
+        this.visitsPerPatient = visits;
+        return this;
+    }
+
+    /**
+     * Sets the average number of diagnoses per visit (Poisson distributed)
+     *
+     * @param diagnoses
+     *            Average diagnoses per visit
+     * @return This generator
+     */
+    public SyntheticDataGenerator diagnosesPerVisit ( final double diagnoses ) {
+        this.diagnosesPerVisit = diagnoses;
+        return this;
+    }
+
+    /**
+     * Sets the average number of prescriptions per visit (Poisson distributed)
+     *
+     * @param prescriptions
+     *            Average prescriptions per visit
+     * @return This generator
+     */
+    public SyntheticDataGenerator prescriptionsPerVisit ( final double prescriptions ) {
+        this.prescriptionsPerVisit = prescriptions;
+        return this;
+    }
+
+    /**
+     * Sets the average number of lab procedures per visit (Poisson
+     * distributed)
+     *
+     * @param procedures
+     *            Average lab procedures per visit
+     * @return This generator
+     */
+    public SyntheticDataGenerator labProceduresPerVisit ( final double procedures ) {
+        this.labProceduresPerVisit = procedures;
+        return this;
+    }
+
+    /**
+     * Sets the number of food diary entries each patient has
+     *
+     * @param entries
+     *            Food diary entries per patient
+     * @return This generator
+     */
+    public SyntheticDataGenerator foodEntriesPerPatient ( final int entries ) {
+        this.foodEntriesPerPatient = entries;
+        return this;
+    }
+
+    /**
+     * Sets the total number of log entries
+     *
+     * @param entries
+     *            Number of log entries
+     * @return This generator
+     */
+    public SyntheticDataGenerator logEntries ( final long entries ) {
+        this.logEntries = entries;
+        return this;
+    }
+
+    /**
+     * Sets how many years back visits and log entries go
+     *
+     * @param years
+     *            Years of history; at least one
+     * @return This generator
+     */
+    public SyntheticDataGenerator years ( final int years ) {
+        this.years = Math.max( 1, years );
+        return this;
+    }
+
+    /**
+     * Sets the seed everything is drawn from
+     *
+     * @param seed
+     *            The seed
+     * @return This generator
+     */
+    public SyntheticDataGenerator seed ( final long seed ) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * Sets the number of threads writing at once. Each holds a connection
+     * from DBUtil's pool, so keep this below `poolMaxSize`.
+     *
+     * @param threads
+     *            Number of threads; at least one
+     * @return This generator
+     */
+    public SyntheticDataGenerator threads ( final int threads ) {
+        this.threads = Math.max( 1, threads );
+        return this;
+    }
+
+    /**
+     * Sets the number of rows sent to the database at a time
+     *
+     * @param batchSize
+     *            Rows per batch; at least one
+     * @return This generator
+     */
+    public SyntheticDataGenerator batchSize ( final int batchSize ) {
+        this.batchSize = Math.max( 1, batchSize );
+        return this;
+    }
+
+    /**
+     * Sets whether to rebuild the database (with HibernateDataGenerator)
+     * before generating
+     *
+     * @param refresh
+     *            true to rebuild it first
+     * @return This generator
+     */
+    public SyntheticDataGenerator refresh ( final boolean refresh ) {
+        this.refresh = refresh;
+        return this;
+    }
+
+    /**
+     * Generates the data
+     *
+     * @throws SQLException
+     *             If the data cannot be written
+     * @throws InterruptedException
+     *             If interrupted while waiting for the threads
+     */
+    public void generate () throws SQLException, InterruptedException {
+        if ( refresh ) {
+            try {
+                HibernateDataGenerator.refreshDB();
+            }
+            catch ( final NumberFormatException | ParseException e ) {
+                throw new IllegalStateException( e );
+            }
+        }
+
+        final Reference ref = generateReference();
+
+        // Reserve every chunk's IDs up front, in order, so that the IDs do not
+        // depend on which thread gets to the sequence first
+        final int visitCap = cap( visitsPerPatient * 2 );
+        final long idsPerPatient = foodEntriesPerPatient + (long) visitCap
+                * ( 2 + cap( diagnosesPerVisit ) + cap( prescriptionsPerVisit ) + cap( labProceduresPerVisit ) );
+        final List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for ( int first = 0, chunk = 0; first < patients; first += CHUNK, chunk++ ) {
+            final int count = Math.min( CHUNK, patients - first );
+            tasks.add( new PatientChunk( ref, first, count, reserveIds( idsPerPatient * count ), chunk ) );
+        }
+        for ( long first = 0, chunk = 0; first < logEntries; first += LOG_CHUNK, chunk++ ) {
+            final int count = (int) Math.min( LOG_CHUNK, logEntries - first );
+            tasks.add( new LogChunk( count, reserveIds( count ), chunk ) );
+        }
+
+        final ExecutorService pool = Executors.newFixedThreadPool( threads );
+        try {
+            for ( final Future<Void> f : pool.invokeAll( tasks ) ) {
+                f.get();
+            }
+        }
+        catch ( final ExecutionException e ) {
+            if ( e.getCause() instanceof SQLException ) {
+                throw (SQLException) e.getCause();
+            }
+            throw new IllegalStateException( e.getCause() );
+        }
+        finally {
+            pool.shutdownNow();
+        }
+
+        // Anything cached in this process predates the new rows
+        ReferenceDataCache.clear();
+        UserDetailsCache.clear();
+    }
+
+    /**
+     * Makes the HCPs, lab techs, hospitals and codes the patients' records
+     * refer to
+     */
+    private Reference generateReference () throws SQLException {
+        final Reference ref = new Reference();
+        final Random r = new Random( seed );
+        try ( Connection conn = DBUtil.getConnection() ) {
+            conn.setAutoCommit( false );
+            final Inserter users = new Inserter( conn, "Users", "username", "password", "enabled", "role" );
+            final Inserter personnel = new Inserter( conn, "Personnel", "id", "self_id", "enabled", "firstName",
+                    "lastName", "address1", "city", "state", "zip", "phone", "email", "specialty" );
+            final Inserter hospitals = new Inserter( conn, "Hospitals", "name", "address", "state", "zip" );
+            final Inserter drugs = new Inserter( conn, "Drugs", "id", "code", "name", "description" );
+            final Inserter icd = new Inserter( conn, "ICDCodes", "id", "code", "description" );
+            final Inserter loinc = new Inserter( conn, "LOINCCodes", "id", "code", "commonName", "component",
+                    "property" );
+            long id = reserveIds( hcps + labtechs + DRUGS + ICD_CODES + LOINC_CODES );
+
+            for ( int i = 0; i < hcps + labtechs; i++ ) {
+                final boolean hcp = i < hcps;
+                final String name = hcp ? hcpName( i ) : labtechName( i - hcps );
+                users.add( name, PASSWORD, 1, ( hcp ? Role.ROLE_HCP : Role.ROLE_LABTECH ).name() );
+                personnel.add( id++, name, true, pick( r, FIRST_NAMES ), pick( r, LAST_NAMES ),
+                        r.nextInt( 9000 ) + 100 + " Main St", pick( r, CITIES ), State.NC.name(), zip( r ),
+                        phone( r ), name + "@itrust2.example.com", hcp ? "General Practice" : "Laboratory" );
+            }
+            ref.hospitals = new String[HOSPITALS];
+            for ( int i = 0; i < HOSPITALS; i++ ) {
+                ref.hospitals[i] = "Synthetic Hospital " + i;
+                hospitals.add( ref.hospitals[i], r.nextInt( 9000 ) + 100 + " Hospital Dr", State.NC.name(), zip( r ) );
+            }
+            ref.drugs = new long[DRUGS];
+            for ( int i = 0; i < DRUGS; i++ ) {
+                ref.drugs[i] = id;
+                drugs.add( id++, String.format( "%04d-%04d-%02d", 9000 + i / 100, i, i % 100 ), "Synthetic Drug " + i,
+                        "Generated for load testing" );
+            }
+            ref.icdCodes = new long[ICD_CODES];
+            for ( int i = 0; i < ICD_CODES; i++ ) {
+                ref.icdCodes[i] = id;
+                icd.add( id++, String.format( "Y%02d.%d", i % 100, i / 100 ), "Synthetic diagnosis " + i );
+            }
+            ref.loincCodes = new long[LOINC_CODES];
+            for ( int i = 0; i < LOINC_CODES; i++ ) {
+                ref.loincCodes[i] = id;
+                loinc.add( id++, String.format( "9%04d-%d", i, i % 10 ), "Synthetic test " + i, "Component " + i,
+                        "Property " + i );
+            }
+
+            // Parents before the rows that refer to them
+            for ( final Inserter batch : Arrays.asList( users, personnel, hospitals, drugs, icd, loinc ) ) {
+                batch.execute();
+            }
+            conn.commit();
+        }
+        return ref;
+    }
+
+    /**
+     * Reserves a block of IDs from the sequence Hibernate hands out IDs from,
+     * so that rows written here and rows saved later through Hibernate do not
+     * collide
+     *
+     * @param count
+     *            Number of IDs
+     * @return The first ID of the block
+     */
+    private static long reserveIds ( final long count ) throws SQLException {
+        try ( Connection conn = DBUtil.getConnection() ) {
+            conn.setAutoCommit( false );
+            final long first;
+            try ( PreparedStatement select = conn
+                    .prepareStatement( "SELECT next_val FROM hibernate_sequence FOR UPDATE" );
+                    ResultSet rs = select.executeQuery() ) {
+                rs.next();
+                first = rs.getLong( 1 );
+            }
+            try ( PreparedStatement update = conn.prepareStatement( "UPDATE hibernate_sequence SET next_val = ?" ) ) {
+                update.setLong( 1, first + count );
+                update.executeUpdate();
+            }
+            conn.commit();
+            return first;
+        }
+    }
+
+    /**
+     * Writes one chunk of patients and all of their records
+     */
+    private class PatientChunk implements Callable<Void> {
+        private final Reference ref;
+        private final int       first;
+        private final int       count;
+        private final long      firstId;
+        private final long      chunk;
+
+        PatientChunk ( final Reference ref, final int first, final int count, final long firstId, final long chunk ) {
+            this.ref = ref;
+            this.first = first;
+            this.count = count;
+            this.firstId = firstId;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public Void call () throws SQLException {
+            final Random r = new Random( seed * 1000003 + chunk );
+            final ZonedDateTime now = ZonedDateTime.now().withNano( 0 );
+            final LocalDate today = now.toLocalDate();
+            long id = firstId;
+            try ( Connection conn = DBUtil.getConnection() ) {
+                conn.setAutoCommit( false );
+                final Inserter users = new Inserter( conn, "Users", "username", "password", "enabled", "role" );
+                final Inserter patientRows = new Inserter( conn, "Patients", "self_id", "firstName", "lastName",
+                        "email", "address1", "city", "state", "zip", "phone", "dateOfBirth", "gender", "bloodType",
+                        "ethnicity" );
+                final Inserter metrics = new Inserter( conn, "BasicHealthMetrics", "id", "height", "weight",
+                        "systolic", "diastolic", "hdl", "ldl", "tri", "houseSmokingStatus", "patientSmokingStatus",
+                        "patient_id", "hcp_id" );
+                final Inserter visits = new Inserter( conn, "OfficeVisits", "id", "patient_id", "hcp_id",
+                        "basichealthmetrics_id", "date", "type", "hospital_id", "notes" );
+                final Inserter checkups = new Inserter( conn, "GeneralCheckups", "id" );
+                final Inserter diagnoses = new Inserter( conn, "Diagnoses", "id", "visit_id", "note", "code_id" );
+                final Inserter prescriptions = new Inserter( conn, "Prescriptions", "id", "drug_id", "dosage",
+                        "startDate", "endDate", "renewals", "patient_id", "prescriptions_id" );
+                final Inserter procedures = new Inserter( conn, "LabProcedures", "id", "LOINC_code", "priority",
+                        "comments", "status", "labtech", "visit", "patient" );
+                final Inserter food = new Inserter( conn, "FoodDiaryEntry", "id", "date", "mealType", "food",
+                        "servings", "calories", "fat", "sodium", "carbs", "sugars", "fiber", "protein", "patientId" );
+                // Parents before the rows that refer to them
+                final List<Inserter> all = Arrays.asList( users, patientRows, metrics, visits, checkups, diagnoses,
+                        prescriptions, procedures, food );
+
+                for ( int p = first; p < first + count; p++ ) {
+                    final String name = patientName( p );
+                    users.add( name, PASSWORD, 1, Role.ROLE_PATIENT.name() );
+                    patientRows.add( name, pick( r, FIRST_NAMES ), pick( r, LAST_NAMES ), name + "@itrust2.example.com",
+                            r.nextInt( 9000 ) + 100 + " Oak Ave", pick( r, CITIES ), State.NC.name(), zip( r ),
+                            phone( r ), date( today.minusDays( 365 * 18 + r.nextInt( 365 * 72 ) ) ),
+                            pick( r, Gender.values() ).name(), pick( r, BloodType.values() ).name(),
+                            pick( r, Ethnicity.values() ).name() );
+
+                    final int visitCount = Math.min( cap( visitsPerPatient * 2 ), visits( r ) );
+                    for ( int v = 0; v < visitCount; v++ ) {
+                        final String hcp = hcpName( r.nextInt( hcps ) );
+                        final ZonedDateTime when = now.minusSeconds( (long) ( r.nextDouble() * years * 365 * 86400 ) );
+                        final long bhm = id++;
+                        metrics.add( bhm, 60f + r.nextInt( 20 ), 100f + r.nextInt( 150 ), 100 + r.nextInt( 60 ),
+                                60 + r.nextInt( 40 ), 30 + r.nextInt( 60 ), 60 + r.nextInt( 140 ),
+                                100 + r.nextInt( 300 ),
+                                pick( r, HouseholdSmokingStatus.values() ).ordinal(),
+                                pick( r, PatientSmokingStatus.values() ).ordinal(), name, hcp );
+                        final long visit = id++;
+                        visits.add( visit, name, hcp, bhm, Timestamp.from( when.toInstant() ),
+                                AppointmentType.GENERAL_CHECKUP.name(), pick( r, ref.hospitals ), "Routine checkup" );
+                        checkups.add( visit );
+
+                        final int dx = Math.min( cap( diagnosesPerVisit ), poisson( r, diagnosesPerVisit ) );
+                        for ( int d = 0; d < dx; d++ ) {
+                            diagnoses.add( id++, visit, "Synthetic diagnosis note",
+                                    ref.icdCodes[r.nextInt( ICD_CODES )] );
+                        }
+                        final int rx = Math.min( cap( prescriptionsPerVisit ), poisson( r, prescriptionsPerVisit ) );
+                        for ( int d = 0; d < rx; d++ ) {
+                            final LocalDate start = when.toLocalDate();
+                            prescriptions.add( id++, ref.drugs[r.nextInt( DRUGS )], 10 * ( 1 + r.nextInt( 50 ) ),
+                                    date( start ), date( start.plusDays( 7 + r.nextInt( 180 ) ) ), r.nextInt( 4 ), name,
+                                    visit );
+                        }
+                        final int labs = Math.min( cap( labProceduresPerVisit ), poisson( r, labProceduresPerVisit ) );
+                        for ( int d = 0; d < labs; d++ ) {
+                            procedures.add( id++, ref.loincCodes[r.nextInt( LOINC_CODES )],
+                                    pick( r, Priority.values() ).name(), "Synthetic lab procedure",
+                                    pick( r, LabStatus.values() ).name(), labtechName( r.nextInt( labtechs ) ), visit,
+                                    name );
+                        }
+                    }
+
+                    for ( int f = 0; f < foodEntriesPerPatient; f++ ) {
+                        food.add( id++, date( today.minusDays( r.nextInt( 365 * years ) ) ),
+                                pick( r, MealType.values() ).name(), pick( r, FOODS ), 1 + r.nextInt( 3 ),
+                                50 + r.nextInt( 900 ), r.nextInt( 40 ), r.nextInt( 2000 ), r.nextInt( 100 ),
+                                r.nextInt( 50 ), r.nextInt( 15 ), r.nextInt( 50 ), nameId( name ) );
+                    }
+
+                    if ( users.pending() + visits.pending() + food.pending() >= batchSize ) {
+                        flush( conn, all );
+                    }
+                }
+                flush( conn, all );
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Writes one chunk of log entries
+     */
+    private class LogChunk implements Callable<Void> {
+        private final int  count;
+        private final long firstId;
+        private final long chunk;
+
+        LogChunk ( final int count, final long firstId, final long chunk ) {
+            this.count = count;
+            this.firstId = firstId;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public Void call () throws SQLException {
+            final Random r = new Random( ~seed * 1000003 + chunk );
+            final TransactionType[] codes = TransactionType.values();
+            final long now = System.currentTimeMillis() / 1000 * 1000;
+            final long span = years * 365L * 86400 * 1000;
+            try ( Connection conn = DBUtil.getConnection() ) {
+                conn.setAutoCommit( false );
+                final Inserter logs = new Inserter( conn, "LogEntries", "id", "logCode", "primaryUserId", "time",
+                        "secondaryUserId", "message" );
+                final List<Inserter> all = Collections.singletonList( logs );
+                for ( int i = 0; i < count; i++ ) {
+                    // Most entries are a patient's own actions or an HCP
+                    // looking at a patient
+                    final String patient = patients > 0 ? patientName( r.nextInt( patients ) ) : null;
+                    final String hcp = hcpName( r.nextInt( hcps ) );
+                    final boolean byHcp = null == patient || r.nextInt( 10 ) < 4;
+                    logs.add( firstId + i, pick( r, codes ).getCode(), nameId( byHcp ? hcp : patient ),
+                            new Timestamp( now - (long) ( r.nextDouble() * span ) ),
+                            nameId( byHcp ? patient : null ), null );
+                    if ( logs.pending() >= batchSize ) {
+                        flush( conn, all );
+                    }
+                }
+                flush( conn, all );
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Sends every pending row, in order, and commits
+     */
+    private static void flush ( final Connection conn, final List<Inserter> batches ) throws SQLException {
+        for ( final Inserter batch : batches ) {
+            batch.execute();
+        }
+        conn.commit();
+    }
+
+    /**
+     * A batched INSERT into one table
+     */
+    private static class Inserter {
+        private final PreparedStatement statement;
+        private int                     pending;
+
+        Inserter ( final Connection conn, final String table, final String... columns ) throws SQLException {
+            final StringBuilder sql = new StringBuilder( "INSERT INTO " ).append( table ).append( " (" )
+                    .append( String.join( ", ", columns ) ).append( ") VALUES (" );
+            for ( int i = 0; i < columns.length; i++ ) {
+                sql.append( i == 0 ? "?" : ", ?" );
+            }
+            statement = conn.prepareStatement( sql.append( ")" ).toString() );
+        }
+
+        void add ( final Object... values ) throws SQLException {
+            for ( int i = 0; i < values.length; i++ ) {
+                statement.setObject( i + 1, values[i] );
+            }
+            statement.addBatch();
+            pending++;
+        }
+
+        int pending () {
+            return pending;
+        }
+
+        void execute () throws SQLException {
+            if ( pending > 0 ) {
+                statement.executeBatch();
+                pending = 0;
+            }
+        }
+    }
+
+    /**
+     * What the patients' records refer to
+     */
+    private static class Reference {
+        private String[] hospitals;
+        private long[]   drugs;
+        private long[]   icdCodes;
+        private long[]   loincCodes;
+    }
+
+    /**
+     * Number of visits for one patient: geometric, so most patients have a
+     * few and some have many. Everyone has at least one if the average is at
+     * least one.
+     */
+    private int visits ( final Random r ) {
+        final double extra = visitsPerPatient >= 1 ? visitsPerPatient - 1 : visitsPerPatient;
+        final int base = visitsPerPatient >= 1 ? 1 : 0;
+        if ( extra <= 0 ) {
+            return base;
+        }
+        final double p = 1 / ( 1 + extra );
+        return base + (int) ( Math.log( 1 - r.nextDouble() ) / Math.log( 1 - p ) );
+    }
+
+    /**
+     * A Poisson-distributed count with the given mean
+     */
+    private static int poisson ( final Random r, final double mean ) {
+        if ( mean <= 0 ) {
+            return 0;
+        }
+        if ( mean > 30 ) {
+            return (int) Math.max( 0, Math.round( mean + Math.sqrt( mean ) * r.nextGaussian() ) );
+        }
+        final double limit = Math.exp( -mean );
+        int k = 0;
+        double prod = r.nextDouble();
+        while ( prod > limit ) {
+            k++;
+            prod *= r.nextDouble();
+        }
+        return k;
+    }
+
+    /**
+     * Most of something with the given average that a single patient or visit
+     * may have, which bounds the IDs a chunk can use
+     */
+    private static int cap ( final double mean ) {
+        return (int) Math.ceil( mean * 4 ) + 4;
+    }
+
+    private static <T> T pick ( final Random r, final T[] values ) {
+        return values[r.nextInt( values.length )];
+    }
+
+    private static String zip ( final Random r ) {
+        return String.format( "27%03d", r.nextInt( 1000 ) );
+    }
+
+    private static String phone ( final Random r ) {
+        return String.format( "919-%03d-%04d", r.nextInt( 1000 ), r.nextInt( 10000 ) );
+    }
+
+    /**
+     * A date as the LocalDateConverter on the entities stores it
+     */
+    private static Timestamp date ( final LocalDate date ) {
+        return Timestamp.valueOf( date.atStartOfDay() );
+    }
+
+}